@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Minimal JMH-style harness: warmup and measurement iterations of a fixed duration,
+// average time per op with a 99.9% confidence interval, allocation and GC counters
+// like JMH's -prof gc, and results written as JMH-compatible JSON.
+//
+//   javac -encoding UTF-8 -d out src/*.java
+//   javac -encoding UTF-8 -cp out -d out bench/*.java
+//   java -Djava.awt.headless=true -Xmx4g -cp out BenchRunner [options]
+//
+// Options: -o FILE, -b REGEX, -langs kiss,basic,nasm,brainfuck, -sizes 1k,1m,50m,
+//          -wi N, -i N, -r MILLIS, -maxDoc SIZE (document-backed benchmarks skip larger corpora)
+public class BenchRunner {
+    // One benchmark invocation; prepare() runs untimed before every run()
+    public interface BenchOp extends AutoCloseable {
+        default void prepare() throws Exception { }
+
+        void run() throws Exception;
+
+        // Narrowed from AutoCloseable so try-with-resources does not need to handle Exception
+        @Override
+        default void close() { }
+    }
+
+    private static final String[] LANGUAGES = { "kiss", "basic", "nasm", "brainfuck" };
+
+    private int warmupIterations = 2;
+    private int measurementIterations = 5;
+    private long iterationMillis = 1000;
+    private int maxDocumentSize = parseSize("1m");
+
+    public static void main(String[] args) throws Exception {
+        BenchRunner runner = new BenchRunner();
+        Path output = Paths.get("bench-results.json");
+        Pattern filter = Pattern.compile(".*");
+        String[] languages = LANGUAGES;
+        String[] sizes = { "1k", "1m", "50m" };
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o": output = Paths.get(args[++i]); break;
+                case "-b": filter = Pattern.compile(args[++i]); break;
+                case "-langs": languages = args[++i].split(","); break;
+                case "-sizes": sizes = args[++i].split(","); break;
+                case "-wi": runner.warmupIterations = Integer.parseInt(args[++i]); break;
+                case "-i": runner.measurementIterations = Integer.parseInt(args[++i]); break;
+                case "-r": runner.iterationMillis = Long.parseLong(args[++i]); break;
+                case "-maxDoc": runner.maxDocumentSize = parseSize(args[++i]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<String> results = new ArrayList<>();
+        for (String size : sizes) {
+            int bytes = parseSize(size);
+            for (String language : languages) {
+                String text = Corpus.generate(language, bytes);
+                for (String name : Benchmarks.NAMES) {
+                    if (!filter.matcher(name).find()) continue;
+                    if (Benchmarks.isDocumentBacked(name) && bytes > runner.maxDocumentSize) {
+                        System.out.printf("%-22s %-10s %7s  skipped (-maxDoc)%n", name, language, size);
+                        continue;
+                    }
+                    results.add(runner.measure(name, language, "size", size, text));
+                }
+            }
+        }
+        for (String name : Benchmarks.ENGINE_NAMES) {
+            if (filter.matcher(name).find()) {
+                String language = Benchmarks.engineLanguage(name);
+                if (language.equals("basic")) {
+                    results.add(runner.measure(name, language, "program", "sieve", Corpus.BASIC_SIEVE));
+                } else {
+                    results.add(runner.measure(name, language, "program", "squares", Corpus.BRAINFUCK_SQUARES));
+                }
+            }
+        }
+
+        try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("[\n");
+            writer.write(String.join(",\n", results));
+            writer.write("\n]\n");
+        }
+        System.out.println("Results: " + output.toAbsolutePath());
+        System.exit(0);
+    }
+
+    private String measure(String name, String language, String param, String value, String text) throws Exception {
+        double[] msPerOp = new double[measurementIterations];
+        long ops = 0;
+        long nanos = 0;
+        long allocated;
+        long gcCount;
+        long gcMillis;
+
+        try (BenchOp op = Benchmarks.create(name, language, text)) {
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(op);
+            }
+            System.gc();
+            Map<Long, Long> allocBefore = allocatedBytes();
+            long gcCountBefore = gcCount();
+            long gcMillisBefore = gcMillis();
+            for (int i = 0; i < measurementIterations; i++) {
+                long[] result = iteration(op);
+                msPerOp[i] = result[1] / 1e6 / result[0];
+                ops += result[0];
+                nanos += result[1];
+            }
+            allocated = allocatedSince(allocBefore);
+            gcCount = gcCount() - gcCountBefore;
+            gcMillis = gcMillis() - gcMillisBefore;
+        }
+
+        double score = mean(msPerOp);
+        double error = confidence(msPerOp);
+        double seconds = nanos / 1e9;
+        double allocRate = allocated / 1048576.0 / seconds;
+        double allocPerOp = (double) allocated / ops;
+        double throughput = (double) text.length() * ops / 1048576.0 / seconds;
+        System.out.printf(Locale.ROOT, "%-22s %-10s %7s  %12.4f ± %.4f ms/op  %9.1f MB/s  %12.0f B/op%n",
+                name, language, value, score, error, throughput, allocPerOp);
+
+        StringBuilder json = new StringBuilder();
+        json.append("  {\n")
+                .append("    \"benchmark\": \"").append(name).append("\",\n")
+                .append("    \"mode\": \"avgt\",\n")
+                .append("    \"threads\": 1,\n")
+                .append("    \"warmupIterations\": ").append(warmupIterations).append(",\n")
+                .append("    \"measurementIterations\": ").append(measurementIterations).append(",\n")
+                .append("    \"measurementTime\": \"").append(iterationMillis).append(" ms\",\n")
+                .append("    \"params\": { \"language\": \"").append(language)
+                .append("\", \"").append(param).append("\": \"").append(value).append("\" },\n")
+                .append("    \"primaryMetric\": {\n")
+                .append("      \"score\": ").append(number(score)).append(",\n")
+                .append("      \"scoreError\": ").append(number(error)).append(",\n")
+                .append("      \"scoreUnit\": \"ms/op\",\n")
+                .append("      \"rawData\": [[");
+        for (int i = 0; i < msPerOp.length; i++) {
+            if (i > 0) json.append(", ");
+            json.append(number(msPerOp[i]));
+        }
+        json.append("]]\n    },\n")
+                .append("    \"secondaryMetrics\": {\n")
+                .append(metric("·gc.alloc.rate", allocRate, "MB/sec")).append(",\n")
+                .append(metric("·gc.alloc.rate.norm", allocPerOp, "B/op")).append(",\n")
+                .append(metric("·gc.count", gcCount, "counts")).append(",\n")
+                .append(metric("·gc.time", gcMillis, "ms")).append(",\n")
+                .append(metric("throughput", throughput, "MB/sec")).append("\n")
+                .append("    }\n  }");
+        return json.toString();
+    }
+
+    // Returns { ops, nanos }; always runs at least one op
+    private long[] iteration(BenchOp op) throws Exception {
+        long ops = 0;
+        long nanos = 0;
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        do {
+            op.prepare();
+            long start = System.nanoTime();
+            op.run();
+            nanos += System.nanoTime() - start;
+            ops++;
+        } while (System.nanoTime() < deadline);
+        return new long[] { ops, nanos };
+    }
+
+    // Per-thread allocation counters of all live threads, since loaders and savers run on SwingWorker threads
+    private static Map<Long, Long> allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> counters = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) counters.put(ids[i], bytes[i]);
+        }
+        return counters;
+    }
+
+    // Sum of per-thread deltas, so a thread that dies in between (the EDT shuts itself down
+    // after a second idle) no longer takes its whole count out of the total; only what it
+    // allocated after the first snapshot is lost, as is a thread that lives entirely inside
+    private static long allocatedSince(Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : allocatedBytes().entrySet()) {
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) sum += value;
+        return sum / values.length;
+    }
+
+    // Half-width of the 99.9% Student-t confidence interval, as JMH reports it
+    private static double confidence(double[] values) {
+        int n = values.length;
+        if (n < 2) return Double.NaN;
+        double mean = mean(values);
+        double squares = 0;
+        for (double value : values) squares += (value - mean) * (value - mean);
+        double deviation = Math.sqrt(squares / (n - 1));
+        return studentT999(n - 1) * deviation / Math.sqrt(n);
+    }
+
+    private static double studentT999(int degrees) {
+        double[] table = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };
+        if (degrees <= table.length) return table[degrees - 1];
+        if (degrees <= 20) return 4.59 - (degrees - 10) * 0.074;
+        if (degrees <= 30) return 3.85 - (degrees - 20) * 0.020;
+        return 3.29 + 10.8 / degrees;
+    }
+
+    private static String metric(String name, double score, String unit) {
+        return "      \"" + name + "\": { \"score\": " + number(score) + ", \"scoreUnit\": \"" + unit + "\" }";
+    }
+
+    private static String number(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.6f", value) : "\"NaN\"";
+    }
+
+    static int parseSize(String size) {
+        String lower = size.toLowerCase(Locale.ROOT);
+        int multiplier = 1;
+        if (lower.endsWith("k")) multiplier = 1024;
+        if (lower.endsWith("m")) multiplier = 1024 * 1024;
+        if (multiplier > 1) lower = lower.substring(0, lower.length() - 1);
+        return Integer.parseInt(lower) * multiplier;
+    }
+}
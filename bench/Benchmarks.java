@@ -0,0 +1,285 @@
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The benchmark bodies. Each factory builds its fixture outside the measurement;
+// only BenchOp.run() is timed.
+public class Benchmarks {
+    public static final String[] NAMES = {
+            "lex.fullPass", "highlight.fullPass", "highlight.singleEdit", "io.load", "io.save", "gutter.paint"
+    };
+
+    // Interpreter benchmarks; these run once on a fixed program instead of each corpus
+    public static final String[] ENGINE_NAMES = {
+            "bf.naive", "bf.compiled", "basic.interpreted", "basic.bytecode", "basic.jvm"
+    };
+
+    public static String engineLanguage(String name) {
+        return name.startsWith("bf.") ? "brainfuck" : "basic";
+    }
+
+    // Benchmarks that keep the whole corpus in a styled document or text view
+    public static boolean isDocumentBacked(String name) {
+        return name.startsWith("highlight.") || name.startsWith("gutter.");
+    }
+
+    public static BenchRunner.BenchOp create(String name, String language, String text) throws Exception {
+        switch (name) {
+            case "lex.fullPass":
+                return lexFullPass(language, text);
+            case "highlight.fullPass":
+                return highlightFullPass(language, text);
+            case "highlight.singleEdit":
+                return highlightSingleEdit(language, text);
+            case "io.load":
+                return load(language, text);
+            case "io.save":
+                return save(language, text);
+            case "gutter.paint":
+                return gutterPaint(text);
+            case "bf.naive":
+                return () -> BrainfuckEngine.runNaive(text, "", output -> { });
+            case "bf.compiled":
+                return () -> BrainfuckEngine.run(BrainfuckEngine.compile(text, false), "", output -> { },
+                        Long.MAX_VALUE, () -> false);
+            case "basic.interpreted":
+            case "basic.bytecode":
+            case "basic.jvm": {
+                BasicEngine.Program program = BasicEngine.compile(text);
+                BasicEngine.Tier tier = BasicEngine.Tier.valueOf(name.substring("basic.".length()).toUpperCase(Locale.ROOT));
+                return () -> BasicEngine.run(program, tier, () -> null, output -> { }, Long.MAX_VALUE, () -> false);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown benchmark " + name);
+        }
+    }
+
+    private static BenchRunner.BenchOp lexFullPass(String language, String text) {
+        LineLexer lexer = LanguageRegistry.forName(language).getLexer();
+        StyleRuns runs = new StyleRuns();
+        return () -> {
+            int state = 0;
+            for (int start = 0; start <= text.length(); ) {
+                int end = lineEnd(text, start);
+                runs.clear();
+                state = lexer.lexLine(text, start, end, state, runs);
+                start = end + 1;
+            }
+        };
+    }
+
+    private static BenchRunner.BenchOp highlightFullPass(String language, String text) throws Exception {
+        LineLexer lexer = LanguageRegistry.forName(language).getLexer();
+        HighlightDocument doc = new HighlightDocument();
+        doc.insertString(0, text, null);
+        AttributeSet[] styles = styles();
+        StyleRuns runs = new StyleRuns();
+        StyleRuns none = new StyleRuns();
+        int[] whole = { 0, doc.getLength() };
+        return new BenchRunner.BenchOp() {
+            @Override
+            public void prepare() {
+                doc.applyStyleRuns(whole, none, styles);
+            }
+
+            @Override
+            public void run() {
+                runs.clear();
+                int state = 0;
+                for (int start = 0; start <= text.length(); ) {
+                    int end = lineEnd(text, start);
+                    state = lexer.lexLine(text, start, end, state, runs);
+                    start = end + 1;
+                }
+                doc.applyStyleRuns(whole, runs, styles);
+            }
+        };
+    }
+
+    // Types one character in the middle of the document and re-lexes only the dirty lines
+    private static BenchRunner.BenchOp highlightSingleEdit(String language, String text) throws Exception {
+        Language lang = LanguageRegistry.forName(language);
+        HighlightDocument doc = new HighlightDocument();
+        doc.insertString(0, text, null);
+        LineStateCache cache = new LineStateCache();
+        doc.addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { cache.documentChanged(e); }
+            public void removeUpdate(DocumentEvent e) { cache.documentChanged(e); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+        cache.reset(doc, lang);
+        AttributeSet[] styles = styles();
+        rehighlightDirty(doc, cache, lang, styles);
+
+        Element root = doc.getDefaultRootElement();
+        int offset = root.getElement(root.getElementCount() / 2).getStartOffset();
+        return new BenchRunner.BenchOp() {
+            private boolean inserted;
+
+            @Override
+            public void prepare() throws BadLocationException {
+                if (inserted) {
+                    doc.remove(offset, 1);
+                    rehighlightDirty(doc, cache, lang, styles);
+                    inserted = false;
+                }
+            }
+
+            @Override
+            public void run() throws BadLocationException {
+                doc.insertString(offset, "1", null);
+                inserted = true;
+                rehighlightDirty(doc, cache, lang, styles);
+            }
+        };
+    }
+
+    // End-to-end open as the editor does it, EDT appends included. SwingWorker delivers
+    // publish() batches on a ~30 ms coalescing timer, so small corpora measure that
+    // latency floor rather than decoding; only the larger sizes reflect file I/O.
+    private static BenchRunner.BenchOp load(String language, String text) throws Exception {
+        File file = Corpus.write(text, Corpus.extension(language)).toFile();
+        return () -> {
+            HighlightDocument doc = new HighlightDocument();
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            new FileLoader(file, StandardCharsets.UTF_8, chunk -> {
+                try {
+                    doc.insertString(doc.getLength(), chunk, null);
+                } catch (BadLocationException e) {
+                    failure.set(e);
+                }
+            }, error -> {
+                failure.compareAndSet(null, error);
+                done.countDown();
+            }).execute();
+            done.await();
+            if (failure.get() != null) throw failure.get();
+        };
+    }
+
+    private static BenchRunner.BenchOp save(String language, String text) throws Exception {
+        HighlightDocument doc = new HighlightDocument();
+        doc.insertString(0, text, null);
+        Path target = Corpus.write("", Corpus.extension(language));
+        return new BenchRunner.BenchOp() {
+            @Override
+            public void run() throws Exception {
+                CountDownLatch done = new CountDownLatch(1);
+                AtomicReference<Exception> failure = new AtomicReference<>();
+                new FileSaver(doc.snapshot(), doc.getLength(), target.toFile(), StandardCharsets.UTF_8, "\n", error -> {
+                    failure.set(error);
+                    done.countDown();
+                }).execute();
+                done.await();
+                if (failure.get() != null) throw failure.get();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    // Paints one viewport of the gutter per op, scrolling a page each time
+    private static BenchRunner.BenchOp gutterPaint(String text) throws Exception {
+        int width = 800;
+        int viewport = 600;
+        AtomicReference<JTextPane> paneRef = new AtomicReference<>();
+        AtomicReference<LineNumberView> gutterRef = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> {
+            JTextPane pane = new JTextPane(new HighlightDocument());
+            pane.setText(text);
+            pane.setSize(width, Short.MAX_VALUE);
+            Dimension preferred = pane.getPreferredSize();
+            pane.setSize(width, preferred.height);
+            LineNumberView gutter = new LineNumberView(pane);
+            gutter.setSize(gutter.getPreferredSize().width, preferred.height);
+            paneRef.set(pane);
+            gutterRef.set(gutter);
+        });
+        JTextPane pane = paneRef.get();
+        LineNumberView gutter = gutterRef.get();
+        BufferedImage image = new BufferedImage(gutter.getWidth(), viewport, BufferedImage.TYPE_INT_ARGB);
+        return new BenchRunner.BenchOp() {
+            private int y;
+
+            @Override
+            public void run() throws Exception {
+                SwingUtilities.invokeAndWait(() -> {
+                    Graphics2D g = image.createGraphics();
+                    g.translate(0, -y);
+                    g.setClip(0, y, gutter.getWidth(), viewport);
+                    gutter.paint(g);
+                    g.dispose();
+                });
+                y += viewport;
+                if (y + viewport > pane.getHeight()) y = 0;
+            }
+        };
+    }
+
+    // Re-lexes dirty lines like SyntaxHighlighter does, applying each contiguous run of lines as one range
+    private static void rehighlightDirty(HighlightDocument doc, LineStateCache cache, Language language,
+                                         AttributeSet[] styles) {
+        CharSequence text = doc.snapshot().view();
+        Element root = doc.getDefaultRootElement();
+        LineBitSet dirty = cache.getDirtyLines();
+        StyleRuns runs = new StyleRuns();
+        int[] ranges = new int[8];
+        int count = 0;
+        int previous = -2;
+        for (int line = dirty.nextSetBit(0); line >= 0; line = dirty.nextSetBit(line + 1)) {
+            Element lineElem = root.getElement(line);
+            int start = lineElem.getStartOffset();
+            int end = lineElem.getEndOffset() - 1;
+            int state = language.getLexer().lexLine(text, start, end, cache.getEntryState(line), runs);
+            if (cache.setExitState(line, state) && line + 1 < cache.getLineCount()) dirty.set(line + 1);
+            if (line == previous + 1) {
+                ranges[count - 1] = end;
+            } else {
+                if (count == ranges.length) ranges = Arrays.copyOf(ranges, count * 2);
+                ranges[count++] = start;
+                ranges[count++] = end;
+            }
+            previous = line;
+        }
+        if (count > 0) doc.applyStyleRuns(Arrays.copyOf(ranges, count), runs, styles);
+    }
+
+    private static AttributeSet[] styles() {
+        SyntaxHighlighter highlighter = new SyntaxHighlighter();
+        AttributeSet[] styles = new AttributeSet[SyntaxHighlighter.STYLE_KEYWORD + 1];
+        for (int i = 0; i < styles.length; i++) {
+            styles[i] = highlighter.getStyle(i);
+        }
+        return styles;
+    }
+
+    private static int lineEnd(String text, int start) {
+        int end = text.indexOf('\n', start);
+        return end < 0 ? text.length() : end;
+    }
+}
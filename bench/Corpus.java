@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Deterministic source text for each language, grown line by line to a target size.
+// The same seed always yields the same corpus, so runs are comparable over time.
+public class Corpus {
+    private static final long SEED = 0x4A53434EL;
+
+    private static final String[] KISS_COMMANDS = EditorConstants.COMMANDS;
+    private static final String[] BASIC_WORDS = { "PRINT", "LET", "IF", "THEN", "GOTO", "GOSUB", "FOR", "NEXT" };
+    private static final String[] NASM_OPS = { "mov", "add", "sub", "cmp", "jne", "push", "pop", "call", "xor" };
+    private static final String[] NASM_REGS = { "eax", "ebx", "ecx", "edx", "esi", "edi" };
+
+    // Prints the squares from 0 to 10000; loop-heavy with clear and multiply idioms
+    public static final String BRAINFUCK_SQUARES = "++++[>+++++<-]>[<+++++>-]+<+[>[>+>+<<-]++>>[<<+>>-]>>>[-]++>[-]+>>>+"
+            + "[[-]++++++>>>]<<<[[<++++++++<++>>-]+<.<[>----<-]<]<<[>>>>>[>>>[-]+++++++++<[>-<-]+++++++++>"
+            + "[-[<->-]+[<<<]]<[>+<-]>]<<-]<<-]";
+
+    // Sieve of Eratosthenes up to 200000 plus a digit-sum loop; DIM, FOR, IF and GOSUB heavy
+    public static final String BASIC_SIEVE = String.join("\n",
+            "N = 200000",
+            "DIM P(N)",
+            "FOR I = 2 TO SQR(N)",
+            "  IF P(I) = 0 THEN FOR J = I * I TO N STEP I: P(J) = 1: NEXT J",
+            "NEXT I",
+            "C = 0: S = 0",
+            "FOR I = 2 TO N",
+            "  IF P(I) = 0 THEN C = C + 1: X = I: GOSUB 100",
+            "NEXT I",
+            "PRINT C; S",
+            "END",
+            "100 WHILE X > 0",
+            "  S = S + X MOD 10: X = INT(X / 10)",
+            "WEND",
+            "RETURN");
+
+    public static String generate(String language, int size) {
+        Random random = new Random(SEED ^ language.hashCode() ^ size);
+        StringBuilder text = new StringBuilder(size + 128);
+        int line = 0;
+        while (text.length() < size) {
+            switch (language) {
+                case "basic":
+                    basicLine(text, random, ++line);
+                    break;
+                case "nasm":
+                    nasmLine(text, random, ++line);
+                    break;
+                case "brainfuck":
+                    brainfuckLine(text, random);
+                    break;
+                default:
+                    kissLine(text, random, ++line);
+            }
+            text.append('\n');
+        }
+        text.setLength(size);
+        return text.toString();
+    }
+
+    public static Path write(String text, String suffix) throws IOException {
+        Path file = Files.createTempFile("jscn-bench", suffix);
+        file.toFile().deleteOnExit();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    public static String extension(String language) {
+        switch (language) {
+            case "basic": return ".bas";
+            case "nasm": return ".asm";
+            case "brainfuck": return ".bf";
+            default: return ".kiss";
+        }
+    }
+
+    private static void kissLine(StringBuilder text, Random random, int line) {
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            text.append("# step ").append(line);
+        } else if (kind == 1) {
+            text.append(":label").append(line);
+        } else if (kind == 2) {
+            text.append("#include lib").append(random.nextInt(10)).append(".kiss");
+        } else {
+            text.append(KISS_COMMANDS[random.nextInt(KISS_COMMANDS.length)]).append(' ').append(random.nextInt(200) - 50);
+            if (random.nextBoolean()) text.append(" '").append((char) ('a' + random.nextInt(26))).append('\'');
+        }
+    }
+
+    private static void basicLine(StringBuilder text, Random random, int line) {
+        text.append(line * 10).append(' ');
+        int kind = random.nextInt(8);
+        if (kind == 0) {
+            text.append("REM comment for line ").append(line);
+        } else if (kind == 1) {
+            text.append("PRINT \"value: \"; X").append(random.nextInt(9));
+        } else {
+            text.append(BASIC_WORDS[random.nextInt(BASIC_WORDS.length)]).append(" X").append(random.nextInt(9))
+                    .append(" = ").append(random.nextInt(1000)).append('.').append(random.nextInt(10));
+        }
+    }
+
+    private static void nasmLine(StringBuilder text, Random random, int line) {
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            text.append("label").append(line).append(':');
+        } else if (kind == 1) {
+            text.append("    db \"message ").append(line).append("\", 0");
+        } else {
+            text.append("    ").append(NASM_OPS[random.nextInt(NASM_OPS.length)]).append(' ')
+                    .append(NASM_REGS[random.nextInt(NASM_REGS.length)]).append(", 0x")
+                    .append(Integer.toHexString(random.nextInt(4096)));
+            if (random.nextInt(3) == 0) text.append(" ; note ").append(line);
+        }
+    }
+
+    private static void brainfuckLine(StringBuilder text, Random random) {
+        String commands = EditorConstants.BRAINFUCK_COMMANDS;
+        int length = 20 + random.nextInt(60);
+        for (int i = 0; i < length; i++) {
+            text.append(random.nextInt(8) == 0 ? ' ' : commands.charAt(random.nextInt(commands.length())));
+        }
+    }
+}
@@ -0,0 +1,987 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles a parsed BASIC program into one static method of a hidden class, so HotSpot
+// JIT-compiles it like any other Java code. Scalars live in JVM locals (numbers as
+// unboxed doubles), GOTO/IF become plain branches, RETURN is a tableswitch over the
+// GOSUB return sites. Class files are version 49, which needs no stack map frames.
+// Signature: static int run(BasicEngine.Machine m, long stepLimit), returning a Status ordinal.
+final class BasicCodegen {
+    // HotSpot never JIT-compiles methods above 8000 bytes of bytecode; those run on the register VM
+    private static final int MAX_CODE = 8000;
+
+    private static final String MACHINE = "BasicEngine$Machine";
+    private static final String ENGINE = "BasicEngine";
+    private static final String ERROR = "BasicEngine$BasicError";
+
+    // Fixed locals; variables follow from FIRST_VARIABLE
+    private static final int L_MACHINE = 0;
+    private static final int L_LIMIT = 1;
+    private static final int L_STEPS = 3;
+    private static final int L_NEXT_CHECK = 5;
+    private static final int L_LINE = 7;
+    private static final int L_STATUS = 8;
+    private static final int L_ERROR = 9;
+    private static final int FIRST_VARIABLE = 10;
+
+    private final BasicParser.Parsed parsed;
+    private final ConstantPool pool = new ConstantPool();
+    private final Code code = new Code();
+    private final int numberCount;
+    private final int[] labels;
+    private final List<Integer> returnSites = new ArrayList<>();
+    private final int exit;
+
+    private BasicCodegen(BasicParser.Parsed parsed) {
+        this.parsed = parsed;
+        this.numberCount = parsed.numberNames.size();
+        this.labels = new int[parsed.statements.length + 1];
+        for (int i = 0; i < labels.length; i++) labels[i] = code.newLabel();
+        this.exit = code.newLabel();
+    }
+
+    // Returns the entry point, or null if the program is too large to be worth compiling
+    static MethodHandle compile(BasicParser.Parsed parsed) {
+        byte[] bytes = new BasicCodegen(parsed).generate();
+        if (bytes == null) return null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, false);
+            return lookup.findStatic(lookup.lookupClass(), "run",
+                    MethodType.methodType(int.class, BasicEngine.Machine.class, long.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private byte[] generate() {
+        BasicParser.Stmt[] statements = parsed.statements;
+        int stringCount = parsed.stringNames.size();
+        int maxLocals = FIRST_VARIABLE + numberCount * 2 + stringCount;
+        if (maxLocals > 0xFFFF) return null;
+
+        // Prologue: zero the counters and copy the variables out of the machine
+        code.op(Op.LCONST_0);
+        code.local(Op.LSTORE, L_STEPS);
+        code.local(Op.ALOAD, L_MACHINE);
+        code.op(Op.LCONST_0);
+        code.local(Op.LLOAD, L_LIMIT);
+        code.invoke(Op.INVOKEVIRTUAL, pool.method(MACHINE, "poll", "(JJ)J"));
+        code.local(Op.LSTORE, L_NEXT_CHECK);
+        code.op(Op.ICONST_M1);
+        code.local(Op.ISTORE, L_LINE);
+        code.op(Op.ICONST_0);
+        code.local(Op.ISTORE, L_STATUS);
+        code.op(Op.ACONST_NULL);
+        code.local(Op.ASTORE, L_ERROR);
+        for (int i = 0; i < numberCount; i++) {
+            code.local(Op.ALOAD, L_MACHINE);
+            code.field(Op.GETFIELD, pool.field(MACHINE, "nums", "[D"));
+            code.pushInt(pool, i);
+            code.op(Op.DALOAD);
+            code.local(Op.DSTORE, numberLocal(i));
+        }
+        for (int i = 0; i < stringCount; i++) {
+            code.local(Op.ALOAD, L_MACHINE);
+            code.field(Op.GETFIELD, pool.field(MACHINE, "strs", "[Ljava/lang/String;"));
+            code.pushInt(pool, i);
+            code.op(Op.AALOAD);
+            code.local(Op.ASTORE, stringLocal(i));
+        }
+
+        boolean[] blockStarts = blockStarts(statements);
+        int bodyStart = code.size();
+        int line = Integer.MIN_VALUE;
+        for (int i = 0; i < statements.length; i++) {
+            BasicParser.Stmt s = statements[i];
+            code.mark(labels[i]);
+            if (blockStarts[i]) {
+                line = Integer.MIN_VALUE;
+                countSteps(blockLength(blockStarts, i));
+            }
+            if (s.line != line) {
+                code.pushInt(pool, s.line);
+                code.local(Op.ISTORE, L_LINE);
+                line = s.line;
+            }
+            statement(s, i);
+            if (code.size() > MAX_CODE) return null;
+        }
+        code.mark(labels[statements.length]);
+        int bodyEnd = code.size();
+
+        // Exit: write the variables back so the machine sees the final state
+        code.mark(exit);
+        for (int i = 0; i < numberCount; i++) {
+            code.local(Op.ALOAD, L_MACHINE);
+            code.field(Op.GETFIELD, pool.field(MACHINE, "nums", "[D"));
+            code.pushInt(pool, i);
+            code.local(Op.DLOAD, numberLocal(i));
+            code.op(Op.DASTORE);
+        }
+        for (int i = 0; i < stringCount; i++) {
+            code.local(Op.ALOAD, L_MACHINE);
+            code.field(Op.GETFIELD, pool.field(MACHINE, "strs", "[Ljava/lang/String;"));
+            code.pushInt(pool, i);
+            code.local(Op.ALOAD, stringLocal(i));
+            code.op(Op.AASTORE);
+        }
+        code.local(Op.ALOAD, L_MACHINE);
+        code.local(Op.LLOAD, L_STEPS);
+        code.field(Op.PUTFIELD, pool.field(MACHINE, "steps", "J"));
+        int rethrow = code.newLabel();
+        code.local(Op.ALOAD, L_ERROR);
+        code.jump(Op.IFNONNULL, rethrow);
+        code.local(Op.ILOAD, L_STATUS);
+        code.op(Op.IRETURN);
+        code.mark(rethrow);
+        code.local(Op.ALOAD, L_ERROR);
+        code.local(Op.ILOAD, L_LINE);
+        code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "locate", "(L" + ERROR + ";I)L" + ERROR + ";"));
+        code.op(Op.ATHROW);
+
+        int handler = code.size();
+        code.local(Op.ASTORE, L_ERROR);
+        code.jump(Op.GOTO, exit);
+        if (code.size() > MAX_CODE) return null;
+
+        code.resolve();
+        int maxStack = 16 + 8 * maxDepth(statements);
+        return classFile(maxStack, maxLocals, bodyStart, bodyEnd, handler);
+    }
+
+    private int numberLocal(int slot) {
+        return FIRST_VARIABLE + slot * 2;
+    }
+
+    private int stringLocal(int slot) {
+        return FIRST_VARIABLE + numberCount * 2 + slot;
+    }
+
+    // Straight-line blocks start at jump targets and after any statement that may jump;
+    // steps are counted once per block, matching the interpreter's count per statement
+    private static boolean[] blockStarts(BasicParser.Stmt[] statements) {
+        boolean[] starts = new boolean[statements.length + 1];
+        starts[0] = true;
+        starts[statements.length] = true;
+        for (int i = 0; i < statements.length; i++) {
+            BasicParser.Stmt s = statements[i];
+            if (endsBlock(s)) {
+                starts[i + 1] = true;
+                if (s.kind != BasicParser.S_RETURN && s.kind != BasicParser.S_END) starts[s.jump] = true;
+            }
+        }
+        return starts;
+    }
+
+    private static boolean endsBlock(BasicParser.Stmt s) {
+        switch (s.kind) {
+            case BasicParser.S_GOTO:
+            case BasicParser.S_IF:
+            case BasicParser.S_GOSUB:
+            case BasicParser.S_RETURN:
+            case BasicParser.S_END:
+            case BasicParser.S_FOR_TEST:
+            case BasicParser.S_FOR_NEXT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int blockLength(boolean[] blockStarts, int start) {
+        int end = start + 1;
+        while (!blockStarts[end]) end++;
+        return end - start;
+    }
+
+    private void countSteps(int count) {
+        code.local(Op.LLOAD, L_STEPS);
+        if (count == 1) code.op(Op.LCONST_1);
+        else code.ldc2(pool.longConstant(count));
+        code.op(Op.LADD);
+        code.local(Op.LSTORE, L_STEPS);
+    }
+
+    // Checks the step limit and the stop flag; every loop passes through a backward jump or RETURN
+    private void poll() {
+        int skip = code.newLabel();
+        code.local(Op.LLOAD, L_STEPS);
+        code.local(Op.LLOAD, L_NEXT_CHECK);
+        code.op(Op.LCMP);
+        code.jump(Op.IFLT, skip);
+        code.local(Op.ALOAD, L_MACHINE);
+        code.local(Op.LLOAD, L_STEPS);
+        code.local(Op.LLOAD, L_LIMIT);
+        code.invoke(Op.INVOKEVIRTUAL, pool.method(MACHINE, "poll", "(JJ)J"));
+        code.local(Op.LSTORE, L_NEXT_CHECK);
+        code.local(Op.LLOAD, L_NEXT_CHECK);
+        code.op(Op.LCONST_0);
+        code.op(Op.LCMP);
+        code.jump(Op.IFGE, skip);
+        code.local(Op.LLOAD, L_NEXT_CHECK);
+        code.op(Op.L2I);
+        code.op(Op.INEG);
+        code.local(Op.ISTORE, L_STATUS);
+        code.jump(Op.GOTO, exit);
+        code.mark(skip);
+    }
+
+    private void statement(BasicParser.Stmt s, int index) {
+        switch (s.kind) {
+            case BasicParser.S_ASSIGN:
+                assign(s.target, s.value);
+                return;
+            case BasicParser.S_PRINT:
+                for (int i = 0; i < s.items.length; i++) {
+                    BasicParser.Expr item = s.items[i];
+                    if (item.kind != BasicParser.E_STR || !item.text.isEmpty()) {
+                        code.local(Op.ALOAD, L_MACHINE);
+                        if (item.string) {
+                            string(item);
+                        } else {
+                            number(item);
+                            code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "formatNumber", "(D)Ljava/lang/String;"));
+                        }
+                        code.invoke(Op.INVOKEVIRTUAL, pool.method(MACHINE, "print", "(Ljava/lang/String;)V"));
+                    }
+                    if (s.separators[i] == ',' || s.separators[i] == '\n') {
+                        code.local(Op.ALOAD, L_MACHINE);
+                        code.pushInt(pool, s.separators[i]);
+                        code.invoke(Op.INVOKEVIRTUAL, pool.method(MACHINE, "separator", "(C)V"));
+                    }
+                }
+                return;
+            case BasicParser.S_INPUT:
+                input(s);
+                return;
+            case BasicParser.S_GOTO:
+                if (s.jump <= index) poll();
+                code.jump(Op.GOTO, labels[s.jump]);
+                return;
+            case BasicParser.S_IF:
+                if (s.jump <= index) poll();
+                branch(s.value, s.whenTrue, labels[s.jump]);
+                return;
+            case BasicParser.S_GOSUB:
+                if (s.jump <= index) poll();
+                code.local(Op.ALOAD, L_MACHINE);
+                code.pushInt(pool, returnSites.size());
+                code.invoke(Op.INVOKEVIRTUAL, pool.method(MACHINE, "pushReturn", "(I)V"));
+                returnSites.add(labels[index + 1]);
+                code.jump(Op.GOTO, labels[s.jump]);
+                return;
+            case BasicParser.S_RETURN:
+                poll();
+                code.local(Op.ALOAD, L_MACHINE);
+                code.invoke(Op.INVOKEVIRTUAL, pool.method(MACHINE, "popReturn", "()I"));
+                code.tableSwitch(exit, returnSites);
+                return;
+            case BasicParser.S_END:
+                code.jump(Op.GOTO, exit);
+                return;
+            case BasicParser.S_DIM:
+                code.local(Op.ALOAD, L_MACHINE);
+                code.op(s.target.string ? Op.ICONST_1 : Op.ICONST_0);
+                code.pushInt(pool, s.target.slot);
+                numberArray(s.target.args);
+                code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "dim", "(L" + MACHINE + ";ZI[D)V"));
+                return;
+            case BasicParser.S_FOR_TEST:
+                forCompare(s, false, labels[s.jump]);
+                return;
+            case BasicParser.S_FOR_NEXT:
+                poll();
+                code.local(Op.DLOAD, numberLocal(s.var));
+                code.local(Op.DLOAD, numberLocal(s.step));
+                code.op(Op.DADD);
+                code.local(Op.DSTORE, numberLocal(s.var));
+                forCompare(s, true, labels[s.jump]);
+                return;
+            default:
+                throw new IllegalStateException("Unexpected statement " + s.kind);
+        }
+    }
+
+    // FOR_TEST leaves the loop when var is past limit; FOR_NEXT repeats while it is not
+    private void forCompare(BasicParser.Stmt s, boolean repeat, int target) {
+        int negative = code.newLabel();
+        int done = code.newLabel();
+        code.local(Op.DLOAD, numberLocal(s.step));
+        code.op(Op.DCONST_0);
+        code.op(Op.DCMPL);
+        code.jump(Op.IFLT, negative);
+        code.local(Op.DLOAD, numberLocal(s.var));
+        code.local(Op.DLOAD, numberLocal(s.limit));
+        code.op(repeat ? Op.DCMPG : Op.DCMPL);
+        code.jump(repeat ? Op.IFLE : Op.IFGT, target);
+        code.jump(Op.GOTO, done);
+        code.mark(negative);
+        code.local(Op.DLOAD, numberLocal(s.var));
+        code.local(Op.DLOAD, numberLocal(s.limit));
+        code.op(repeat ? Op.DCMPL : Op.DCMPG);
+        code.jump(repeat ? Op.IFGE : Op.IFLT, target);
+        code.mark(done);
+    }
+
+    private void assign(BasicParser.Expr target, BasicParser.Expr value) {
+        if (target.kind == BasicParser.E_VAR) {
+            if (target.string) {
+                string(value);
+                code.local(Op.ASTORE, stringLocal(target.slot));
+            } else {
+                number(value);
+                code.local(Op.DSTORE, numberLocal(target.slot));
+            }
+            return;
+        }
+        code.local(Op.ALOAD, L_MACHINE);
+        code.pushInt(pool, target.slot);
+        String index = indices(target.args);
+        if (target.string) {
+            string(value);
+            code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "setString", "(L" + MACHINE + ";I" + index + "Ljava/lang/String;)V"));
+        } else {
+            number(value);
+            code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "setNumber", "(L" + MACHINE + ";I" + index + "D)V"));
+        }
+    }
+
+    // One index is passed as a double, more as a double[]; returns the descriptor part
+    private String indices(BasicParser.Expr[] args) {
+        if (args.length == 1) {
+            number(args[0]);
+            return "D";
+        }
+        numberArray(args);
+        return "[D";
+    }
+
+    private void numberArray(BasicParser.Expr[] args) {
+        code.pushInt(pool, args.length);
+        code.op(Op.NEWARRAY, 7);
+        for (int i = 0; i < args.length; i++) {
+            code.op(Op.DUP);
+            code.pushInt(pool, i);
+            number(args[i]);
+            code.op(Op.DASTORE);
+        }
+    }
+
+    private void input(BasicParser.Stmt s) {
+        int count = s.inputSlots.length;
+        code.local(Op.ALOAD, L_MACHINE);
+        if (s.prompt != null) code.ldc(pool.string(s.prompt));
+        else code.op(Op.ACONST_NULL);
+        code.pushInt(pool, count);
+        code.op(Op.NEWARRAY, 10);
+        for (int i = 0; i < count; i++) {
+            code.op(Op.DUP);
+            code.pushInt(pool, i);
+            code.pushInt(pool, s.inputSlots[i]);
+            code.op(Op.IASTORE);
+        }
+        code.pushInt(pool, count);
+        code.op(Op.NEWARRAY, 4);
+        for (int i = 0; i < count; i++) {
+            code.op(Op.DUP);
+            code.pushInt(pool, i);
+            code.op(s.inputStrings[i] ? Op.ICONST_1 : Op.ICONST_0);
+            code.op(Op.BASTORE);
+        }
+        code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "input", "(L" + MACHINE + ";Ljava/lang/String;[I[Z)V"));
+        for (int i = 0; i < count; i++) {
+            int slot = s.inputSlots[i];
+            code.local(Op.ALOAD, L_MACHINE);
+            if (s.inputStrings[i]) {
+                code.field(Op.GETFIELD, pool.field(MACHINE, "strs", "[Ljava/lang/String;"));
+                code.pushInt(pool, slot);
+                code.op(Op.AALOAD);
+                code.local(Op.ASTORE, stringLocal(slot));
+            } else {
+                code.field(Op.GETFIELD, pool.field(MACHINE, "nums", "[D"));
+                code.pushInt(pool, slot);
+                code.op(Op.DALOAD);
+                code.local(Op.DSTORE, numberLocal(slot));
+            }
+        }
+    }
+
+    // Jumps to target when the condition's truth equals whenTrue. A comparison negates its
+    // int test rather than the operator, so NaN operands behave as in Java.
+    private void branch(BasicParser.Expr condition, boolean whenTrue, int target) {
+        if (condition.kind == BasicParser.E_BINARY && condition.op >= BasicParser.OP_EQ && condition.op <= BasicParser.OP_GE) {
+            compare(condition);
+            int test = intTest(condition.op);
+            code.jump(whenTrue ? test : negateTest(test), target);
+            return;
+        }
+        number(condition);
+        code.op(Op.DCONST_0);
+        code.op(Op.DCMPL);
+        code.jump(whenTrue ? Op.IFNE : Op.IFEQ, target);
+    }
+
+    // Leaves an int on the stack that intTest(op) checks against zero
+    private void compare(BasicParser.Expr e) {
+        if (e.left.string) {
+            string(e.left);
+            string(e.right);
+            code.invoke(Op.INVOKEVIRTUAL, pool.method("java/lang/String", "compareTo", "(Ljava/lang/String;)I"));
+        } else {
+            number(e.left);
+            number(e.right);
+            code.op(e.op == BasicParser.OP_LT || e.op == BasicParser.OP_LE ? Op.DCMPG : Op.DCMPL);
+        }
+    }
+
+    private static int intTest(int op) {
+        switch (op) {
+            case BasicParser.OP_EQ: return Op.IFEQ;
+            case BasicParser.OP_NE: return Op.IFNE;
+            case BasicParser.OP_LT: return Op.IFLT;
+            case BasicParser.OP_GT: return Op.IFGT;
+            case BasicParser.OP_LE: return Op.IFLE;
+            default: return Op.IFGE;
+        }
+    }
+
+    private static int negateTest(int test) {
+        switch (test) {
+            case Op.IFEQ: return Op.IFNE;
+            case Op.IFNE: return Op.IFEQ;
+            case Op.IFLT: return Op.IFGE;
+            case Op.IFGE: return Op.IFLT;
+            case Op.IFGT: return Op.IFLE;
+            default: return Op.IFGT;
+        }
+    }
+
+    private void number(BasicParser.Expr e) {
+        switch (e.kind) {
+            case BasicParser.E_NUM:
+                if (e.number == 0 && 1 / e.number > 0) code.op(Op.DCONST_0);
+                else if (e.number == 1) code.op(Op.DCONST_1);
+                else code.ldc2(pool.doubleConstant(e.number));
+                return;
+            case BasicParser.E_VAR:
+                code.local(Op.DLOAD, numberLocal(e.slot));
+                return;
+            case BasicParser.E_ARRAY: {
+                code.local(Op.ALOAD, L_MACHINE);
+                code.pushInt(pool, e.slot);
+                String index = indices(e.args);
+                code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "numberAt", "(L" + MACHINE + ";I" + index + ")D"));
+                return;
+            }
+            case BasicParser.E_UNARY:
+                number(e.left);
+                if (e.op == BasicParser.OP_NEG) {
+                    code.op(Op.DNEG);
+                } else {
+                    code.op(Op.D2L);
+                    code.ldc2(pool.longConstant(-1));
+                    code.op(Op.LXOR);
+                    code.op(Op.L2D);
+                }
+                return;
+            case BasicParser.E_BINARY:
+                binary(e);
+                return;
+            case BasicParser.E_CALL:
+                call(e);
+                return;
+            default:
+                throw new IllegalStateException("Unexpected expression " + e.kind);
+        }
+    }
+
+    private void binary(BasicParser.Expr e) {
+        if (e.op >= BasicParser.OP_EQ && e.op <= BasicParser.OP_GE) {
+            int isTrue = code.newLabel();
+            int done = code.newLabel();
+            compare(e);
+            code.jump(intTest(e.op), isTrue);
+            code.op(Op.DCONST_0);
+            code.jump(Op.GOTO, done);
+            code.mark(isTrue);
+            code.op(Op.DCONST_1);
+            code.op(Op.DNEG);
+            code.mark(done);
+            return;
+        }
+        if (e.op == BasicParser.OP_AND || e.op == BasicParser.OP_OR) {
+            number(e.left);
+            code.op(Op.D2L);
+            number(e.right);
+            code.op(Op.D2L);
+            code.op(e.op == BasicParser.OP_AND ? Op.LAND : Op.LOR);
+            code.op(Op.L2D);
+            return;
+        }
+        number(e.left);
+        number(e.right);
+        switch (e.op) {
+            case BasicParser.OP_ADD: code.op(Op.DADD); break;
+            case BasicParser.OP_SUB: code.op(Op.DSUB); break;
+            case BasicParser.OP_MUL: code.op(Op.DMUL); break;
+            case BasicParser.OP_DIV: code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "divide", "(DD)D")); break;
+            case BasicParser.OP_MOD: code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "modulo", "(DD)D")); break;
+            default: code.invoke(Op.INVOKESTATIC, pool.method("java/lang/Math", "pow", "(DD)D"));
+        }
+    }
+
+    private void call(BasicParser.Expr e) {
+        String math = null;
+        switch (e.op) {
+            case BasicParser.FN_ABS: math = "abs"; break;
+            case BasicParser.FN_INT: math = "floor"; break;
+            case BasicParser.FN_SIN: math = "sin"; break;
+            case BasicParser.FN_COS: math = "cos"; break;
+            case BasicParser.FN_TAN: math = "tan"; break;
+            case BasicParser.FN_ATN: math = "atan"; break;
+            case BasicParser.FN_EXP: math = "exp"; break;
+            case BasicParser.FN_SGN: math = "signum"; break;
+            default: break;
+        }
+        if (math != null) {
+            number(e.args[0]);
+            code.invoke(Op.INVOKESTATIC, pool.method("java/lang/Math", math, "(D)D"));
+        } else if (e.op <= BasicParser.LAST_NUMERIC_FN) {
+            code.pushInt(pool, e.op);
+            if (e.args.length > 0) number(e.args[0]);
+            else code.op(Op.DCONST_0);
+            code.local(Op.ALOAD, L_MACHINE);
+            code.field(Op.GETFIELD, pool.field(MACHINE, "random", "Ljava/util/Random;"));
+            code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "numberFunction", "(IDLjava/util/Random;)D"));
+        } else {
+            code.pushInt(pool, e.op);
+            string(e.args[0]);
+            code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "stringToNumber", "(ILjava/lang/String;)D"));
+        }
+    }
+
+    private void string(BasicParser.Expr e) {
+        switch (e.kind) {
+            case BasicParser.E_STR:
+                code.ldc(pool.string(e.text));
+                return;
+            case BasicParser.E_VAR:
+                code.local(Op.ALOAD, stringLocal(e.slot));
+                return;
+            case BasicParser.E_ARRAY: {
+                code.local(Op.ALOAD, L_MACHINE);
+                code.pushInt(pool, e.slot);
+                String index = indices(e.args);
+                code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "stringAt", "(L" + MACHINE + ";I" + index + ")Ljava/lang/String;"));
+                return;
+            }
+            case BasicParser.E_BINARY:
+                string(e.left);
+                string(e.right);
+                code.invoke(Op.INVOKEVIRTUAL, pool.method("java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;"));
+                return;
+            case BasicParser.E_CALL: {
+                // Same argument split as the interpreter: text, then one or two numbers
+                boolean text = e.args[0].string;
+                code.pushInt(pool, e.op);
+                if (text) string(e.args[0]);
+                else code.op(Op.ACONST_NULL);
+                int first = text ? 1 : 0;
+                if (first < e.args.length) number(e.args[first]);
+                else code.op(Op.DCONST_0);
+                if (first + 1 < e.args.length) number(e.args[first + 1]);
+                else code.ldc2(pool.doubleConstant(Double.NaN));
+                code.invoke(Op.INVOKESTATIC, pool.method(ENGINE, "stringFunction", "(ILjava/lang/String;DD)Ljava/lang/String;"));
+                return;
+            }
+            default:
+                throw new IllegalStateException("Unexpected expression " + e.kind);
+        }
+    }
+
+    private static int maxDepth(BasicParser.Stmt[] statements) {
+        int depth = 1;
+        for (BasicParser.Stmt s : statements) {
+            depth = Math.max(depth, depth(s.target));
+            depth = Math.max(depth, depth(s.value));
+            if (s.items != null) {
+                for (BasicParser.Expr item : s.items) depth = Math.max(depth, depth(item));
+            }
+        }
+        return depth;
+    }
+
+    private static int depth(BasicParser.Expr e) {
+        if (e == null) return 0;
+        int depth = Math.max(depth(e.left), depth(e.right));
+        if (e.args != null) {
+            for (BasicParser.Expr arg : e.args) depth = Math.max(depth, depth(arg));
+        }
+        return depth + 1;
+    }
+
+    private byte[] classFile(int maxStack, int maxLocals, int bodyStart, int bodyEnd, int handler) {
+        int thisClass = pool.classRef("BasicProgram");
+        int superClass = pool.classRef("java/lang/Object");
+        int name = pool.utf8("run");
+        int descriptor = pool.utf8("(L" + MACHINE + ";J)I");
+        int codeName = pool.utf8("Code");
+        int errorClass = pool.classRef(ERROR);
+        byte[] bytes = code.toByteArray();
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length + 4096);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0030);         // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(1);
+            out.writeShort(0x0008);         // ACC_STATIC
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + bytes.length + 8);
+            out.writeShort(Math.min(maxStack, 0xFFFF));
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(1);
+            out.writeShort(bodyStart);
+            out.writeShort(bodyEnd);
+            out.writeShort(handler);
+            out.writeShort(errorClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            return pool.size() > 0xFFFF ? null : buffer.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Opcodes used by the generator
+    private static final class Op {
+        static final int ACONST_NULL = 0x01;
+        static final int ICONST_M1 = 0x02;
+        static final int ICONST_0 = 0x03;
+        static final int ICONST_1 = 0x04;
+        static final int LCONST_0 = 0x09;
+        static final int LCONST_1 = 0x0a;
+        static final int DCONST_0 = 0x0e;
+        static final int DCONST_1 = 0x0f;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC = 0x12;
+        static final int LDC_W = 0x13;
+        static final int LDC2_W = 0x14;
+        static final int ILOAD = 0x15;
+        static final int LLOAD = 0x16;
+        static final int DLOAD = 0x18;
+        static final int ALOAD = 0x19;
+        static final int DALOAD = 0x31;
+        static final int AALOAD = 0x32;
+        static final int ISTORE = 0x36;
+        static final int LSTORE = 0x37;
+        static final int DSTORE = 0x39;
+        static final int ASTORE = 0x3a;
+        static final int IASTORE = 0x4f;
+        static final int DASTORE = 0x52;
+        static final int AASTORE = 0x53;
+        static final int BASTORE = 0x54;
+        static final int POP = 0x57;
+        static final int DUP = 0x59;
+        static final int LADD = 0x61;
+        static final int DADD = 0x63;
+        static final int DSUB = 0x67;
+        static final int DMUL = 0x6b;
+        static final int INEG = 0x74;
+        static final int DNEG = 0x77;
+        static final int LAND = 0x7f;
+        static final int LOR = 0x81;
+        static final int LXOR = 0x83;
+        static final int L2I = 0x88;
+        static final int L2D = 0x8a;
+        static final int D2L = 0x8f;
+        static final int LCMP = 0x94;
+        static final int DCMPL = 0x97;
+        static final int DCMPG = 0x98;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int IFLT = 0x9b;
+        static final int IFGE = 0x9c;
+        static final int IFGT = 0x9d;
+        static final int IFLE = 0x9e;
+        static final int GOTO = 0xa7;
+        static final int TABLESWITCH = 0xaa;
+        static final int IRETURN = 0xac;
+        static final int GETFIELD = 0xb4;
+        static final int PUTFIELD = 0xb5;
+        static final int INVOKEVIRTUAL = 0xb6;
+        static final int INVOKESTATIC = 0xb8;
+        static final int NEWARRAY = 0xbc;
+        static final int ATHROW = 0xbf;
+        static final int WIDE = 0xc4;
+        static final int IFNONNULL = 0xc7;
+    }
+
+    // Bytecode buffer with forward labels; branch offsets are patched in resolve()
+    private static final class Code {
+        private byte[] bytes = new byte[1024];
+        private int size;
+        private int[] labelPositions = new int[64];
+        private int labelCount;
+        // (position of the instruction, position of the offset, label, width)
+        private final List<int[]> fixups = new ArrayList<>();
+
+        int size() {
+            return size;
+        }
+
+        int newLabel() {
+            if (labelCount == labelPositions.length) labelPositions = Arrays.copyOf(labelPositions, labelCount * 2);
+            labelPositions[labelCount] = -1;
+            return labelCount++;
+        }
+
+        void mark(int label) {
+            labelPositions[label] = size;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void op(int opcode, int operand) {
+            u1(opcode);
+            u1(operand);
+        }
+
+        void local(int opcode, int index) {
+            if (index > 0xFF) {
+                u1(Op.WIDE);
+                u1(opcode);
+                u2(index);
+            } else {
+                u1(opcode);
+                u1(index);
+            }
+        }
+
+        void pushInt(ConstantPool pool, int value) {
+            if (value >= -1 && value <= 5) {
+                u1(Op.ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(Op.BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(Op.SIPUSH);
+                u2(value);
+            } else {
+                ldc(pool.intConstant(value));
+            }
+        }
+
+        void ldc(int index) {
+            if (index <= 0xFF) {
+                u1(Op.LDC);
+                u1(index);
+            } else {
+                u1(Op.LDC_W);
+                u2(index);
+            }
+        }
+
+        void ldc2(int index) {
+            u1(Op.LDC2_W);
+            u2(index);
+        }
+
+        void field(int opcode, int index) {
+            u1(opcode);
+            u2(index);
+        }
+
+        void invoke(int opcode, int index) {
+            u1(opcode);
+            u2(index);
+        }
+
+        void jump(int opcode, int label) {
+            fixups.add(new int[] { size, size + 1, label, 2 });
+            u1(opcode);
+            u2(0);
+        }
+
+        // Pops an int and jumps to targets[value], or to fallback when out of range
+        void tableSwitch(int fallback, List<Integer> targets) {
+            if (targets.isEmpty()) {
+                u1(Op.POP);
+                jump(Op.GOTO, fallback);
+                return;
+            }
+            int start = size;
+            u1(Op.TABLESWITCH);
+            while (size % 4 != 0) u1(0);
+            fixups.add(new int[] { start, size, fallback, 4 });
+            u4(0);
+            u4(0);
+            u4(targets.size() - 1);
+            for (int target : targets) {
+                fixups.add(new int[] { start, size, target, 4 });
+                u4(0);
+            }
+        }
+
+        void resolve() {
+            for (int[] fixup : fixups) {
+                int offset = labelPositions[fixup[2]] - fixup[0];
+                if (fixup[3] == 2) {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new IllegalStateException("Branch too far");
+                    bytes[fixup[1]] = (byte) (offset >> 8);
+                    bytes[fixup[1] + 1] = (byte) offset;
+                } else {
+                    bytes[fixup[1]] = (byte) (offset >> 24);
+                    bytes[fixup[1] + 1] = (byte) (offset >> 16);
+                    bytes[fixup[1] + 2] = (byte) (offset >> 8);
+                    bytes[fixup[1] + 3] = (byte) offset;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void u1(int value) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+    }
+
+    // Constant pool with deduplicated entries; long and double take two slots
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int next = 1;
+
+        int size() {
+            return next;
+        }
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String name) {
+            int utf8 = utf8(name);
+            return entry("C" + name, 1, () -> {
+                out.writeByte(7);
+                out.writeShort(utf8);
+            });
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("S" + value, 1, () -> {
+                out.writeByte(8);
+                out.writeShort(utf8);
+            });
+        }
+
+        int intConstant(int value) {
+            return entry("I" + value, 1, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int longConstant(long value) {
+            return entry("J" + value, 2, () -> {
+                out.writeByte(5);
+                out.writeLong(value);
+            });
+        }
+
+        int doubleConstant(double value) {
+            return entry("D" + Double.doubleToRawLongBits(value), 2, () -> {
+                out.writeByte(6);
+                out.writeDouble(value);
+            });
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return member(9, owner, name, descriptor);
+        }
+
+        int method(String owner, String name, String descriptor) {
+            return member(10, owner, name, descriptor);
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            int classIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + " " + descriptor, 1, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return entry(tag + owner + "." + name + descriptor, 1, () -> {
+                out.writeByte(tag);
+                out.writeShort(classIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, int slots, Writer writer) {
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, next);
+            next += slots;
+            return next - slots;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(next);
+            bytes.writeTo(target);
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,1253 @@
+import java.lang.invoke.MethodHandle;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// BASIC execution engine with three tiers over one parsed program. The interpreted
+// tier walks the statement list and expression trees. The bytecode tier runs a
+// register bytecode: variables, constants and temporaries are slots of one double[]
+// and one String[], so arithmetic never boxes, and comparisons feeding a jump are
+// fused into a single compare-and-branch instruction. The JVM tier runs the program
+// as a hidden class (see BasicCodegen) and falls back to bytecode for huge programs.
+public class BasicEngine {
+    public static final long DEFAULT_STEP_LIMIT = Long.getLong("jscn.basic.maxSteps", 10_000_000_000L);
+    private static final int CHECK_INTERVAL = 1 << 16;
+    private static final int OUTPUT_CHUNK = 4096;
+    private static final int PRINT_ZONE = 14;
+    private static final int MAX_GOSUB_DEPTH = 10000;
+    private static final int DEFAULT_ARRAY_SIZE = 11;
+
+    public enum Tier { INTERPRETED, BYTECODE, JVM }
+
+    public enum Status { FINISHED, LIMIT_REACHED, CANCELLED, ERROR }
+
+    // Syntax and run-time errors; line is the 0-based editor line or -1 if unknown
+    public static class BasicError extends RuntimeException {
+        public final int line;
+
+        public BasicError(int line, String message) {
+            super(message);
+            this.line = line;
+        }
+
+        @Override
+        public String getMessage() {
+            return line >= 0 ? "Строка " + (line + 1) + ": " + super.getMessage() : super.getMessage();
+        }
+
+        String getReason() {
+            return super.getMessage();
+        }
+    }
+
+    public static class Program {
+        final BasicParser.Parsed parsed;
+        final Bytecode bytecode;
+        final MethodHandle jvmCode;
+
+        Program(BasicParser.Parsed parsed, Bytecode bytecode, MethodHandle jvmCode) {
+            this.parsed = parsed;
+            this.bytecode = bytecode;
+            this.jvmCode = jvmCode;
+        }
+
+        public int getStatementCount() {
+            return parsed.statements.length;
+        }
+
+        public int getInstructionCount() {
+            return bytecode.instructions;
+        }
+
+        // False when the program was too large for one JIT-compiled method
+        public boolean hasJvmCode() {
+            return jvmCode != null;
+        }
+
+        public boolean hasInput() {
+            for (BasicParser.Stmt s : parsed.statements) {
+                if (s.kind == BasicParser.S_INPUT) return true;
+            }
+            return false;
+        }
+
+        // Scalars and array sizes after a run, for debug output
+        public String describeVariables(Result result) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < parsed.numberNames.size(); i++) {
+                String name = parsed.numberNames.get(i);
+                if (!name.startsWith("#")) text.append(name).append(" =").append(formatNumber(result.numbers[i])).append('\n');
+            }
+            for (int i = 0; i < parsed.stringNames.size(); i++) {
+                text.append(parsed.stringNames.get(i)).append(" = \"").append(result.strings[i]).append("\"\n");
+            }
+            describeArrays(text, parsed.numberArrayNames, result.numberArrays);
+            describeArrays(text, parsed.stringArrayNames, result.stringArrays);
+            return text.toString();
+        }
+
+        private static void describeArrays(StringBuilder text, List<String> names, ArrayValue[] arrays) {
+            for (int i = 0; i < names.size(); i++) {
+                text.append(names.get(i)).append('(');
+                if (arrays[i] == null) {
+                    text.append('—');
+                } else {
+                    for (int d = 0; d < arrays[i].sizes.length; d++) {
+                        if (d > 0) text.append(", ");
+                        text.append(arrays[i].sizes[d] - 1);
+                    }
+                }
+                text.append(")\n");
+            }
+        }
+    }
+
+    public static class Result {
+        public final Status status;
+        public final long steps;
+        public final long nanos;
+        public final BasicError error;
+        final double[] numbers;
+        final String[] strings;
+        final ArrayValue[] numberArrays;
+        final ArrayValue[] stringArrays;
+
+        Result(Status status, long steps, long nanos, BasicError error, Machine machine) {
+            this.status = status;
+            this.steps = steps;
+            this.nanos = nanos;
+            this.error = error;
+            this.numbers = machine.nums;
+            this.strings = machine.strs;
+            this.numberArrays = machine.numberArrays;
+            this.stringArrays = machine.stringArrays;
+        }
+    }
+
+    public static Program compile(CharSequence source) {
+        BasicParser.Parsed parsed = BasicParser.parse(source);
+        return new Program(parsed, new Compiler(parsed).compile(), BasicCodegen.compile(parsed));
+    }
+
+    // input returns the next line typed by the user, or null if there is none (or Stop was pressed)
+    public static Result run(Program program, Tier tier, Supplier<String> input, Consumer<String> output,
+                             long stepLimit, BooleanSupplier stopRequested) {
+        BasicParser.Parsed parsed = program.parsed;
+        stepLimit = Math.min(stepLimit, Long.MAX_VALUE - CHECK_INTERVAL);
+        if (tier == Tier.JVM && program.jvmCode == null) tier = Tier.BYTECODE;
+        Machine machine;
+        if (tier == Tier.BYTECODE) {
+            machine = new Machine(program.bytecode.numberInit.clone(), program.bytecode.stringInit.clone(),
+                    parsed, input, output, stopRequested);
+        } else {
+            String[] strings = new String[parsed.stringNames.size()];
+            Arrays.fill(strings, "");
+            machine = new Machine(new double[parsed.numberNames.size()], strings, parsed, input, output, stopRequested);
+        }
+
+        long started = System.nanoTime();
+        Status status;
+        BasicError error = null;
+        try {
+            switch (tier) {
+                case JVM:
+                    status = Status.values()[invoke(program.jvmCode, machine, stepLimit)];
+                    break;
+                case BYTECODE:
+                    status = execute(program.bytecode, machine, stepLimit);
+                    break;
+                default:
+                    status = interpret(parsed.statements, machine, stepLimit);
+            }
+        } catch (BasicError e) {
+            status = stopRequested.getAsBoolean() ? Status.CANCELLED : Status.ERROR;
+            error = status == Status.ERROR ? e : null;
+        }
+        machine.flush();
+        return new Result(status, machine.steps, System.nanoTime() - started, error, machine);
+    }
+
+    private static int invoke(MethodHandle code, Machine machine, long stepLimit) {
+        try {
+            return (int) code.invokeExact(machine, stepLimit);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Interpreted tier: one step per statement
+
+    private static Status interpret(BasicParser.Stmt[] statements, Machine m, long stepLimit) {
+        int pc = 0;
+        long nextCheck = Math.min(CHECK_INTERVAL, stepLimit + 1);
+        try {
+            while (pc < statements.length) {
+                if (++m.steps >= nextCheck) {
+                    if (m.steps > stepLimit) return Status.LIMIT_REACHED;
+                    if (m.stopRequested.getAsBoolean()) return Status.CANCELLED;
+                    nextCheck = Math.min(m.steps + CHECK_INTERVAL, stepLimit + 1);
+                }
+                BasicParser.Stmt s = statements[pc++];
+                switch (s.kind) {
+                    case BasicParser.S_ASSIGN:
+                        assign(s.target, s.value, m);
+                        break;
+                    case BasicParser.S_PRINT:
+                        for (int i = 0; i < s.items.length; i++) {
+                            BasicParser.Expr item = s.items[i];
+                            if (item.string) m.print(evalString(item, m));
+                            else m.print(formatNumber(evalNumber(item, m)));
+                            m.separator(s.separators[i]);
+                        }
+                        break;
+                    case BasicParser.S_INPUT:
+                        m.input(s.prompt, s.inputSlots, s.inputStrings, m.nums, m.strs);
+                        break;
+                    case BasicParser.S_GOTO:
+                        pc = s.jump;
+                        break;
+                    case BasicParser.S_IF:
+                        if ((evalNumber(s.value, m) != 0) == s.whenTrue) pc = s.jump;
+                        break;
+                    case BasicParser.S_GOSUB:
+                        m.pushReturn(pc);
+                        pc = s.jump;
+                        break;
+                    case BasicParser.S_RETURN:
+                        pc = m.popReturn();
+                        break;
+                    case BasicParser.S_END:
+                        return Status.FINISHED;
+                    case BasicParser.S_DIM: {
+                        int[] sizes = new int[s.target.args.length];
+                        for (int i = 0; i < sizes.length; i++) sizes[i] = dimension(evalNumber(s.target.args[i], m));
+                        m.dim(s.target.string, s.target.slot, sizes);
+                        break;
+                    }
+                    case BasicParser.S_FOR_TEST: {
+                        double step = m.nums[s.step];
+                        double value = m.nums[s.var];
+                        if (step >= 0 ? value > m.nums[s.limit] : value < m.nums[s.limit]) pc = s.jump;
+                        break;
+                    }
+                    case BasicParser.S_FOR_NEXT: {
+                        double step = m.nums[s.step];
+                        double value = m.nums[s.var] += step;
+                        if (step >= 0 ? value <= m.nums[s.limit] : value >= m.nums[s.limit]) pc = s.jump;
+                        break;
+                    }
+                }
+            }
+            return Status.FINISHED;
+        } catch (BasicError e) {
+            throw e.line >= 0 ? e : new BasicError(statements[pc - 1].line, e.getReason());
+        }
+    }
+
+    private static void assign(BasicParser.Expr target, BasicParser.Expr value, Machine m) {
+        if (target.kind == BasicParser.E_VAR) {
+            if (target.string) m.strs[target.slot] = evalString(value, m);
+            else m.nums[target.slot] = evalNumber(value, m);
+            return;
+        }
+        ArrayValue array = m.array(target.string, target.slot, target.args.length);
+        int offset = elementOffset(array, target, m);
+        if (target.string) array.strings[offset] = evalString(value, m);
+        else array.numbers[offset] = evalNumber(value, m);
+    }
+
+    private static double evalNumber(BasicParser.Expr e, Machine m) {
+        switch (e.kind) {
+            case BasicParser.E_NUM:
+                return e.number;
+            case BasicParser.E_VAR:
+                return m.nums[e.slot];
+            case BasicParser.E_ARRAY: {
+                ArrayValue array = m.array(false, e.slot, e.args.length);
+                return array.numbers[elementOffset(array, e, m)];
+            }
+            case BasicParser.E_UNARY: {
+                double value = evalNumber(e.left, m);
+                return e.op == BasicParser.OP_NEG ? -value : ~(long) value;
+            }
+            case BasicParser.E_BINARY:
+                if (e.op >= BasicParser.OP_EQ && e.op <= BasicParser.OP_GE) {
+                    if (!e.left.string) return compareNumbers(e.op, evalNumber(e.left, m), evalNumber(e.right, m));
+                    return compareResult(e.op, evalString(e.left, m).compareTo(evalString(e.right, m)));
+                }
+                return arithmetic(e.op, evalNumber(e.left, m), evalNumber(e.right, m));
+            case BasicParser.E_CALL:
+                if (e.op <= BasicParser.LAST_NUMERIC_FN) {
+                    return numberFunction(e.op, e.args.length > 0 ? evalNumber(e.args[0], m) : 0, m.random);
+                }
+                return stringToNumber(e.op, evalString(e.args[0], m));
+            default:
+                throw new IllegalStateException("Unexpected expression " + e.kind);
+        }
+    }
+
+    private static String evalString(BasicParser.Expr e, Machine m) {
+        switch (e.kind) {
+            case BasicParser.E_STR:
+                return e.text;
+            case BasicParser.E_VAR:
+                return m.strs[e.slot];
+            case BasicParser.E_ARRAY: {
+                ArrayValue array = m.array(true, e.slot, e.args.length);
+                return array.strings[elementOffset(array, e, m)];
+            }
+            case BasicParser.E_BINARY:
+                return evalString(e.left, m).concat(evalString(e.right, m));
+            case BasicParser.E_CALL: {
+                String text = e.args[0].string ? evalString(e.args[0], m) : null;
+                double a = e.args[0].string ? (e.args.length > 1 ? evalNumber(e.args[1], m) : 0) : evalNumber(e.args[0], m);
+                double b = e.args.length > 2 ? evalNumber(e.args[2], m) : Double.NaN;
+                return stringFunction(e.op, text, a, b);
+            }
+            default:
+                throw new IllegalStateException("Unexpected expression " + e.kind);
+        }
+    }
+
+    private static int elementOffset(ArrayValue array, BasicParser.Expr e, Machine m) {
+        int offset = 0;
+        for (int i = 0; i < e.args.length; i++) {
+            offset = offset * array.sizes[i] + array.index(i, evalNumber(e.args[i], m));
+        }
+        return offset;
+    }
+
+    // Bytecode tier
+
+    private static final int NMOV = 0;
+    private static final int NADD = 1;
+    private static final int NSUB = 2;
+    private static final int NMUL = 3;
+    private static final int NDIV = 4;
+    private static final int NPOW = 5;
+    private static final int NMOD = 6;
+    private static final int NAND = 7;
+    private static final int NOR = 8;
+    private static final int NNEG = 9;
+    private static final int NNOT = 10;
+    private static final int NCMP = 11;   // + (op - BasicParser.OP_EQ): d a b, -1 or 0
+    private static final int SCMP = 17;   // + (op - BasicParser.OP_EQ): d sa sb
+    private static final int JCMP = 23;   // + (op - BasicParser.OP_EQ): a b target, jump if true
+    private static final int JMP = 29;
+    private static final int JZ = 30;
+    private static final int JNZ = 31;
+    private static final int FORTEST = 32;
+    private static final int FORNEXT = 33;
+    private static final int GOSUB = 34;
+    private static final int RET = 35;
+    private static final int END = 36;
+    private static final int SMOV = 37;
+    private static final int SCAT = 38;
+    private static final int ALOADN = 39;
+    private static final int ASTOREN = 40;
+    private static final int ALOADS = 41;
+    private static final int ASTORES = 42;
+    private static final int DIMN = 43;
+    private static final int DIMS = 44;
+    private static final int FN = 45;
+    private static final int SFN = 46;
+    private static final int PRINTN = 47;
+    private static final int PRINTS = 48;
+    private static final int PRINTSEP = 49;
+    private static final int INPUT = 50;
+    private static final int ALOADN1 = 51;    // dst array index: one-dimensional fast path
+    private static final int ASTOREN1 = 52;   // array value index
+
+    static final class Bytecode {
+        final int[] code;
+        final int[] lines;
+        final double[] numberInit;
+        final String[] stringInit;
+        final int instructions;
+
+        Bytecode(int[] code, int[] lines, double[] numberInit, String[] stringInit, int instructions) {
+            this.code = code;
+            this.lines = lines;
+            this.numberInit = numberInit;
+            this.stringInit = stringInit;
+            this.instructions = instructions;
+        }
+    }
+
+    private static Status execute(Bytecode bytecode, Machine m, long stepLimit) {
+        int[] code = bytecode.code;
+        double[] n = m.nums;
+        String[] s = m.strs;
+        int pc = 0;
+        int at = 0;
+        long steps = 0;
+        long nextCheck = Math.min(CHECK_INTERVAL, stepLimit + 1);
+        try {
+            while (pc < code.length) {
+                if (++steps >= nextCheck) {
+                    m.steps = steps;
+                    if (steps > stepLimit) return Status.LIMIT_REACHED;
+                    if (m.stopRequested.getAsBoolean()) return Status.CANCELLED;
+                    nextCheck = Math.min(steps + CHECK_INTERVAL, stepLimit + 1);
+                }
+                at = pc;
+                switch (code[pc]) {
+                    case NMOV: n[code[pc + 1]] = n[code[pc + 2]]; pc += 3; break;
+                    case NADD: n[code[pc + 1]] = n[code[pc + 2]] + n[code[pc + 3]]; pc += 4; break;
+                    case NSUB: n[code[pc + 1]] = n[code[pc + 2]] - n[code[pc + 3]]; pc += 4; break;
+                    case NMUL: n[code[pc + 1]] = n[code[pc + 2]] * n[code[pc + 3]]; pc += 4; break;
+                    case NDIV: {
+                        double divisor = n[code[pc + 3]];
+                        if (divisor == 0) throw new BasicError(-1, "Деление на ноль");
+                        n[code[pc + 1]] = n[code[pc + 2]] / divisor;
+                        pc += 4;
+                        break;
+                    }
+                    case NPOW: n[code[pc + 1]] = Math.pow(n[code[pc + 2]], n[code[pc + 3]]); pc += 4; break;
+                    case NMOD: {
+                        long divisor = (long) n[code[pc + 3]];
+                        if (divisor == 0) throw new BasicError(-1, "Деление на ноль");
+                        n[code[pc + 1]] = (long) n[code[pc + 2]] % divisor;
+                        pc += 4;
+                        break;
+                    }
+                    case NAND: n[code[pc + 1]] = (long) n[code[pc + 2]] & (long) n[code[pc + 3]]; pc += 4; break;
+                    case NOR: n[code[pc + 1]] = (long) n[code[pc + 2]] | (long) n[code[pc + 3]]; pc += 4; break;
+                    case NNEG: n[code[pc + 1]] = -n[code[pc + 2]]; pc += 3; break;
+                    case NNOT: n[code[pc + 1]] = ~(long) n[code[pc + 2]]; pc += 3; break;
+                    case NCMP: n[code[pc + 1]] = n[code[pc + 2]] == n[code[pc + 3]] ? -1 : 0; pc += 4; break;
+                    case NCMP + 1: n[code[pc + 1]] = n[code[pc + 2]] != n[code[pc + 3]] ? -1 : 0; pc += 4; break;
+                    case NCMP + 2: n[code[pc + 1]] = n[code[pc + 2]] < n[code[pc + 3]] ? -1 : 0; pc += 4; break;
+                    case NCMP + 3: n[code[pc + 1]] = n[code[pc + 2]] > n[code[pc + 3]] ? -1 : 0; pc += 4; break;
+                    case NCMP + 4: n[code[pc + 1]] = n[code[pc + 2]] <= n[code[pc + 3]] ? -1 : 0; pc += 4; break;
+                    case NCMP + 5: n[code[pc + 1]] = n[code[pc + 2]] >= n[code[pc + 3]] ? -1 : 0; pc += 4; break;
+                    case SCMP: case SCMP + 1: case SCMP + 2: case SCMP + 3: case SCMP + 4: case SCMP + 5:
+                        n[code[pc + 1]] = compareResult(code[pc] - SCMP + BasicParser.OP_EQ, s[code[pc + 2]].compareTo(s[code[pc + 3]]));
+                        pc += 4;
+                        break;
+                    case JCMP: pc = n[code[pc + 1]] == n[code[pc + 2]] ? code[pc + 3] : pc + 4; break;
+                    case JCMP + 1: pc = n[code[pc + 1]] != n[code[pc + 2]] ? code[pc + 3] : pc + 4; break;
+                    case JCMP + 2: pc = n[code[pc + 1]] < n[code[pc + 2]] ? code[pc + 3] : pc + 4; break;
+                    case JCMP + 3: pc = n[code[pc + 1]] > n[code[pc + 2]] ? code[pc + 3] : pc + 4; break;
+                    case JCMP + 4: pc = n[code[pc + 1]] <= n[code[pc + 2]] ? code[pc + 3] : pc + 4; break;
+                    case JCMP + 5: pc = n[code[pc + 1]] >= n[code[pc + 2]] ? code[pc + 3] : pc + 4; break;
+                    case JMP: pc = code[pc + 1]; break;
+                    case JZ: pc = n[code[pc + 1]] == 0 ? code[pc + 2] : pc + 3; break;
+                    case JNZ: pc = n[code[pc + 1]] != 0 ? code[pc + 2] : pc + 3; break;
+                    case FORTEST: {
+                        double step = n[code[pc + 3]];
+                        double value = n[code[pc + 1]];
+                        pc = (step >= 0 ? value > n[code[pc + 2]] : value < n[code[pc + 2]]) ? code[pc + 4] : pc + 5;
+                        break;
+                    }
+                    case FORNEXT: {
+                        double step = n[code[pc + 3]];
+                        double value = n[code[pc + 1]] += step;
+                        pc = (step >= 0 ? value <= n[code[pc + 2]] : value >= n[code[pc + 2]]) ? code[pc + 4] : pc + 5;
+                        break;
+                    }
+                    case GOSUB:
+                        m.pushReturn(pc + 2);
+                        pc = code[pc + 1];
+                        break;
+                    case RET: pc = m.popReturn(); break;
+                    case END: m.steps = steps; return Status.FINISHED;
+                    case SMOV: s[code[pc + 1]] = s[code[pc + 2]]; pc += 3; break;
+                    case SCAT: s[code[pc + 1]] = s[code[pc + 2]].concat(s[code[pc + 3]]); pc += 4; break;
+                    case ALOADN1: {
+                        ArrayValue array = m.array(false, code[pc + 2], 1);
+                        n[code[pc + 1]] = array.numbers[array.index(0, n[code[pc + 3]])];
+                        pc += 4;
+                        break;
+                    }
+                    case ASTOREN1: {
+                        ArrayValue array = m.array(false, code[pc + 1], 1);
+                        array.numbers[array.index(0, n[code[pc + 3]])] = n[code[pc + 2]];
+                        pc += 4;
+                        break;
+                    }
+                    case ALOADN: {
+                        ArrayValue array = m.array(false, code[pc + 2], code[pc + 3]);
+                        n[code[pc + 1]] = array.numbers[array.offset(code, pc + 4, n)];
+                        pc += 4 + code[pc + 3];
+                        break;
+                    }
+                    case ASTOREN: {
+                        ArrayValue array = m.array(false, code[pc + 1], code[pc + 3]);
+                        array.numbers[array.offset(code, pc + 4, n)] = n[code[pc + 2]];
+                        pc += 4 + code[pc + 3];
+                        break;
+                    }
+                    case ALOADS: {
+                        ArrayValue array = m.array(true, code[pc + 2], code[pc + 3]);
+                        s[code[pc + 1]] = array.strings[array.offset(code, pc + 4, n)];
+                        pc += 4 + code[pc + 3];
+                        break;
+                    }
+                    case ASTORES: {
+                        ArrayValue array = m.array(true, code[pc + 1], code[pc + 3]);
+                        array.strings[array.offset(code, pc + 4, n)] = s[code[pc + 2]];
+                        pc += 4 + code[pc + 3];
+                        break;
+                    }
+                    case DIMN:
+                    case DIMS:
+                        dim(code, pc, m);
+                        pc += 3 + code[pc + 2];
+                        break;
+                    case FN: n[code[pc + 2]] = numberFunction(code[pc + 1], n[code[pc + 3]], m.random); pc += 4; break;
+                    case SFN:
+                        stringCall(code, pc, n, s);
+                        pc += 6;
+                        break;
+                    case PRINTN: m.print(formatNumber(n[code[pc + 1]])); pc += 2; break;
+                    case PRINTS: m.print(s[code[pc + 1]]); pc += 2; break;
+                    case PRINTSEP: m.separator((char) code[pc + 1]); pc += 2; break;
+                    case INPUT:
+                        input(code, pc, m);
+                        pc += 3 + code[pc + 2] * 2;
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+                }
+            }
+            m.steps = steps;
+            return Status.FINISHED;
+        } catch (BasicError e) {
+            m.steps = steps;
+            throw e.line >= 0 ? e : new BasicError(bytecode.lines[at], e.getReason());
+        }
+    }
+
+    // Rarely executed instructions stay out of the dispatch loop to keep it small for the JIT
+
+    private static void dim(int[] code, int pc, Machine m) {
+        int[] sizes = new int[code[pc + 2]];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = dimension(m.nums[code[pc + 3 + i]]);
+        m.dim(code[pc] == DIMS, code[pc + 1], sizes);
+    }
+
+    private static void stringCall(int[] code, int pc, double[] n, String[] s) {
+        int function = code[pc + 1];
+        int a0 = code[pc + 3];
+        if (function <= BasicParser.FN_VAL) {
+            n[code[pc + 2]] = stringToNumber(function, s[a0]);
+        } else if (function <= BasicParser.FN_CHR) {
+            s[code[pc + 2]] = stringFunction(function, null, n[a0], Double.NaN);
+        } else {
+            double b = code[pc + 5] >= 0 ? n[code[pc + 5]] : Double.NaN;
+            s[code[pc + 2]] = stringFunction(function, s[a0], n[code[pc + 4]], b);
+        }
+    }
+
+    private static void input(int[] code, int pc, Machine m) {
+        int count = code[pc + 2];
+        int[] slots = new int[count];
+        boolean[] strings = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = code[pc + 3 + i * 2] != 0;
+            slots[i] = code[pc + 4 + i * 2];
+        }
+        m.input(code[pc + 1] >= 0 ? m.strs[code[pc + 1]] : null, slots, strings, m.nums, m.strs);
+    }
+
+    // Lowers the statement list to bytecode. Registers: variables first (same slots as
+    // the interpreter), then every literal of the program, then per-statement temporaries.
+    private static final class Compiler {
+        private final BasicParser.Parsed parsed;
+        private int[] code = new int[256];
+        private int[] lines = new int[256];
+        private int size;
+        private int instructions;
+        private int line;
+        private final List<Integer> fixups = new ArrayList<>();
+        private final Map<Double, Integer> numberConstants = new HashMap<>();
+        private final Map<String, Integer> stringConstants = new HashMap<>();
+        private final List<Double> numberValues = new ArrayList<>();
+        private final List<String> stringValues = new ArrayList<>();
+        private int numberTempBase;
+        private int stringTempBase;
+        private int numberTemp;
+        private int stringTemp;
+        private int numberRegisters;
+        private int stringRegisters;
+
+        Compiler(BasicParser.Parsed parsed) {
+            this.parsed = parsed;
+        }
+
+        Bytecode compile() {
+            BasicParser.Stmt[] statements = parsed.statements;
+            int numberVars = parsed.numberNames.size();
+            int stringVars = parsed.stringNames.size();
+            numberConstant(0, numberVars);
+            for (BasicParser.Stmt s : statements) collectConstants(s, numberVars, stringVars);
+            numberTempBase = numberVars + numberValues.size();
+            stringTempBase = stringVars + stringValues.size();
+            numberRegisters = numberTempBase;
+            stringRegisters = stringTempBase;
+
+            int[] statementPc = new int[statements.length + 1];
+            for (int i = 0; i < statements.length; i++) {
+                statementPc[i] = size;
+                numberTemp = numberTempBase;
+                stringTemp = stringTempBase;
+                line = statements[i].line;
+                statement(statements[i]);
+            }
+            statementPc[statements.length] = size;
+            for (int at : fixups) {
+                code[at] = statementPc[code[at]];
+            }
+
+            double[] numberInit = new double[numberRegisters];
+            for (int i = 0; i < numberValues.size(); i++) numberInit[numberVars + i] = numberValues.get(i);
+            String[] stringInit = new String[stringRegisters];
+            Arrays.fill(stringInit, "");
+            for (int i = 0; i < stringValues.size(); i++) stringInit[stringVars + i] = stringValues.get(i);
+            return new Bytecode(Arrays.copyOf(code, size), Arrays.copyOf(lines, size),
+                    numberInit, stringInit, instructions);
+        }
+
+        private void statement(BasicParser.Stmt s) {
+            switch (s.kind) {
+                case BasicParser.S_ASSIGN: {
+                    BasicParser.Expr target = s.target;
+                    if (target.kind == BasicParser.E_VAR) {
+                        if (target.string) string(s.value, target.slot);
+                        else number(s.value, target.slot);
+                        return;
+                    }
+                    int[] indices = indices(target.args);
+                    int value = target.string ? string(s.value, -1) : number(s.value, -1);
+                    if (!target.string && indices.length == 1) emit(ASTOREN1, target.slot, value, indices[0]);
+                    else emitArray(target.string ? ASTORES : ASTOREN, target.slot, value, indices);
+                    return;
+                }
+                case BasicParser.S_PRINT:
+                    for (int i = 0; i < s.items.length; i++) {
+                        BasicParser.Expr item = s.items[i];
+                        if (item.kind != BasicParser.E_STR || !item.text.isEmpty()) {
+                            if (item.string) emit(PRINTS, string(item, -1));
+                            else emit(PRINTN, number(item, -1));
+                        }
+                        if (s.separators[i] == ',' || s.separators[i] == '\n') emit(PRINTSEP, s.separators[i]);
+                    }
+                    return;
+                case BasicParser.S_INPUT: {
+                    int[] operands = new int[2 + s.inputSlots.length * 2];
+                    operands[0] = s.prompt != null ? stringConstants.get(s.prompt) : -1;
+                    operands[1] = s.inputSlots.length;
+                    for (int i = 0; i < s.inputSlots.length; i++) {
+                        operands[2 + i * 2] = s.inputStrings[i] ? 1 : 0;
+                        operands[3 + i * 2] = s.inputSlots[i];
+                    }
+                    emit(INPUT, operands);
+                    return;
+                }
+                case BasicParser.S_GOTO:
+                    emitJump(JMP, s.jump);
+                    return;
+                case BasicParser.S_IF:
+                    branch(s.value, s.whenTrue, s.jump);
+                    return;
+                case BasicParser.S_GOSUB:
+                    emitJump(GOSUB, s.jump);
+                    return;
+                case BasicParser.S_RETURN:
+                    emit(RET);
+                    return;
+                case BasicParser.S_END:
+                    emit(END);
+                    return;
+                case BasicParser.S_DIM: {
+                    int[] sizes = indices(s.target.args);
+                    int[] operands = new int[2 + sizes.length];
+                    operands[0] = s.target.slot;
+                    operands[1] = sizes.length;
+                    System.arraycopy(sizes, 0, operands, 2, sizes.length);
+                    emit(s.target.string ? DIMS : DIMN, operands);
+                    return;
+                }
+                case BasicParser.S_FOR_TEST:
+                case BasicParser.S_FOR_NEXT:
+                    emit(s.kind == BasicParser.S_FOR_TEST ? FORTEST : FORNEXT, s.var, s.limit, s.step, s.jump);
+                    fixups.add(size - 1);
+                    return;
+                default:
+                    throw new IllegalStateException("Unexpected statement " + s.kind);
+            }
+        }
+
+        // Numeric comparisons become one compare-and-branch; anything else tests a register
+        private void branch(BasicParser.Expr condition, boolean whenTrue, int target) {
+            if (condition.kind == BasicParser.E_BINARY && condition.op >= BasicParser.OP_EQ && condition.op <= BasicParser.OP_GE && !condition.left.string) {
+                int a = number(condition.left, -1);
+                int b = number(condition.right, -1);
+                int op = whenTrue ? condition.op : negate(condition.op);
+                emit(JCMP + op - BasicParser.OP_EQ, a, b, target);
+                fixups.add(size - 1);
+                return;
+            }
+            int value = number(condition, -1);
+            emit(whenTrue ? JNZ : JZ, value, target);
+            fixups.add(size - 1);
+        }
+
+        private static int negate(int op) {
+            switch (op) {
+                case BasicParser.OP_EQ: return BasicParser.OP_NE;
+                case BasicParser.OP_NE: return BasicParser.OP_EQ;
+                case BasicParser.OP_LT: return BasicParser.OP_GE;
+                case BasicParser.OP_GT: return BasicParser.OP_LE;
+                case BasicParser.OP_LE: return BasicParser.OP_GT;
+                default: return BasicParser.OP_LT;
+            }
+        }
+
+        // Returns the register holding the value; dst >= 0 forces the result into that register
+        private int number(BasicParser.Expr e, int dst) {
+            switch (e.kind) {
+                case BasicParser.E_NUM:
+                case BasicParser.E_VAR: {
+                    int register = e.kind == BasicParser.E_NUM ? numberConstants.get(e.number) : e.slot;
+                    if (dst < 0 || dst == register) return register;
+                    emit(NMOV, dst, register);
+                    return dst;
+                }
+                case BasicParser.E_ARRAY: {
+                    int[] indices = indices(e.args);
+                    int target = dst >= 0 ? dst : numberTemp();
+                    if (indices.length == 1) emit(ALOADN1, target, e.slot, indices[0]);
+                    else emitArray(ALOADN, target, e.slot, indices);
+                    return target;
+                }
+                case BasicParser.E_UNARY: {
+                    int value = number(e.left, -1);
+                    int target = dst >= 0 ? dst : numberTemp();
+                    emit(e.op == BasicParser.OP_NEG ? NNEG : NNOT, target, value);
+                    return target;
+                }
+                case BasicParser.E_BINARY: {
+                    boolean compare = e.op >= BasicParser.OP_EQ && e.op <= BasicParser.OP_GE;
+                    int a = compare && e.left.string ? string(e.left, -1) : number(e.left, -1);
+                    int b = compare && e.left.string ? string(e.right, -1) : number(e.right, -1);
+                    int target = dst >= 0 ? dst : numberTemp();
+                    int op = compare ? (e.left.string ? SCMP : NCMP) + e.op - BasicParser.OP_EQ : NADD + e.op - BasicParser.OP_ADD;
+                    if (e.op == BasicParser.OP_AND) op = NAND;
+                    if (e.op == BasicParser.OP_OR) op = NOR;
+                    emit(op, target, a, b);
+                    return target;
+                }
+                case BasicParser.E_CALL: {
+                    if (e.op <= BasicParser.LAST_NUMERIC_FN) {
+                        int argument = e.args.length > 0 ? number(e.args[0], -1) : numberConstants.get(0.0);
+                        int target = dst >= 0 ? dst : numberTemp();
+                        emit(FN, e.op, target, argument);
+                        return target;
+                    }
+                    int argument = string(e.args[0], -1);
+                    int target = dst >= 0 ? dst : numberTemp();
+                    emit(SFN, e.op, target, argument, -1, -1);
+                    return target;
+                }
+                default:
+                    throw new IllegalStateException("Unexpected expression " + e.kind);
+            }
+        }
+
+        private int string(BasicParser.Expr e, int dst) {
+            switch (e.kind) {
+                case BasicParser.E_STR:
+                case BasicParser.E_VAR: {
+                    int register = e.kind == BasicParser.E_STR ? stringConstants.get(e.text) : e.slot;
+                    if (dst < 0 || dst == register) return register;
+                    emit(SMOV, dst, register);
+                    return dst;
+                }
+                case BasicParser.E_ARRAY: {
+                    int[] indices = indices(e.args);
+                    int target = dst >= 0 ? dst : stringTemp();
+                    emitArray(ALOADS, target, e.slot, indices);
+                    return target;
+                }
+                case BasicParser.E_BINARY: {
+                    int a = string(e.left, -1);
+                    int b = string(e.right, -1);
+                    int target = dst >= 0 ? dst : stringTemp();
+                    emit(SCAT, target, a, b);
+                    return target;
+                }
+                case BasicParser.E_CALL: {
+                    int a0 = e.args[0].string ? string(e.args[0], -1) : number(e.args[0], -1);
+                    int a1 = e.args.length > 1 ? number(e.args[1], -1) : -1;
+                    int a2 = e.args.length > 2 ? number(e.args[2], -1) : -1;
+                    int target = dst >= 0 ? dst : stringTemp();
+                    emit(SFN, e.op, target, a0, a1, a2);
+                    return target;
+                }
+                default:
+                    throw new IllegalStateException("Unexpected expression " + e.kind);
+            }
+        }
+
+        private int[] indices(BasicParser.Expr[] args) {
+            int[] registers = new int[args.length];
+            for (int i = 0; i < args.length; i++) registers[i] = number(args[i], -1);
+            return registers;
+        }
+
+        // Array ops: op, first, second, count, indices...
+        private void emitArray(int op, int first, int second, int[] indices) {
+            int[] operands = new int[3 + indices.length];
+            operands[0] = first;
+            operands[1] = second;
+            operands[2] = indices.length;
+            System.arraycopy(indices, 0, operands, 3, indices.length);
+            emit(op, operands);
+        }
+
+        private int numberTemp() {
+            numberRegisters = Math.max(numberRegisters, numberTemp + 1);
+            return numberTemp++;
+        }
+
+        private int stringTemp() {
+            stringRegisters = Math.max(stringRegisters, stringTemp + 1);
+            return stringTemp++;
+        }
+
+        private void emitJump(int op, int target) {
+            emit(op, target);
+            fixups.add(size - 1);
+        }
+
+        private void emit(int op, int... operands) {
+            if (size + operands.length + 1 > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + operands.length + 1));
+                lines = Arrays.copyOf(lines, code.length);
+            }
+            lines[size] = line;
+            code[size++] = op;
+            for (int operand : operands) {
+                lines[size] = line;
+                code[size++] = operand;
+            }
+            instructions++;
+        }
+
+        private void collectConstants(BasicParser.Stmt s, int numberVars, int stringVars) {
+            if (s.prompt != null) stringConstant(s.prompt, stringVars);
+            collectConstants(s.target, numberVars, stringVars);
+            collectConstants(s.value, numberVars, stringVars);
+            if (s.items != null) {
+                for (BasicParser.Expr item : s.items) collectConstants(item, numberVars, stringVars);
+            }
+        }
+
+        private void collectConstants(BasicParser.Expr e, int numberVars, int stringVars) {
+            if (e == null) return;
+            if (e.kind == BasicParser.E_NUM) numberConstant(e.number, numberVars);
+            if (e.kind == BasicParser.E_STR) stringConstant(e.text, stringVars);
+            collectConstants(e.left, numberVars, stringVars);
+            collectConstants(e.right, numberVars, stringVars);
+            if (e.args != null) {
+                for (BasicParser.Expr arg : e.args) collectConstants(arg, numberVars, stringVars);
+            }
+        }
+
+        private void numberConstant(double value, int numberVars) {
+            numberConstants.computeIfAbsent(value, v -> {
+                numberValues.add(v);
+                return numberVars + numberValues.size() - 1;
+            });
+        }
+
+        private void stringConstant(String value, int stringVars) {
+            stringConstants.computeIfAbsent(value, v -> {
+                stringValues.add(v);
+                return stringVars + stringValues.size() - 1;
+            });
+        }
+    }
+
+    // Run-time state shared by all tiers
+
+    static final class ArrayValue {
+        final int[] sizes;
+        final double[] numbers;
+        final String[] strings;
+
+        ArrayValue(boolean string, int[] sizes) {
+            long total = 1;
+            for (int size : sizes) total *= size;
+            if (total > Integer.MAX_VALUE - 8) throw new BasicError(-1, "Слишком большой массив");
+            this.sizes = sizes;
+            if (string) {
+                strings = new String[(int) total];
+                Arrays.fill(strings, "");
+                numbers = null;
+            } else {
+                numbers = new double[(int) total];
+                strings = null;
+            }
+        }
+
+        int index(int dimension, double value) {
+            int index = (int) value;
+            if (value < 0 || index >= sizes[dimension]) {
+                throw new BasicError(-1, "Индекс " + formatNumber(value).trim() + " вне границ 0.." + (sizes[dimension] - 1));
+            }
+            return index;
+        }
+
+        int offset(double[] indices) {
+            int offset = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                offset = offset * sizes[i] + index(i, indices[i]);
+            }
+            return offset;
+        }
+
+        int offset(int[] code, int at, double[] registers) {
+            int offset = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                offset = offset * sizes[i] + index(i, registers[code[at + i]]);
+            }
+            return offset;
+        }
+    }
+
+    static final class Machine {
+        final double[] nums;
+        final String[] strs;
+        final ArrayValue[] numberArrays;
+        final ArrayValue[] stringArrays;
+        final Supplier<String> input;
+        final Consumer<String> output;
+        final BooleanSupplier stopRequested;
+        final Random random = new Random();
+        final StringBuilder out = new StringBuilder();
+        final int[] returns = new int[MAX_GOSUB_DEPTH];
+        int returnDepth;
+        int column;
+        long steps;
+
+        Machine(double[] nums, String[] strs, BasicParser.Parsed parsed, Supplier<String> input,
+                Consumer<String> output, BooleanSupplier stopRequested) {
+            this.nums = nums;
+            this.strs = strs;
+            this.numberArrays = new ArrayValue[parsed.numberArrayNames.size()];
+            this.stringArrays = new ArrayValue[parsed.stringArrayNames.size()];
+            this.input = input;
+            this.output = output;
+            this.stopRequested = stopRequested;
+        }
+
+        // Arrays used without DIM get 0..10 in every dimension, as in classic BASIC
+        ArrayValue array(boolean string, int slot, int dimensions) {
+            ArrayValue[] arrays = string ? stringArrays : numberArrays;
+            ArrayValue array = arrays[slot];
+            if (array == null) {
+                int[] sizes = new int[dimensions];
+                Arrays.fill(sizes, DEFAULT_ARRAY_SIZE);
+                array = arrays[slot] = new ArrayValue(string, sizes);
+            }
+            if (array.sizes.length != dimensions) throw new BasicError(-1, "Неверное число индексов");
+            return array;
+        }
+
+        void dim(boolean string, int slot, int[] sizes) {
+            ArrayValue[] arrays = string ? stringArrays : numberArrays;
+            if (arrays[slot] != null) throw new BasicError(-1, "Массив уже объявлен");
+            arrays[slot] = new ArrayValue(string, sizes);
+        }
+
+        // Called every CHECK_INTERVAL steps by the JVM tier; returns the step count of the next
+        // check, or minus the ordinal of the status to stop with
+        long poll(long steps, long stepLimit) {
+            this.steps = steps;
+            if (steps > stepLimit) return -Status.LIMIT_REACHED.ordinal();
+            if (stopRequested.getAsBoolean()) return -Status.CANCELLED.ordinal();
+            return Math.min(steps + CHECK_INTERVAL, stepLimit + 1);
+        }
+
+        void pushReturn(int pc) {
+            if (returnDepth == returns.length) throw new BasicError(-1, "Слишком глубокая вложенность GOSUB");
+            returns[returnDepth++] = pc;
+        }
+
+        int popReturn() {
+            if (returnDepth == 0) throw new BasicError(-1, "RETURN без GOSUB");
+            return returns[--returnDepth];
+        }
+
+        void print(String text) {
+            out.append(text);
+            int newline = text.lastIndexOf('\n');
+            column = newline >= 0 ? text.length() - newline - 1 : column + text.length();
+            if (out.length() >= OUTPUT_CHUNK) flush();
+        }
+
+        // ',' moves to the next print zone, '\n' ends the line, ';' and ' ' do nothing
+        void separator(char separator) {
+            if (separator == ',') {
+                int next = (column / PRINT_ZONE + 1) * PRINT_ZONE;
+                while (column < next) {
+                    out.append(' ');
+                    column++;
+                }
+            } else if (separator == '\n') {
+                out.append('\n');
+                column = 0;
+                flush();
+            }
+        }
+
+        void flush() {
+            if (out.length() > 0) {
+                output.accept(out.toString());
+                out.setLength(0);
+            }
+        }
+
+        // Reads one line and splits it on commas; a bad number asks again, as classic BASIC does
+        void input(String prompt, int[] slots, boolean[] strings, double[] numbers, String[] texts) {
+            while (true) {
+                print(prompt != null ? prompt : "? ");
+                flush();
+                String line = input.get();
+                if (line == null) throw new BasicError(-1, "Ввод прерван");
+                print(line);
+                separator('\n');
+                String[] fields = line.split(",", -1);
+                boolean valid = fields.length >= slots.length;
+                for (int i = 0; valid && i < slots.length; i++) {
+                    if (!strings[i]) {
+                        try {
+                            Double.parseDouble(fields[i].trim());
+                        } catch (NumberFormatException e) {
+                            valid = false;
+                        }
+                    }
+                }
+                if (!valid) {
+                    print("?Повторите ввод");
+                    separator('\n');
+                    continue;
+                }
+                for (int i = 0; i < slots.length; i++) {
+                    if (strings[i]) texts[slots[i]] = slots.length == 1 ? line : fields[i].trim();
+                    else numbers[slots[i]] = Double.parseDouble(fields[i].trim());
+                }
+                return;
+            }
+        }
+    }
+
+    // Helpers shared by the tiers; the JVM tier calls them from generated code
+
+    static BasicError locate(BasicError e, int line) {
+        return e.line >= 0 ? e : new BasicError(line, e.getReason());
+    }
+
+    static double divide(double a, double b) {
+        if (b == 0) throw new BasicError(-1, "Деление на ноль");
+        return a / b;
+    }
+
+    static double modulo(double a, double b) {
+        if ((long) b == 0) throw new BasicError(-1, "Деление на ноль");
+        return (long) a % (long) b;
+    }
+
+    static double numberAt(Machine m, int slot, double index) {
+        ArrayValue array = m.array(false, slot, 1);
+        return array.numbers[array.index(0, index)];
+    }
+
+    static double numberAt(Machine m, int slot, double[] indices) {
+        ArrayValue array = m.array(false, slot, indices.length);
+        return array.numbers[array.offset(indices)];
+    }
+
+    static String stringAt(Machine m, int slot, double index) {
+        ArrayValue array = m.array(true, slot, 1);
+        return array.strings[array.index(0, index)];
+    }
+
+    static String stringAt(Machine m, int slot, double[] indices) {
+        ArrayValue array = m.array(true, slot, indices.length);
+        return array.strings[array.offset(indices)];
+    }
+
+    static void setNumber(Machine m, int slot, double index, double value) {
+        ArrayValue array = m.array(false, slot, 1);
+        array.numbers[array.index(0, index)] = value;
+    }
+
+    static void setNumber(Machine m, int slot, double[] indices, double value) {
+        ArrayValue array = m.array(false, slot, indices.length);
+        array.numbers[array.offset(indices)] = value;
+    }
+
+    static void setString(Machine m, int slot, double index, String value) {
+        ArrayValue array = m.array(true, slot, 1);
+        array.strings[array.index(0, index)] = value;
+    }
+
+    static void setString(Machine m, int slot, double[] indices, String value) {
+        ArrayValue array = m.array(true, slot, indices.length);
+        array.strings[array.offset(indices)] = value;
+    }
+
+    static void dim(Machine m, boolean string, int slot, double[] bounds) {
+        int[] sizes = new int[bounds.length];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = dimension(bounds[i]);
+        m.dim(string, slot, sizes);
+    }
+
+    static void input(Machine m, String prompt, int[] slots, boolean[] strings) {
+        m.input(prompt, slots, strings, m.nums, m.strs);
+    }
+
+    private static double arithmetic(int op, double a, double b) {
+        switch (op) {
+            case BasicParser.OP_ADD: return a + b;
+            case BasicParser.OP_SUB: return a - b;
+            case BasicParser.OP_MUL: return a * b;
+            case BasicParser.OP_DIV: return divide(a, b);
+            case BasicParser.OP_POW: return Math.pow(a, b);
+            case BasicParser.OP_MOD: return modulo(a, b);
+            case BasicParser.OP_AND: return (long) a & (long) b;
+            case BasicParser.OP_OR: return (long) a | (long) b;
+            default: throw new IllegalStateException("Unexpected operator " + op);
+        }
+    }
+
+    // Java comparison semantics, like the other tiers: 0 equals -0 and NaN is unordered
+    private static double compareNumbers(int op, double a, double b) {
+        boolean result;
+        switch (op) {
+            case BasicParser.OP_EQ: result = a == b; break;
+            case BasicParser.OP_NE: result = a != b; break;
+            case BasicParser.OP_LT: result = a < b; break;
+            case BasicParser.OP_GT: result = a > b; break;
+            case BasicParser.OP_LE: result = a <= b; break;
+            default: result = a >= b;
+        }
+        return result ? -1 : 0;
+    }
+
+    private static double compareResult(int op, int compare) {
+        boolean result;
+        switch (op) {
+            case BasicParser.OP_EQ: result = compare == 0; break;
+            case BasicParser.OP_NE: result = compare != 0; break;
+            case BasicParser.OP_LT: result = compare < 0; break;
+            case BasicParser.OP_GT: result = compare > 0; break;
+            case BasicParser.OP_LE: result = compare <= 0; break;
+            default: result = compare >= 0;
+        }
+        return result ? -1 : 0;
+    }
+
+    private static int dimension(double bound) {
+        if (bound < 0 || bound >= Integer.MAX_VALUE) throw new BasicError(-1, "Неверный размер массива");
+        return (int) bound + 1;
+    }
+
+    static double numberFunction(int function, double x, Random random) {
+        switch (function) {
+            case BasicParser.FN_ABS: return Math.abs(x);
+            case BasicParser.FN_INT: return Math.floor(x);
+            case BasicParser.FN_SQR:
+                if (x < 0) throw new BasicError(-1, "Корень из отрицательного числа");
+                return Math.sqrt(x);
+            case BasicParser.FN_SIN: return Math.sin(x);
+            case BasicParser.FN_COS: return Math.cos(x);
+            case BasicParser.FN_TAN: return Math.tan(x);
+            case BasicParser.FN_ATN: return Math.atan(x);
+            case BasicParser.FN_EXP: return Math.exp(x);
+            case BasicParser.FN_LOG:
+                if (x <= 0) throw new BasicError(-1, "Логарифм неположительного числа");
+                return Math.log(x);
+            case BasicParser.FN_SGN: return Math.signum(x);
+            default: return random.nextDouble();
+        }
+    }
+
+    static double stringToNumber(int function, String text) {
+        switch (function) {
+            case BasicParser.FN_LEN:
+                return text.length();
+            case BasicParser.FN_ASC:
+                if (text.isEmpty()) throw new BasicError(-1, "ASC от пустой строки");
+                return text.charAt(0);
+            default:
+                return parseLeadingNumber(text);
+        }
+    }
+
+    // text is the string argument (null for STR$/CHR$); a and b are the numeric ones
+    static String stringFunction(int function, String text, double a, double b) {
+        switch (function) {
+            case BasicParser.FN_STR:
+                return formatNumber(a);
+            case BasicParser.FN_CHR:
+                if (a < 0 || a > Character.MAX_VALUE) throw new BasicError(-1, "Неверный код символа");
+                return String.valueOf((char) a);
+            case BasicParser.FN_LEFT:
+                return text.substring(0, clamp(a, text.length()));
+            case BasicParser.FN_RIGHT:
+                return text.substring(text.length() - clamp(a, text.length()));
+            default: {
+                int start = clamp(a - 1, text.length());
+                int length = Double.isNaN(b) ? text.length() - start : clamp(b, text.length() - start);
+                return text.substring(start, start + length);
+            }
+        }
+    }
+
+    private static int clamp(double value, int max) {
+        if (value < 0 || Double.isNaN(value)) return 0;
+        return value > max ? max : (int) value;
+    }
+
+    private static double parseLeadingNumber(String text) {
+        String trimmed = text.trim();
+        int end = 0;
+        while (end < trimmed.length() && "+-.0123456789eE".indexOf(trimmed.charAt(end)) >= 0) end++;
+        for (; end > 0; end--) {
+            try {
+                return Double.parseDouble(trimmed.substring(0, end));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return 0;
+    }
+
+    // Classic BASIC output: a leading blank for non-negative numbers, at most 10 significant digits
+    static String formatNumber(double value) {
+        String text;
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            text = Long.toString((long) value);
+        } else if (Double.isNaN(value) || Double.isInfinite(value)) {
+            text = Double.toString(value);
+        } else {
+            BigDecimal rounded = new BigDecimal(value).round(new MathContext(10)).stripTrailingZeros();
+            text = Math.abs(value) >= 1e-6 && Math.abs(value) < 1e15 ? rounded.toPlainString() : rounded.toString();
+        }
+        return value >= 0 || Double.isNaN(value) ? " " + text : text;
+    }
+}
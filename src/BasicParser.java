@@ -0,0 +1,930 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Front end of the BASIC engine. Produces a flat statement list: IF/FOR/WHILE/DO
+// blocks are lowered to conditional jumps, and every GOTO/GOSUB line number is
+// resolved to a statement index once, so neither tier searches for lines at run time.
+// Variables get fixed slots: numeric and string scalars, numeric and string arrays.
+class BasicParser {
+    // Expression kinds
+    static final int E_NUM = 0;
+    static final int E_STR = 1;
+    static final int E_VAR = 2;
+    static final int E_ARRAY = 3;
+    static final int E_UNARY = 4;
+    static final int E_BINARY = 5;
+    static final int E_CALL = 6;
+
+    // Operators
+    static final int OP_ADD = 0;
+    static final int OP_SUB = 1;
+    static final int OP_MUL = 2;
+    static final int OP_DIV = 3;
+    static final int OP_POW = 4;
+    static final int OP_MOD = 5;
+    static final int OP_EQ = 6;
+    static final int OP_NE = 7;
+    static final int OP_LT = 8;
+    static final int OP_GT = 9;
+    static final int OP_LE = 10;
+    static final int OP_GE = 11;
+    static final int OP_AND = 12;
+    static final int OP_OR = 13;
+    static final int OP_NEG = 14;
+    static final int OP_NOT = 15;
+
+    // Statement kinds
+    static final int S_ASSIGN = 0;
+    static final int S_PRINT = 1;
+    static final int S_INPUT = 2;
+    static final int S_GOTO = 3;
+    static final int S_IF = 4;
+    static final int S_GOSUB = 5;
+    static final int S_RETURN = 6;
+    static final int S_END = 7;
+    static final int S_DIM = 8;
+    static final int S_FOR_TEST = 9;
+    static final int S_FOR_NEXT = 10;
+
+    // Built-in functions; numeric ones of one numeric argument come first
+    static final int FN_ABS = 0;
+    static final int FN_INT = 1;
+    static final int FN_SQR = 2;
+    static final int FN_SIN = 3;
+    static final int FN_COS = 4;
+    static final int FN_TAN = 5;
+    static final int FN_ATN = 6;
+    static final int FN_EXP = 7;
+    static final int FN_LOG = 8;
+    static final int FN_SGN = 9;
+    static final int FN_RND = 10;
+    static final int FN_LEN = 11;
+    static final int FN_ASC = 12;
+    static final int FN_VAL = 13;
+    static final int FN_STR = 14;
+    static final int FN_CHR = 15;
+    static final int FN_LEFT = 16;
+    static final int FN_RIGHT = 17;
+    static final int FN_MID = 18;
+    static final int LAST_NUMERIC_FN = FN_RND;
+
+    private static final String[] FUNCTION_NAMES = {
+            "ABS", "INT", "SQR", "SIN", "COS", "TAN", "ATN", "EXP", "LOG", "SGN", "RND",
+            "LEN", "ASC", "VAL", "STR$", "CHR$", "LEFT$", "RIGHT$", "MID$"
+    };
+    // Argument types per function, 'n' numeric or 's' string; the trailing ones past FUNCTION_MIN_ARGS are optional
+    private static final String[] FUNCTION_ARGS = {
+            "n", "n", "n", "n", "n", "n", "n", "n", "n", "n", "n",
+            "s", "s", "s", "n", "n", "sn", "sn", "snn"
+    };
+    private static final int[] FUNCTION_MIN_ARGS = { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 1, 1, 1, 1, 1, 2, 2, 2 };
+
+    static final class Expr {
+        final int kind;
+        final boolean string;
+        double number;
+        String text;
+        int slot;
+        int op;
+        Expr left;
+        Expr right;
+        Expr[] args;
+
+        Expr(int kind, boolean string) {
+            this.kind = kind;
+            this.string = string;
+        }
+    }
+
+    static final class Stmt {
+        final int kind;
+        final int line;
+        Expr target;
+        Expr value;
+        Expr[] items;
+        char[] separators;
+        String prompt;
+        int[] inputSlots;
+        boolean[] inputStrings;
+        int jump = -1;
+        boolean whenTrue;
+        int var;
+        int limit;
+        int step;
+
+        Stmt(int kind, int line) {
+            this.kind = kind;
+            this.line = line;
+        }
+    }
+
+    // Parser output; slot counts size the variable arrays of every tier
+    static final class Parsed {
+        final Stmt[] statements;
+        final List<String> numberNames;
+        final List<String> stringNames;
+        final List<String> numberArrayNames;
+        final List<String> stringArrayNames;
+
+        Parsed(Stmt[] statements, List<String> numberNames, List<String> stringNames,
+               List<String> numberArrayNames, List<String> stringArrayNames) {
+            this.statements = statements;
+            this.numberNames = numberNames;
+            this.stringNames = stringNames;
+            this.numberArrayNames = numberArrayNames;
+            this.stringArrayNames = stringArrayNames;
+        }
+    }
+
+    private static final int B_IF = 0;
+    private static final int B_FOR = 1;
+    private static final int B_WHILE = 2;
+    private static final int B_DO = 3;
+
+    private static final class Block {
+        final int kind;
+        final int line;
+        final int start;
+        Stmt test;
+        final List<Stmt> exits = new ArrayList<>();
+        boolean hasElse;
+
+        Block(int kind, int line, int start, Stmt test) {
+            this.kind = kind;
+            this.line = line;
+            this.start = start;
+            this.test = test;
+        }
+    }
+
+    private final List<Stmt> statements = new ArrayList<>();
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<Integer, Integer> lineNumbers = new HashMap<>();
+    private final List<Stmt> lineJumps = new ArrayList<>();
+    private final List<Integer> lineJumpTargets = new ArrayList<>();
+    private final Map<String, Integer> numberSlots = new HashMap<>();
+    private final Map<String, Integer> stringSlots = new HashMap<>();
+    private final Map<String, Integer> numberArraySlots = new HashMap<>();
+    private final Map<String, Integer> stringArraySlots = new HashMap<>();
+    private final List<String> numberNames = new ArrayList<>();
+    private final List<String> stringNames = new ArrayList<>();
+    private final List<String> numberArrayNames = new ArrayList<>();
+    private final List<String> stringArrayNames = new ArrayList<>();
+    private int hiddenSlots;
+    // A block ELSE may be followed by statements on the same line without ':'
+    private boolean chained;
+
+    // Current line tokens
+    private final List<Object> tokens = new ArrayList<>();
+    private int pos;
+    private int line;
+
+    static Parsed parse(CharSequence source) {
+        BasicParser parser = new BasicParser();
+        String[] lines = source.toString().split("\r?\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            parser.parseLine(i, lines[i]);
+        }
+        return parser.finish();
+    }
+
+    private Parsed finish() {
+        if (!blocks.isEmpty()) {
+            Block open = blocks.get(blocks.size() - 1);
+            String[] names = { "IF", "FOR", "WHILE", "DO" };
+            throw new BasicEngine.BasicError(open.line, "Блок " + names[open.kind] + " не закрыт");
+        }
+        for (int i = 0; i < lineJumps.size(); i++) {
+            Integer target = lineNumbers.get(lineJumpTargets.get(i));
+            if (target == null) {
+                throw new BasicEngine.BasicError(lineJumps.get(i).line, "Нет строки " + lineJumpTargets.get(i));
+            }
+            lineJumps.get(i).jump = target;
+        }
+        return new Parsed(statements.toArray(new Stmt[0]), numberNames, stringNames, numberArrayNames, stringArrayNames);
+    }
+
+    private void parseLine(int lineIndex, String text) {
+        line = lineIndex;
+        tokenize(text);
+        if (peek() instanceof Double) {
+            double number = (Double) next();
+            if (number != Math.rint(number) || lineNumbers.containsKey((int) number)) {
+                throw error("Неверный номер строки");
+            }
+            lineNumbers.put((int) number, statements.size());
+        }
+        parseStatements(false);
+        if (!atEnd()) throw error("Ожидался конец строки");
+    }
+
+    // Statements separated by ':'; inside a single-line IF an ELSE ends the list
+    private void parseStatements(boolean stopAtElse) {
+        while (!atEnd()) {
+            if (stopAtElse && isKeyword("ELSE")) return;
+            chained = false;
+            parseStatement();
+            if (accept(":") || chained) continue;
+            if (atEnd() || (stopAtElse && isKeyword("ELSE"))) return;
+            throw error("Ожидалось ':' или конец строки");
+        }
+    }
+
+    private void parseStatement() {
+        if (atEnd()) return;
+        Object token = next();
+        if (token instanceof String && token.equals("?")) {
+            parsePrint();
+            return;
+        }
+        if (!(token instanceof Ident)) throw error("Ожидалась команда");
+        String word = ((Ident) token).name;
+        switch (word) {
+            case "PRINT": parsePrint(); return;
+            case "INPUT": parseInput(); return;
+            case "LET": parseAssignment(expectIdent()); return;
+            case "IF": parseIf(); return;
+            case "ELSE": parseBlockElse(null); return;
+            case "ELSEIF": parseBlockElse(parseExpression()); return;
+            case "ENDIF": closeIf(); return;
+            case "FOR": parseFor(); return;
+            case "NEXT": parseNext(); return;
+            case "WHILE": parseWhile(); return;
+            case "WEND": parseWend(); return;
+            case "DO": parseDo(); return;
+            case "LOOP": parseLoop(); return;
+            case "EXIT": parseExit(); return;
+            case "GOTO": emitLineJump(new Stmt(S_GOTO, line)); return;
+            case "GOSUB": emitLineJump(new Stmt(S_GOSUB, line)); return;
+            case "RETURN": emit(new Stmt(S_RETURN, line)); return;
+            case "STOP": emit(new Stmt(S_END, line)); return;
+            case "END":
+                if (acceptKeyword("IF")) closeIf();
+                else emit(new Stmt(S_END, line));
+                return;
+            case "DIM": parseDim(); return;
+            default:
+                if (isKeywordName(word)) throw error("Неожиданное слово " + word);
+                parseAssignment((Ident) token);
+        }
+    }
+
+    private void parsePrint() {
+        List<Expr> items = new ArrayList<>();
+        StringBuilder separators = new StringBuilder();
+        boolean newline = true;
+        while (!atEnd() && !isOperator(":") && !isKeyword("ELSE")) {
+            if (accept(";")) {
+                appendSeparator(items, separators, ';');
+                newline = false;
+                continue;
+            }
+            if (accept(",")) {
+                appendSeparator(items, separators, ',');
+                newline = false;
+                continue;
+            }
+            if (items.size() > separators.length()) separators.append(' ');
+            items.add(parseExpression());
+            newline = true;
+        }
+        if (items.size() > separators.length()) {
+            separators.append('\n');
+        } else if (newline) {
+            appendSeparator(items, separators, '\n');
+        }
+        Stmt stmt = new Stmt(S_PRINT, line);
+        stmt.items = items.toArray(new Expr[0]);
+        stmt.separators = separators.toString().toCharArray();
+        emit(stmt);
+    }
+
+    // One separator per item; a bare separator (e.g. "PRINT ,") gets an empty item
+    private static void appendSeparator(List<Expr> items, StringBuilder separators, char separator) {
+        if (items.size() == separators.length()) {
+            Expr empty = new Expr(E_STR, true);
+            empty.text = "";
+            items.add(empty);
+        }
+        separators.append(separator);
+    }
+
+    private void parseInput() {
+        Stmt stmt = new Stmt(S_INPUT, line);
+        if (peek() instanceof StringLiteral) {
+            stmt.prompt = ((StringLiteral) next()).text;
+            // "prompt"; asks with a question mark, "prompt", prints the text as is
+            if (accept(";")) stmt.prompt += "? ";
+            else if (!accept(",")) throw error("Ожидалось ';' после подсказки");
+        }
+        List<Ident> targets = new ArrayList<>();
+        do {
+            targets.add(expectIdent());
+        } while (accept(","));
+        stmt.inputSlots = new int[targets.size()];
+        stmt.inputStrings = new boolean[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            Ident target = targets.get(i);
+            if (isOperator("(")) throw error("INPUT поддерживает только простые переменные");
+            stmt.inputStrings[i] = target.isString();
+            stmt.inputSlots[i] = scalarSlot(target.name);
+        }
+        emit(stmt);
+    }
+
+    private void parseAssignment(Ident name) {
+        Expr target = variable(name);
+        expect("=");
+        Expr value = parseExpression();
+        if (value.string != target.string) throw error("Несовместимые типы в присваивании");
+        Stmt stmt = new Stmt(S_ASSIGN, line);
+        stmt.target = target;
+        stmt.value = value;
+        emit(stmt);
+    }
+
+    private void parseIf() {
+        Expr condition = parseExpression();
+        Stmt test = new Stmt(S_IF, line);
+        test.value = condition;
+        test.whenTrue = false;
+
+        if (acceptKeyword("GOTO")) {
+            // IF c GOTO n: jump when true
+            test.whenTrue = true;
+            emitLineJump(test);
+            return;
+        }
+        expectKeyword("THEN");
+        emit(test);
+        if (atEnd()) {
+            blocks.add(new Block(B_IF, line, statements.size(), test));
+            return;
+        }
+
+        parseBranch();
+        if (acceptKeyword("ELSE")) {
+            Stmt skip = new Stmt(S_GOTO, line);
+            emit(skip);
+            test.jump = statements.size();
+            parseBranch();
+            skip.jump = statements.size();
+        } else {
+            test.jump = statements.size();
+        }
+    }
+
+    // THEN/ELSE part of a single-line IF: a line number or statements
+    private void parseBranch() {
+        if (peek() instanceof Double) {
+            Stmt jump = new Stmt(S_GOTO, line);
+            emit(jump);
+            addLineJump(jump, (Double) next());
+        } else {
+            parseStatements(true);
+        }
+    }
+
+    private void parseBlockElse(Expr condition) {
+        Block block = top(B_IF, "ELSE без IF");
+        if (block.hasElse) throw error("Повторный ELSE");
+        Stmt skip = new Stmt(S_GOTO, line);
+        emit(skip);
+        block.exits.add(skip);
+        block.test.jump = statements.size();
+        if (condition != null) {
+            expectKeyword("THEN");
+            Stmt test = new Stmt(S_IF, line);
+            test.value = condition;
+            emit(test);
+            block.test = test;
+        } else {
+            block.hasElse = true;
+            block.test = null;
+            chained = true;
+        }
+    }
+
+    private void closeIf() {
+        Block block = top(B_IF, "ENDIF без IF");
+        blocks.remove(blocks.size() - 1);
+        if (block.test != null) block.test.jump = statements.size();
+        for (Stmt exit : block.exits) exit.jump = statements.size();
+    }
+
+    private void parseFor() {
+        Ident name = expectIdent();
+        if (name.isString() || isOperator("(")) throw error("Переменная цикла должна быть числовой");
+        int var = scalarSlot(name.name);
+        expect("=");
+        Expr from = numeric(parseExpression());
+        expectKeyword("TO");
+        Expr to = numeric(parseExpression());
+        Expr step;
+        if (acceptKeyword("STEP")) {
+            step = numeric(parseExpression());
+        } else {
+            step = new Expr(E_NUM, false);
+            step.number = 1;
+        }
+
+        int limit = hiddenSlot();
+        int stepSlot = hiddenSlot();
+        emit(assign(var, from));
+        emit(assign(limit, to));
+        emit(assign(stepSlot, step));
+        Stmt test = new Stmt(S_FOR_TEST, line);
+        test.var = var;
+        test.limit = limit;
+        test.step = stepSlot;
+        emit(test);
+        blocks.add(new Block(B_FOR, line, statements.size(), test));
+    }
+
+    private void parseNext() {
+        do {
+            Block block = top(B_FOR, "NEXT без FOR");
+            if (peek() instanceof Ident) {
+                Ident name = (Ident) next();
+                if (numberSlots.get(name.name) == null || numberSlots.get(name.name) != block.test.var) {
+                    throw error("NEXT " + name.name + " не соответствует FOR");
+                }
+            }
+            blocks.remove(blocks.size() - 1);
+            Stmt next = new Stmt(S_FOR_NEXT, line);
+            next.var = block.test.var;
+            next.limit = block.test.limit;
+            next.step = block.test.step;
+            next.jump = block.start;
+            emit(next);
+            block.test.jump = statements.size();
+            for (Stmt exit : block.exits) exit.jump = statements.size();
+        } while (accept(","));
+    }
+
+    private void parseWhile() {
+        int start = statements.size();
+        Stmt test = new Stmt(S_IF, line);
+        test.value = parseExpression();
+        emit(test);
+        blocks.add(new Block(B_WHILE, line, start, test));
+    }
+
+    private void parseWend() {
+        Block block = top(B_WHILE, "WEND без WHILE");
+        blocks.remove(blocks.size() - 1);
+        Stmt back = new Stmt(S_GOTO, line);
+        back.jump = block.start;
+        emit(back);
+        block.test.jump = statements.size();
+        for (Stmt exit : block.exits) exit.jump = statements.size();
+    }
+
+    private void parseDo() {
+        int start = statements.size();
+        Stmt test = null;
+        if (isKeyword("WHILE") || isKeyword("UNTIL")) {
+            boolean until = ((Ident) next()).name.equals("UNTIL");
+            test = new Stmt(S_IF, line);
+            test.value = parseExpression();
+            test.whenTrue = until;
+            emit(test);
+        }
+        blocks.add(new Block(B_DO, line, start, test));
+    }
+
+    private void parseLoop() {
+        Block block = top(B_DO, "LOOP без DO");
+        blocks.remove(blocks.size() - 1);
+        Stmt back;
+        if (isKeyword("WHILE") || isKeyword("UNTIL")) {
+            boolean until = ((Ident) next()).name.equals("UNTIL");
+            back = new Stmt(S_IF, line);
+            back.value = parseExpression();
+            back.whenTrue = !until;
+        } else {
+            back = new Stmt(S_GOTO, line);
+        }
+        back.jump = block.start;
+        emit(back);
+        if (block.test != null) block.test.jump = statements.size();
+        for (Stmt exit : block.exits) exit.jump = statements.size();
+    }
+
+    private void parseExit() {
+        Ident what = expectIdent();
+        int kind;
+        switch (what.name) {
+            case "FOR": kind = B_FOR; break;
+            case "WHILE": kind = B_WHILE; break;
+            case "DO": kind = B_DO; break;
+            default: throw error("Ожидалось EXIT FOR, EXIT WHILE или EXIT DO");
+        }
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            if (blocks.get(i).kind == kind) {
+                Stmt exit = new Stmt(S_GOTO, line);
+                emit(exit);
+                blocks.get(i).exits.add(exit);
+                return;
+            }
+        }
+        throw error("EXIT " + what.name + " вне цикла");
+    }
+
+    private void parseDim() {
+        do {
+            Ident name = expectIdent();
+            if (!isOperator("(")) throw error("Ожидались размеры массива");
+            Stmt stmt = new Stmt(S_DIM, line);
+            stmt.target = arrayElement(name);
+            emit(stmt);
+        } while (accept(","));
+    }
+
+    private void emitLineJump(Stmt stmt) {
+        if (!(peek() instanceof Double)) throw error("Ожидался номер строки");
+        emit(stmt);
+        addLineJump(stmt, (Double) next());
+    }
+
+    private void addLineJump(Stmt stmt, double target) {
+        lineJumps.add(stmt);
+        lineJumpTargets.add((int) target);
+    }
+
+    private Block top(int kind, String message) {
+        if (blocks.isEmpty() || blocks.get(blocks.size() - 1).kind != kind) throw error(message);
+        return blocks.get(blocks.size() - 1);
+    }
+
+    private void emit(Stmt stmt) {
+        statements.add(stmt);
+    }
+
+    private Stmt assign(int slot, Expr value) {
+        Stmt stmt = new Stmt(S_ASSIGN, line);
+        stmt.target = new Expr(E_VAR, false);
+        stmt.target.slot = slot;
+        stmt.value = value;
+        return stmt;
+    }
+
+    // Expressions, lowest precedence first: OR, AND, NOT, comparison, + -, MOD, * /, unary -, ^
+
+    private Expr parseExpression() {
+        Expr left = parseAnd();
+        while (acceptKeyword("OR")) left = binary(OP_OR, numeric(left), numeric(parseAnd()));
+        return left;
+    }
+
+    private Expr parseAnd() {
+        Expr left = parseNot();
+        while (acceptKeyword("AND")) left = binary(OP_AND, numeric(left), numeric(parseNot()));
+        return left;
+    }
+
+    private Expr parseNot() {
+        if (acceptKeyword("NOT")) return unary(OP_NOT, numeric(parseNot()));
+        return parseComparison();
+    }
+
+    private Expr parseComparison() {
+        Expr left = parseAdditive();
+        while (true) {
+            int op;
+            if (accept("=")) op = OP_EQ;
+            else if (accept("<>")) op = OP_NE;
+            else if (accept("<=")) op = OP_LE;
+            else if (accept(">=")) op = OP_GE;
+            else if (accept("<")) op = OP_LT;
+            else if (accept(">")) op = OP_GT;
+            else return left;
+            Expr right = parseAdditive();
+            if (left.string != right.string) throw error("Сравнение строки с числом");
+            Expr result = new Expr(E_BINARY, false);
+            result.op = op;
+            result.left = left;
+            result.right = right;
+            left = result;
+        }
+    }
+
+    private Expr parseAdditive() {
+        Expr left = parseMod();
+        while (true) {
+            if (accept("+")) {
+                Expr right = parseMod();
+                if (left.string != right.string) throw error("Сложение строки с числом");
+                Expr result = new Expr(E_BINARY, left.string);
+                result.op = OP_ADD;
+                result.left = left;
+                result.right = right;
+                left = result;
+            } else if (accept("-")) {
+                left = binary(OP_SUB, numeric(left), numeric(parseMod()));
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Expr parseMod() {
+        Expr left = parseMultiplicative();
+        while (acceptKeyword("MOD")) left = binary(OP_MOD, numeric(left), numeric(parseMultiplicative()));
+        return left;
+    }
+
+    private Expr parseMultiplicative() {
+        Expr left = parseUnary();
+        while (true) {
+            if (accept("*")) left = binary(OP_MUL, numeric(left), numeric(parseUnary()));
+            else if (accept("/")) left = binary(OP_DIV, numeric(left), numeric(parseUnary()));
+            else return left;
+        }
+    }
+
+    private Expr parseUnary() {
+        if (accept("-")) return unary(OP_NEG, numeric(parseUnary()));
+        if (accept("+")) return numeric(parseUnary());
+        return parsePower();
+    }
+
+    private Expr parsePower() {
+        Expr left = parsePrimary();
+        while (accept("^")) left = binary(OP_POW, numeric(left), numeric(parsePrimary()));
+        return left;
+    }
+
+    private Expr parsePrimary() {
+        Object token = next();
+        if (token instanceof Double) {
+            Expr number = new Expr(E_NUM, false);
+            number.number = (Double) token;
+            return number;
+        }
+        if (token instanceof StringLiteral) {
+            Expr text = new Expr(E_STR, true);
+            text.text = ((StringLiteral) token).text;
+            return text;
+        }
+        if ("(".equals(token)) {
+            Expr inner = parseExpression();
+            expect(")");
+            return inner;
+        }
+        if (token instanceof Ident) {
+            Ident name = (Ident) token;
+            int function = functionIndex(name.name);
+            if (function >= 0) return parseCall(function);
+            if (isKeywordName(name.name)) throw error("Неожиданное слово " + name.name);
+            return variable(name);
+        }
+        throw error(token == null ? "Неожиданный конец строки" : "Неожиданный символ " + token);
+    }
+
+    private Expr parseCall(int function) {
+        List<Expr> args = new ArrayList<>();
+        if (accept("(")) {
+            if (!accept(")")) {
+                do {
+                    args.add(parseExpression());
+                } while (accept(","));
+                expect(")");
+            }
+        }
+        String types = FUNCTION_ARGS[function];
+        if (args.size() < FUNCTION_MIN_ARGS[function] || args.size() > types.length()) {
+            throw error("Неверное число аргументов " + FUNCTION_NAMES[function]);
+        }
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i).string != (types.charAt(i) == 's')) {
+                throw error("Неверный тип аргумента " + FUNCTION_NAMES[function]);
+            }
+        }
+        Expr call = new Expr(E_CALL, FUNCTION_NAMES[function].endsWith("$"));
+        call.op = function;
+        call.args = args.toArray(new Expr[0]);
+        return call;
+    }
+
+    private Expr variable(Ident name) {
+        if (isOperator("(")) return arrayElement(name);
+        Expr var = new Expr(E_VAR, name.isString());
+        var.slot = scalarSlot(name.name);
+        return var;
+    }
+
+    private Expr arrayElement(Ident name) {
+        expect("(");
+        List<Expr> indices = new ArrayList<>();
+        do {
+            indices.add(numeric(parseExpression()));
+        } while (accept(","));
+        expect(")");
+        Expr element = new Expr(E_ARRAY, name.isString());
+        Map<String, Integer> slots = name.isString() ? stringArraySlots : numberArraySlots;
+        List<String> names = name.isString() ? stringArrayNames : numberArrayNames;
+        element.slot = slots.computeIfAbsent(name.name, k -> {
+            names.add(k);
+            return names.size() - 1;
+        });
+        element.args = indices.toArray(new Expr[0]);
+        return element;
+    }
+
+    private int scalarSlot(String name) {
+        boolean string = name.endsWith("$");
+        Map<String, Integer> slots = string ? stringSlots : numberSlots;
+        List<String> names = string ? stringNames : numberNames;
+        return slots.computeIfAbsent(name, k -> {
+            names.add(k);
+            return names.size() - 1;
+        });
+    }
+
+    // FOR limits and steps live in numeric slots no program can name
+    private int hiddenSlot() {
+        return scalarSlot("#" + hiddenSlots++);
+    }
+
+    private Expr numeric(Expr expr) {
+        if (expr.string) throw error("Ожидалось число");
+        return expr;
+    }
+
+    private static Expr binary(int op, Expr left, Expr right) {
+        Expr result = new Expr(E_BINARY, false);
+        result.op = op;
+        result.left = left;
+        result.right = right;
+        return result;
+    }
+
+    private static Expr unary(int op, Expr operand) {
+        Expr result = new Expr(E_UNARY, false);
+        result.op = op;
+        result.left = operand;
+        return result;
+    }
+
+    private static int functionIndex(String name) {
+        for (int i = 0; i < FUNCTION_NAMES.length; i++) {
+            if (FUNCTION_NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    static String functionName(int function) {
+        return FUNCTION_NAMES[function];
+    }
+
+    private static boolean isKeywordName(String name) {
+        switch (name) {
+            case "AND": case "OR": case "NOT": case "MOD": case "END": case "STOP": case "EXIT": case "ELSEIF":
+                return true;
+            default:
+                for (String keyword : EditorConstants.BASIC_KEYWORDS) {
+                    if (keyword.equals(name)) return true;
+                }
+                return false;
+        }
+    }
+
+    // Tokens: Double, StringLiteral, Ident, or an operator String
+
+    private static final class Ident {
+        final String name;
+
+        Ident(String name) {
+            this.name = name;
+        }
+
+        boolean isString() {
+            return name.endsWith("$");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class StringLiteral {
+        final String text;
+
+        StringLiteral(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return '"' + text + '"';
+        }
+    }
+
+    private void tokenize(String text) {
+        tokens.clear();
+        pos = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c <= ' ') {
+                i++;
+            } else if (c == '\'') {
+                break;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) throw error("Незакрытая строка");
+                tokens.add(new StringLiteral(text.substring(i + 1, end)));
+                i = end + 1;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(text.charAt(i + 1)))) {
+                int start = i;
+                while (i < length && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) i++;
+                if (i < length && (text.charAt(i) == 'E' || text.charAt(i) == 'e')) {
+                    int exponent = i + 1;
+                    if (exponent < length && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) exponent++;
+                    if (exponent < length && Character.isDigit(text.charAt(exponent))) {
+                        i = exponent;
+                        while (i < length && Character.isDigit(text.charAt(i))) i++;
+                    }
+                }
+                try {
+                    tokens.add(Double.parseDouble(text.substring(start, i)));
+                } catch (NumberFormatException e) {
+                    throw error("Неверное число " + text.substring(start, i));
+                }
+            } else if (Character.isLetter(c)) {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) i++;
+                if (i < length && text.charAt(i) == '$') i++;
+                String name = text.substring(start, i).toUpperCase(Locale.ROOT);
+                if (name.equals("REM")) break;
+                tokens.add(new Ident(name));
+            } else if ((c == '<' || c == '>') && i + 1 < length
+                    && (text.charAt(i + 1) == '=' || (c == '<' && text.charAt(i + 1) == '>'))) {
+                tokens.add(text.substring(i, i + 2));
+                i += 2;
+            } else if ("+-*/^=<>(),;:?".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                throw error("Неожиданный символ '" + c + "'");
+            }
+        }
+    }
+
+    private Object peek() {
+        return pos < tokens.size() ? tokens.get(pos) : null;
+    }
+
+    private Object next() {
+        return pos < tokens.size() ? tokens.get(pos++) : null;
+    }
+
+    private boolean atEnd() {
+        return pos >= tokens.size();
+    }
+
+    private boolean isOperator(String op) {
+        return op.equals(peek());
+    }
+
+    private boolean accept(String op) {
+        if (!isOperator(op)) return false;
+        pos++;
+        return true;
+    }
+
+    private void expect(String op) {
+        if (!accept(op)) throw error("Ожидалось '" + op + "'");
+    }
+
+    private boolean isKeyword(String keyword) {
+        Object token = peek();
+        return token instanceof Ident && ((Ident) token).name.equals(keyword);
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (!isKeyword(keyword)) return false;
+        pos++;
+        return true;
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!acceptKeyword(keyword)) throw error("Ожидалось " + keyword);
+    }
+
+    private Ident expectIdent() {
+        Object token = next();
+        if (!(token instanceof Ident)) throw error("Ожидалось имя переменной");
+        return (Ident) token;
+    }
+
+    private BasicEngine.BasicError error(String message) {
+        return new BasicEngine.BasicError(line, message);
+    }
+}
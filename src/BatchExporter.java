@@ -0,0 +1,311 @@
+import javax.swing.text.AttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.Color;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless exporter: highlights every text file under a directory on a fork-join
+// pool and writes HTML or ANSI listings. Uses the same language registry and
+// lexers as the editor but creates no Swing components.
+//
+//   java KissEditor --export [--format html|ansi] [--threads N] [--out DIR] <dir>
+public class BatchExporter {
+    private static final int BINARY_PROBE_BYTES = 8192;
+    private static final int FILES_PER_TASK = 4;
+    private static final String ANSI_RESET = "\u001b[0m";
+
+    public enum Format { HTML, ANSI }
+
+    private final Format format;
+    private final Path source;
+    private final Path outputDir;
+    private final int parallelism;
+    private final String[] htmlStyles;
+    private final String[] ansiStyles;
+    private final Object outputLock = new Object();
+    private final AtomicLong exportedFiles = new AtomicLong();
+    private final AtomicLong exportedBytes = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private Writer stream;
+
+    // outputDir == null streams everything to standard output
+    public BatchExporter(Format format, Path source, Path outputDir, int parallelism) {
+        this.format = format;
+        this.source = source;
+        this.outputDir = outputDir;
+        this.parallelism = parallelism;
+
+        // Resolve styles once up front; workers only read these strings
+        SyntaxHighlighter highlighter = new SyntaxHighlighter();
+        int styleCount = SyntaxHighlighter.STYLE_KEYWORD + 1;
+        htmlStyles = new String[styleCount];
+        ansiStyles = new String[styleCount];
+        for (int style = 0; style < styleCount; style++) {
+            AttributeSet attributes = highlighter.getStyle(style);
+            Color color = StyleConstants.getForeground(attributes);
+            boolean bold = StyleConstants.isBold(attributes);
+            boolean italic = StyleConstants.isItalic(attributes);
+            htmlStyles[style] = String.format("color:#%06x%s%s", color.getRGB() & 0xFFFFFF,
+                    bold ? ";font-weight:bold" : "", italic ? ";font-style:italic" : "");
+            ansiStyles[style] = String.format("\u001b[%s%s38;2;%d;%d;%dm", bold ? "1;" : "", italic ? "3;" : "",
+                    color.getRed(), color.getGreen(), color.getBlue());
+        }
+    }
+
+    public static void main(String[] args) {
+        Format format = Format.HTML;
+        Path outputDir = null;
+        Path source = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    case "--threads":
+                        threads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--out":
+                        outputDir = Paths.get(args[++i]);
+                        break;
+                    default:
+                        source = Paths.get(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            source = null;
+        }
+        if (source == null || !Files.isDirectory(source)) {
+            System.err.println("Использование: --export [--format html|ansi] [--threads N] [--out DIR] <каталог>");
+            System.exit(2);
+        }
+
+        try {
+            BatchExporter exporter = new BatchExporter(format, source, outputDir, threads);
+            exporter.run();
+            if (exporter.getFailedFiles() > 0) System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public long getExportedFiles() {
+        return exportedFiles.get();
+    }
+
+    public long getExportedBytes() {
+        return exportedBytes.get();
+    }
+
+    public long getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    public void run() throws IOException {
+        long started = System.nanoTime();
+        List<Path> files = collectFiles();
+
+        if (outputDir == null) {
+            stream = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            if (format == Format.HTML) stream.write(htmlHeader(source.toString()));
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ExportTask(files, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+        if (stream != null) {
+            if (format == Format.HTML) stream.write(htmlFooter());
+            stream.flush();
+        }
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        System.err.printf(Locale.ROOT, "Экспортировано файлов: %d (%.1f МБ), ошибок: %d, за %.2f с: %.0f файлов/с, %.1f МБ/с%n",
+                exportedFiles.get(), exportedBytes.get() / 1048576.0, failedFiles.get(), seconds,
+                exportedFiles.get() / seconds, exportedBytes.get() / 1048576.0 / seconds);
+    }
+
+    private List<Path> collectFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path skip = outputDir == null ? null : outputDir.toAbsolutePath().normalize();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.toAbsolutePath().normalize().equals(skip)) return FileVisitResult.SKIP_SUBTREE;
+                boolean hidden = !dir.equals(source) && dir.getFileName().toString().startsWith(".");
+                return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.getFileName().toString().startsWith(".")) files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.println("Пропущен " + file + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private void exportFile(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (isBinary(bytes)) return;
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            Language language = LanguageRegistry.detect(file.toFile(), null);
+            String relative = source.relativize(file).toString();
+
+            StringBuilder out = new StringBuilder(text.length() * 2 + 256);
+            if (format == Format.HTML) {
+                if (outputDir != null) out.append(htmlHeader(relative));
+                out.append("<h2>").append(escapeHtml(relative)).append("</h2>\n<pre>");
+                render(language, text, out);
+                out.append("</pre>\n");
+                if (outputDir != null) out.append(htmlFooter());
+            } else {
+                if (outputDir == null) out.append("==> ").append(relative).append(" <==\n");
+                render(language, text, out);
+            }
+
+            if (outputDir == null) {
+                synchronized (outputLock) {
+                    stream.append(out);
+                }
+            } else {
+                Path target = outputDir.resolve(relative + (format == Format.HTML ? ".html" : ".ansi"));
+                Files.createDirectories(target.getParent());
+                try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+                    writer.append(out);
+                }
+            }
+            exportedFiles.incrementAndGet();
+            exportedBytes.addAndGet(bytes.length);
+        } catch (IOException e) {
+            failedFiles.incrementAndGet();
+            System.err.println("Ошибка экспорта " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void render(Language language, String text, StringBuilder out) {
+        LineLexer lexer = language.getLexer();
+        StyleRuns runs = new StyleRuns();
+        int state = 0;
+        int lineStart = 0;
+        while (lineStart <= text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = text.length();
+            int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+            runs.clear();
+            state = lexer.lexLine(text, lineStart, contentEnd, state, runs);
+            int pos = lineStart;
+            for (int i = 0; i < runs.size(); i++) {
+                int start = runs.getStart(i);
+                int end = Math.min(contentEnd, start + runs.getLength(i));
+                appendPlain(text, pos, start, out);
+                appendStyled(text, start, end, runs.getStyle(i), out);
+                pos = end;
+            }
+            appendPlain(text, pos, contentEnd, out);
+            if (lineEnd == text.length()) break;
+            out.append('\n');
+            lineStart = lineEnd + 1;
+        }
+        if (format == Format.ANSI && (text.isEmpty() || text.charAt(text.length() - 1) != '\n')) out.append('\n');
+    }
+
+    private void appendPlain(String text, int start, int end, StringBuilder out) {
+        if (format == Format.HTML) appendHtml(text, start, end, out);
+        else out.append(text, start, end);
+    }
+
+    private void appendStyled(String text, int start, int end, int style, StringBuilder out) {
+        if (format == Format.HTML) {
+            out.append("<span class=\"s").append(style).append("\">");
+            appendHtml(text, start, end, out);
+            out.append("</span>");
+        } else {
+            out.append(ansiStyles[style]).append(text, start, end).append(ANSI_RESET);
+        }
+    }
+
+    private String htmlHeader(String title) {
+        StringBuilder header = new StringBuilder("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>")
+                .append(escapeHtml(title)).append("</title>\n<style>\n")
+                .append("pre { font-family: Poppins, monospace; font-size: 14px; }\n");
+        for (int style = 0; style < htmlStyles.length; style++) {
+            header.append(".s").append(style).append(" { ").append(htmlStyles[style]).append("; }\n");
+        }
+        return header.append("</style>\n</head>\n<body>\n").toString();
+    }
+
+    private static String htmlFooter() {
+        return "</body>\n</html>\n";
+    }
+
+    private static String escapeHtml(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        appendHtml(text, 0, text.length(), out);
+        return out.toString();
+    }
+
+    private static void appendHtml(String text, int start, int end, StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '&': out.append("&amp;"); break;
+                case '"': out.append("&quot;"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        int probe = Math.min(bytes.length, BINARY_PROBE_BYTES);
+        for (int i = 0; i < probe; i++) {
+            if (bytes[i] == 0) return true;
+        }
+        return false;
+    }
+
+    private class ExportTask extends RecursiveAction {
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        ExportTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FILES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    exportFile(files.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ExportTask(files, from, mid), new ExportTask(files, mid, to));
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// Brainfuck compiler and interpreter. The source is compiled into a small IR:
+// runs of +/- and </> are fused, brackets get a precomputed jump table, and the
+// common loop idioms ([-], [>], [->+<] and friends) become single instructions.
+public class BrainfuckEngine {
+    static final int OP_ADD = 0;
+    static final int OP_MOVE = 1;
+    static final int OP_OUT = 2;
+    static final int OP_IN = 3;
+    static final int OP_JZ = 4;
+    static final int OP_JNZ = 5;
+    static final int OP_CLEAR = 6;
+    static final int OP_SCAN = 7;
+    static final int OP_MUL = 8;
+    static final int OP_DUMP = 9;
+
+    public static final long DEFAULT_INSTRUCTION_LIMIT = Long.getLong("jscn.bf.maxInstructions", 10_000_000_000L);
+    private static final int TAPE_SIZE = 30000;
+    // A runaway '>' loop stops here instead of growing the tape until the editor runs out of memory
+    static final int MAX_TAPE_SIZE = 64 << 20;
+    private static final int CHECK_INTERVAL = 1 << 16;
+    private static final int OUTPUT_CHUNK = 4096;
+    private static final int DUMP_RADIUS = 8;
+
+    public enum Status { FINISHED, LIMIT_REACHED, CANCELLED }
+
+    // Compiled program: instruction i is (ops[i], args[i], args2[i])
+    public static class Program {
+        final int[] ops;
+        final int[] args;
+        final int[] args2;
+        final int sourceCommands;
+
+        Program(int[] ops, int[] args, int[] args2, int size, int sourceCommands) {
+            this.ops = Arrays.copyOf(ops, size);
+            this.args = Arrays.copyOf(args, size);
+            this.args2 = Arrays.copyOf(args2, size);
+            this.sourceCommands = sourceCommands;
+        }
+
+        public int size() {
+            return ops.length;
+        }
+
+        public int getSourceCommands() {
+            return sourceCommands;
+        }
+    }
+
+    public static class Result {
+        public final Status status;
+        public final long instructions;
+        public final long nanos;
+        public final int pointer;
+
+        Result(Status status, long instructions, long nanos, int pointer) {
+            this.status = status;
+            this.instructions = instructions;
+            this.nanos = nanos;
+            this.pointer = pointer;
+        }
+    }
+
+    // '#' becomes a tape dump when debug is set and is ignored otherwise
+    public static Program compile(CharSequence source, boolean debug) {
+        Compiler compiler = new Compiler();
+        int[] openLoops = new int[16];
+        int depth = 0;
+        int commands = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            switch (c) {
+                case '+': compiler.add(1); break;
+                case '-': compiler.add(-1); break;
+                case '>': compiler.move(1); break;
+                case '<': compiler.move(-1); break;
+                case '.': compiler.emit(OP_OUT, 0, 0); break;
+                case ',': compiler.emit(OP_IN, 0, 0); break;
+                case '[':
+                    if (depth == openLoops.length) openLoops = Arrays.copyOf(openLoops, depth * 2);
+                    openLoops[depth++] = compiler.size;
+                    compiler.emit(OP_JZ, 0, i);
+                    break;
+                case ']':
+                    if (depth == 0) throw new IllegalArgumentException("Непарная скобка ']' в позиции " + i);
+                    compiler.closeLoop(openLoops[--depth]);
+                    break;
+                case '#':
+                    if (debug) compiler.emit(OP_DUMP, 0, 0);
+                    continue;
+                default:
+                    continue;
+            }
+            commands++;
+        }
+        if (depth > 0) {
+            throw new IllegalArgumentException("Непарная скобка '[' в позиции " + compiler.args2[openLoops[depth - 1]]);
+        }
+        return new Program(compiler.ops, compiler.args, compiler.args2, compiler.size, commands);
+    }
+
+    public static Result run(Program program, CharSequence input, Consumer<String> output,
+                             long instructionLimit, BooleanSupplier cancelled) {
+        long started = System.nanoTime();
+        int[] ops = program.ops;
+        int[] args = program.args;
+        int[] args2 = program.args2;
+        byte[] tape = new byte[TAPE_SIZE];
+        StringBuilder out = new StringBuilder();
+        int inputPos = 0;
+        int p = 0;
+        int pc = 0;
+        long executed = 0;
+        instructionLimit = Math.min(instructionLimit, Long.MAX_VALUE - CHECK_INTERVAL);
+        long nextCheck = Math.min(CHECK_INTERVAL, instructionLimit + 1);
+        Status status = Status.FINISHED;
+
+        while (pc < ops.length) {
+            if (++executed >= nextCheck) {
+                if (executed > instructionLimit) {
+                    status = Status.LIMIT_REACHED;
+                    break;
+                }
+                if (cancelled.getAsBoolean()) {
+                    status = Status.CANCELLED;
+                    break;
+                }
+                nextCheck = Math.min(executed + CHECK_INTERVAL, instructionLimit + 1);
+            }
+            int arg = args[pc];
+            switch (ops[pc]) {
+                case OP_ADD:
+                    tape[p] += arg;
+                    break;
+                case OP_MOVE:
+                    p += arg;
+                    if (p < 0) throw new IllegalStateException("Указатель ушёл левее начала ленты");
+                    if (p >= tape.length) tape = grow(tape, p);
+                    break;
+                case OP_OUT:
+                    out.append((char) (tape[p] & 0xFF));
+                    if (out.length() >= OUTPUT_CHUNK || tape[p] == '\n') {
+                        output.accept(out.toString());
+                        out.setLength(0);
+                    }
+                    break;
+                case OP_IN:
+                    tape[p] = inputPos < input.length() ? (byte) input.charAt(inputPos++) : 0;
+                    break;
+                case OP_JZ:
+                    if (tape[p] == 0) pc = arg;
+                    break;
+                case OP_JNZ:
+                    if (tape[p] != 0) pc = arg;
+                    break;
+                case OP_CLEAR:
+                    tape[p] = 0;
+                    break;
+                case OP_SCAN:
+                    // No cancel check in here: the tape cap bounds the scan, since a pointer
+                    // that never meets a zero cell runs off either end of the tape
+                    while (tape[p] != 0) {
+                        p += arg;
+                        if (p < 0) throw new IllegalStateException("Указатель ушёл левее начала ленты");
+                        if (p >= tape.length) tape = grow(tape, p);
+                    }
+                    break;
+                case OP_MUL: {
+                    // The loop body never runs on a zero cell, so neither may its pointer moves
+                    if (tape[p] == 0) break;
+                    int target = p + arg;
+                    if (target < 0) throw new IllegalStateException("Указатель ушёл левее начала ленты");
+                    if (target >= tape.length) tape = grow(tape, target);
+                    tape[target] += tape[p] * args2[pc];
+                    break;
+                }
+                case OP_DUMP:
+                    out.append(dump(tape, p));
+                    break;
+            }
+            pc++;
+        }
+        if (out.length() > 0) output.accept(out.toString());
+        return new Result(status, executed, System.nanoTime() - started, p);
+    }
+
+    // Reference interpreter straight over the source text, used as the benchmark baseline
+    public static long runNaive(CharSequence source, CharSequence input, Consumer<String> output) {
+        int[] jumps = new int[source.length()];
+        int[] stack = new int[source.length()];
+        int depth = 0;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '[') {
+                stack[depth++] = i;
+            } else if (source.charAt(i) == ']') {
+                if (depth == 0) throw new IllegalArgumentException("Непарная скобка ']' в позиции " + i);
+                int open = stack[--depth];
+                jumps[open] = i;
+                jumps[i] = open;
+            }
+        }
+        if (depth > 0) throw new IllegalArgumentException("Непарная скобка '[' в позиции " + stack[depth - 1]);
+
+        byte[] tape = new byte[TAPE_SIZE];
+        StringBuilder out = new StringBuilder();
+        int inputPos = 0;
+        int p = 0;
+        long executed = 0;
+        for (int pc = 0; pc < source.length(); pc++) {
+            switch (source.charAt(pc)) {
+                case '+': tape[p]++; break;
+                case '-': tape[p]--; break;
+                case '>': if (++p == tape.length) tape = grow(tape, p); break;
+                case '<': if (--p < 0) throw new IllegalStateException("Указатель ушёл левее начала ленты"); break;
+                case '.': out.append((char) (tape[p] & 0xFF)); break;
+                case ',': tape[p] = inputPos < input.length() ? (byte) input.charAt(inputPos++) : 0; break;
+                case '[': if (tape[p] == 0) pc = jumps[pc]; break;
+                case ']': if (tape[p] != 0) pc = jumps[pc]; break;
+                default: continue;
+            }
+            executed++;
+        }
+        output.accept(out.toString());
+        return executed;
+    }
+
+    // Doubles the tape to cover index, up to MAX_TAPE_SIZE cells
+    private static byte[] grow(byte[] tape, int index) {
+        if (index >= MAX_TAPE_SIZE) {
+            throw new IllegalStateException("Указатель ушёл правее конца ленты (" + MAX_TAPE_SIZE + " ячеек)");
+        }
+        return Arrays.copyOf(tape, Math.min(MAX_TAPE_SIZE, Math.max(index + 1, tape.length * 2)));
+    }
+
+    static String dump(byte[] tape, int p) {
+        StringBuilder text = new StringBuilder("\n[ptr=").append(p).append("]");
+        for (int i = Math.max(0, p - DUMP_RADIUS); i <= p + DUMP_RADIUS && i < tape.length; i++) {
+            text.append(i == p ? " <" : " ").append(tape[i] & 0xFF).append(i == p ? ">" : "");
+        }
+        return text.append('\n').toString();
+    }
+
+    private static class Compiler {
+        int[] ops = new int[256];
+        int[] args = new int[256];
+        int[] args2 = new int[256];
+        int size;
+
+        void emit(int op, int arg, int arg2) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                args = Arrays.copyOf(args, size * 2);
+                args2 = Arrays.copyOf(args2, size * 2);
+            }
+            ops[size] = op;
+            args[size] = arg;
+            args2[size] = arg2;
+            size++;
+        }
+
+        // Run-length fusion: consecutive +/- and </> collapse into one instruction
+        void add(int delta) {
+            if (size > 0 && ops[size - 1] == OP_ADD) {
+                args[size - 1] += delta;
+                if ((args[size - 1] & 0xFF) == 0) size--;
+            } else {
+                emit(OP_ADD, delta, 0);
+            }
+        }
+
+        void move(int delta) {
+            if (size > 0 && ops[size - 1] == OP_MOVE) {
+                args[size - 1] += delta;
+                if (args[size - 1] == 0) size--;
+            } else {
+                emit(OP_MOVE, delta, 0);
+            }
+        }
+
+        void closeLoop(int open) {
+            int bodyStart = open + 1;
+            int bodySize = size - bodyStart;
+
+            if (bodySize == 1 && ops[bodyStart] == OP_ADD && (args[bodyStart] & 1) != 0) {
+                // [-] and [+]: an odd step always reaches zero
+                size = open;
+                emit(OP_CLEAR, 0, 0);
+                return;
+            }
+            if (bodySize == 1 && ops[bodyStart] == OP_MOVE) {
+                int step = args[bodyStart];
+                size = open;
+                emit(OP_SCAN, step, 0);
+                return;
+            }
+            if (isMultiplyLoop(bodyStart)) {
+                int offset = 0;
+                int[] targets = new int[bodySize];
+                int[] factors = new int[bodySize];
+                int count = 0;
+                for (int i = bodyStart; i < size; i++) {
+                    if (ops[i] == OP_MOVE) {
+                        offset += args[i];
+                    } else if (offset != 0) {
+                        targets[count] = offset;
+                        factors[count] = args[i];
+                        count++;
+                    }
+                }
+                size = open;
+                for (int i = 0; i < count; i++) {
+                    emit(OP_MUL, targets[i], factors[i]);
+                }
+                emit(OP_CLEAR, 0, 0);
+                return;
+            }
+
+            // JZ jumps to the JNZ, JNZ jumps back to the JZ; pc++ then steps past either one
+            int close = size;
+            emit(OP_JNZ, open, 0);
+            args[open] = close;
+        }
+
+        // Only ADD and MOVE, pointer returns to the start, and the counter cell steps by -1
+        private boolean isMultiplyLoop(int bodyStart) {
+            int offset = 0;
+            int counterDelta = 0;
+            for (int i = bodyStart; i < size; i++) {
+                if (ops[i] == OP_MOVE) {
+                    offset += args[i];
+                } else if (ops[i] == OP_ADD) {
+                    if (offset == 0) counterDelta += args[i];
+                } else {
+                    return false;
+                }
+            }
+            return offset == 0 && counterDelta == -1;
+        }
+    }
+}
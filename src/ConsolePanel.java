@@ -0,0 +1,113 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// Output pane for programs run from the editor. Keeps only the tail of very long
+// output so a runaway program cannot grow the text area without bound. Lines typed
+// into the input field are queued for the running program's INPUT statements.
+public class ConsolePanel extends JPanel {
+    private static final int MAX_CHARS = 1 << 20;
+
+    private final JTextArea output = new JTextArea();
+    private final JLabel status = new JLabel(" ");
+    private final JButton stopButton = new JButton("Остановить");
+    private final JTextField input = new JTextField();
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private ProgramWorker worker;
+
+    public ConsolePanel() {
+        super(new BorderLayout());
+        setBackground(EditorConstants.COLOR_BACKGROUND);
+
+        output.setEditable(false);
+        output.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        output.setForeground(EditorConstants.COLOR_DEFAULT);
+        output.setBackground(EditorConstants.COLOR_CARD_BG);
+
+        status.setFont(new Font("Poppins", Font.PLAIN, 12));
+        status.setForeground(EditorConstants.COLOR_COMMENT);
+        stopButton.setFont(new Font("Poppins", Font.PLAIN, 12));
+        stopButton.setEnabled(false);
+        stopButton.addActionListener(e -> stop());
+
+        input.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        input.setForeground(EditorConstants.COLOR_DEFAULT);
+        input.setBackground(EditorConstants.COLOR_CARD_BG);
+        input.setCaretColor(EditorConstants.COLOR_DEFAULT);
+        input.setToolTipText("Ввод для программы (Enter — отправить)");
+        input.setEnabled(false);
+        input.addActionListener(e -> {
+            lines.add(input.getText());
+            input.setText("");
+        });
+
+        JPanel toolbar = new JPanel(new BorderLayout());
+        toolbar.setBackground(EditorConstants.COLOR_STATUS_BAR);
+        toolbar.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 2));
+        toolbar.add(status, BorderLayout.CENTER);
+        toolbar.add(stopButton, BorderLayout.EAST);
+
+        add(toolbar, BorderLayout.NORTH);
+        add(new JScrollPane(output), BorderLayout.CENTER);
+        add(input, BorderLayout.SOUTH);
+    }
+
+    public boolean isRunning() {
+        return worker != null && !worker.isDone();
+    }
+
+    // Clears the pane and runs the task; the caller checks isRunning() first
+    public void start(String title, ProgramWorker.Task task) {
+        output.setText("");
+        status.setText(" " + title);
+        stopButton.setEnabled(true);
+        lines.clear();
+        input.setEnabled(true);
+        worker = new ProgramWorker(task, this);
+        worker.execute();
+    }
+
+    public void stop() {
+        if (isRunning()) {
+            worker.requestStop();
+            status.setText(" Остановка...");
+        }
+    }
+
+    // Called from the worker thread; blocks until a line is entered, or returns null once stop is true
+    String readLine(BooleanSupplier stop) {
+        SwingUtilities.invokeLater(input::requestFocusInWindow);
+        try {
+            while (!stop.getAsBoolean()) {
+                String line = lines.poll(100, TimeUnit.MILLISECONDS);
+                if (line != null) return line;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    void append(String text) {
+        output.append(text);
+        int excess = output.getDocument().getLength() - MAX_CHARS;
+        if (excess > 0) {
+            try {
+                output.getDocument().remove(0, excess);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+        output.setCaretPosition(output.getDocument().getLength());
+    }
+
+    void finished(String summary) {
+        status.setText(" " + summary);
+        stopButton.setEnabled(false);
+        input.setEnabled(false);
+    }
+}
@@ -0,0 +1,429 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Table-driven lexer compiled once from a LexerSpec. Every rule becomes a Thompson
+// NFA, the union is determinized by subset construction, and characters are folded
+// into equivalence classes, so scanning is one table lookup per character.
+public class DfaLexer implements LineLexer {
+    // ASCII characters are symbols 0..127; all other characters fold into two symbols
+    private static final int ASCII = 128;
+    private static final int NON_ASCII_WORD = 128;
+    private static final int NON_ASCII_OTHER = 129;
+    private static final int SYMBOLS = 130;
+    private static final int DEAD = -1;
+
+    private final String name;
+    private final int[] asciiClass = new int[ASCII];
+    private final int nonAsciiWordClass;
+    private final int nonAsciiOtherClass;
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] accepting;
+    private final int[] ruleStyles;
+    private final int bodyStart;
+    private final int lineStart;
+
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder lexNanos = new LongAdder();
+
+    public DfaLexer(LexerSpec spec) {
+        name = spec.name;
+        Nfa nfa = new Nfa();
+        int bodyNfaStart = nfa.newState();
+        int lineNfaStart = nfa.newState();
+        ruleStyles = new int[spec.rules.size()];
+        for (int r = 0; r < spec.rules.size(); r++) {
+            LexerSpec.Rule rule = spec.rules.get(r);
+            ruleStyles[r] = rule.style;
+            int[] fragment = new PatternParser(nfa, rule.pattern, rule.ignoreCase).parse();
+            nfa.accept.set(fragment[1], r);
+            nfa.addEpsilon(lineNfaStart, fragment[0]);
+            if (!rule.lineStart) nfa.addEpsilon(bodyNfaStart, fragment[0]);
+        }
+
+        // Symbols that no rule can tell apart share one column of the table
+        int[] symbolClass = new int[SYMBOLS];
+        List<Integer> representatives = new ArrayList<>();
+        Map<BitSet, Integer> signatures = new HashMap<>();
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            BitSet signature = new BitSet();
+            for (int s = 0; s < nfa.size(); s++) {
+                BitSet chars = nfa.chars.get(s);
+                if (chars != null && chars.get(symbol)) signature.set(s);
+            }
+            Integer id = signatures.get(signature);
+            if (id == null) {
+                id = representatives.size();
+                signatures.put(signature, id);
+                representatives.add(symbol);
+            }
+            symbolClass[symbol] = id;
+        }
+        System.arraycopy(symbolClass, 0, asciiClass, 0, ASCII);
+        nonAsciiWordClass = symbolClass[NON_ASCII_WORD];
+        nonAsciiOtherClass = symbolClass[NON_ASCII_OTHER];
+        classCount = representatives.size();
+
+        List<BitSet> states = new ArrayList<>();
+        Map<BitSet, Integer> stateIds = new HashMap<>();
+        List<int[]> rows = new ArrayList<>();
+        bodyStart = dfaState(nfa.closure(single(bodyNfaStart)), states, stateIds);
+        lineStart = dfaState(nfa.closure(single(lineNfaStart)), states, stateIds);
+        for (int d = 0; d < states.size(); d++) {
+            BitSet current = states.get(d);
+            int[] row = new int[classCount];
+            for (int c = 0; c < classCount; c++) {
+                int symbol = representatives.get(c);
+                BitSet moved = new BitSet();
+                for (int s = current.nextSetBit(0); s >= 0; s = current.nextSetBit(s + 1)) {
+                    BitSet chars = nfa.chars.get(s);
+                    if (chars != null && chars.get(symbol)) moved.set(nfa.charTarget.get(s));
+                }
+                row[c] = moved.isEmpty() ? DEAD : dfaState(nfa.closure(moved), states, stateIds);
+            }
+            rows.add(row);
+        }
+
+        transitions = new int[states.size() * classCount];
+        accepting = new int[states.size()];
+        for (int d = 0; d < states.size(); d++) {
+            System.arraycopy(rows.get(d), 0, transitions, d * classCount, classCount);
+            int rule = Integer.MAX_VALUE;
+            BitSet set = states.get(d);
+            for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+                int accept = nfa.accept.get(s);
+                if (accept >= 0) rule = Math.min(rule, accept);
+            }
+            accepting[d] = rule == Integer.MAX_VALUE ? -1 : rule;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStateCount() {
+        return accepting.length;
+    }
+
+    public long getTokenCount() {
+        return tokens.sum();
+    }
+
+    public double getTokensPerSecond() {
+        long nanos = lexNanos.sum();
+        return nanos == 0 ? 0 : tokens.sum() * 1e9 / nanos;
+    }
+
+    // Maximal munch with Reps' memo: a (state, position) pair scanned past the last
+    // accepting position cannot reach an accepting state, so it is recorded as failed and
+    // a later scan that arrives there stops at once. The lookahead behind a token is
+    // never explored twice, so a line lexes in linear time even when tokens backtrack.
+    @Override
+    public int lexLine(CharSequence text, int start, int end, int state, StyleRuns runs) {
+        long began = System.nanoTime();
+        int count = 0;
+        boolean atLineStart = true;
+        int stateCount = accepting.length;
+        BitSet failed = null;
+        int[] trail = new int[16];
+        int pos = start;
+        while (pos < end) {
+            int current = atLineStart ? lineStart : bodyStart;
+            int rule = -1;
+            int tokenEnd = pos + 1;
+            // States entered after the last accepting one, at positions trailStart, trailStart + 1, ...
+            int trailLength = 0;
+            int trailStart = 0;
+            for (int i = pos; i < end; i++) {
+                current = transitions[current * classCount + classOf(text.charAt(i))];
+                if (current == DEAD) break;
+                if (accepting[current] >= 0) {
+                    rule = accepting[current];
+                    tokenEnd = i + 1;
+                    trailLength = 0;
+                    continue;
+                }
+                if (failed != null && failed.get((i + 1 - start) * stateCount + current)) break;
+                if (trailLength == 0) trailStart = i + 1;
+                if (trailLength == trail.length) trail = Arrays.copyOf(trail, trailLength * 2);
+                trail[trailLength++] = current;
+            }
+            if (trailLength > 0) {
+                if (failed == null) failed = new BitSet();
+                for (int k = 0; k < trailLength; k++) {
+                    failed.set((trailStart + k - start) * stateCount + trail[k]);
+                }
+            }
+            if (rule >= 0) {
+                count++;
+                if (ruleStyles[rule] != SyntaxHighlighter.STYLE_DEFAULT) {
+                    runs.add(pos, tokenEnd - pos, ruleStyles[rule]);
+                }
+            }
+            if (text.charAt(pos) > ' ') atLineStart = false;
+            pos = tokenEnd;
+        }
+        tokens.add(count);
+        lexNanos.add(System.nanoTime() - began);
+        return state;
+    }
+
+    private int classOf(char c) {
+        if (c < ASCII) return asciiClass[c];
+        return Character.isLetterOrDigit(c) ? nonAsciiWordClass : nonAsciiOtherClass;
+    }
+
+    private static int dfaState(BitSet set, List<BitSet> states, Map<BitSet, Integer> stateIds) {
+        Integer id = stateIds.get(set);
+        if (id == null) {
+            id = states.size();
+            states.add(set);
+            stateIds.put(set, id);
+        }
+        return id;
+    }
+
+    private static BitSet single(int state) {
+        BitSet set = new BitSet();
+        set.set(state);
+        return set;
+    }
+
+    // Thompson NFA: each state has at most one labelled edge plus any number of epsilon edges
+    private static class Nfa {
+        final List<BitSet> chars = new ArrayList<>();
+        final List<Integer> charTarget = new ArrayList<>();
+        final List<List<Integer>> epsilon = new ArrayList<>();
+        final List<Integer> accept = new ArrayList<>();
+
+        int size() {
+            return chars.size();
+        }
+
+        int newState() {
+            chars.add(null);
+            charTarget.add(-1);
+            epsilon.add(new ArrayList<>());
+            accept.add(-1);
+            return chars.size() - 1;
+        }
+
+        void addEpsilon(int from, int to) {
+            epsilon.get(from).add(to);
+        }
+
+        int[] symbol(BitSet set) {
+            int from = newState();
+            int to = newState();
+            chars.set(from, set);
+            charTarget.set(from, to);
+            return new int[] { from, to };
+        }
+
+        BitSet closure(BitSet set) {
+            BitSet result = (BitSet) set.clone();
+            int[] stack = new int[size()];
+            int top = 0;
+            for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) stack[top++] = s;
+            while (top > 0) {
+                for (int next : epsilon.get(stack[--top])) {
+                    if (!result.get(next)) {
+                        result.set(next);
+                        stack[top++] = next;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class PatternParser {
+        private final Nfa nfa;
+        private final String pattern;
+        private final boolean ignoreCase;
+        private int pos;
+
+        PatternParser(Nfa nfa, String pattern, boolean ignoreCase) {
+            this.nfa = nfa;
+            this.pattern = pattern;
+            this.ignoreCase = ignoreCase;
+        }
+
+        int[] parse() {
+            int[] fragment = alternation();
+            if (pos < pattern.length()) throw error("unexpected '" + pattern.charAt(pos) + "'");
+            return fragment;
+        }
+
+        private int[] alternation() {
+            int[] left = concatenation();
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                int[] right = concatenation();
+                int start = nfa.newState();
+                int end = nfa.newState();
+                nfa.addEpsilon(start, left[0]);
+                nfa.addEpsilon(start, right[0]);
+                nfa.addEpsilon(left[1], end);
+                nfa.addEpsilon(right[1], end);
+                left = new int[] { start, end };
+            }
+            return left;
+        }
+
+        private int[] concatenation() {
+            int[] result = null;
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                int[] next = repetition();
+                if (result == null) {
+                    result = next;
+                } else {
+                    nfa.addEpsilon(result[1], next[0]);
+                    result = new int[] { result[0], next[1] };
+                }
+            }
+            if (result == null) {
+                int empty = nfa.newState();
+                result = new int[] { empty, empty };
+            }
+            return result;
+        }
+
+        private int[] repetition() {
+            int[] fragment = atom();
+            while (pos < pattern.length()) {
+                char op = pattern.charAt(pos);
+                if (op != '*' && op != '+' && op != '?') break;
+                pos++;
+                int end = nfa.newState();
+                if (op == '+') {
+                    nfa.addEpsilon(fragment[1], fragment[0]);
+                    nfa.addEpsilon(fragment[1], end);
+                    fragment = new int[] { fragment[0], end };
+                    continue;
+                }
+                int start = nfa.newState();
+                nfa.addEpsilon(start, fragment[0]);
+                nfa.addEpsilon(start, end);
+                nfa.addEpsilon(fragment[1], end);
+                if (op == '*') nfa.addEpsilon(fragment[1], fragment[0]);
+                fragment = new int[] { start, end };
+            }
+            return fragment;
+        }
+
+        private int[] atom() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case '(': {
+                    int[] inner = alternation();
+                    if (pos >= pattern.length() || pattern.charAt(pos) != ')') throw error("missing ')'");
+                    pos++;
+                    return inner;
+                }
+                case '[':
+                    return nfa.symbol(characterClass());
+                case '.': {
+                    BitSet any = new BitSet();
+                    any.set(0, SYMBOLS);
+                    any.clear('\n');
+                    return nfa.symbol(any);
+                }
+                case '\\':
+                    return nfa.symbol(escape());
+                case '*':
+                case '+':
+                case '?':
+                case ')':
+                    throw error("unexpected '" + c + "'");
+                default:
+                    return nfa.symbol(literal(c));
+            }
+        }
+
+        private BitSet characterClass() {
+            boolean negate = pos < pattern.length() && pattern.charAt(pos) == '^';
+            if (negate) pos++;
+            BitSet set = new BitSet();
+            while (true) {
+                if (pos >= pattern.length()) throw error("missing ']'");
+                char c = pattern.charAt(pos++);
+                if (c == ']') break;
+                if (c == '\\') {
+                    char escaped = pattern.charAt(pos);
+                    if ("dwsDWS".indexOf(escaped) >= 0) {
+                        set.or(escape());
+                        continue;
+                    }
+                    pos++;
+                    c = escaped;
+                }
+                if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    pos++;
+                    char high = pattern.charAt(pos++);
+                    if (high == '\\') high = pattern.charAt(pos++);
+                    for (char r = c; r <= high; r++) set.or(literal(r));
+                } else {
+                    set.or(literal(c));
+                }
+            }
+            if (negate) {
+                set.flip(0, SYMBOLS);
+                set.clear('\n');
+            }
+            return set;
+        }
+
+        private BitSet escape() {
+            if (pos >= pattern.length()) throw error("dangling '\\'");
+            char c = pattern.charAt(pos++);
+            BitSet set = new BitSet();
+            switch (Character.toLowerCase(c)) {
+                case 'd':
+                    set.set('0', '9' + 1);
+                    break;
+                case 'w':
+                    set.set('a', 'z' + 1);
+                    set.set('A', 'Z' + 1);
+                    set.set('0', '9' + 1);
+                    set.set('_');
+                    set.set(NON_ASCII_WORD);
+                    break;
+                case 's':
+                    set.set(0, ' ' + 1);
+                    break;
+                default:
+                    return literal(c);
+            }
+            if (Character.isUpperCase(c)) {
+                set.flip(0, SYMBOLS);
+                set.clear('\n');
+            }
+            return set;
+        }
+
+        private BitSet literal(char c) {
+            BitSet set = new BitSet();
+            if (c >= ASCII) {
+                set.set(Character.isLetterOrDigit(c) ? NON_ASCII_WORD : NON_ASCII_OTHER);
+                return set;
+            }
+            set.set(c);
+            if (ignoreCase) {
+                set.set(Character.toLowerCase(c));
+                set.set(Character.toUpperCase(c));
+            }
+            return set;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Bad lexer pattern \"" + pattern + "\" at " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// The digits 0-9 rendered once into a single image at device resolution, so line
+// numbers are drawn as image blits instead of a new String layout per line.
+public class DigitAtlas {
+    private static final int PADDING = 2;
+
+    private final double scale;
+    private final int[] advance = new int[10];
+    private final int[] cellX = new int[10];
+    private final int height;
+    private final BufferedImage image;
+
+    public DigitAtlas(Font font, Color color, FontMetrics fm, double scale) {
+        this.scale = scale;
+        this.height = fm.getHeight();
+        int x = PADDING;
+        for (int d = 0; d < 10; d++) {
+            advance[d] = fm.charWidth((char) ('0' + d));
+            cellX[d] = x;
+            x += advance[d] + 2 * PADDING;
+        }
+
+        image = new BufferedImage((int) Math.ceil(x * scale), (int) Math.ceil(height * scale),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.scale(scale, scale);
+        g.setFont(font);
+        g.setColor(color);
+        for (int d = 0; d < 10; d++) {
+            g.drawString(String.valueOf(d), cellX[d], fm.getAscent());
+        }
+        g.dispose();
+    }
+
+    public boolean matches(double scale) {
+        return this.scale == scale;
+    }
+
+    // Draws number right-aligned to rightX with the top of the line box at top
+    public void draw(Graphics g, int number, int rightX, int top) {
+        int x = rightX;
+        do {
+            int d = number % 10;
+            number /= 10;
+            x -= advance[d];
+            int sx1 = (int) Math.round((cellX[d] - PADDING) * scale);
+            int sx2 = (int) Math.round((cellX[d] + advance[d] + PADDING) * scale);
+            g.drawImage(image, x - PADDING, top, x + advance[d] + PADDING, top + height,
+                    sx1, 0, sx2, image.getHeight(), null);
+        } while (number > 0);
+    }
+}
@@ -0,0 +1,258 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Find and replace inside one document without copying its text. The document is read
+// leaf by leaf through getText(offset, length, Segment) with partial returns; literals
+// are matched with Boyer-Moore-Horspool and regular expressions run over a CharSequence
+// view of the same segments. Replace-all edits only the matched ranges, inside one
+// compound edit so the whole replacement is a single undo step.
+public class DocumentSearch {
+    private final boolean matchCase;
+    private final Pattern pattern;
+    private final char[] needle;
+    private final int[] shift;
+
+    // Throws PatternSyntaxException for a malformed regex
+    public DocumentSearch(String query, boolean regex, boolean matchCase) {
+        if (query.isEmpty()) throw new IllegalArgumentException("Пустой запрос");
+        this.matchCase = matchCase;
+        if (regex) {
+            pattern = Pattern.compile(query, Pattern.MULTILINE
+                    | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            needle = null;
+            shift = null;
+        } else {
+            pattern = null;
+            needle = new char[query.length()];
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = fold(query.charAt(i));
+            }
+            // Bad-character shifts keyed by the low byte; colliding chars keep the smaller, safe shift
+            shift = new int[256];
+            Arrays.fill(shift, needle.length);
+            for (int i = 0; i < needle.length - 1; i++) {
+                shift[needle[i] & 0xFF] = needle.length - 1 - i;
+            }
+        }
+    }
+
+    // First match starting at or after from as {start, end}, or null
+    public int[] find(Document doc, int from) {
+        SegmentSequence text = new SegmentSequence(doc);
+        if (from > text.length()) return null;
+        if (pattern == null) {
+            int start = indexOf(text, from);
+            return start < 0 ? null : new int[] { start, start + needle.length };
+        }
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find(from) ? new int[] { matcher.start(), matcher.end() } : null;
+    }
+
+    // Replacement for the match exactly covering [start, end), or null when that range is not a match.
+    // Regex replacements expand $n, ${name} and backslash escapes like Matcher.appendReplacement.
+    public String replacementFor(Document doc, int start, int end, String replacement) {
+        SegmentSequence text = new SegmentSequence(doc);
+        if (start < 0 || end > text.length()) return null;
+        if (pattern == null) {
+            return end - start == needle.length && indexOf(text, start) == start ? replacement : null;
+        }
+        Matcher matcher = pattern.matcher(text);
+        if (!matcher.find(start) || matcher.start() != start || matcher.end() != end) return null;
+        return expand(matcher, replacement);
+    }
+
+    public int count(Document doc) {
+        Matches matches = collect(doc, null);
+        return matches.count;
+    }
+
+    // Replaces every match as one undo step and returns the number of matches. Each match is
+    // its own replace, so text between matches keeps its styles and is not re-inserted.
+    // caret is mapped through the edits; the new position is stored back into caret[0].
+    public int replaceAll(AbstractDocument doc, String replacement, int[] caret) throws BadLocationException {
+        Matches matches = collect(doc, replacement);
+        if (matches.count == 0) return 0;
+        HighlightDocument compound = doc instanceof HighlightDocument ? (HighlightDocument) doc : null;
+        if (compound != null) compound.beginCompoundEdit();
+        int offset = 0;
+        int newCaret = caret[0];
+        try {
+            for (int i = 0; i < matches.count; i++) {
+                int start = matches.starts[i];
+                int end = matches.ends[i];
+                String text = matches.replacements != null ? matches.replacements.get(i) : replacement;
+                doc.replace(start + offset, end - start, text, null);
+                // A caret inside a match moves to the start of its replacement
+                if (caret[0] > start && caret[0] < end) newCaret = start + offset;
+                offset += text.length() - (end - start);
+                if (caret[0] >= end) newCaret = caret[0] + offset;
+            }
+        } finally {
+            if (compound != null) compound.endCompoundEdit();
+        }
+        caret[0] = newCaret;
+        return matches.count;
+    }
+
+    private Matches collect(Document doc, String replacement) {
+        SegmentSequence text = new SegmentSequence(doc);
+        Matches matches = new Matches();
+        if (pattern == null) {
+            for (int start = indexOf(text, 0); start >= 0; start = indexOf(text, start + needle.length)) {
+                matches.add(start, start + needle.length);
+            }
+            return matches;
+        }
+        Matcher matcher = pattern.matcher(text);
+        if (replacement != null) matches.replacements = new ArrayList<>();
+        while (matcher.find()) {
+            matches.add(matcher.start(), matcher.end());
+            if (replacement != null) matches.replacements.add(expand(matcher, replacement));
+        }
+        return matches;
+    }
+
+    // Boyer-Moore-Horspool: compare from the needle's end and skip by the last window char
+    private int indexOf(SegmentSequence text, int from) {
+        int last = needle.length - 1;
+        int end = text.length() - needle.length;
+        char tail = needle[last];
+        for (int pos = from; pos <= end; ) {
+            char c = fold(text.charAt(pos + last));
+            if (c == tail) {
+                int i = last - 1;
+                while (i >= 0 && fold(text.charAt(pos + i)) == needle[i]) i--;
+                if (i < 0) return pos;
+            }
+            pos += shift[c & 0xFF];
+        }
+        return -1;
+    }
+
+    private char fold(char c) {
+        return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static void appendText(Document doc, int from, int to, Segment segment, StringBuilder out) {
+        try {
+            while (from < to) {
+                doc.getText(from, to - from, segment);
+                out.append(segment.array, segment.offset, segment.count);
+                from += segment.count;
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String expand(Matcher matcher, String replacement) {
+        if (replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0) return replacement;
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i + 1 < replacement.length()) {
+                out.append(replacement.charAt(++i));
+            } else if (c == '$' && i + 1 < replacement.length() && replacement.charAt(i + 1) == '{') {
+                int close = replacement.indexOf('}', i);
+                if (close < 0) throw new IllegalArgumentException("Незакрытая ссылка на группу");
+                String group = matcher.group(replacement.substring(i + 2, close));
+                if (group != null) out.append(group);
+                i = close;
+            } else if (c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                // Longest group number that exists, as in Matcher.appendReplacement
+                int group = replacement.charAt(++i) - '0';
+                while (i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                    int next = group * 10 + replacement.charAt(i + 1) - '0';
+                    if (next > matcher.groupCount()) break;
+                    group = next;
+                    i++;
+                }
+                if (group > matcher.groupCount()) throw new IllegalArgumentException("Нет группы " + group);
+                String text = matcher.group(group);
+                if (text != null) out.append(text);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static class Matches {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count;
+        List<String> replacements;
+
+        void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+
+    // Char view of a document that holds one segment at a time. Reads inside the current
+    // segment are plain array loads; anything else fetches the segment containing the index.
+    // Valid only while the document is unchanged.
+    private static class SegmentSequence implements CharSequence {
+        private final Document doc;
+        private final int length;
+        private final Segment segment = new Segment();
+        private int segmentStart;
+
+        SegmentSequence(Document doc) {
+            this.doc = doc;
+            this.length = doc.getLength();
+            segment.setPartialReturn(true);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int local = index - segmentStart;
+            if (local < 0 || local >= segment.count) {
+                load(index);
+                local = 0;
+            }
+            return segment.array[segment.offset + local];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder out = new StringBuilder(end - start);
+            Segment part = new Segment();
+            part.setPartialReturn(true);
+            appendText(doc, start, end, part, out);
+            return out.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+
+        private void load(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+            try {
+                doc.getText(index, length - index, segment);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+            segmentStart = index;
+        }
+    }
+}
@@ -29,6 +29,8 @@ public class EditorConstants {
     public static final Color COLOR_HEADER_TEXT = new Color(0x111827);
     public static final Color COLOR_CARD_BG = new Color(0xF3F4F6);
     public static final Color COLOR_ERROR_BG = new Color(0xFEE2E2);
+    public static final Color COLOR_PAIR_BG = new Color(0xFDE68A);
+    public static final Color COLOR_BLOCK_BAR = new Color(0x93C5FD);
     public static final Color COLOR_TAB_BG = new Color(0xF9FAFB);
     public static final Color COLOR_TAB_HOVER = new Color(0xE5E7EB);
     public static final Color COLOR_TAB_SELECTED = new Color(0xDBEAFE);
@@ -0,0 +1,81 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// JFR events for the editor hot paths. They cost next to nothing unless a recording
+// is running: java -XX:StartFlightRecording:filename=jscn.jfr -jar JSCN.jar
+public class EditorEvents {
+
+    @Name("jscn.HighlightPass")
+    @Label("Highlight Pass")
+    @Category({ "JSCN", "Editor" })
+    @StackTrace(false)
+    public static class HighlightPass extends Event {
+        @Label("Language")
+        public String language;
+
+        @Label("Document Length")
+        public int documentLength;
+
+        @Label("Lines Touched")
+        public int linesTouched;
+
+        @Label("Visible")
+        public boolean visible;
+    }
+
+    @Name("jscn.FileLoad")
+    @Label("File Load")
+    @Category({ "JSCN", "File" })
+    @StackTrace(false)
+    public static class FileLoad extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("jscn.FileSave")
+    @Label("File Save")
+    @Category({ "JSCN", "File" })
+    @StackTrace(false)
+    public static class FileSave extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("jscn.GutterPaint")
+    @Label("Gutter Paint")
+    @Category({ "JSCN", "Editor" })
+    @StackTrace(false)
+    public static class GutterPaint extends Event {
+        @Label("First Line")
+        public int firstLine;
+
+        @Label("Last Line")
+        public int lastLine;
+    }
+
+    @Name("jscn.EdtStall")
+    @Label("EDT Stall")
+    @Category({ "JSCN", "Swing" })
+    @StackTrace(false)
+    public static class EdtStall extends Event {
+        @Label("AWT Event")
+        public String awtEvent;
+
+        @Label("Dispatch Time")
+        @Timespan(Timespan.MILLISECONDS)
+        public long dispatchMillis;
+    }
+}
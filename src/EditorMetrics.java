@@ -0,0 +1,51 @@
+import java.util.Arrays;
+
+// Live latency samples for the metrics dialog. Recording is an array store on the
+// EDT; percentiles are only computed when somebody looks at them.
+public class EditorMetrics {
+    private static final int SAMPLES = 1024;
+
+    private final long[] keystrokeLatency = new long[SAMPLES];
+    private long keystrokeCount;
+    private long pendingKeystroke = -1;
+    private long stallCount;
+    private long maxStallNanos;
+
+    // A keystroke was dispatched; the next text paint closes the measurement
+    public void keystroke(long nanos) {
+        if (pendingKeystroke < 0) pendingKeystroke = nanos;
+    }
+
+    public void textPainted() {
+        if (pendingKeystroke < 0) return;
+        keystrokeLatency[(int) (keystrokeCount++ % SAMPLES)] = System.nanoTime() - pendingKeystroke;
+        pendingKeystroke = -1;
+    }
+
+    public void edtStall(long nanos) {
+        stallCount++;
+        maxStallNanos = Math.max(maxStallNanos, nanos);
+    }
+
+    public long getKeystrokeCount() {
+        return keystrokeCount;
+    }
+
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    public double getMaxStallMillis() {
+        return maxStallNanos / 1e6;
+    }
+
+    // Percentile of the most recent keystroke-to-paint latencies, in milliseconds
+    public double getKeystrokePercentile(double percentile) {
+        int count = (int) Math.min(keystrokeCount, SAMPLES);
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(keystrokeLatency, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(count - 1, Math.ceil(percentile / 100 * count) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,39 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.event.KeyEvent;
+
+// Event queue that times every dispatch on the EDT. Dispatches longer than the
+// threshold become EDT stall events; typed keys start a keystroke-to-paint sample.
+public class EdtMonitor extends EventQueue {
+    static final long STALL_THRESHOLD_MILLIS = Long.getLong("jscn.edt.stallMillis", 100);
+
+    private final EditorMetrics metrics;
+    private final long thresholdNanos = STALL_THRESHOLD_MILLIS * 1_000_000;
+
+    public EdtMonitor(EditorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        long start = System.nanoTime();
+        if (event.getID() == KeyEvent.KEY_TYPED) metrics.keystroke(start);
+        // Begun before the dispatch so the event spans the stall and JFR thresholds apply to it
+        EditorEvents.EdtStall stall = new EditorEvents.EdtStall();
+        stall.begin();
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > thresholdNanos) {
+                metrics.edtStall(elapsed);
+                stall.end();
+                if (stall.shouldCommit()) {
+                    stall.awtEvent = event.getClass().getSimpleName() + " #" + event.getID();
+                    stall.dispatchMillis = elapsed / 1_000_000;
+                    stall.commit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+
+// Paints error-line backgrounds from a line bitset underneath the regular highlights.
+// Markers follow inserted and removed lines and never touch document attributes,
+// so updating diagnostics does not disturb syntax styles or trigger a re-highlight.
+public class ErrorLineHighlighter extends DefaultHighlighter {
+    private final LineBitSet lines = new LineBitSet();
+    private final Color color;
+    private JTextComponent component;
+    private int lineCount;
+
+    public ErrorLineHighlighter(Color color) {
+        this.color = color;
+    }
+
+    @Override
+    public void install(JTextComponent c) {
+        super.install(c);
+        component = c;
+        lineCount = c.getDocument().getDefaultRootElement().getElementCount();
+        lines.setSize(lineCount);
+        lines.clearAll();
+    }
+
+    @Override
+    public void deinstall(JTextComponent c) {
+        super.deinstall(c);
+        component = null;
+    }
+
+    public boolean isErrorLine(int line) {
+        return lines.get(line);
+    }
+
+    public int getErrorCount() {
+        return lines.cardinality();
+    }
+
+    // Replaces all markers with the given zero-based lines in one repaint
+    public void setErrorLines(int... errorLines) {
+        lines.clearAll();
+        for (int line : errorLines) {
+            lines.set(line);
+        }
+        repaintComponent();
+    }
+
+    public void setErrorLine(int line, boolean error) {
+        if (lines.get(line) == error) return;
+        if (error) lines.set(line);
+        else lines.clear(line);
+        repaintComponent();
+    }
+
+    public void clearErrors() {
+        if (lines.isEmpty()) return;
+        lines.clearAll();
+        repaintComponent();
+    }
+
+    // Same line bookkeeping as LineStateCache.documentChanged
+    public void documentChanged(DocumentEvent e) {
+        Element root = e.getDocument().getDefaultRootElement();
+        int newCount = root.getElementCount();
+        int delta = newCount - lineCount;
+        int firstLine = root.getElementIndex(e.getOffset());
+        if (delta > 0) {
+            lines.insertLines(firstLine + 1, delta);
+        } else if (delta < 0) {
+            lines.removeLines(firstLine + 1, -delta);
+        }
+        lineCount = newCount;
+        if (delta != 0 && lines.nextSetBit(firstLine) >= 0) {
+            repaintComponent();
+        }
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        if (component != null && !lines.isEmpty()) {
+            paintErrorLines(g);
+        }
+        super.paint(g);
+    }
+
+    private void paintErrorLines(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = component.getVisibleRect();
+        Element root = component.getDocument().getDefaultRootElement();
+        int first = root.getElementIndex(component.viewToModel(new Point(0, clip.y)));
+        int last = root.getElementIndex(component.viewToModel(new Point(0, clip.y + clip.height)));
+
+        g.setColor(color);
+        for (int line = lines.nextSetBit(first); line >= 0 && line <= last; line = lines.nextSetBit(line + 1)) {
+            Element lineElem = root.getElement(line);
+            try {
+                Rectangle top = component.modelToView(lineElem.getStartOffset());
+                Rectangle bottom = component.modelToView(
+                        Math.max(lineElem.getStartOffset(), lineElem.getEndOffset() - 1));
+                if (top == null || bottom == null) continue;
+                g.fillRect(0, top.y, component.getWidth(), bottom.y + bottom.height - top.y);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void repaintComponent() {
+        if (component != null) component.repaint();
+    }
+}
@@ -0,0 +1,127 @@
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+// Decodes a file on a background thread in large chunks. Chunks published while the
+// EDT is busy are coalesced by SwingWorker, so the document sees one append per batch.
+public class FileLoader extends SwingWorker<Void, String> {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final File file;
+    private final Charset charset;
+    private final Consumer<String> appender;
+    private final Consumer<Exception> onDone;
+    private volatile String lineSeparator;
+    private boolean skipLineFeed;
+
+    public FileLoader(File file, Charset charset, Consumer<String> appender, Consumer<Exception> onDone) {
+        this.file = file;
+        this.charset = charset;
+        this.appender = appender;
+        this.onDone = onDone;
+    }
+
+    // First line separator found in the file, or null if it has a single line
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    @Override
+    protected Void doInBackground() throws Exception {
+        EditorEvents.FileLoad event = new EditorEvents.FileLoad();
+        event.begin();
+        long read = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+            while (!isCancelled()) {
+                int count = channel.read(bytes);
+                boolean eof = count < 0;
+                if (count > 0) read += count;
+
+                bytes.flip();
+                decoder.decode(bytes, chars, eof);
+                if (eof) decoder.flush(chars);
+                bytes.compact();
+
+                chars.flip();
+                if (chars.hasRemaining()) publish(normalizeLineEnds(chars));
+                chars.clear();
+
+                setProgress(size == 0 ? 100 : (int) Math.min(100, read * 100 / size));
+                if (eof) break;
+            }
+        }
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.bytes = read;
+            event.commit();
+        }
+        return null;
+    }
+
+    // Same conversion as DefaultEditorKit.read: \r\n and lone \r become \n
+    private String normalizeLineEnds(CharBuffer chars) {
+        StringBuilder text = new StringBuilder(chars.remaining());
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    if (lineSeparator == null) lineSeparator = "\r\n";
+                    continue;
+                }
+            }
+            if (c == '\r') {
+                text.append('\n');
+                skipLineFeed = true;
+                if (lineSeparator == null && chars.hasRemaining()) {
+                    lineSeparator = chars.get(chars.position()) == '\n' ? "\r\n" : "\r";
+                }
+            } else {
+                if (c == '\n' && lineSeparator == null) lineSeparator = "\n";
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        if (isCancelled()) return;
+        if (chunks.size() == 1) {
+            appender.accept(chunks.get(0));
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        for (String chunk : chunks) batch.append(chunk);
+        appender.accept(batch.toString());
+    }
+
+    @Override
+    protected void done() {
+        Exception error = null;
+        try {
+            get();
+        } catch (CancellationException e) {
+            error = e;
+        } catch (Exception e) {
+            error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        onDone.accept(error);
+    }
+}
@@ -0,0 +1,168 @@
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.function.Consumer;
+
+// Writes a rope snapshot to a temp file next to the target and atomically moves it
+// into place, so a crash mid-write never leaves a truncated file behind.
+public class FileSaver extends SwingWorker<Long, Void> {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CHAR_CHUNK = 64 * 1024;
+    static boolean forceToDisk = !Boolean.getBoolean("jscn.save.noSync");
+
+    private final Rope text;
+    private final int length;
+    private final File target;
+    private final Charset charset;
+    private final String lineSeparator;
+    private final Consumer<Exception> onDone;
+
+    public FileSaver(Rope text, int length, File target, Charset charset, String lineSeparator,
+                     Consumer<Exception> onDone) {
+        this.text = text;
+        this.length = length;
+        this.target = target;
+        this.charset = charset;
+        this.lineSeparator = lineSeparator == null ? "\n" : lineSeparator;
+        this.onDone = onDone;
+    }
+
+    @Override
+    protected Long doInBackground() throws IOException {
+        Path targetPath = target.toPath().toAbsolutePath();
+        // Save through a symlink to the file it points at instead of replacing the link
+        if (Files.exists(targetPath)) targetPath = targetPath.toRealPath();
+        Path temp = Files.createTempFile(targetPath.getParent(), "." + targetPath.getFileName(), ".tmp");
+        EditorEvents.FileSave event = new EditorEvents.FileSave();
+        event.begin();
+        long written = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                written = write(channel);
+                if (forceToDisk) channel.force(true);
+            }
+            if (Files.exists(targetPath)) copyAttributes(targetPath, temp);
+            try {
+                Files.move(temp, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (event.shouldCommit()) {
+            event.path = targetPath.toString();
+            event.bytes = written;
+            event.commit();
+        }
+        return written;
+    }
+
+    private long write(FileChannel channel) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        char[] raw = new char[CHAR_CHUNK];
+        // One extra char for a surrogate carried over from the previous chunk
+        CharBuffer chars = CharBuffer.allocate(CHAR_CHUNK * lineSeparator.length() + 1);
+        boolean convert = !"\n".equals(lineSeparator);
+        long written = 0;
+
+        for (int pos = 0; pos < length; pos += CHAR_CHUNK) {
+            int end = Math.min(length, pos + CHAR_CHUNK);
+            text.getChars(pos, end, raw, 0);
+            if (convert) {
+                for (int i = 0; i < end - pos; i++) {
+                    if (raw[i] == '\n') chars.put(lineSeparator);
+                    else chars.put(raw[i]);
+                }
+            } else {
+                chars.put(raw, 0, end - pos);
+            }
+            chars.flip();
+            written += encode(encoder, chars, bytes, channel, false);
+            // Keeps a high surrogate the encoder left at the chunk boundary for the next chunk
+            chars.compact();
+        }
+        chars.flip();
+        written += encode(encoder, chars, bytes, channel, true);
+        if (chars.hasRemaining()) {
+            throw new IOException("Кодировщик не записал " + chars.remaining() + " символов");
+        }
+        while (encoder.flush(bytes).isOverflow()) {
+            written += drain(bytes, channel);
+        }
+        written += drain(bytes, channel);
+        return written;
+    }
+
+    // The temp file is created with mode 600; give it the target's permissions, and its
+    // owner and group where the process is allowed to, so the move does not change them
+    private static void copyAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView source = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        PosixFileAttributeView copy = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (source == null || copy == null) return;
+        PosixFileAttributes attributes = source.readAttributes();
+        copy.setPermissions(attributes.permissions());
+        try {
+            copy.setOwner(attributes.owner());
+        } catch (IOException e) {
+            // Only root may give a file away; the saving user keeps it
+        }
+        try {
+            copy.setGroup(attributes.group());
+        } catch (IOException e) {
+            // Not a member of the target's group
+        }
+    }
+
+    private long encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, FileChannel channel,
+                        boolean endOfInput) throws IOException {
+        long written = 0;
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                written += drain(bytes, channel);
+            } else {
+                return written;
+            }
+        }
+    }
+
+    private long drain(ByteBuffer bytes, FileChannel channel) throws IOException {
+        bytes.flip();
+        long written = 0;
+        while (bytes.hasRemaining()) {
+            written += channel.write(bytes);
+        }
+        bytes.clear();
+        return written;
+    }
+
+    @Override
+    protected void done() {
+        Exception error = null;
+        try {
+            get();
+        } catch (Exception e) {
+            error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        onDone.accept(error);
+    }
+}
@@ -0,0 +1,472 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Project-wide text search. Directories are walked by fork-join tasks, every file is
+// scanned as raw bytes in memory-mapped windows and only the lines that contain a hit
+// are decoded. Literal queries use a SWAR matcher that tests eight bytes per step for
+// the needle's rarest byte and verifies the rest at each candidate; regular expressions run over the window directly when it is
+// pure ASCII and over a decoded copy otherwise. Hits are reported one line per match,
+// in batches per file window, from the worker threads.
+public class FileSearch {
+    public static final int DEFAULT_MAX_HITS = 10000;
+    static final int MAX_LINE_CHARS = 300;
+
+    private static final int BINARY_PROBE_BYTES = 8192;
+    private static final int FILES_PER_TASK = 16;
+    // Files up to this size are read into a reused buffer; mapping costs more than copying them
+    private static final int SMALL_FILE_BYTES = 64 * 1024;
+    // Larger files are mapped in windows cut at a line break; a regex cannot match across a cut
+    private static final int WINDOW_BYTES = 64 * 1024 * 1024;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long NEWLINES = '\n' * ONES;
+    // ASCII letters from most to least frequent in source text; other bytes count as rarer
+    private static final String COMMON_BYTES = " etaoinsrlhdcumpfgbywvkxjqz";
+
+    private static final ThreadLocal<ByteBuffer> SMALL_BUFFER = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(SMALL_FILE_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+
+    public static class Hit {
+        public final File file;
+        public final int line;
+        public final String text;
+
+        // line is 0-based
+        public Hit(File file, int line, String text) {
+            this.file = file;
+            this.line = line;
+            this.text = text;
+        }
+    }
+
+    private final Path root;
+    private final List<PathMatcher> masks = new ArrayList<>();
+    private final int maxHits;
+    private final int parallelism;
+
+    private final byte[] needle;
+    private final boolean[] fold;
+    private final int anchor;
+    private final long anchorWord;
+    private final long foldWord;
+    private final Pattern pattern;
+
+    private final AtomicLong searchedFiles = new AtomicLong();
+    private final AtomicLong searchedBytes = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private volatile boolean capped;
+    private BooleanSupplier stopRequested = () -> false;
+    private Consumer<List<Hit>> sink;
+
+    // mask is a list of file name globs separated by ';' or ',' (empty matches every file).
+    // Throws PatternSyntaxException for a malformed regex.
+    public FileSearch(Path root, String query, boolean regex, boolean matchCase, String mask, int maxHits, int parallelism) {
+        if (query.isEmpty()) throw new IllegalArgumentException("Пустой запрос");
+        this.root = root;
+        this.maxHits = maxHits;
+        this.parallelism = parallelism;
+        for (String glob : mask.split("[;,]")) {
+            glob = glob.trim();
+            if (!glob.isEmpty()) masks.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+
+        // Case folding on bytes is exact only for ASCII; anything else goes through the regex path
+        if (!regex && (matchCase || isAscii(query))) {
+            needle = query.getBytes(StandardCharsets.UTF_8);
+            fold = new boolean[needle.length];
+            for (int i = 0; i < needle.length; i++) {
+                byte b = needle[i];
+                if (!matchCase && (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z')) {
+                    fold[i] = true;
+                    needle[i] = (byte) (b | 0x20);
+                }
+            }
+            int rarest = 0;
+            for (int i = 1; i < needle.length; i++) {
+                if (rarity(needle[i]) > rarity(needle[rarest])) rarest = i;
+            }
+            anchor = rarest;
+            anchorWord = (needle[anchor] & 0xFFL) * ONES;
+            foldWord = fold[anchor] ? 0x20 * ONES : 0;
+            pattern = null;
+        } else {
+            int flags = Pattern.MULTILINE | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            pattern = Pattern.compile(regex ? query : Pattern.quote(query), flags);
+            needle = null;
+            fold = null;
+            anchor = 0;
+            anchorWord = 0;
+            foldWord = 0;
+        }
+    }
+
+    public long getSearchedFiles() {
+        return searchedFiles.get();
+    }
+
+    public long getSearchedBytes() {
+        return searchedBytes.get();
+    }
+
+    public long getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    public int getHitCount() {
+        return Math.min(hitCount.get(), maxHits);
+    }
+
+    // True once the result cap stopped the search
+    public boolean isCapped() {
+        return capped;
+    }
+
+    // Blocks until the tree is searched, the cap is reached or stop returns true.
+    // sink is called from worker threads.
+    public void run(Consumer<List<Hit>> sink, BooleanSupplier stop) {
+        this.sink = sink;
+        this.stopRequested = stop;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(root));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private boolean stopped() {
+        return capped || stopRequested.getAsBoolean();
+    }
+
+    private boolean accepts(Path file) {
+        if (masks.isEmpty()) return true;
+        Path name = file.getFileName();
+        for (PathMatcher mask : masks) {
+            if (mask.matches(name)) return true;
+        }
+        return false;
+    }
+
+    private boolean claimHit() {
+        if (hitCount.getAndIncrement() < maxHits) return true;
+        capped = true;
+        return false;
+    }
+
+    private void searchFile(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            File file = path.toFile();
+            if (size <= SMALL_FILE_BYTES) {
+                ByteBuffer buffer = SMALL_BUFFER.get();
+                buffer.clear();
+                while (buffer.position() < size && channel.read(buffer) >= 0) { }
+                int limit = buffer.position();
+                if (isBinary(buffer, limit)) return;
+                searchWindow(file, buffer, limit, 0);
+            } else {
+                long position = 0;
+                int lineBase = 0;
+                while (position < size && !stopped()) {
+                    int length = (int) Math.min(WINDOW_BYTES, size - position);
+                    ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                    if (position == 0 && isBinary(window, length)) return;
+                    int limit = length;
+                    if (position + length < size) {
+                        int cut = lastNewline(window, length);
+                        if (cut >= 0) limit = cut + 1;
+                    }
+                    lineBase = searchWindow(file, window, limit, lineBase);
+                    position += limit;
+                }
+            }
+            searchedFiles.incrementAndGet();
+            searchedBytes.addAndGet(size);
+        } catch (IOException | UnsupportedOperationException e) {
+            failedFiles.incrementAndGet();
+        }
+    }
+
+    // Searches [0, limit) and returns the line number after it
+    private int searchWindow(File file, ByteBuffer buffer, int limit, int lineBase) throws CharacterCodingException {
+        List<Hit> hits = new ArrayList<>();
+        int line = needle != null
+                ? searchLiteral(file, buffer, limit, lineBase, hits)
+                : searchPattern(file, buffer, limit, lineBase, hits);
+        if (!hits.isEmpty()) sink.accept(hits);
+        return line;
+    }
+
+    private int searchLiteral(File file, ByteBuffer buffer, int limit, int line, List<Hit> hits) {
+        int last = limit - needle.length;
+        int counted = 0;
+        int pos = 0;
+        while (pos <= last) {
+            int found = findAnchor(buffer, pos + anchor, last + anchor + 1);
+            if (found < 0) break;
+            int candidate = found - anchor;
+            if (!matchesAt(buffer, candidate)) {
+                pos = candidate + 1;
+                continue;
+            }
+            line += countNewlines(buffer, counted, candidate);
+            int lineStart = lastNewline(buffer, candidate) + 1;
+            int lineEnd = nextNewline(buffer, candidate, limit);
+            if (!claimHit()) break;
+            hits.add(new Hit(file, line, lineText(buffer, lineStart, lineEnd)));
+            counted = lineEnd;
+            pos = lineEnd + 1;
+            if (stopRequested.getAsBoolean()) break;
+        }
+        return line + countNewlines(buffer, counted, limit);
+    }
+
+    private int searchPattern(File file, ByteBuffer buffer, int limit, int line, List<Hit> hits)
+            throws CharacterCodingException {
+        CharSequence text;
+        if (isAscii(buffer, limit)) {
+            text = new AsciiSequence(buffer, 0, limit);
+        } else {
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(0).limit(limit);
+            text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+        }
+        int length = text.length();
+        Matcher matcher = pattern.matcher(text);
+        int counted = 0;
+        int pos = 0;
+        while (pos <= length && matcher.find(pos)) {
+            int start = matcher.start();
+            for (int i = counted; i < start; i++) {
+                if (text.charAt(i) == '\n') line++;
+            }
+            int lineStart = start;
+            while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+            int lineEnd = start;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') lineEnd++;
+            counted = lineEnd;
+            pos = lineEnd + 1;
+            // A match may run across line breaks (\s*, [^x]); hits must match within their line
+            if (lineEnd - start < matcher.end() - start && !matcher.region(lineStart, lineEnd).find()) continue;
+            if (!claimHit()) break;
+            hits.add(new Hit(file, line, trimLine(text.subSequence(lineStart,
+                    Math.min(lineEnd, lineStart + MAX_LINE_CHARS * 2)).toString())));
+            if (stopRequested.getAsBoolean()) break;
+        }
+        for (int i = counted; i < length; i++) {
+            if (text.charAt(i) == '\n') line++;
+        }
+        return line;
+    }
+
+    // First position in [from, to) whose byte equals the anchor byte (after folding)
+    private int findAnchor(ByteBuffer buffer, int from, int to) {
+        int pos = from;
+        for (; pos + 8 <= to; pos += 8) {
+            long zeros = zeroBytes((buffer.getLong(pos) | foldWord) ^ anchorWord);
+            if (zeros != 0) return pos + (Long.numberOfTrailingZeros(zeros) >>> 3);
+        }
+        byte target = needle[anchor];
+        int mask = (int) foldWord & 0xFF;
+        for (; pos < to; pos++) {
+            if ((buffer.get(pos) | mask) == target) return pos;
+        }
+        return -1;
+    }
+
+    private boolean matchesAt(ByteBuffer buffer, int pos) {
+        for (int i = 0; i < needle.length; i++) {
+            int b = buffer.get(pos + i);
+            if (fold[i]) b |= 0x20;
+            if ((byte) b != needle[i]) return false;
+        }
+        return true;
+    }
+
+    private static int rarity(byte b) {
+        int rank = COMMON_BYTES.indexOf(Character.toLowerCase((char) (b & 0xFF)));
+        return rank < 0 ? COMMON_BYTES.length() : rank;
+    }
+
+    private static String lineText(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[Math.min(end - start, MAX_LINE_CHARS * 4)];
+        buffer.get(start, bytes, 0, bytes.length);
+        return trimLine(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static String trimLine(String line) {
+        line = line.strip();
+        return line.length() > MAX_LINE_CHARS ? line.substring(0, MAX_LINE_CHARS) + "…" : line;
+    }
+
+    // High bit set in exactly the bytes of word that are zero
+    private static long zeroBytes(long word) {
+        return ~(((word & LOW7) + LOW7) | word | LOW7);
+    }
+
+    private static int countNewlines(ByteBuffer buffer, int from, int to) {
+        int count = 0;
+        int pos = from;
+        for (; pos + 8 <= to; pos += 8) {
+            count += Long.bitCount(zeroBytes(buffer.getLong(pos) ^ NEWLINES));
+        }
+        for (; pos < to; pos++) {
+            if (buffer.get(pos) == '\n') count++;
+        }
+        return count;
+    }
+
+    private static int nextNewline(ByteBuffer buffer, int from, int to) {
+        int pos = from;
+        for (; pos + 8 <= to; pos += 8) {
+            long zeros = zeroBytes(buffer.getLong(pos) ^ NEWLINES);
+            if (zeros != 0) return pos + (Long.numberOfTrailingZeros(zeros) >>> 3);
+        }
+        for (; pos < to; pos++) {
+            if (buffer.get(pos) == '\n') return pos;
+        }
+        return to;
+    }
+
+    // Last newline before position before, or -1
+    private static int lastNewline(ByteBuffer buffer, int before) {
+        for (int pos = before - 1; pos >= 0; pos--) {
+            if (buffer.get(pos) == '\n') return pos;
+        }
+        return -1;
+    }
+
+    private static boolean isAscii(ByteBuffer buffer, int limit) {
+        int pos = 0;
+        for (; pos + 8 <= limit; pos += 8) {
+            if ((buffer.getLong(pos) & HIGH) != 0) return false;
+        }
+        for (; pos < limit; pos++) {
+            if (buffer.get(pos) < 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static boolean isBinary(ByteBuffer buffer, int limit) {
+        int probe = Math.min(limit, BINARY_PROBE_BYTES);
+        for (int pos = 0; pos < probe; pos++) {
+            if (buffer.get(pos) == 0) return true;
+        }
+        return false;
+    }
+
+    // Zero-copy char view of ASCII bytes for the regex engine
+    private static class AsciiSequence implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+
+        AsciiSequence(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) buffer.get(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new AsciiSequence(buffer, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes, 0, bytes.length);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            if (stopped()) return;
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (entry.getFileName().toString().startsWith(".")) continue;
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new DirectoryTask(entry));
+                    } else if (accepts(entry) && Files.isRegularFile(entry)) {
+                        files.add(entry);
+                        if (files.size() == FILES_PER_TASK) {
+                            tasks.add(new FilesTask(files));
+                            files = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                failedFiles.incrementAndGet();
+            }
+            if (!files.isEmpty()) tasks.add(new FilesTask(files));
+            invokeAll(tasks);
+        }
+    }
+
+    private class FilesTask extends RecursiveAction {
+        private final List<Path> files;
+
+        FilesTask(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                if (stopped()) return;
+                searchFile(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import javax.swing.*;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
+
+// Non-modal find/replace for the current tab. Searching starts after the selection and
+// wraps around once; replace-all goes through DocumentSearch as one undo step.
+public class FindReplaceDialog extends JDialog {
+    private final Supplier<JTextPane> target;
+    private final JTextField findField = new JTextField(28);
+    private final JTextField replaceField = new JTextField(28);
+    private final JCheckBox caseBox = new JCheckBox("Учитывать регистр");
+    private final JCheckBox regexBox = new JCheckBox("Регулярное выражение");
+    private final JLabel status = new JLabel(" ");
+
+    public FindReplaceDialog(Frame owner, Supplier<JTextPane> target) {
+        super(owner, "Найти и заменить", false);
+        this.target = target;
+
+        JButton findButton = new JButton("Найти далее");
+        findButton.addActionListener(e -> findNext());
+        JButton replaceButton = new JButton("Заменить");
+        replaceButton.addActionListener(e -> replace());
+        JButton replaceAllButton = new JButton("Заменить все");
+        replaceAllButton.addActionListener(e -> replaceAll());
+        findField.addActionListener(e -> findNext());
+        status.setFont(new Font("Poppins", Font.PLAIN, 12));
+        status.setForeground(EditorConstants.COLOR_COMMENT);
+
+        JPanel fields = new JPanel(new GridLayout(0, 1, 0, 4));
+        fields.setOpaque(false);
+        fields.add(new JLabel("Найти:"));
+        fields.add(findField);
+        fields.add(new JLabel("Заменить на:"));
+        fields.add(replaceField);
+        fields.add(caseBox);
+        fields.add(regexBox);
+
+        JPanel buttons = new JPanel(new GridLayout(0, 1, 0, 4));
+        buttons.setOpaque(false);
+        buttons.add(findButton);
+        buttons.add(replaceButton);
+        buttons.add(replaceAllButton);
+        JPanel east = new JPanel(new BorderLayout());
+        east.setOpaque(false);
+        east.add(buttons, BorderLayout.NORTH);
+
+        JPanel content = new JPanel(new BorderLayout(10, 8));
+        content.setBackground(EditorConstants.COLOR_BACKGROUND);
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(fields, BorderLayout.CENTER);
+        content.add(east, BorderLayout.EAST);
+        content.add(status, BorderLayout.SOUTH);
+        setContentPane(content);
+        getRootPane().setDefaultButton(findButton);
+        getRootPane().registerKeyboardAction(e -> setVisible(false),
+                KeyStroke.getKeyStroke("ESCAPE"), JComponent.WHEN_IN_FOCUSED_WINDOW);
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    // Shows the dialog, taking a one-line selection as the query
+    public void open() {
+        JTextPane textPane = target.get();
+        String selection = textPane != null ? textPane.getSelectedText() : null;
+        if (selection != null && !selection.isEmpty() && selection.indexOf('\n') < 0) findField.setText(selection);
+        setVisible(true);
+        toFront();
+        findField.requestFocusInWindow();
+        findField.selectAll();
+    }
+
+    public boolean hasQuery() {
+        return !findField.getText().isEmpty();
+    }
+
+    public void findNext() {
+        JTextPane textPane = target.get();
+        DocumentSearch search = createSearch();
+        if (textPane == null || search == null) return;
+        int[] match = search.find(textPane.getDocument(), textPane.getSelectionEnd());
+        boolean wrapped = false;
+        if (match == null) {
+            match = search.find(textPane.getDocument(), 0);
+            wrapped = true;
+        }
+        if (match == null) {
+            status.setText("Не найдено");
+            return;
+        }
+        // An empty regex match at the caret would never advance
+        if (match[0] == match[1] && match[0] == textPane.getSelectionEnd() && textPane.getSelectionStart() == match[0]) {
+            int[] next = search.find(textPane.getDocument(), match[0] + 1);
+            if (next != null) match = next;
+        }
+        select(textPane, match);
+        status.setText(wrapped ? "Поиск продолжен с начала" : " ");
+    }
+
+    // Replaces the selection if it is a match, then moves to the next match
+    private void replace() {
+        JTextPane textPane = target.get();
+        DocumentSearch search = createSearch();
+        if (textPane == null || search == null) return;
+        int start = textPane.getSelectionStart();
+        int end = textPane.getSelectionEnd();
+        String replacement;
+        try {
+            replacement = search.replacementFor(textPane.getDocument(), start, end, replaceField.getText());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            status.setText("Ошибка в замене: " + e.getMessage());
+            return;
+        }
+        if (replacement != null) {
+            try {
+                ((AbstractDocument) textPane.getDocument()).replace(start, end - start, replacement, null);
+                textPane.select(start + replacement.length(), start + replacement.length());
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+        findNext();
+    }
+
+    private void replaceAll() {
+        JTextPane textPane = target.get();
+        DocumentSearch search = createSearch();
+        if (textPane == null || search == null) return;
+        int[] caret = { textPane.getCaretPosition() };
+        long started = System.nanoTime();
+        try {
+            int count = search.replaceAll((AbstractDocument) textPane.getDocument(), replaceField.getText(), caret);
+            textPane.setCaretPosition(Math.min(caret[0], textPane.getDocument().getLength()));
+            status.setText(count == 0 ? "Не найдено" : String.format("Заменено: %,d за %.0f мс",
+                    count, (System.nanoTime() - started) / 1e6));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            status.setText("Ошибка в замене: " + e.getMessage());
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private DocumentSearch createSearch() {
+        if (findField.getText().isEmpty()) {
+            status.setText("Введите строку поиска");
+            return null;
+        }
+        try {
+            return new DocumentSearch(findField.getText(), regexBox.isSelected(), caseBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            status.setText("Ошибка в регулярном выражении: " + e.getDescription());
+            return null;
+        }
+    }
+
+    private static void select(JTextComponent textPane, int[] match) {
+        textPane.select(match[0], match[1]);
+        textPane.getCaret().setSelectionVisible(true);
+        try {
+            Rectangle view = textPane.modelToView(match[0]);
+            if (view != null) textPane.scrollRectToVisible(view);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
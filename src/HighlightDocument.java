@@ -0,0 +1,121 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+
+public class HighlightDocument extends DefaultStyledDocument {
+    private UndoJournal undoJournal;
+
+    public HighlightDocument() {
+        super(new RopeContent(), new StyleContext());
+    }
+
+    // Edits are recorded into the journal; a replace is recorded as one undo step
+    public void setUndoJournal(UndoJournal journal) {
+        this.undoJournal = journal;
+    }
+
+    // Edits made between begin and end are recorded as one undo step
+    public void beginCompoundEdit() {
+        if (undoJournal != null) undoJournal.beginCompound();
+    }
+
+    public void endCompoundEdit() {
+        if (undoJournal != null) undoJournal.endCompound();
+    }
+
+    @Override
+    public void replace(int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
+        if (undoJournal == null) {
+            super.replace(offset, length, text, attrs);
+            return;
+        }
+        undoJournal.beginCompound();
+        try {
+            super.replace(offset, length, text, attrs);
+        } finally {
+            undoJournal.endCompound();
+        }
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        if (undoJournal != null && undoJournal.isRecording()) {
+            try {
+                undoJournal.recordInsert(chng.getOffset(), getText(chng.getOffset(), chng.getLength()));
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    // Runs before the text is removed, so the removed text can still be read
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        if (undoJournal != null && undoJournal.isRecording()) {
+            try {
+                undoJournal.recordRemove(chng.getOffset(), getText(chng.getOffset(), chng.getLength()));
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+        super.removeUpdate(chng);
+    }
+
+    // Immutable text of the whole document, including the trailing implied newline
+    public Rope snapshot() {
+        return ((RopeContent) getContent()).snapshot();
+    }
+
+    // Applies style runs over the given [from, to) ranges under one write lock.
+    // Gaps between runs get the default style; listeners see a single change event
+    // and no undoable edit is produced, since highlighting is not a user edit.
+    public void applyStyleRuns(int[] ranges, StyleRuns runs, AttributeSet[] styles) {
+        if (ranges.length == 0) return;
+        try {
+            writeLock();
+            int length = getLength();
+            int eventStart = Math.min(ranges[0], length);
+            int eventEnd = Math.min(ranges[ranges.length - 1], length);
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(eventStart, eventEnd - eventStart,
+                    DocumentEvent.EventType.CHANGE);
+
+            int run = 0;
+            for (int r = 0; r < ranges.length; r += 2) {
+                int from = Math.min(ranges[r], length);
+                int to = Math.min(ranges[r + 1], length);
+                int pos = from;
+                while (run < runs.size() && runs.getStart(run) < to) {
+                    int start = Math.max(runs.getStart(run), pos);
+                    int end = Math.min(runs.getStart(run) + runs.getLength(run), to);
+                    if (end > start) {
+                        setRun(pos, start, styles[SyntaxHighlighter.STYLE_DEFAULT], changes);
+                        setRun(start, end, styles[runs.getStyle(run)], changes);
+                        pos = end;
+                    }
+                    run++;
+                }
+                setRun(pos, to, styles[SyntaxHighlighter.STYLE_DEFAULT], changes);
+            }
+
+            changes.end();
+            fireChangedUpdate(changes);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    private void setRun(int start, int end, AttributeSet style, DefaultDocumentEvent changes) {
+        if (end <= start) return;
+        buffer.change(start, end - start, changes);
+        int lastEnd;
+        for (int pos = start; pos < end; pos = lastEnd) {
+            Element run = getCharacterElement(pos);
+            lastEnd = run.getEndOffset();
+            if (pos == lastEnd) break;
+            MutableAttributeSet attr = (MutableAttributeSet) run.getAttributes();
+            if (attr.isEqual(style)) continue;
+            attr.removeAttributes(attr);
+            attr.addAttributes(style);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import javax.swing.Timer;
+
+public class HighlightScheduler {
+    private static final int MIN_DELAY_MS = 5;
+    private static final int MAX_DELAY_MS = 300;
+    private static final double COST_SMOOTHING = 0.25;
+
+    private final Runnable pass;
+    private final Timer timer;
+
+    private long revision;
+    private long highlightedRevision = -1;
+    private long requestedPasses;
+    private long executedPasses;
+    private double averagePassMillis;
+
+    public HighlightScheduler(Runnable pass) {
+        this.pass = pass;
+        this.timer = new Timer(MIN_DELAY_MS, e -> runPass());
+        this.timer.setRepeats(false);
+    }
+
+    // Schedules a pass for a text edit, or forces one when something else changed
+    // (language switch after Save As, end of a file load)
+    public void invalidate() {
+        revision++;
+        request();
+    }
+
+    public void request() {
+        requestedPasses++;
+        if (highlightedRevision == revision) return;
+        timer.setInitialDelay(currentDelay());
+        timer.restart();
+    }
+
+    // Called when a pass finished with dirty lines left over (sliced or superseded work)
+    public void continueLater(int delayMillis) {
+        highlightedRevision = -1;
+        timer.setInitialDelay(delayMillis);
+        timer.restart();
+    }
+
+    public void recordPassCost(long nanos) {
+        double millis = nanos / 1_000_000.0;
+        averagePassMillis = executedPasses <= 1
+                ? millis
+                : averagePassMillis + COST_SMOOTHING * (millis - averagePassMillis);
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    public long getRequestedPasses() {
+        return requestedPasses;
+    }
+
+    public long getExecutedPasses() {
+        return executedPasses;
+    }
+
+    public double getAveragePassMillis() {
+        return averagePassMillis;
+    }
+
+    public int currentDelay() {
+        int delay = (int) Math.round(averagePassMillis * 2);
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, delay));
+    }
+
+    private void runPass() {
+        if (highlightedRevision == revision) return;
+        highlightedRevision = revision;
+        executedPasses++;
+        pass.run();
+    }
+}
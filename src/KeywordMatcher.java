@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+// Case-insensitive trie over ASCII identifiers, built once per keyword set
+public class KeywordMatcher {
+    private static final int ALPHABET = 128;
+
+    private int[] next = new int[ALPHABET * 16];
+    private boolean[] terminal = new boolean[16];
+    private int nodeCount = 1;
+
+    public KeywordMatcher(String... keywords) {
+        for (String keyword : keywords) {
+            add(keyword);
+        }
+    }
+
+    // Checked up front so a bad keyword leaves no half-built path in the trie
+    public void add(String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (keyword.charAt(i) >= ALPHABET) {
+                throw new IllegalArgumentException("Non-ASCII keyword \"" + keyword + "\" at " + i);
+            }
+        }
+        int node = 0;
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = fold(keyword.charAt(i));
+            int slot = node * ALPHABET + c;
+            if (next[slot] == 0) {
+                ensureCapacity(nodeCount + 1);
+                next[slot] = nodeCount++;
+            }
+            node = next[slot];
+        }
+        terminal[node] = true;
+    }
+
+    public boolean matches(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            char c = fold(text.charAt(i));
+            if (c >= ALPHABET) return false;
+            node = next[node * ALPHABET + c];
+            if (node == 0) return false;
+        }
+        return terminal[node];
+    }
+
+    public static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'
+                || (c >= ALPHABET && Character.isLetterOrDigit(c));
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes > terminal.length) {
+            int capacity = Math.max(nodes, terminal.length * 2);
+            next = Arrays.copyOf(next, capacity * ALPHABET);
+            terminal = Arrays.copyOf(terminal, capacity);
+        }
+    }
+}
@@ -6,6 +6,17 @@ import java.awt.event.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.PatternSyntaxException;
 
 public class KissEditor extends JFrame {
     private JTabbedPane tabbedPane;
@@ -13,31 +24,59 @@ public class KissEditor extends JFrame {
     private JLabel statusBar;
     private int newTabCounter = 1;
     private SyntaxHighlighter highlighter;
+    private final EditorMetrics metrics = new EditorMetrics();
+    private MetricsDialog metricsDialog;
+    private FindReplaceDialog findDialog;
+    private JSplitPane editorSplit;
+    private JTabbedPane outputTabs;
+    private ConsolePanel console;
+    private ResultsPanel results;
+    private ResultsPanel searchResults;
+    private SearchWorker search;
+    private String searchQuery = "";
+    private String searchMask = "*.asm; *.nasm; *.inc; *.bas; *.bf; *.b; *.kiss; *.txt";
+    private boolean searchRegex;
+    private boolean searchMatchCase;
+    private final List<KissProjectIndex> projects = new ArrayList<>();
+    private final Set<KissProjectIndex> refreshingProjects = new HashSet<>();
+
+    // Index work is serialized on one thread; KissProjectIndex parallelizes full scans itself
+    private static final ExecutorService INDEX_WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "jscn-kiss-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Files above this size open in the read-only memory-mapped viewer
+    private static final long LARGE_FILE_THRESHOLD = 64L * 1024 * 1024;
 
     public class EditorTab {
         JTextPane textPane;
+        LargeFileView largeView;
         File file;
-        Set<Integer> errorLines = new HashSet<>();
+        Charset charset = StandardCharsets.UTF_8;
+        FileLoader loader;
+        LineIndexLoader indexLoader;
+        FileSaver saver;
+        boolean appending = false;
+        ErrorLineHighlighter errorLines;
+        Language language;
+        boolean languageStale = true;
+        final LineStateCache lineStates = new LineStateCache();
+        final PairIndex pairs = new PairIndex();
+        Runnable pairsChanged;
+        Object[] pairTags = new Object[0];
+        LineNumberView lineNumbers;
+        HighlightScheduler highlightScheduler;
+        final AtomicLong generation = new AtomicLong();
+        Future<?> highlightFuture;
+        long indexedGeneration = -1;
+        NasmSymbolIndex nasmSymbols;
+        long nasmScannedGeneration = -1;
+        int nasmIncludeVersion = -1;
+        int pendingLine = -1;
         boolean modified = false;
-
-        final DocumentListener lineNumberUpdater = new DocumentListener() {
-            @Override
-            public void insertUpdate(DocumentEvent e) { refreshLineNumbers(); }
-            @Override
-            public void removeUpdate(DocumentEvent e) { refreshLineNumbers(); }
-            @Override
-            public void changedUpdate(DocumentEvent e) { refreshLineNumbers(); }
-            private void refreshLineNumbers() {
-                JScrollPane pane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, textPane);
-                if (pane != null) {
-                    Component rowHeader = pane.getRowHeader().getView();
-                    if (rowHeader instanceof LineNumberView) {
-                        ((LineNumberView) rowHeader).revalidate();
-                        ((LineNumberView) rowHeader).repaint();
-                    }
-                }
-            }
-        };
+        final UndoJournal undo = new UndoJournal();
     }
 
     public KissEditor() {
@@ -123,8 +162,29 @@ public class KissEditor extends JFrame {
         JPanel statusPanel = new JPanel(new BorderLayout());
         statusPanel.setBackground(EditorConstants.COLOR_STATUS_BAR);
         statusPanel.add(statusBar, BorderLayout.CENTER);
+        statusBar.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        statusBar.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                showMetrics();
+            }
+        });
 
-        containerPanel.add(tabbedPane, BorderLayout.CENTER);
+        // Output pane below the editor, hidden until a program is first run
+        console = new ConsolePanel();
+        outputTabs = new JTabbedPane();
+        outputTabs.setFont(new Font("Poppins", Font.PLAIN, 13));
+        outputTabs.addTab("Вывод", console);
+        results = new ResultsPanel(entry -> goTo(entry.file, entry.line));
+        outputTabs.addTab("Результаты", results);
+        searchResults = new ResultsPanel(entry -> goTo(entry.file, entry.line));
+        outputTabs.addTab("Поиск", searchResults);
+        outputTabs.setVisible(false);
+        editorSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, tabbedPane, outputTabs);
+        editorSplit.setBorder(null);
+        editorSplit.setResizeWeight(1.0);
+
+        containerPanel.add(editorSplit, BorderLayout.CENTER);
         containerPanel.add(statusPanel, BorderLayout.SOUTH);
 
         JPanel rootPanel = new JPanel(new BorderLayout());
@@ -136,6 +196,23 @@ public class KissEditor extends JFrame {
 
         setContentPane(rootPanel);
 
+        // Returning to the window picks up KISS and NASM include files changed on disk meanwhile
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowActivated(WindowEvent e) {
+                for (KissProjectIndex project : projects) {
+                    refreshProject(project);
+                }
+                for (EditorTab tab : tabs) {
+                    if (tab.nasmSymbols != null) {
+                        tab.nasmIncludeVersion = -1;
+                        updateHighlighting(tab);
+                    }
+                }
+            }
+        });
+
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new EdtMonitor(metrics));
         addNewTab("Untitled", null);
         setupKeyBindings();
     }
@@ -174,24 +251,113 @@ public class KissEditor extends JFrame {
         editMenu.setFont(new Font("Poppins", Font.PLAIN, 14));
         editMenu.setMnemonic(KeyEvent.VK_E);
 
+        JMenuItem undoItem = new JMenuItem("Отменить");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        undoItem.addActionListener(e -> undoEdit(false));
+
+        JMenuItem redoItem = new JMenuItem("Повторить");
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+        redoItem.addActionListener(e -> undoEdit(true));
+
         JMenuItem cutItem = new JMenuItem("Вырезать");
         cutItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_X, InputEvent.CTRL_DOWN_MASK));
-        cutItem.addActionListener(e -> getCurrentTextPane().cut());
+        cutItem.addActionListener(e -> {
+            JTextPane textPane = getCurrentTextPane();
+            if (textPane != null) textPane.cut();
+        });
 
         JMenuItem copyItem = new JMenuItem("Копировать");
         copyItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK));
-        copyItem.addActionListener(e -> getCurrentTextPane().copy());
+        copyItem.addActionListener(e -> {
+            JTextPane textPane = getCurrentTextPane();
+            if (textPane != null) textPane.copy();
+        });
 
         JMenuItem pasteItem = new JMenuItem("Вставить");
         pasteItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_V, InputEvent.CTRL_DOWN_MASK));
-        pasteItem.addActionListener(e -> getCurrentTextPane().paste());
+        pasteItem.addActionListener(e -> {
+            JTextPane textPane = getCurrentTextPane();
+            if (textPane != null) textPane.paste();
+        });
+
+        JMenuItem labelItem = new JMenuItem("Перейти к метке");
+        labelItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F12, 0));
+        labelItem.addActionListener(e -> goToLabel());
+
+        JMenuItem referencesItem = new JMenuItem("Найти ссылки");
+        referencesItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F12, InputEvent.SHIFT_DOWN_MASK));
+        referencesItem.addActionListener(e -> findLabelReferences());
+
+        JMenuItem matchItem = new JMenuItem("К парной скобке");
+        matchItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_CLOSE_BRACKET, InputEvent.CTRL_DOWN_MASK));
+        matchItem.addActionListener(e -> goToMatchingPair());
+
+        JMenuItem unbalancedItem = new JMenuItem("Непарные скобки и блоки");
+        unbalancedItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_B,
+                InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        unbalancedItem.addActionListener(e -> showUnbalancedPairs());
+
+        JMenuItem findItem = new JMenuItem("Найти и заменить...");
+        findItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK));
+        findItem.addActionListener(e -> showFindDialog());
+
+        JMenuItem findNextItem = new JMenuItem("Найти далее");
+        findNextItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+        findNextItem.addActionListener(e -> {
+            if (findDialog != null && findDialog.hasQuery()) findDialog.findNext();
+            else showFindDialog();
+        });
 
+        JMenuItem findInFilesItem = new JMenuItem("Найти в файлах...");
+        findInFilesItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        findInFilesItem.addActionListener(e -> findInFiles());
+
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        editMenu.addSeparator();
         editMenu.add(cutItem);
         editMenu.add(copyItem);
         editMenu.add(pasteItem);
+        editMenu.addSeparator();
+        editMenu.add(labelItem);
+        editMenu.add(referencesItem);
+        editMenu.addSeparator();
+        editMenu.add(matchItem);
+        editMenu.add(unbalancedItem);
+        editMenu.addSeparator();
+        editMenu.add(findItem);
+        editMenu.add(findNextItem);
+        editMenu.add(findInFilesItem);
+
+        JMenu runMenu = new JMenu("Запуск");
+        runMenu.setFont(new Font("Poppins", Font.PLAIN, 14));
+        runMenu.setMnemonic(KeyEvent.VK_R);
+
+        JMenuItem runItem = new JMenuItem("Выполнить");
+        runItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
+        runItem.addActionListener(e -> runProgram(false));
+
+        JMenuItem debugItem = new JMenuItem("Отладка");
+        debugItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.CTRL_DOWN_MASK));
+        debugItem.addActionListener(e -> runProgram(true));
+
+        JMenuItem stopItem = new JMenuItem("Остановить");
+        stopItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.SHIFT_DOWN_MASK));
+        stopItem.addActionListener(e -> console.stop());
+
+        JMenuItem benchmarkItem = new JMenuItem("Сравнить режимы BASIC");
+        benchmarkItem.addActionListener(e -> benchmarkBasic());
+
+        runMenu.add(runItem);
+        runMenu.add(debugItem);
+        runMenu.add(stopItem);
+        runMenu.addSeparator();
+        runMenu.add(benchmarkItem);
 
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
+        menuBar.add(runMenu);
 
         return menuBar;
     }
@@ -216,8 +382,16 @@ public class KissEditor extends JFrame {
 
     private void addNewTab(String title, File file) {
         EditorTab tab = new EditorTab();
-        tab.textPane = new JTextPane();
+        tab.textPane = new JTextPane(new HighlightDocument()) {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                metrics.textPainted();
+            }
+        };
         tab.file = file;
+        ((HighlightDocument) tab.textPane.getDocument()).setUndoJournal(tab.undo);
+        tab.highlightScheduler = new HighlightScheduler(() -> runHighlightPass(tab));
 
         tab.textPane.setFont(new Font("Poppins", Font.PLAIN, 16));
         tab.textPane.setBackground(EditorConstants.COLOR_BACKGROUND);
@@ -225,33 +399,134 @@ public class KissEditor extends JFrame {
         tab.textPane.setCaretColor(EditorConstants.COLOR_DEFAULT);
         tab.textPane.setBorder(BorderFactory.createEmptyBorder(12, 16, 12, 16));
         tab.textPane.setMargin(new Insets(8, 8, 8, 8));
+        tab.errorLines = new ErrorLineHighlighter(EditorConstants.COLOR_ERROR_BG);
+        tab.textPane.setHighlighter(tab.errorLines);
 
         tab.textPane.getDocument().addDocumentListener(new DocumentListener() {
             public void insertUpdate(DocumentEvent e) {
+                if (tab.appending) {
+                    // Appends from the loader only extend the tail; running jobs stay valid
+                    tab.lineStates.documentChanged(e);
+                    tab.pairs.documentChanged(e);
+                    tab.errorLines.documentChanged(e);
+                    if (tab.nasmSymbols != null) tab.nasmSymbols.documentChanged(e);
+                    return;
+                }
+                tab.generation.incrementAndGet();
+                tab.lineStates.documentChanged(e);
+                tab.pairs.documentChanged(e);
+                tab.errorLines.documentChanged(e);
+                if (tab.nasmSymbols != null) tab.nasmSymbols.documentChanged(e);
+                if (tab.file == null && e.getOffset() < LanguageRegistry.SAMPLE_CHARS) tab.languageStale = true;
                 tab.modified = true;
                 updateTabTitle(tab);
-                updateHighlighting(tab);
+                tab.highlightScheduler.invalidate();
             }
 
             public void removeUpdate(DocumentEvent e) {
+                tab.generation.incrementAndGet();
+                tab.lineStates.documentChanged(e);
+                tab.pairs.documentChanged(e);
+                tab.errorLines.documentChanged(e);
+                if (tab.nasmSymbols != null) tab.nasmSymbols.documentChanged(e);
+                if (tab.file == null && e.getOffset() < LanguageRegistry.SAMPLE_CHARS) tab.languageStale = true;
                 tab.modified = true;
                 updateTabTitle(tab);
-                updateHighlighting(tab);
+                tab.highlightScheduler.invalidate();
             }
 
             public void changedUpdate(DocumentEvent e) { }
         });
 
-        tab.textPane.getDocument().addDocumentListener(tab.lineNumberUpdater);
-        tab.textPane.addCaretListener(e -> updateStatusBar());
+        tab.pairsChanged = () -> {
+            updatePairHighlight(tab);
+            if (tab == getCurrentTab()) updateStatusBar();
+        };
+        tab.textPane.addCaretListener(e -> {
+            updateStatusBar();
+            updatePairHighlight(tab);
+        });
 
         JScrollPane scrollPane = new JScrollPane(tab.textPane);
         scrollPane.getViewport().setBackground(EditorConstants.COLOR_BACKGROUND);
-        LineNumberView lineNumberView = new LineNumberView(tab.textPane);
-        scrollPane.setRowHeaderView(lineNumberView);
+        scrollPane.getViewport().addChangeListener(e -> {
+            if (!tab.lineStates.getDirtyLines().isEmpty()) {
+                tab.highlightScheduler.continueLater(0);
+            }
+        });
+        tab.lineNumbers = new LineNumberView(tab.textPane);
+        scrollPane.setRowHeaderView(tab.lineNumbers);
         scrollPane.setBorder(BorderFactory.createMatteBorder(1, 1, 1, 1, new Color(0xE5E7EB)));
         scrollPane.setPreferredSize(new Dimension(1000, 580));
 
+        installTab(tab, title, scrollPane);
+        updateHighlighting(tab);
+    }
+
+    // The line index is built in the background; the viewer replaces the progress bar when it is ready
+    private void addLargeFileTab(File file) {
+        EditorTab tab = new EditorTab();
+        tab.file = file;
+
+        JScrollPane scrollPane = new JScrollPane();
+        scrollPane.getViewport().setBackground(EditorConstants.COLOR_BACKGROUND);
+        scrollPane.setBorder(BorderFactory.createMatteBorder(1, 1, 1, 1, new Color(0xE5E7EB)));
+        scrollPane.setPreferredSize(new Dimension(1000, 580));
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        JButton cancelButton = new JButton("Отмена");
+        scrollPane.setColumnHeaderView(createLoadBar(progressBar, cancelButton, "Индексация..."));
+
+        installTab(tab, file.getName(), scrollPane);
+
+        tab.indexLoader = new LineIndexLoader(file, (index, error) -> {
+            tab.indexLoader = null;
+            scrollPane.setColumnHeader(null);
+            if (error instanceof CancellationException) {
+                closeTab(tabs.indexOf(tab));
+                return;
+            }
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Ошибка загрузки файла:\n" + error.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                closeTab(tabs.indexOf(tab));
+                return;
+            }
+            tab.largeView = new LargeFileView(index, highlighter, highlighter.detectLanguage(tab));
+            scrollPane.setViewportView(tab.largeView);
+            scrollPane.setRowHeaderView(new LineNumberView(tab.largeView));
+            scrollPane.revalidate();
+            if (tab.pendingLine >= 0) {
+                int line = tab.pendingLine;
+                tab.pendingLine = -1;
+                // After the layout queued by revalidate, so the view knows its viewport height
+                SwingUtilities.invokeLater(() -> tab.largeView.scrollToLine(line));
+            }
+            if (tab == getCurrentTab()) updateStatusBar();
+        });
+        tab.indexLoader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+                progressBar.setString("Индексация " + e.getNewValue() + "%");
+            }
+        });
+        cancelButton.addActionListener(e -> {
+            if (tab.indexLoader != null) tab.indexLoader.cancel(true);
+        });
+        tab.indexLoader.execute();
+    }
+
+    private static JPanel createLoadBar(JProgressBar progressBar, JButton cancelButton, String text) {
+        progressBar.setStringPainted(true);
+        progressBar.setString(text);
+        cancelButton.setFont(new Font("Poppins", Font.PLAIN, 12));
+        JPanel loadBar = new JPanel(new BorderLayout(8, 0));
+        loadBar.setBackground(EditorConstants.COLOR_CARD_BG);
+        loadBar.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        loadBar.add(progressBar, BorderLayout.CENTER);
+        loadBar.add(cancelButton, BorderLayout.EAST);
+        return loadBar;
+    }
+
+    private void installTab(EditorTab tab, String title, JScrollPane scrollPane) {
         JPanel tabHeader = new JPanel(new BorderLayout());
         tabHeader.setOpaque(false);
 
@@ -276,9 +551,14 @@ public class KissEditor extends JFrame {
         tabbedPane.setSelectedIndex(tabbedPane.getTabCount() - 1);
 
         tabs.add(tab);
-        setupDocumentListener(tab);
         updateStatusBar();
-        updateHighlighting(tab);
+    }
+
+    private void showMetrics() {
+        if (metricsDialog == null) {
+            metricsDialog = new MetricsDialog(this, metrics, () -> new ArrayList<>(tabs));
+        }
+        metricsDialog.showDialog();
     }
 
     private void updateTabTitle(EditorTab tab) {
@@ -300,49 +580,487 @@ public class KissEditor extends JFrame {
         }
     }
 
-    private void setupDocumentListener(EditorTab tab) {
-        tab.textPane.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) {
-                updateHighlighting(tab);
-            }
+    private void updateHighlighting(EditorTab tab) {
+        if (tab == null || tab.highlightScheduler == null || tab.textPane == null) return;
+        tab.highlightScheduler.request();
+    }
 
-            public void removeUpdate(DocumentEvent e) {
-                updateHighlighting(tab);
+    private void runHighlightPass(EditorTab tab) {
+        highlighter.submitPass(tab);
+        indexKissFile(tab);
+        indexNasmFile(tab);
+    }
+
+    // Pushes the tab text into its project index once per edit generation and marks
+    // lines that jump to undefined labels
+    private void indexKissFile(EditorTab tab) {
+        long generation = tab.generation.get();
+        if (tab.loader != null || generation == tab.indexedGeneration) return;
+        KissProjectIndex project = projectFor(tab);
+        if (project == null) return;
+        tab.indexedGeneration = generation;
+        Path path = tab.file.toPath();
+        CharSequence text = ((HighlightDocument) tab.textPane.getDocument()).snapshot().view();
+        INDEX_WORKER.execute(() -> {
+            project.update(path, text);
+            int[] undefined = project.undefinedReferenceLines(path);
+            SwingUtilities.invokeLater(() -> {
+                if (tab.generation.get() == generation) tab.errorLines.setErrorLines(undefined);
+            });
+        });
+    }
+
+    // Builds the NASM symbol index once the text is loaded; from then on the document
+    // listener keeps it current and only a changed %include list goes to the worker
+    private void indexNasmFile(EditorTab tab) {
+        if (tab.loader != null || tab.textPane == null) return;
+        if (!highlighter.detectLanguage(tab).getName().equals("nasm")) {
+            if (tab.nasmSymbols != null) {
+                tab.nasmSymbols = null;
+                tab.nasmScannedGeneration = -1;
+                tab.errorLines.clearErrors();
             }
+            return;
+        }
+        if (tab.nasmSymbols == null) {
+            scanNasmFile(tab);
+            return;
+        }
+        NasmSymbolIndex index = tab.nasmSymbols;
+        int version = index.getIncludeVersion();
+        if (version == tab.nasmIncludeVersion) return;
+        tab.nasmIncludeVersion = version;
+        List<String> includes = index.getIncludes();
+        if (includes.isEmpty()) {
+            index.setIncludedSymbols(Collections.emptySet());
+            return;
+        }
+        Path dir = tab.file != null ? tab.file.getAbsoluteFile().getParentFile().toPath() : Paths.get("").toAbsolutePath();
+        INDEX_WORKER.execute(() -> {
+            Set<String> names = NasmSymbolIndex.includedDefinitions(dir, includes);
+            SwingUtilities.invokeLater(() -> {
+                if (tab.nasmSymbols == index && index.getIncludeVersion() == version) index.setIncludedSymbols(names);
+            });
+        });
+    }
 
-            public void changedUpdate(DocumentEvent e) { }
+    // The first full scan runs on the index worker; a stale result is dropped and the
+    // pass that follows the edit scans again
+    private void scanNasmFile(EditorTab tab) {
+        long generation = tab.generation.get();
+        if (generation == tab.nasmScannedGeneration) return;
+        tab.nasmScannedGeneration = generation;
+        CharSequence text = ((HighlightDocument) tab.textPane.getDocument()).snapshot().view();
+        INDEX_WORKER.execute(() -> {
+            NasmSymbolIndex index = new NasmSymbolIndex(text);
+            SwingUtilities.invokeLater(() -> {
+                if (tab.generation.get() != generation || tab.nasmSymbols != null || tab.loader != null) return;
+                if (!highlighter.detectLanguage(tab).getName().equals("nasm")) return;
+                index.attach(tab.textPane.getDocument(), tab.errorLines);
+                tab.nasmSymbols = index;
+                tab.nasmIncludeVersion = -1;
+                indexNasmFile(tab);
+            });
         });
     }
 
-    private void updateHighlighting(EditorTab tab) {
-        if (tab == null) return;
-        SwingUtilities.invokeLater(() -> {
-            highlighter.applySyntaxHighlighting(tab.textPane, tab);
-            highlightErrors(tab);
+    private KissProjectIndex projectFor(EditorTab tab) {
+        if (tab.file == null || tab.textPane == null) return null;
+        if (!highlighter.detectLanguage(tab).getName().equals("kiss")) return null;
+        Path path = tab.file.toPath();
+        for (KissProjectIndex project : projects) {
+            if (project.contains(path)) return project;
+        }
+        KissProjectIndex project = new KissProjectIndex(tab.file.getAbsoluteFile().getParentFile().toPath());
+        projects.add(project);
+        refreshProject(project);
+        return project;
+    }
+
+    private void refreshProject(KissProjectIndex project) {
+        if (!refreshingProjects.add(project)) return;
+        INDEX_WORKER.execute(() -> {
+            try {
+                project.refresh();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            SwingUtilities.invokeLater(() -> {
+                refreshingProjects.remove(project);
+                for (EditorTab tab : tabs) {
+                    if (tab.file != null && tab.textPane != null && tab.indexedGeneration == tab.generation.get()
+                            && project.contains(tab.file.toPath())) {
+                        tab.errorLines.setErrorLines(project.undefinedReferenceLines(tab.file.toPath()));
+                    }
+                }
+            });
         });
     }
 
-    private void highlightErrors(EditorTab tab) {
+    private void goToLabel() {
+        EditorTab tab = getCurrentTab();
+        if (tab != null && tab.nasmSymbols != null) {
+            goToNasmDefinition(tab);
+            return;
+        }
+        KissProjectIndex project = tab != null ? projectFor(tab) : null;
+        if (project == null) {
+            statusBar.setText(" Переход к метке доступен для файлов NASM и сохранённых файлов KISS");
+            return;
+        }
+        String name = labelAtCaret(tab.textPane);
+        if (name == null) return;
+        List<KissProjectIndex.Location> found = project.findDefinitions(name, tab.file.toPath());
+        if (found.isEmpty()) {
+            statusBar.setText(" Метка не найдена: " + name);
+        } else if (found.size() == 1) {
+            goTo(found.get(0).file.toFile(), found.get(0).line);
+        } else {
+            showResults("Определения метки " + name + ": " + found.size(), found);
+        }
+    }
+
+    private void findLabelReferences() {
+        EditorTab tab = getCurrentTab();
+        if (tab != null && tab.nasmSymbols != null) {
+            findNasmReferences(tab);
+            return;
+        }
+        KissProjectIndex project = tab != null ? projectFor(tab) : null;
+        if (project == null) {
+            statusBar.setText(" Поиск ссылок доступен для файлов NASM и сохранённых файлов KISS");
+            return;
+        }
+        String name = labelAtCaret(tab.textPane);
+        if (name == null) return;
+        List<KissProjectIndex.Location> found = project.findReferences(name);
+        showResults("Ссылки на метку " + name + ": " + found.size(), found);
+    }
+
+    private void goToNasmDefinition(EditorTab tab) {
+        String name = nasmSymbolAtCaret(tab.textPane);
+        if (name == null) return;
+        int[] found = tab.nasmSymbols.findDefinitions(name, caretLine(tab.textPane));
+        if (found.length == 0) {
+            statusBar.setText(" Символ не определён в этом файле: " + name);
+        } else if (found.length == 1) {
+            moveCaretToLine(tab, found[0]);
+        } else {
+            showNasmResults(tab, "Определения символа " + name + ": " + found.length, found);
+        }
+    }
+
+    private void findNasmReferences(EditorTab tab) {
+        String name = nasmSymbolAtCaret(tab.textPane);
+        if (name == null) return;
+        int[] found = tab.nasmSymbols.findReferences(name, caretLine(tab.textPane));
+        showNasmResults(tab, "Ссылки на символ " + name + ": " + found.length, found);
+    }
+
+    private void showNasmResults(EditorTab tab, String caption, int[] lines) {
+        if (tab.file == null) {
+            statusBar.setText(" " + caption + " (сохраните файл, чтобы открыть список)");
+            return;
+        }
+        Document doc = tab.textPane.getDocument();
+        Element root = doc.getDefaultRootElement();
+        List<ResultsPanel.Entry> entries = new ArrayList<>(lines.length);
+        for (int line : lines) {
+            Element element = root.getElement(line);
+            try {
+                String text = doc.getText(element.getStartOffset(), element.getEndOffset() - element.getStartOffset());
+                entries.add(new ResultsPanel.Entry(tab.file, line, text.trim()));
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+        results.setResults(caption, entries);
+        showOutput(results);
+    }
+
+    private static int caretLine(JTextPane textPane) {
+        return textPane.getDocument().getDefaultRootElement().getElementIndex(textPane.getCaretPosition());
+    }
+
+    // The NASM name under the caret, including a leading '.' of a local label
+    private static String nasmSymbolAtCaret(JTextPane textPane) {
+        Document doc = textPane.getDocument();
+        Element line = doc.getDefaultRootElement().getElement(caretLine(textPane));
         try {
-            StyledDocument doc = tab.textPane.getStyledDocument();
-
-            highlighter.applySyntaxHighlighting(tab.textPane, tab);
-
-            for (int lineNum : tab.errorLines) {
-                Element root = doc.getDefaultRootElement();
-                if (lineNum >= 1 && lineNum <= root.getElementCount()) {
-                    Element lineElem = root.getElement(lineNum - 1);
-                    doc.setCharacterAttributes(
-                            lineElem.getStartOffset(),
-                            lineElem.getEndOffset() - lineElem.getStartOffset() - 1,
-                            highlighter.getErrorStyle(),
-                            false
-                    );
-                }
+            String text = doc.getText(line.getStartOffset(), line.getEndOffset() - line.getStartOffset());
+            int caret = Math.min(textPane.getCaretPosition() - line.getStartOffset(), text.length());
+            int start = caret;
+            while (start > 0 && NasmSymbolIndex.isNameChar(text.charAt(start - 1))) start--;
+            int end = caret;
+            while (end < text.length() && NasmSymbolIndex.isNameChar(text.charAt(end))) end++;
+            return start < end ? text.substring(start, end) : null;
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void showResults(String caption, List<KissProjectIndex.Location> locations) {
+        List<ResultsPanel.Entry> entries = new ArrayList<>(locations.size());
+        for (KissProjectIndex.Location location : locations) {
+            entries.add(new ResultsPanel.Entry(location.file.toFile(), location.line, location.name));
+        }
+        results.setResults(caption, entries);
+        showOutput(results);
+    }
+
+    // Marks the bracket or block keyword at the caret and its partner, or else the delimiters
+    // of the innermost enclosing block, and shows that block's extent in the gutter.
+    // Every lookup is O(log n) in the pair index; the document is not read.
+    private void updatePairHighlight(EditorTab tab) {
+        Highlighter highlighter = tab.textPane.getHighlighter();
+        for (Object tag : tab.pairTags) {
+            highlighter.removeHighlight(tag);
+        }
+        tab.pairTags = new Object[0];
+        if (tab.pairs.isEmpty()) {
+            tab.lineNumbers.setBlock(-1, -1);
+            return;
+        }
+        Element root = tab.textPane.getDocument().getDefaultRootElement();
+        int caret = tab.textPane.getCaretPosition();
+        int line = root.getElementIndex(caret);
+        int column = caret - root.getElement(line).getStartOffset();
+
+        int first = tab.pairs.tokenAt(line, column);
+        if (first < 0 && column > 0) first = tab.pairs.tokenAt(line, column - 1);
+        if (first < 0) first = tab.pairs.findEnclosingOpen(line, column);
+        if (first < 0) {
+            tab.lineNumbers.setBlock(-1, -1);
+            return;
+        }
+        int second = tab.pairs.findMatch(first);
+        PairIndex.Token a = tab.pairs.get(first);
+        PairIndex.Token b = second >= 0 ? tab.pairs.get(second) : null;
+        boolean matched = b != null && (a.isOpen() ? PairIndex.matches(a.kind, b.kind) : PairIndex.matches(b.kind, a.kind));
+        Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(
+                matched ? EditorConstants.COLOR_PAIR_BG : EditorConstants.COLOR_ERROR_BG);
+        List<Object> tags = new ArrayList<>(2);
+        for (PairIndex.Token token : b != null ? new PairIndex.Token[] {a, b} : new PairIndex.Token[] {a}) {
+            int start = root.getElement(token.line).getStartOffset() + token.column;
+            try {
+                tags.add(highlighter.addHighlight(start, start + token.getLength(), painter));
+            } catch (BadLocationException e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
+        }
+        tab.pairTags = tags.toArray();
+        if (b != null) tab.lineNumbers.setBlock(Math.min(a.line, b.line), Math.max(a.line, b.line));
+        else tab.lineNumbers.setBlock(-1, -1);
+    }
+
+    private void goToMatchingPair() {
+        EditorTab tab = getCurrentTab();
+        if (tab == null || tab.textPane == null) return;
+        Element root = tab.textPane.getDocument().getDefaultRootElement();
+        int caret = tab.textPane.getCaretPosition();
+        int line = root.getElementIndex(caret);
+        int column = caret - root.getElement(line).getStartOffset();
+        int token = tab.pairs.tokenAt(line, column);
+        if (token < 0 && column > 0) token = tab.pairs.tokenAt(line, column - 1);
+        if (token < 0) token = tab.pairs.findEnclosingOpen(line, column);
+        int match = token >= 0 ? tab.pairs.findMatch(token) : -1;
+        if (match < 0) {
+            statusBar.setText(token < 0 ? " Курсор не у скобки и не внутри блока" : " Парная скобка не найдена");
+            return;
+        }
+        PairIndex.Token target = tab.pairs.get(match);
+        tab.textPane.setCaretPosition(root.getElement(target.line).getStartOffset() + target.column);
+    }
+
+    private void showUnbalancedPairs() {
+        EditorTab tab = getCurrentTab();
+        if (tab == null || tab.textPane == null) return;
+        if (!PairIndex.supports(highlighter.detectLanguage(tab))) {
+            statusBar.setText(" Проверка парности доступна для Brainfuck и BASIC");
+            return;
+        }
+        List<PairIndex.Token> unbalanced = tab.pairs.findUnbalanced();
+        if (unbalanced.isEmpty()) {
+            statusBar.setText(" Все скобки и блоки парные");
+            return;
+        }
+        String caption = "Непарные скобки и блоки: " + unbalanced.size();
+        if (tab.file == null) {
+            PairIndex.Token token = unbalanced.get(0);
+            tab.textPane.setCaretPosition(tab.textPane.getDocument().getDefaultRootElement()
+                    .getElement(token.line).getStartOffset() + token.column);
+            statusBar.setText(" " + caption);
+            return;
+        }
+        List<ResultsPanel.Entry> entries = new ArrayList<>(unbalanced.size());
+        for (PairIndex.Token token : unbalanced) {
+            entries.add(new ResultsPanel.Entry(tab.file, token.line,
+                    token.getText() + " (колонка " + (token.column + 1) + ")"));
+        }
+        results.setResults(caption, entries);
+        showOutput(results);
+    }
+
+    // The whitespace-delimited token under the caret, without the ':' of a label definition
+    private static String labelAtCaret(JTextPane textPane) {
+        Document doc = textPane.getDocument();
+        Element line = doc.getDefaultRootElement().getElement(
+                doc.getDefaultRootElement().getElementIndex(textPane.getCaretPosition()));
+        try {
+            String text = doc.getText(line.getStartOffset(), line.getEndOffset() - line.getStartOffset());
+            int caret = Math.min(textPane.getCaretPosition() - line.getStartOffset(), text.length());
+            int start = caret;
+            while (start > 0 && text.charAt(start - 1) > ' ') start--;
+            int end = caret;
+            while (end < text.length() && text.charAt(end) > ' ') end++;
+            if (start < end && text.charAt(start) == ':') start++;
+            return start < end ? text.substring(start, end) : null;
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Applies one journal group; the tab counts as unmodified again when it returns to the saved state
+    private void undoEdit(boolean redo) {
+        EditorTab tab = getCurrentTab();
+        if (tab == null || tab.textPane == null) return;
+        int caret;
+        try {
+            Document doc = tab.textPane.getDocument();
+            caret = redo ? tab.undo.redo(doc) : tab.undo.undo(doc);
+        } catch (BadLocationException e) {
+            // The journal no longer matches the text; start over rather than corrupt it further
             e.printStackTrace();
+            tab.undo.clear();
+            return;
+        }
+        if (caret < 0) {
+            statusBar.setText(redo ? " Нечего повторять" : " Нечего отменять");
+            return;
         }
+        tab.textPane.setCaretPosition(Math.min(caret, tab.textPane.getDocument().getLength()));
+        tab.modified = !tab.undo.isAtSavedState();
+        updateTabTitle(tab);
+    }
+
+    private void showFindDialog() {
+        if (findDialog == null) findDialog = new FindReplaceDialog(this, this::getCurrentTextPane);
+        findDialog.open();
+    }
+
+    // Searches the files on disk under a directory; hits stream into the search tab and open through goTo.
+    // Starting a new search stops the previous one.
+    private void findInFiles() {
+        EditorTab tab = getCurrentTab();
+        String selection = tab != null && tab.textPane != null ? tab.textPane.getSelectedText() : null;
+        JTextField queryField = new JTextField(selection != null && selection.indexOf('\n') < 0 ? selection : searchQuery, 30);
+        File base = tab != null && tab.file != null ? tab.file.getAbsoluteFile().getParentFile()
+                : new File(System.getProperty("user.dir"));
+        JTextField directoryField = new JTextField(base.getPath(), 30);
+        JButton browseButton = new JButton("...");
+        browseButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(directoryField.getText());
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                directoryField.setText(chooser.getSelectedFile().getPath());
+            }
+        });
+        JTextField maskField = new JTextField(searchMask, 30);
+        maskField.setToolTipText("Маски имён через ';', пусто — все файлы");
+        JCheckBox regexBox = new JCheckBox("Регулярное выражение", searchRegex);
+        JCheckBox caseBox = new JCheckBox("Учитывать регистр", searchMatchCase);
+
+        JPanel directoryPanel = new JPanel(new BorderLayout(4, 0));
+        directoryPanel.add(directoryField, BorderLayout.CENTER);
+        directoryPanel.add(browseButton, BorderLayout.EAST);
+        JPanel form = new JPanel(new GridLayout(0, 1, 0, 4));
+        form.add(new JLabel("Искать:"));
+        form.add(queryField);
+        form.add(new JLabel("В каталоге:"));
+        form.add(directoryPanel);
+        form.add(new JLabel("Маски файлов:"));
+        form.add(maskField);
+        form.add(regexBox);
+        form.add(caseBox);
+        queryField.addAncestorListener(new AncestorListener() {
+            @Override
+            public void ancestorAdded(AncestorEvent e) {
+                queryField.requestFocusInWindow();
+                queryField.selectAll();
+            }
+
+            @Override
+            public void ancestorRemoved(AncestorEvent e) {
+            }
+
+            @Override
+            public void ancestorMoved(AncestorEvent e) {
+            }
+        });
+        if (JOptionPane.showConfirmDialog(this, form, "Найти в файлах", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+
+        searchQuery = queryField.getText();
+        searchMask = maskField.getText();
+        searchRegex = regexBox.isSelected();
+        searchMatchCase = caseBox.isSelected();
+        if (searchQuery.isEmpty()) return;
+        Path root = Paths.get(directoryField.getText()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            statusBar.setText(" Каталог не найден: " + root);
+            return;
+        }
+        FileSearch fileSearch;
+        try {
+            fileSearch = new FileSearch(root, searchQuery, searchRegex, searchMatchCase, searchMask,
+                    FileSearch.DEFAULT_MAX_HITS, Runtime.getRuntime().availableProcessors());
+        } catch (PatternSyntaxException e) {
+            statusBar.setText(" Ошибка в регулярном выражении: " + e.getDescription());
+            return;
+        }
+        if (search != null) search.supersede();
+        search = new SearchWorker(fileSearch, root, searchQuery, searchResults);
+        search.start();
+        showOutput(searchResults);
+    }
+
+    // Opens the file if needed; a line requested while it is still loading or indexing is applied when that ends
+    private void goTo(File file, int line) {
+        for (int i = 0; i < tabs.size(); i++) {
+            EditorTab tab = tabs.get(i);
+            if (tab.file != null && tab.file.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                tabbedPane.setSelectedIndex(i);
+                showLine(tab, line);
+                return;
+            }
+        }
+        openFile(file);
+        showLine(tabs.get(tabs.size() - 1), line);
+    }
+
+    private void showLine(EditorTab tab, int line) {
+        if (tab.loader != null || tab.indexLoader != null) tab.pendingLine = line;
+        else if (tab.largeView != null) tab.largeView.scrollToLine(line);
+        else moveCaretToLine(tab, line);
+    }
+
+    private void moveCaretToLine(EditorTab tab, int line) {
+        Element root = tab.textPane.getDocument().getDefaultRootElement();
+        Element element = root.getElement(Math.max(0, Math.min(line, root.getElementCount() - 1)));
+        tab.textPane.setCaretPosition(element.getStartOffset());
+        tab.textPane.requestFocusInWindow();
+    }
+
+    private void showOutput(Component panel) {
+        if (!outputTabs.isVisible()) {
+            outputTabs.setVisible(true);
+            editorSplit.setDividerLocation(0.7);
+        }
+        outputTabs.setSelectedComponent(panel);
     }
 
     private void closeTab(int tabIndex) {
@@ -356,12 +1074,37 @@ public class KissEditor extends JFrame {
                     JOptionPane.YES_NO_CANCEL_OPTION);
 
             if (result == JOptionPane.YES_OPTION) {
-                saveFile(tabIndex);
+                // The save runs in the background; the tab stays open unless it succeeds
+                saveFile(tabIndex, () -> disposeTab(tab));
+                return;
             } else if (result == JOptionPane.CANCEL_OPTION) {
                 return;
             }
         }
+        disposeTab(tab);
+    }
+
+    private void disposeTab(EditorTab tab) {
+        int tabIndex = tabs.indexOf(tab);
+        if (tabIndex < 0) return;
 
+        if (tab.loader != null) tab.loader.cancel(true);
+        if (tab.indexLoader != null) tab.indexLoader.cancel(true);
+        if (tab.highlightScheduler != null) tab.highlightScheduler.stop();
+        if (tab.file != null) {
+            for (KissProjectIndex project : projects) {
+                if (project.contains(tab.file.toPath())) project.release(tab.file.toPath());
+            }
+        }
+        tab.generation.incrementAndGet();
+        tab.undo.close();
+        if (tab.largeView != null) {
+            try {
+                tab.largeView.getIndex().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         tabbedPane.remove(tabIndex);
         tabs.remove(tabIndex);
 
@@ -373,17 +1116,69 @@ public class KissEditor extends JFrame {
     private void loadFile() {
         JFileChooser chooser = new JFileChooser();
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = chooser.getSelectedFile();
-            addNewTab(file.getName(), file);
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                EditorTab tab = tabs.get(tabs.size() - 1);
-                tab.textPane.read(reader, null);
-                tab.modified = false;
-                updateTabTitle(tab);
-                updateHighlighting(tab);
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Ошибка загрузки файла:\n" + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+            openFile(chooser.getSelectedFile());
+        }
+    }
+
+    private void openFile(File file) {
+        if (file.length() > LARGE_FILE_THRESHOLD) {
+            addLargeFileTab(file);
+            return;
+        }
+        addNewTab(file.getName(), file);
+        EditorTab tab = tabs.get(tabs.size() - 1);
+        JScrollPane scrollPane = (JScrollPane) tabbedPane.getComponentAt(tabs.size() - 1);
+
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        JButton cancelButton = new JButton("Отмена");
+        scrollPane.setColumnHeaderView(createLoadBar(progressBar, cancelButton, "Загрузка..."));
+
+        tab.loader = new FileLoader(file, tab.charset, text -> appendLoadedText(tab, text), error -> {
+            tab.loader = null;
+            scrollPane.setColumnHeader(null);
+            scrollPane.revalidate();
+            if (error instanceof CancellationException) {
+                closeTab(tabs.indexOf(tab));
+                return;
+            }
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Ошибка загрузки файла:\n" + error.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
             }
+            moveCaretToLine(tab, Math.max(0, tab.pendingLine));
+            tab.pendingLine = -1;
+            tab.highlightScheduler.invalidate();
+        });
+        tab.loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+                progressBar.setString("Загрузка " + e.getNewValue() + "%");
+            }
+        });
+        cancelButton.addActionListener(e -> {
+            if (tab.loader != null) tab.loader.cancel(true);
+        });
+        tab.loader.execute();
+    }
+
+    private void appendLoadedText(EditorTab tab, String text) {
+        Document doc = tab.textPane.getDocument();
+        boolean first = doc.getLength() == 0;
+        tab.appending = true;
+        tab.undo.setRecording(false);
+        try {
+            doc.insertString(doc.getLength(), text, null);
+            if (tab.loader != null && tab.loader.getLineSeparator() != null) {
+                doc.putProperty(DefaultEditorKit.EndOfLineStringProperty, tab.loader.getLineSeparator());
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        } finally {
+            tab.appending = false;
+            tab.undo.setRecording(true);
+        }
+        if (first) {
+            tab.textPane.setCaretPosition(0);
+            tab.highlightScheduler.invalidate();
         }
     }
 
@@ -392,9 +1187,16 @@ public class KissEditor extends JFrame {
     }
 
     private void saveFile(int tabIndex) {
+        saveFile(tabIndex, null);
+    }
+
+    // onSaved runs on the EDT once the current text is on disk; not at all if the save
+    // fails, is refused or the text changes while it runs
+    private void saveFile(int tabIndex, Runnable onSaved) {
         if (tabIndex < 0 || tabIndex >= tabs.size()) return;
 
         EditorTab tab = tabs.get(tabIndex);
+        if (tab.textPane == null) return;
 
         if (tab.file == null) {
             JFileChooser chooser = new JFileChooser();
@@ -402,19 +1204,194 @@ public class KissEditor extends JFrame {
                 tab.file = chooser.getSelectedFile();
                 tabbedPane.setTitleAt(tabIndex, tab.file.getName());
                 updateTabTitle(tab);
+                tab.languageStale = true;
+                tab.indexedGeneration = -1;
+                tab.highlightScheduler.invalidate();
             } else {
                 return;
             }
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tab.file))) {
-            tab.textPane.write(writer);
-            tab.modified = false;
-            updateTabTitle(tab);
-            statusBar.setText(" Файл сохранен: " + tab.file.getName());
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Ошибка сохранения файла:\n" + ex.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+        if (tab.loader != null || tab.saver != null) {
+            statusBar.setText(" Файл занят: дождитесь окончания загрузки или сохранения");
+            return;
         }
+
+        HighlightDocument doc = (HighlightDocument) tab.textPane.getDocument();
+        long savedGeneration = tab.generation.get();
+        File file = tab.file;
+        statusBar.setText(" Сохранение: " + file.getName());
+        tab.saver = new FileSaver(doc.snapshot(), doc.getLength(), file, tab.charset,
+                (String) doc.getProperty(DefaultEditorKit.EndOfLineStringProperty), error -> {
+            tab.saver = null;
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Ошибка сохранения файла:\n" + error.getMessage(), "Ошибка", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            // Edits made while the save was running keep the tab modified
+            if (tab.generation.get() == savedGeneration) {
+                tab.undo.markSaved();
+                tab.modified = false;
+                updateTabTitle(tab);
+            }
+            statusBar.setText(" Файл сохранен: " + file.getName());
+            if (onSaved != null && !tab.modified) onSaved.run();
+        });
+        tab.saver.execute();
+    }
+
+    // Programs run on a worker thread with output in the console tab. Brainfuck '#' dumps
+    // the tape in debug mode; BASIC debug runs the interpreted tier and lists the variables.
+    private void runProgram(boolean debug) {
+        EditorTab tab = getCurrentTab();
+        if (tab == null || tab.textPane == null) return;
+        if (console.isRunning()) {
+            statusBar.setText(" Программа уже выполняется");
+            return;
+        }
+        Language language = highlighter.detectLanguage(tab);
+        if (language.getName().equals("brainfuck")) {
+            runBrainfuck(tab, debug);
+        } else if (language.getName().equals("basic")) {
+            runBasic(tab, debug);
+        } else {
+            statusBar.setText(" Запуск не поддерживается для языка " + language.getName());
+        }
+    }
+
+    private void runBrainfuck(EditorTab tab, boolean debug) {
+        String source = tab.textPane.getText();
+        BrainfuckEngine.Program program;
+        try {
+            program = BrainfuckEngine.compile(source, debug);
+        } catch (IllegalArgumentException e) {
+            statusBar.setText(" " + e.getMessage());
+            return;
+        }
+        String input = "";
+        if (source.indexOf(',') >= 0) {
+            input = JOptionPane.showInputDialog(this, "Входные данные программы:", "Запуск", JOptionPane.PLAIN_MESSAGE);
+            if (input == null) return;
+        }
+
+        showOutput(console);
+        String programInput = input;
+        console.start((debug ? "Отладка: " : "Выполнение: ") + tabName(tab), (output, stopRequested) -> {
+            BrainfuckEngine.Result result = BrainfuckEngine.run(program, programInput, output,
+                    BrainfuckEngine.DEFAULT_INSTRUCTION_LIMIT, stopRequested);
+            String outcome;
+            switch (result.status) {
+                case CANCELLED: outcome = "Остановлено"; break;
+                case LIMIT_REACHED: outcome = "Превышен лимит инструкций"; break;
+                default: outcome = "Завершено";
+            }
+            return String.format("%s: %,d инструкций за %.1f мс, указатель %d",
+                    outcome, result.instructions, result.nanos / 1e6, result.pointer);
+        });
+    }
+
+    private void runBasic(EditorTab tab, boolean debug) {
+        BasicEngine.Program program = compileBasic(tab);
+        if (program == null) return;
+
+        showOutput(console);
+        BasicEngine.Tier tier = debug ? BasicEngine.Tier.INTERPRETED : BasicEngine.Tier.JVM;
+        console.start((debug ? "Отладка: " : "Выполнение: ") + tabName(tab), (output, stopRequested) -> {
+            BasicEngine.Result result = BasicEngine.run(program, tier, () -> console.readLine(stopRequested),
+                    output, BasicEngine.DEFAULT_STEP_LIMIT, stopRequested);
+            if (result.error != null) {
+                output.accept("\n" + result.error.getMessage() + "\n");
+                int line = result.error.line;
+                if (line >= 0) SwingUtilities.invokeLater(() -> tab.errorLines.setErrorLines(line));
+            }
+            if (debug) output.accept("\n" + program.describeVariables(result));
+            return String.format("%s: %,d шагов за %.1f мс", basicOutcome(result), result.steps, result.nanos / 1e6);
+        });
+    }
+
+    // Runs the program on every tier, best of three with output discarded. INPUT lines
+    // are asked for up front so the timings do not include the user's typing.
+    private void benchmarkBasic() {
+        EditorTab tab = getCurrentTab();
+        if (tab == null || tab.textPane == null) return;
+        if (console.isRunning()) {
+            statusBar.setText(" Программа уже выполняется");
+            return;
+        }
+        if (!highlighter.detectLanguage(tab).getName().equals("basic")) {
+            statusBar.setText(" Сравнение режимов доступно только для BASIC");
+            return;
+        }
+        BasicEngine.Program program = compileBasic(tab);
+        if (program == null) return;
+        List<String> lines = new ArrayList<>();
+        if (program.hasInput()) {
+            String input = JOptionPane.showInputDialog(this, "Строки ввода через '|':", "Сравнение режимов",
+                    JOptionPane.PLAIN_MESSAGE);
+            if (input == null) return;
+            lines.addAll(Arrays.asList(input.split("\\|", -1)));
+        }
+
+        showOutput(console);
+        console.start("Сравнение режимов: " + tabName(tab), (output, stopRequested) -> {
+            output.accept(String.format("%,d операторов, %,d инструкций байт-кода%n",
+                    program.getStatementCount(), program.getInstructionCount()));
+            if (!program.hasJvmCode()) output.accept("Программа слишком велика для JVM, режим JVM выполняет байт-код\n");
+            long[] best = new long[BasicEngine.Tier.values().length];
+            for (BasicEngine.Tier tier : BasicEngine.Tier.values()) {
+                best[tier.ordinal()] = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    Iterator<String> input = lines.iterator();
+                    BasicEngine.Result result = BasicEngine.run(program, tier, () -> input.hasNext() ? input.next() : null,
+                            text -> { }, BasicEngine.DEFAULT_STEP_LIMIT, stopRequested);
+                    if (result.status != BasicEngine.Status.FINISHED) {
+                        if (result.error != null) output.accept(result.error.getMessage() + "\n");
+                        return tier + ": " + basicOutcome(result);
+                    }
+                    best[tier.ordinal()] = Math.min(best[tier.ordinal()], result.nanos);
+                    output.accept(String.format("%-12s прогон %d: %,d шагов за %.2f мс%n",
+                            tier, round + 1, result.steps, result.nanos / 1e6));
+                }
+            }
+            long interpreted = best[BasicEngine.Tier.INTERPRETED.ordinal()];
+            StringBuilder summary = new StringBuilder("Лучшее время:");
+            for (BasicEngine.Tier tier : BasicEngine.Tier.values()) {
+                long nanos = best[tier.ordinal()];
+                output.accept(String.format("%-12s %.2f мс, ускорение %.1fx%n",
+                        tier, nanos / 1e6, (double) interpreted / Math.max(1, nanos)));
+                summary.append(String.format(" %s %.2f мс", tier, nanos / 1e6));
+            }
+            return summary.toString();
+        });
+    }
+
+    // Syntax errors are marked in the gutter and the caret moves to the offending line
+    private BasicEngine.Program compileBasic(EditorTab tab) {
+        try {
+            BasicEngine.Program program = BasicEngine.compile(tab.textPane.getText());
+            tab.errorLines.clearErrors();
+            return program;
+        } catch (BasicEngine.BasicError e) {
+            if (e.line >= 0) {
+                tab.errorLines.setErrorLines(e.line);
+                moveCaretToLine(tab, e.line);
+            }
+            statusBar.setText(" " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String basicOutcome(BasicEngine.Result result) {
+        switch (result.status) {
+            case CANCELLED: return "Остановлено";
+            case LIMIT_REACHED: return "Превышен лимит шагов";
+            case ERROR: return "Ошибка";
+            default: return "Завершено";
+        }
+    }
+
+    private static String tabName(EditorTab tab) {
+        return tab.file != null ? tab.file.getName() : "Untitled";
     }
 
     private EditorTab getCurrentTab() {
@@ -454,11 +1431,30 @@ public class KissEditor extends JFrame {
                 if (tab != null && tab.file != null) {
                     fileInfo = " | Файл: " + tab.file.getName();
                 }
+                if (tab != null && tab.pairs.getUnmatchedCount() > 0) {
+                    fileInfo += " | Непарных: " + tab.pairs.getUnmatchedCount();
+                }
 
                 statusBar.setText(String.format(" Строка: %d, Колонка: %d%s", line, column, fileInfo));
+                if (tab != null) {
+                    HighlightScheduler scheduler = tab.highlightScheduler;
+                    String lexerInfo = "";
+                    if (tab.language != null && tab.language.getLexer() instanceof DfaLexer) {
+                        DfaLexer lexer = (DfaLexer) tab.language.getLexer();
+                        lexerInfo = String.format(", лексер %s: %.0f токенов/с", lexer.getName(),
+                                lexer.getTokensPerSecond());
+                    }
+                    statusBar.setToolTipText(String.format("Подсветка: запрошено %d, выполнено %d, %.1f мс%s",
+                            scheduler.getRequestedPasses(), scheduler.getExecutedPasses(),
+                            scheduler.getAveragePassMillis(), lexerInfo));
+                }
             } catch (Exception e) {
                 statusBar.setText(" Готово");
             }
+        } else if (getCurrentTab() != null && getCurrentTab().largeView != null) {
+            MappedLineIndex index = getCurrentTab().largeView.getIndex();
+            statusBar.setText(String.format(" Только чтение | Строк: %d | Файл: %s",
+                    index.getLineCount(), index.getFile().getName()));
         } else {
             statusBar.setText(" Готово");
         }
@@ -492,91 +1488,60 @@ public class KissEditor extends JFrame {
             }
         });
 
-        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_W, InputEvent.CTRL_DOWN_MASK), "close");
-        am.put("close", new AbstractAction() {
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "run");
+        am.put("run", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                closeTab(tabbedPane.getSelectedIndex());
+                runProgram(false);
             }
         });
-    }
 
-    private class LineNumberView extends JComponent {
-        private final JTextPane textPane;
-        private final Font font;
-        private final int MARGIN = 5;
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.CTRL_DOWN_MASK), "debug");
+        am.put("debug", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                runProgram(true);
+            }
+        });
 
-        public LineNumberView(JTextPane textPane) {
-            this.textPane = textPane;
-            this.font = new Font("Poppins", Font.PLAIN, 14);
-            setFont(font);
-            setBackground(EditorConstants.COLOR_CARD_BG);
-            setBorder(BorderFactory.createMatteBorder(0, 0, 0, 1, new Color(0xE5E7EB)));
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.SHIFT_DOWN_MASK), "stop");
+        am.put("stop", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                console.stop();
+            }
+        });
 
-            textPane.getDocument().addDocumentListener(new DocumentListener() {
-                public void insertUpdate(DocumentEvent e) { repaint(); }
-                public void removeUpdate(DocumentEvent e) { repaint(); }
-                public void changedUpdate(DocumentEvent e) { repaint(); }
-            });
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_F12, 0), "goToLabel");
+        am.put("goToLabel", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                goToLabel();
+            }
+        });
 
-            textPane.addCaretListener(e -> repaint());
-        }
-
-        @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setFont(font);
-            
-            Rectangle visibleRect = textPane.getVisibleRect();
-            int startY = visibleRect.y;
-            int endY = startY + visibleRect.height;
-            
-            FontMetrics fm = g2.getFontMetrics();
-            int baseline = fm.getAscent();
-            
-            g2.setColor(getBackground());
-            g2.fillRect(0, 0, getWidth(), getHeight());
-            g2.setColor(EditorConstants.COLOR_COMMENT);
-            
-            try {
-                Element root = textPane.getDocument().getDefaultRootElement();
-                int startLine = root.getElementIndex(textPane.viewToModel(new Point(0, startY)));
-                int endLine = root.getElementIndex(textPane.viewToModel(new Point(0, endY))) + 1;
-                
-                startLine = Math.max(0, startLine);
-                endLine = Math.min(root.getElementCount() - 1, endLine);
-                
-                for (int i = startLine; i <= endLine; i++) {
-                    Element line = root.getElement(i);
-                    Rectangle r = textPane.modelToView(line.getStartOffset());
-                    
-                    if (r != null) {
-                        String number = String.valueOf(i + 1);
-                        int x = getWidth() - fm.stringWidth(number) - MARGIN;
-                        int y = r.y + baseline;
-                        g2.drawString(number, x, y);
-                    }
-                }
-            } catch (BadLocationException ex) {
-                ex.printStackTrace();
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_F12, InputEvent.SHIFT_DOWN_MASK), "findReferences");
+        am.put("findReferences", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findLabelReferences();
             }
-        }
+        });
 
-        @Override
-        public Dimension getPreferredSize() {
-            Element root = textPane.getDocument().getDefaultRootElement();
-            int lineCount = root.getElementCount();
-            int maxDigits = Math.max(3, String.valueOf(lineCount).length());
-            FontMetrics fm = getFontMetrics(font);
-            int width = fm.stringWidth("0") * maxDigits + 2 * MARGIN;
-            return new Dimension(width, textPane.getHeight());
-        }
+        im.put(KeyStroke.getKeyStroke(KeyEvent.VK_W, InputEvent.CTRL_DOWN_MASK), "close");
+        am.put("close", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                closeTab(tabbedPane.getSelectedIndex());
+            }
+        });
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--export")) {
+            BatchExporter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Includes and labels of every KISS file under a project directory. Each file is
+// parsed once and cached by mtime/size, with a content hash so touched-but-unchanged
+// files are not re-indexed. Open tabs push their text through update(); those files
+// are then owned by the editor and refresh() leaves them alone until release().
+//
+// A reference is an operand of a command line that is neither a number nor a
+// character literal, e.g. "G loop" or "G :loop". It is undefined when no file in the
+// include closure of the referencing file defines the label.
+public class KissProjectIndex {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int FILES_PER_TASK = 16;
+    private static final int MAX_FILES = 100_000;
+    // A file opened from the home directory or / must not walk the whole disk
+    private static final int MAX_DIRECTORIES = 5_000;
+    private static final String EXTENSION = ".kiss";
+    private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList(EditorConstants.COMMANDS));
+
+    public static class Location {
+        public final Path file;
+        public final int line;
+        public final String name;
+
+        Location(Path file, int line, String name) {
+            this.file = file;
+            this.line = line;
+            this.name = name;
+        }
+    }
+
+    // Immutable parse result of one file; lines are 0-based
+    static class FileInfo {
+        final long modified;
+        final long size;
+        final long hash;
+        final Path[] includes;
+        final String[] labelNames;
+        final int[] labelLines;
+        final String[] refNames;
+        final int[] refLines;
+
+        FileInfo(long modified, long size, long hash, Path[] includes,
+                 String[] labelNames, int[] labelLines, String[] refNames, int[] refLines) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+            this.includes = includes;
+            this.labelNames = labelNames;
+            this.labelLines = labelLines;
+            this.refNames = refNames;
+            this.refLines = refLines;
+        }
+
+        FileInfo touch(long modified, long size) {
+            return new FileInfo(modified, size, hash, includes, labelNames, labelLines, refNames, refLines);
+        }
+    }
+
+    private final Path root;
+    private final Map<Path, FileInfo> files = new ConcurrentHashMap<>();
+    private final Map<String, Set<Path>> definitions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Path>> references = new ConcurrentHashMap<>();
+    private final Set<Path> editorOwned = ConcurrentHashMap.newKeySet();
+    // Include closures are memoized until any file's include list changes
+    private final Map<Path, Set<Path>> closures = new ConcurrentHashMap<>();
+
+    public KissProjectIndex(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public boolean contains(Path file) {
+        return file.toAbsolutePath().normalize().startsWith(root);
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    // Walks the project and (re)indexes every changed file in parallel, then follows
+    // includes that point outside the walked set until the graph is closed. Blocking.
+    public void refresh() throws IOException {
+        List<Path> found = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            private int directories;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                boolean hidden = !dir.equals(root) && dir.getFileName().toString().startsWith(".");
+                if (hidden) return FileVisitResult.SKIP_SUBTREE;
+                return ++directories <= MAX_DIRECTORIES ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(EXTENSION)) found.add(file);
+                return found.size() < MAX_FILES ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // Files that vanished from disk drop out, unless a tab still holds them
+        Set<Path> live = new HashSet<>(found);
+        for (Path file : new ArrayList<>(files.keySet())) {
+            if (!live.contains(file) && !editorOwned.contains(file) && !Files.isRegularFile(file)) remove(file);
+        }
+
+        List<Path> pending = found;
+        while (!pending.isEmpty()) {
+            POOL.invoke(new IndexTask(pending, 0, pending.size()));
+            pending = unresolvedIncludes();
+        }
+    }
+
+    // Re-indexes a file from editor text; returns false if the content hash is unchanged
+    public boolean update(Path file, CharSequence text) {
+        Path key = file.toAbsolutePath().normalize();
+        editorOwned.add(key);
+        long hash = hash(text);
+        FileInfo old = files.get(key);
+        if (old != null && old.hash == hash) return false;
+        put(key, parse(key, text, -1, -1, hash));
+        for (Path include : files.get(key).includes) {
+            if (!files.containsKey(include)) indexFromDisk(include);
+        }
+        return true;
+    }
+
+    // The tab was closed; the next refresh() reads the file from disk again
+    public void release(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        if (editorOwned.remove(key)) {
+            FileInfo info = files.get(key);
+            if (info != null) files.put(key, info.touch(-1, -1));
+        }
+    }
+
+    public List<Location> findDefinitions(String name, Path from) {
+        Set<Path> owners = definitions.getOrDefault(name, Collections.emptySet());
+        List<Location> visible = new ArrayList<>();
+        List<Location> all = new ArrayList<>();
+        Set<Path> closure = from != null ? includeClosure(from.toAbsolutePath().normalize()) : Collections.emptySet();
+        for (Path owner : owners) {
+            FileInfo info = files.get(owner);
+            if (info == null) continue;
+            for (int i = 0; i < info.labelNames.length; i++) {
+                if (!info.labelNames[i].equals(name)) continue;
+                Location location = new Location(owner, info.labelLines[i], name);
+                all.add(location);
+                if (closure.contains(owner)) visible.add(location);
+            }
+        }
+        List<Location> result = visible.isEmpty() ? all : visible;
+        result.sort(Comparator.comparing((Location l) -> l.file).thenComparingInt(l -> l.line));
+        return result;
+    }
+
+    public List<Location> findReferences(String name) {
+        List<Location> result = new ArrayList<>();
+        for (Path owner : references.getOrDefault(name, Collections.emptySet())) {
+            FileInfo info = files.get(owner);
+            if (info == null) continue;
+            for (int i = 0; i < info.refNames.length; i++) {
+                if (info.refNames[i].equals(name)) result.add(new Location(owner, info.refLines[i], name));
+            }
+        }
+        result.sort(Comparator.comparing((Location l) -> l.file).thenComparingInt(l -> l.line));
+        return result;
+    }
+
+    // Lines of the file that jump to a label defined nowhere in its include closure
+    public int[] undefinedReferenceLines(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        FileInfo info = files.get(key);
+        if (info == null) return new int[0];
+        Set<Path> closure = includeClosure(key);
+        int[] lines = new int[info.refNames.length];
+        int count = 0;
+        for (int i = 0; i < info.refNames.length; i++) {
+            boolean defined = false;
+            for (Path owner : definitions.getOrDefault(info.refNames[i], Collections.emptySet())) {
+                if (closure.contains(owner)) {
+                    defined = true;
+                    break;
+                }
+            }
+            if (!defined && (count == 0 || lines[count - 1] != info.refLines[i])) lines[count++] = info.refLines[i];
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    public Set<Path> includeClosure(Path file) {
+        Set<Path> cached = closures.get(file);
+        return cached != null ? cached : computeClosure(file);
+    }
+
+    // Under the same lock as put() and remove(), so a closure computed from an include
+    // graph that changed meanwhile is never stored after they cleared the cache
+    private synchronized Set<Path> computeClosure(Path file) {
+        Set<Path> cached = closures.get(file);
+        if (cached != null) return cached;
+        Set<Path> closure = new HashSet<>();
+        Deque<Path> queue = new ArrayDeque<>();
+        queue.add(file);
+        while (!queue.isEmpty()) {
+            Path next = queue.poll();
+            if (!closure.add(next)) continue;
+            FileInfo info = files.get(next);
+            if (info != null) queue.addAll(Arrays.asList(info.includes));
+        }
+        closure = Collections.unmodifiableSet(closure);
+        closures.put(file, closure);
+        return closure;
+    }
+
+    private List<Path> unresolvedIncludes() {
+        Set<Path> missing = new HashSet<>();
+        for (FileInfo info : files.values()) {
+            for (Path include : info.includes) {
+                if (!files.containsKey(include) && Files.isRegularFile(include)) missing.add(include);
+            }
+        }
+        return new ArrayList<>(missing);
+    }
+
+    private void indexFromDisk(Path file) {
+        if (editorOwned.contains(file)) return;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long modified = attrs.lastModifiedTime().toMillis();
+            FileInfo old = files.get(file);
+            if (old != null && old.modified == modified && old.size == attrs.size()) return;
+
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            long hash = hash(text);
+            if (old != null && old.hash == hash) {
+                files.put(file, old.touch(modified, attrs.size()));
+                return;
+            }
+            put(file, parse(file, text, modified, attrs.size(), hash));
+        } catch (NoSuchFileException e) {
+            remove(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void put(Path file, FileInfo info) {
+        FileInfo old = files.put(file, info);
+        if (old != null) {
+            unlink(definitions, old.labelNames, file);
+            unlink(references, old.refNames, file);
+        }
+        link(definitions, info.labelNames, file);
+        link(references, info.refNames, file);
+        if (old == null || !Arrays.equals(old.includes, info.includes)) closures.clear();
+    }
+
+    private synchronized void remove(Path file) {
+        FileInfo old = files.remove(file);
+        if (old == null) return;
+        unlink(definitions, old.labelNames, file);
+        unlink(references, old.refNames, file);
+        closures.clear();
+    }
+
+    private static void link(Map<String, Set<Path>> map, String[] names, Path file) {
+        for (String name : names) {
+            map.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(file);
+        }
+    }
+
+    private static void unlink(Map<String, Set<Path>> map, String[] names, Path file) {
+        for (String name : names) {
+            map.computeIfPresent(name, (k, owners) -> {
+                owners.remove(file);
+                return owners.isEmpty() ? null : owners;
+            });
+        }
+    }
+
+    // Same line-start rules as the KISS lexer: leading blanks, then #include, # comment, :label or a command
+    static FileInfo parse(Path file, CharSequence text, long modified, long size, long hash) {
+        List<Path> includes = new ArrayList<>();
+        List<String> labelNames = new ArrayList<>();
+        List<String> refNames = new ArrayList<>();
+        int[] labelLines = new int[16];
+        int[] refLines = new int[16];
+        Path dir = file.getParent();
+
+        int line = 0;
+        int length = text.length();
+        for (int start = 0; start <= length; line++) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n') end++;
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            int pos = skipBlanks(text, start, lineEnd);
+
+            if (pos < lineEnd && text.charAt(pos) == '#') {
+                if (startsWith(text, pos, lineEnd, "#include")) {
+                    String target = trimTarget(text.subSequence(pos + "#include".length(), lineEnd).toString());
+                    if (!target.isEmpty() && dir != null) {
+                        try {
+                            includes.add(dir.resolve(target).normalize());
+                        } catch (InvalidPathException ignore) {
+                        }
+                    }
+                }
+            } else if (pos < lineEnd && text.charAt(pos) == ':') {
+                int nameEnd = tokenEnd(text, pos + 1, lineEnd);
+                if (nameEnd > pos + 1) {
+                    if (labelNames.size() == labelLines.length) labelLines = Arrays.copyOf(labelLines, labelLines.length * 2);
+                    labelLines[labelNames.size()] = line;
+                    labelNames.add(text.subSequence(pos + 1, nameEnd).toString());
+                }
+            } else if (pos < lineEnd) {
+                int commandEnd = tokenEnd(text, pos, lineEnd);
+                if (COMMANDS.contains(text.subSequence(pos, commandEnd).toString())) {
+                    int operand = skipBlanks(text, commandEnd, lineEnd);
+                    while (operand < lineEnd) {
+                        int operandEnd = tokenEnd(text, operand, lineEnd);
+                        String name = referenceName(text, operand, operandEnd);
+                        if (name != null) {
+                            if (refNames.size() == refLines.length) refLines = Arrays.copyOf(refLines, refLines.length * 2);
+                            refLines[refNames.size()] = line;
+                            refNames.add(name);
+                        }
+                        operand = skipBlanks(text, operandEnd, lineEnd);
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        return new FileInfo(modified, size, hash, includes.toArray(new Path[0]),
+                labelNames.toArray(new String[0]), Arrays.copyOf(labelLines, labelNames.size()),
+                refNames.toArray(new String[0]), Arrays.copyOf(refLines, refNames.size()));
+    }
+
+    private static String referenceName(CharSequence text, int start, int end) {
+        char first = text.charAt(start);
+        if (first == '\'') return null;
+        if (first == ':') start++;
+        if (start == end) return null;
+        int digits = text.charAt(start) == '-' ? start + 1 : start;
+        while (digits < end && Character.isDigit(text.charAt(digits))) digits++;
+        if (digits == end && first != ':') return null;
+        return text.subSequence(start, end).toString();
+    }
+
+    private static String trimTarget(String target) {
+        target = target.trim();
+        if (target.length() >= 2 && (target.charAt(0) == '"' || target.charAt(0) == '<')) {
+            target = target.substring(1, target.length() - 1);
+        }
+        return target;
+    }
+
+    private static int skipBlanks(CharSequence text, int pos, int end) {
+        while (pos < end && text.charAt(pos) <= ' ') pos++;
+        return pos;
+    }
+
+    private static int tokenEnd(CharSequence text, int pos, int end) {
+        while (pos < end && text.charAt(pos) > ' ') pos++;
+        return pos;
+    }
+
+    private static boolean startsWith(CharSequence text, int pos, int end, String prefix) {
+        if (end - pos < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(pos + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // 64-bit FNV-1a over the chars, so disk text and editor text hash alike
+    static long hash(CharSequence text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private class IndexTask extends RecursiveAction {
+        private final List<Path> paths;
+        private final int from;
+        private final int to;
+
+        IndexTask(List<Path> paths, int from, int to) {
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FILES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    indexFromDisk(paths.get(i).toAbsolutePath().normalize());
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new IndexTask(paths, from, mid), new IndexTask(paths, mid, to));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Locale;
+import java.util.function.Predicate;
+
+public class Language {
+    private final String name;
+    private final LineLexer lexer;
+    private final String[] extensions;
+    private final Predicate<CharSequence> contentProbe;
+
+    public Language(String name, LineLexer lexer, String... extensions) {
+        this(name, lexer, null, extensions);
+    }
+
+    // contentProbe is asked about untitled documents; it only ever sees a bounded prefix
+    public Language(String name, LineLexer lexer, Predicate<CharSequence> contentProbe, String... extensions) {
+        this.name = name;
+        this.lexer = lexer;
+        this.contentProbe = contentProbe;
+        this.extensions = new String[extensions.length];
+        for (int i = 0; i < extensions.length; i++) {
+            this.extensions[i] = extensions[i].toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LineLexer getLexer() {
+        return lexer;
+    }
+
+    public boolean matchesFileName(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : extensions) {
+            if (lower.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    public boolean matchesContent(CharSequence sample) {
+        return contentProbe != null && contentProbe.test(sample);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
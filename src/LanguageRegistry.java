@@ -0,0 +1,46 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Maps file names and content heuristics to languages. Languages are tried in
+// registration order; the first registered one is the fallback.
+public class LanguageRegistry {
+    // Untitled documents are classified from this many leading characters only
+    public static final int SAMPLE_CHARS = 4096;
+
+    private static final List<Language> languages = new ArrayList<>(SyntaxHighlighter.builtinLanguages());
+
+    public static synchronized void register(Language language) {
+        languages.add(language);
+    }
+
+    public static synchronized Language forName(String name) {
+        for (Language language : languages) {
+            if (language.getName().equals(name)) return language;
+        }
+        return getDefault();
+    }
+
+    public static synchronized Language getDefault() {
+        return languages.get(0);
+    }
+
+    public static synchronized List<Language> getLanguages() {
+        return new ArrayList<>(languages);
+    }
+
+    // Files are matched by extension; content is only consulted for untitled documents
+    public static synchronized Language detect(File file, CharSequence sample) {
+        if (file != null) {
+            String name = file.getName();
+            for (Language language : languages) {
+                if (language.matchesFileName(name)) return language;
+            }
+        } else if (sample != null) {
+            for (Language language : languages) {
+                if (language.matchesContent(sample)) return language;
+            }
+        }
+        return getDefault();
+    }
+}
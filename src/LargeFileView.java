@@ -0,0 +1,202 @@
+import javax.swing.*;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.*;
+
+// Read-only viewer for memory-mapped files. Only the lines intersecting the clip
+// are decoded and lexed on paint, so heap use does not depend on file size.
+//
+// Swing sizes are ints, so a file taller than MAX_HEIGHT pixels gets a clamped height.
+// Its layout is then computed in long and the scroll position maps proportionally
+// into it: the lines around the viewport are laid out at full height relative to its
+// top edge, and a scroll step is shortened so it still moves about one line.
+public class LargeFileView extends JComponent implements Scrollable, LineGeometry {
+    private static final int PADDING_X = 16;
+    private static final int PADDING_Y = 12;
+    private static final int MAX_HEIGHT = Integer.MAX_VALUE / 2;
+
+    private final MappedLineIndex index;
+    private final SyntaxHighlighter highlighter;
+    private final Language language;
+    private final Font[] fonts = new Font[4];
+    private final StyleRuns runs = new StyleRuns();
+    private int lineHeight;
+    private int ascent;
+    private int contentWidth = 1000;
+
+    public LargeFileView(MappedLineIndex index, SyntaxHighlighter highlighter, Language language) {
+        this.index = index;
+        this.highlighter = highlighter;
+        this.language = language;
+        setFont(new Font("Poppins", Font.PLAIN, 16));
+        setBackground(EditorConstants.COLOR_BACKGROUND);
+        setForeground(EditorConstants.COLOR_DEFAULT);
+        setOpaque(true);
+    }
+
+    public MappedLineIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        fonts[Font.PLAIN] = font;
+        fonts[Font.BOLD] = font.deriveFont(Font.BOLD);
+        fonts[Font.ITALIC] = font.deriveFont(Font.ITALIC);
+        fonts[Font.BOLD | Font.ITALIC] = font.deriveFont(Font.BOLD | Font.ITALIC);
+        FontMetrics fm = getFontMetrics(font);
+        lineHeight = fm.getHeight();
+        ascent = fm.getAscent();
+        revalidate();
+    }
+
+    @Override
+    public JComponent getComponent() {
+        return this;
+    }
+
+    @Override
+    public int getLineCount() {
+        return (int) Math.min(Integer.MAX_VALUE, index.getLineCount());
+    }
+
+    @Override
+    public int getLineAt(int y) {
+        long line = (y + layoutShift() - PADDING_Y) / lineHeight;
+        return (int) Math.max(0, Math.min(getLineCount() - 1, line));
+    }
+
+    @Override
+    public int getLineY(int line) {
+        long y = PADDING_Y + (long) line * lineHeight - layoutShift();
+        return y < 0 ? -1 : (int) Math.min(MAX_HEIGHT, y);
+    }
+
+    @Override
+    public boolean isScrollDependent() {
+        return isScaled();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (isScaled() && getParent() instanceof JViewport) {
+            ((JViewport) getParent()).setScrollMode(JViewport.SIMPLE_SCROLL_MODE);
+        }
+    }
+
+    // Scrolls so the line sits near the top third of the viewport; in a clamped layout the
+    // line's y depends on the scroll position, so the target is mapped through scrollScale
+    public void scrollToLine(int line) {
+        Rectangle visible = getVisibleRect();
+        long top = Math.max(0, PADDING_Y + (long) line * lineHeight - visible.height / 3);
+        int y = (int) Math.min(MAX_HEIGHT, Math.round(top / scrollScale(visible.height)));
+        scrollRectToVisible(new Rectangle(visible.x, y, visible.width, Math.max(1, visible.height)));
+    }
+
+    private long fullHeight() {
+        return index.getLineCount() * (long) lineHeight + 2L * PADDING_Y;
+    }
+
+    private boolean isScaled() {
+        return fullHeight() > MAX_HEIGHT;
+    }
+
+    // Full-layout pixels per component pixel of scrolling, 1 unless the height is clamped
+    private double scrollScale(int visibleHeight) {
+        long full = fullHeight();
+        if (full <= MAX_HEIGHT) return 1;
+        return (double) (full - visibleHeight) / Math.max(1, MAX_HEIGHT - visibleHeight);
+    }
+
+    // Full-layout y minus component y for the current scroll position
+    private long layoutShift() {
+        if (!isScaled()) return 0;
+        Rectangle visible = getVisibleRect();
+        return (long) (visible.y * scrollScale(visible.height)) - visible.y;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) clip = getVisibleRect();
+        g2.setColor(getBackground());
+        g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int first = getLineAt(clip.y);
+        int last = getLineAt(clip.y + clip.height);
+        for (int line = first; line <= last; line++) {
+            paintLine(g2, line, getLineY(line) + ascent);
+        }
+    }
+
+    private void paintLine(Graphics2D g2, int line, int baseline) {
+        String text = index.getLine(line);
+        runs.clear();
+        language.getLexer().lexLine(text, 0, text.length(), 0, runs);
+
+        int x = PADDING_X;
+        int pos = 0;
+        for (int i = 0; i <= runs.size(); i++) {
+            int runStart = i < runs.size() ? runs.getStart(i) : text.length();
+            if (runStart > pos) {
+                x = drawRun(g2, text.substring(pos, runStart), SyntaxHighlighter.STYLE_DEFAULT, x, baseline);
+            }
+            if (i < runs.size()) {
+                int runEnd = Math.min(text.length(), runStart + runs.getLength(i));
+                x = drawRun(g2, text.substring(runStart, runEnd), runs.getStyle(i), x, baseline);
+                pos = runEnd;
+            }
+        }
+        if (x > contentWidth) {
+            contentWidth = x + PADDING_X;
+            revalidate();
+        }
+    }
+
+    private int drawRun(Graphics2D g2, String text, int style, int x, int baseline) {
+        AttributeSet attributes = highlighter.getStyle(style);
+        int fontStyle = (StyleConstants.isBold(attributes) ? Font.BOLD : 0)
+                | (StyleConstants.isItalic(attributes) ? Font.ITALIC : 0);
+        g2.setFont(fonts[fontStyle]);
+        g2.setColor(StyleConstants.getForeground(attributes));
+        g2.drawString(text, x, baseline);
+        return x + g2.getFontMetrics().stringWidth(text);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(contentWidth, (int) Math.min(MAX_HEIGHT, fullHeight()));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(1000, 580);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation != SwingConstants.VERTICAL) return 16;
+        return Math.max(1, (int) Math.round(lineHeight / scrollScale(visibleRect.height)));
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation != SwingConstants.VERTICAL) return visibleRect.width;
+        int page = (int) ((visibleRect.height - lineHeight) / scrollScale(visibleRect.height));
+        return Math.max(getScrollableUnitIncrement(visibleRect, orientation, direction), page);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Declarative token rules for one language, compiled into a DfaLexer.
+// Patterns use a small regex dialect: literals, [classes], ranges, ^ negation,
+// . \d \w \s (and \D \W \S), grouping, |, *, + and ?. The longest match wins;
+// among equally long matches the rule declared first wins.
+public class LexerSpec {
+    private static final String METACHARS = "\\[]().*+?|^-";
+
+    final String name;
+    final List<Rule> rules = new ArrayList<>();
+
+    public LexerSpec(String name) {
+        this.name = name;
+    }
+
+    public LexerSpec rule(String pattern, int style) {
+        return add(pattern, style, false, false);
+    }
+
+    public LexerSpec rule(String pattern, int style, boolean ignoreCase) {
+        return add(pattern, style, ignoreCase, false);
+    }
+
+    // Matches only as the first token of a line, after leading whitespace
+    public LexerSpec lineStartRule(String pattern, int style) {
+        return add(pattern, style, false, true);
+    }
+
+    public LexerSpec lineStartRule(String pattern, int style, boolean ignoreCase) {
+        return add(pattern, style, ignoreCase, true);
+    }
+
+    public LexerSpec keywords(String[] words, int style, boolean ignoreCase) {
+        return add(alternatives(words), style, ignoreCase, false);
+    }
+
+    public LexerSpec lineStartKeywords(String[] words, int style, boolean ignoreCase) {
+        return add(alternatives(words), style, ignoreCase, true);
+    }
+
+    // Escapes every pattern metacharacter in text
+    public static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() * 2);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (METACHARS.indexOf(c) >= 0) quoted.append('\\');
+            quoted.append(c);
+        }
+        return quoted.toString();
+    }
+
+    private static String alternatives(String[] words) {
+        StringBuilder pattern = new StringBuilder();
+        for (String word : words) {
+            if (pattern.length() > 0) pattern.append('|');
+            pattern.append(quote(word));
+        }
+        return pattern.toString();
+    }
+
+    private LexerSpec add(String pattern, int style, boolean ignoreCase, boolean lineStart) {
+        rules.add(new Rule(pattern, style, ignoreCase, lineStart));
+        return this;
+    }
+
+    static class Rule {
+        final String pattern;
+        final int style;
+        final boolean ignoreCase;
+        final boolean lineStart;
+
+        Rule(String pattern, int style, boolean ignoreCase, boolean lineStart) {
+            this.pattern = pattern;
+            this.style = style;
+            this.ignoreCase = ignoreCase;
+            this.lineStart = lineStart;
+        }
+    }
+}
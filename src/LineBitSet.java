@@ -0,0 +1,173 @@
+import java.util.Arrays;
+
+public class LineBitSet {
+    private long[] words = new long[4];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public void setSize(int lines) {
+        ensureCapacity(lines);
+        if (lines < size) {
+            clear(lines, size);
+        }
+        size = lines;
+    }
+
+    public boolean get(int line) {
+        if (line < 0 || line >= size) return false;
+        return (words[line >>> 6] & (1L << line)) != 0;
+    }
+
+    public void set(int line) {
+        if (line < 0 || line >= size) return;
+        words[line >>> 6] |= 1L << line;
+    }
+
+    public void set(int from, int to) {
+        from = Math.max(0, from);
+        to = Math.min(size, to);
+        if (from >= to) return;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
+        }
+        words[first] |= firstMask;
+        Arrays.fill(words, first + 1, last, -1L);
+        words[last] |= lastMask;
+    }
+
+    public void clear(int line) {
+        if (line < 0 || line >= size) return;
+        words[line >>> 6] &= ~(1L << line);
+    }
+
+    public void clear(int from, int to) {
+        from = Math.max(0, from);
+        to = Math.min(words.length << 6, to);
+        if (from >= to) return;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] &= ~(firstMask & lastMask);
+            return;
+        }
+        words[first] &= ~firstMask;
+        Arrays.fill(words, first + 1, last, 0L);
+        words[last] &= ~lastMask;
+    }
+
+    public void clearAll() {
+        Arrays.fill(words, 0L);
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public int nextSetBit(int from) {
+        if (from < 0) from = 0;
+        if (from >= size) return -1;
+        int wordIndex = from >>> 6;
+        long word = words[wordIndex] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int bit = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                return bit < size ? bit : -1;
+            }
+            if (++wordIndex >= words.length) return -1;
+            word = words[wordIndex];
+        }
+    }
+
+    public int nextClearBit(int from) {
+        if (from < 0) from = 0;
+        while (from < size && get(from)) {
+            if ((from & 63) == 0 && words[from >>> 6] == -1L) {
+                from += 64;
+            } else {
+                from++;
+            }
+        }
+        return Math.min(from, size);
+    }
+
+    public int previousSetBit(int from) {
+        if (from >= size) from = size - 1;
+        for (int i = from; i >= 0; i--) {
+            long word = words[i >>> 6];
+            if (word == 0) {
+                i &= ~63;
+                continue;
+            }
+            if ((word & (1L << i)) != 0) return i;
+        }
+        return -1;
+    }
+
+    // Inserts count cleared lines before line "at", shifting the tail up a word at a time.
+    // Bits past size are always clear, so they shift in as zeros.
+    public void insertLines(int at, int count) {
+        if (count <= 0) return;
+        at = Math.max(0, Math.min(at, size));
+        ensureCapacity(size + count);
+        int first = at >>> 6;
+        long kept = words[first] & ~(-1L << at);
+        int wordShift = count >>> 6;
+        int bitShift = count & 63;
+        for (int dst = (size + count - 1) >>> 6; dst >= first; dst--) {
+            int src = dst - wordShift;
+            long word = src >= first ? words[src] << bitShift : 0;
+            if (bitShift != 0 && src - 1 >= first) word |= words[src - 1] >>> (64 - bitShift);
+            words[dst] = word;
+        }
+        words[first] = (words[first] & (-1L << at)) | kept;
+        size += count;
+        clear(at, at + count);
+    }
+
+    // Removes count lines starting at line "at", shifting the tail down a word at a time
+    public void removeLines(int at, int count) {
+        if (count <= 0 || at >= size) return;
+        count = Math.min(count, size - at);
+        int first = at >>> 6;
+        int last = (size - 1) >>> 6;
+        long kept = words[first] & ~(-1L << at);
+        int wordShift = count >>> 6;
+        int bitShift = count & 63;
+        for (int dst = first; dst <= last; dst++) {
+            int src = dst + wordShift;
+            long word = src <= last ? words[src] >>> bitShift : 0;
+            if (bitShift != 0 && src + 1 <= last) word |= words[src + 1] << (64 - bitShift);
+            words[dst] = word;
+        }
+        words[first] = (words[first] & (-1L << at)) | kept;
+        size -= count;
+    }
+
+    private void ensureCapacity(int lines) {
+        int needed = (lines + 63) >>> 6;
+        if (needed > words.length) {
+            words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+        }
+    }
+}
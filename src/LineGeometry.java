@@ -0,0 +1,18 @@
+import javax.swing.JComponent;
+
+// Line layout of a text view as seen by the line number gutter
+public interface LineGeometry {
+    JComponent getComponent();
+
+    int getLineCount();
+
+    int getLineAt(int y);
+
+    // Top y coordinate of the line, or -1 if it is not laid out
+    int getLineY(int line);
+
+    // True when line positions move with the scroll position, so they cannot be cached
+    default boolean isScrollDependent() {
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.function.BiConsumer;
+
+// Maps a large file and builds its line index on a background thread, with progress
+// and cancel like FileLoader. onDone gets the index, or null and the error.
+public class LineIndexLoader extends SwingWorker<MappedLineIndex, Void> {
+    private final File file;
+    private final BiConsumer<MappedLineIndex, Exception> onDone;
+    private volatile MappedLineIndex built;
+
+    public LineIndexLoader(File file, BiConsumer<MappedLineIndex, Exception> onDone) {
+        this.file = file;
+        this.onDone = onDone;
+    }
+
+    @Override
+    protected MappedLineIndex doInBackground() throws IOException {
+        long size = file.length();
+        built = new MappedLineIndex(file, StandardCharsets.UTF_8,
+                scanned -> setProgress(size == 0 ? 100 : (int) Math.min(100, scanned * 100 / size)),
+                this::isCancelled);
+        return built;
+    }
+
+    @Override
+    protected void done() {
+        MappedLineIndex index = null;
+        Exception error = null;
+        try {
+            index = get();
+        } catch (CancellationException e) {
+            error = e;
+            // Cancelled after the scan finished: nobody will own the mapping
+            if (built != null) {
+                try {
+                    built.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        } catch (Exception e) {
+            error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        onDone.accept(index, error);
+    }
+}
@@ -0,0 +1,5 @@
+// Lexes one line [start, end) of text into style runs. The int state carries
+// multi-line constructs from the end of one line to the start of the next.
+public interface LineLexer {
+    int lexLine(CharSequence text, int start, int end, int state, StyleRuns runs);
+}
@@ -0,0 +1,243 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.Arrays;
+
+public class LineNumberView extends JComponent {
+    // Y-positions are cached for a window of lines around the viewport
+    private static final int CACHE_MARGIN_LINES = 200;
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final LineGeometry geometry;
+    private final Font font;
+    private final int MARGIN = 5;
+    private static final int BLOCK_BAR_WIDTH = 3;
+    private final int digitWidth;
+    private DigitAtlas atlas;
+    private int[] cachedY = new int[0];
+    private int cacheFirst;
+    private int lineCount;
+    private int digits;
+    private int pendingLine = -1;
+    private int geometryWidth = -1;
+    private int blockFirst = -1;
+    private int blockLast = -1;
+
+    public LineNumberView(JTextPane textPane) {
+        this(new LineGeometry() {
+            public JComponent getComponent() { return textPane; }
+            public int getLineCount() { return textPane.getDocument().getDefaultRootElement().getElementCount(); }
+            public int getLineAt(int y) {
+                Element root = textPane.getDocument().getDefaultRootElement();
+                return root.getElementIndex(textPane.viewToModel(new Point(0, y)));
+            }
+            public int getLineY(int line) {
+                try {
+                    Element root = textPane.getDocument().getDefaultRootElement();
+                    Rectangle r = textPane.modelToView(root.getElement(line).getStartOffset());
+                    return r != null ? r.y : -1;
+                } catch (BadLocationException ex) {
+                    return -1;
+                }
+            }
+        });
+
+        textPane.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { linesChanged(e); }
+            public void removeUpdate(DocumentEvent e) { linesChanged(e); }
+            public void changedUpdate(DocumentEvent e) { linesChanged(e); }
+        });
+    }
+
+    public LineNumberView(LineGeometry geometry) {
+        this.geometry = geometry;
+        this.font = new Font("Poppins", Font.PLAIN, 14);
+        setFont(font);
+        setBackground(EditorConstants.COLOR_CARD_BG);
+        setBorder(BorderFactory.createMatteBorder(0, 0, 0, 1, new Color(0xE5E7EB)));
+        digitWidth = getFontMetrics(font).stringWidth("0");
+        lineCount = geometry.getLineCount();
+        digits = String.valueOf(lineCount).length();
+
+        // Height follows the text component; a width change rewraps lines and moves every y
+        geometry.getComponent().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                int width = geometry.getComponent().getWidth();
+                if (width != geometryWidth) {
+                    geometryWidth = width;
+                    invalidateFrom(0);
+                }
+                revalidate();
+                repaint();
+            }
+        });
+    }
+
+    // The row header viewport copies pixels on scroll, which is wrong when line positions
+    // are not fixed to the component
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (geometry.isScrollDependent() && getParent() instanceof JViewport) {
+            ((JViewport) getParent()).setScrollMode(JViewport.SIMPLE_SCROLL_MODE);
+        }
+    }
+
+    // Lines of the block around the caret, drawn as a bar at the left edge; -1 clears it.
+    // Only the old and new bar strips are repainted.
+    public void setBlock(int firstLine, int lastLine) {
+        if (firstLine == blockFirst && lastLine == blockLast) return;
+        repaintBlock();
+        blockFirst = firstLine;
+        blockLast = lastLine;
+        repaintBlock();
+    }
+
+    private void repaintBlock() {
+        if (blockFirst < 0 || blockLast >= lineCount) return;
+        int top = lineY(blockFirst);
+        int bottom = blockBottom();
+        if (top >= 0 && bottom > top) repaint(0, top, BLOCK_BAR_WIDTH, bottom - top);
+    }
+
+    private int blockBottom() {
+        int next = blockLast + 1 < lineCount ? lineY(blockLast + 1) : -1;
+        return next >= 0 ? next : getHeight();
+    }
+
+    // The text views update after this listener runs, so the work is deferred
+    // and several events in one EDT turn collapse into one refresh
+    private void linesChanged(DocumentEvent e) {
+        int line = e.getDocument().getDefaultRootElement().getElementIndex(e.getOffset());
+        if (pendingLine < 0) {
+            SwingUtilities.invokeLater(this::applyPendingChanges);
+            pendingLine = line;
+        } else {
+            pendingLine = Math.min(pendingLine, line);
+        }
+    }
+
+    private void applyPendingChanges() {
+        int line = pendingLine;
+        pendingLine = -1;
+        if (line < 0) return;
+
+        int oldCount = lineCount;
+        lineCount = geometry.getLineCount();
+        int newDigits = String.valueOf(lineCount).length();
+        if (newDigits != digits) {
+            digits = newDigits;
+            revalidate();
+        }
+
+        int nextBefore = cachedLineY(line + 1);
+        invalidateFrom(line);
+        if (lineCount == oldCount && nextBefore != UNKNOWN && nextBefore == lineY(line + 1)) {
+            // The edit stayed inside one line box; no number moved
+            return;
+        }
+
+        Rectangle visible = geometry.getComponent().getVisibleRect();
+        int bottom = visible.y + visible.height;
+        int top = lineY(Math.min(line, lineCount - 1));
+        if (top < visible.y) top = visible.y;
+        if (top < bottom) {
+            repaint(0, top, getWidth(), bottom - top);
+        }
+    }
+
+    private int cachedLineY(int line) {
+        int slot = line - cacheFirst;
+        return slot >= 0 && slot < cachedY.length ? cachedY[slot] : UNKNOWN;
+    }
+
+    private int lineY(int line) {
+        if (geometry.isScrollDependent()) return geometry.getLineY(line);
+        int slot = line - cacheFirst;
+        boolean inWindow = slot >= 0 && slot < cachedY.length;
+        if (inWindow && cachedY[slot] != UNKNOWN) return cachedY[slot];
+        int y = geometry.getLineY(line);
+        if (inWindow && y >= 0) cachedY[slot] = y;
+        return y;
+    }
+
+    private void invalidateFrom(int line) {
+        int from = Math.max(0, line - cacheFirst);
+        if (from < cachedY.length) {
+            Arrays.fill(cachedY, from, cachedY.length, UNKNOWN);
+        }
+    }
+
+    // Re-centers the cache window when painting moves outside it, keeping the overlap
+    private void ensureCached(int firstLine, int lastLine) {
+        if (firstLine >= cacheFirst && lastLine < cacheFirst + cachedY.length) return;
+        int newFirst = Math.max(0, firstLine - CACHE_MARGIN_LINES);
+        int[] window = new int[lastLine - firstLine + 1 + 2 * CACHE_MARGIN_LINES];
+        Arrays.fill(window, UNKNOWN);
+        int overlapFrom = Math.max(newFirst, cacheFirst);
+        int overlapTo = Math.min(newFirst + window.length, cacheFirst + cachedY.length);
+        if (overlapFrom < overlapTo) {
+            System.arraycopy(cachedY, overlapFrom - cacheFirst, window, overlapFrom - newFirst,
+                    overlapTo - overlapFrom);
+        }
+        cachedY = window;
+        cacheFirst = newFirst;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        EditorEvents.GutterPaint event = new EditorEvents.GutterPaint();
+        event.begin();
+        Graphics2D g2 = (Graphics2D) g;
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) clip = getVisibleRect();
+
+        g2.setColor(getBackground());
+        g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        double scale = g2.getTransform().getScaleX();
+        if (atlas == null || !atlas.matches(scale)) {
+            atlas = new DigitAtlas(font, EditorConstants.COLOR_COMMENT, getFontMetrics(font), scale);
+        }
+
+        int count = geometry.getLineCount();
+        int startLine = Math.max(0, geometry.getLineAt(clip.y));
+        int endLine = Math.min(count - 1, geometry.getLineAt(clip.y + clip.height) + 1);
+        if (endLine < startLine) return;
+        ensureCached(startLine, endLine);
+
+        if (blockFirst >= 0 && blockFirst <= endLine && blockLast >= startLine && blockLast < count) {
+            int top = blockFirst < startLine ? clip.y : lineY(blockFirst);
+            int bottom = blockLast < endLine ? blockBottom() : clip.y + clip.height;
+            if (top >= 0 && bottom > top) {
+                g2.setColor(EditorConstants.COLOR_BLOCK_BAR);
+                g2.fillRect(0, top, BLOCK_BAR_WIDTH, bottom - top);
+            }
+        }
+
+        int right = getWidth() - MARGIN;
+        for (int i = startLine; i <= endLine; i++) {
+            int lineY = lineY(i);
+            if (lineY >= 0) {
+                atlas.draw(g2, i + 1, right, lineY);
+            }
+        }
+        if (event.shouldCommit()) {
+            event.firstLine = startLine;
+            event.lastLine = endLine;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int width = digitWidth * Math.max(3, digits) + 2 * MARGIN;
+        return new Dimension(width, geometry.getComponent().getHeight());
+    }
+}
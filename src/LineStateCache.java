@@ -0,0 +1,85 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import java.util.Arrays;
+
+public class LineStateCache {
+    private int[] exitStates = new int[256];
+    private final LineBitSet dirty = new LineBitSet();
+    private Document document;
+    private Language language;
+    private int lineCount;
+
+    public boolean isValidFor(Document doc, Language language) {
+        return doc == document && language == this.language;
+    }
+
+    public void reset(Document doc, Language language) {
+        this.document = doc;
+        this.language = language;
+        lineCount = doc.getDefaultRootElement().getElementCount();
+        ensureCapacity(lineCount);
+        Arrays.fill(exitStates, 0, lineCount, 0);
+        dirty.setSize(lineCount);
+        dirty.clearAll();
+        dirty.set(0, lineCount);
+    }
+
+    public void invalidate() {
+        document = null;
+        language = null;
+    }
+
+    public Language getLanguage() {
+        return language;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public LineBitSet getDirtyLines() {
+        return dirty;
+    }
+
+    public int getEntryState(int line) {
+        return line <= 0 ? 0 : exitStates[line - 1];
+    }
+
+    // Returns true when the new exit state differs from the cached one
+    public boolean setExitState(int line, int state) {
+        boolean changed = exitStates[line] != state;
+        exitStates[line] = state;
+        dirty.clear(line);
+        return changed;
+    }
+
+    public void documentChanged(DocumentEvent e) {
+        if (e.getDocument() != document) return;
+        Element root = document.getDefaultRootElement();
+        int newCount = root.getElementCount();
+        int delta = newCount - lineCount;
+        int firstLine = root.getElementIndex(e.getOffset());
+
+        if (delta > 0) {
+            ensureCapacity(newCount);
+            System.arraycopy(exitStates, firstLine + 1, exitStates, firstLine + 1 + delta, lineCount - firstLine - 1);
+            dirty.insertLines(firstLine + 1, delta);
+        } else if (delta < 0) {
+            System.arraycopy(exitStates, firstLine + 1 - delta, exitStates, firstLine + 1, newCount - firstLine - 1);
+            dirty.removeLines(firstLine + 1, -delta);
+        }
+        lineCount = newCount;
+
+        int lastLine = e.getType() == DocumentEvent.EventType.INSERT
+                ? root.getElementIndex(e.getOffset() + e.getLength())
+                : firstLine;
+        dirty.set(firstLine, lastLine + 1);
+    }
+
+    private void ensureCapacity(int lines) {
+        if (lines > exitStates.length) {
+            exitStates = Arrays.copyOf(exitStates, Math.max(lines, exitStates.length * 2));
+        }
+    }
+}
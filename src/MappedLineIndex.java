@@ -0,0 +1,176 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+// Read-only view of a memory-mapped file with a sparse line-offset index.
+// Only every ANCHOR_INTERVAL-th newline is recorded, so the index stays small
+// for any file size; lines in between are found by a short forward scan.
+public class MappedLineIndex implements Closeable {
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+    private static final int ANCHOR_INTERVAL = 1024;
+    private static final int MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int PROGRESS_STEP = 16 * 1024 * 1024;
+    public static final int MAX_LINE_CHARS = 4096;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long size;
+    private final Charset charset;
+
+    private long[] chunkBase;
+    private int[] chunkCount;
+    private long[][] chunkAnchors;
+    private long lineCount;
+
+    public MappedLineIndex(File file) throws IOException {
+        this(file, StandardCharsets.UTF_8, scanned -> { }, () -> false);
+    }
+
+    // progress receives the bytes scanned so far, from the scanning threads. Once cancelled
+    // returns true the scan stops and the constructor throws CancellationException.
+    public MappedLineIndex(File file, Charset charset, LongConsumer progress, BooleanSupplier cancelled)
+            throws IOException {
+        this.file = file;
+        this.charset = charset;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        int regionCount = (int) ((size + REGION_SIZE - 1) >>> REGION_SHIFT);
+        regions = new MappedByteBuffer[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            long start = (long) i << REGION_SHIFT;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+        }
+        try {
+            buildIndex(progress, cancelled);
+        } catch (CancellationException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public long getLineStart(long line) {
+        if (line <= 0) return 0;
+        // Line L starts right after the L-th newline
+        int chunk = findChunk(line);
+        long local = line - chunkBase[chunk] - 1;
+        long pos = chunkAnchors[chunk][(int) (local / ANCHOR_INTERVAL)];
+        for (long skip = local % ANCHOR_INTERVAL; skip > 0; skip--) {
+            pos = nextNewline(pos + 1);
+        }
+        return pos + 1;
+    }
+
+    // Decodes one line without its terminator, truncated to MAX_LINE_CHARS
+    public String getLine(long line) {
+        long start = getLineStart(line);
+        long end = Math.min(size, start + MAX_LINE_CHARS * 4L);
+        long newline = nextNewline(start, end);
+        if (newline >= 0) end = newline;
+        if (end > start && byteAt(end - 1) == '\r') end--;
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        String text = new String(bytes, charset);
+        return text.length() > MAX_LINE_CHARS ? text.substring(0, MAX_LINE_CHARS) : text;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void buildIndex(LongConsumer progress, BooleanSupplier cancelled) {
+        int chunks = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4L,
+                size / MIN_CHUNK_SIZE));
+        long chunkSize = (size + chunks - 1) / chunks;
+        chunkCount = new int[chunks];
+        chunkAnchors = new long[chunks][];
+        AtomicLong scanned = new AtomicLong();
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            long from = Math.min(size, c * chunkSize);
+            long to = Math.min(size, from + chunkSize);
+            long[] anchors = new long[16];
+            int count = 0;
+            for (long step = from; step < to && !cancelled.getAsBoolean(); step += PROGRESS_STEP) {
+                long stepEnd = Math.min(to, step + PROGRESS_STEP);
+                for (long pos = step; pos < stepEnd; pos++) {
+                    if (byteAt(pos) == '\n') {
+                        if (count % ANCHOR_INTERVAL == 0) {
+                            int slot = count / ANCHOR_INTERVAL;
+                            if (slot == anchors.length) anchors = Arrays.copyOf(anchors, slot * 2);
+                            anchors[slot] = pos;
+                        }
+                        count++;
+                    }
+                }
+                progress.accept(scanned.addAndGet(stepEnd - step));
+            }
+            chunkCount[c] = count;
+            chunkAnchors[c] = anchors;
+        });
+        if (cancelled.getAsBoolean()) throw new CancellationException();
+
+        chunkBase = new long[chunks];
+        long total = 0;
+        for (int c = 0; c < chunks; c++) {
+            chunkBase[c] = total;
+            total += chunkCount[c];
+        }
+        lineCount = total + 1;
+    }
+
+    private int findChunk(long line) {
+        int low = 0;
+        int high = chunkBase.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunkBase[mid] < line) low = mid;
+            else high = mid - 1;
+        }
+        while (low > 0 && chunkCount[low] == 0) low--;
+        return low;
+    }
+
+    private long nextNewline(long from) {
+        long pos = nextNewline(from, size);
+        return pos < 0 ? size : pos;
+    }
+
+    private long nextNewline(long from, long to) {
+        for (long pos = from; pos < to; pos++) {
+            if (byteAt(pos) == '\n') return pos;
+        }
+        return -1;
+    }
+
+    private byte byteAt(long pos) {
+        return regions[(int) (pos >>> REGION_SHIFT)].get((int) (pos & (REGION_SIZE - 1)));
+    }
+}
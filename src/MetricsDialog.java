@@ -0,0 +1,106 @@
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Live performance numbers, opened by clicking the status bar. Refreshes twice a
+// second while visible; nothing is computed while it is closed.
+public class MetricsDialog extends JDialog {
+    private static final int REFRESH_MILLIS = 500;
+
+    private final EditorMetrics metrics;
+    private final Supplier<List<KissEditor.EditorTab>> tabs;
+    private final JLabel summary = new JLabel();
+    private final DefaultTableModel model = new DefaultTableModel(
+            new Object[] { "Вкладка", "Язык", "Проходов/с", "Выполнено", "Запрошено", "Средний проход, мс" }, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final Map<KissEditor.EditorTab, Long> lastPasses = new HashMap<>();
+    private final Timer timer;
+    private long lastRefresh = System.nanoTime();
+
+    public MetricsDialog(Frame owner, EditorMetrics metrics, Supplier<List<KissEditor.EditorTab>> tabs) {
+        super(owner, "Производительность", false);
+        this.metrics = metrics;
+        this.tabs = tabs;
+
+        summary.setFont(new Font("Poppins", Font.PLAIN, 13));
+        summary.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        JTable table = new JTable(model);
+        table.setFont(new Font("Poppins", Font.PLAIN, 12));
+        table.setFillsViewportHeight(true);
+
+        JPanel content = new JPanel(new BorderLayout());
+        content.setBackground(EditorConstants.COLOR_BACKGROUND);
+        content.add(summary, BorderLayout.NORTH);
+        content.add(new JScrollPane(table), BorderLayout.CENTER);
+        setContentPane(content);
+        setSize(720, 320);
+        setLocationRelativeTo(owner);
+
+        timer = new Timer(REFRESH_MILLIS, e -> refresh());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                timer.stop();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+            }
+        });
+    }
+
+    // Shows the dialog and restarts the refresh timer, which stops whenever it is closed
+    public void showDialog() {
+        lastPasses.clear();
+        lastRefresh = System.nanoTime();
+        refresh();
+        timer.start();
+        setVisible(true);
+        toFront();
+    }
+
+    private void refresh() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastRefresh) / 1e9);
+        lastRefresh = now;
+
+        summary.setText(String.format("<html>Нажатие → отрисовка: p50 %.1f мс, p99 %.1f мс (%d нажатий)<br>"
+                        + "Зависания EDT &gt; %d мс: %d, максимум %.0f мс</html>",
+                metrics.getKeystrokePercentile(50), metrics.getKeystrokePercentile(99), metrics.getKeystrokeCount(),
+                EdtMonitor.STALL_THRESHOLD_MILLIS, metrics.getStallCount(), metrics.getMaxStallMillis()));
+
+        List<KissEditor.EditorTab> current = tabs.get();
+        lastPasses.keySet().retainAll(current);
+        model.setRowCount(0);
+        for (KissEditor.EditorTab tab : current) {
+            String name = tab.file != null ? tab.file.getName() : "Untitled";
+            HighlightScheduler scheduler = tab.highlightScheduler;
+            if (scheduler == null) {
+                model.addRow(new Object[] { name, "—", "—", "—", "—", "—" });
+                continue;
+            }
+            long executed = scheduler.getExecutedPasses();
+            Long previous = lastPasses.put(tab, executed);
+            double rate = previous == null ? 0 : (executed - previous) / seconds;
+            model.addRow(new Object[] {
+                    name,
+                    tab.language != null ? tab.language.getName() : "—",
+                    String.format("%.1f", rate),
+                    executed,
+                    scheduler.getRequestedPasses(),
+                    String.format("%.2f", scheduler.getAveragePassMillis())
+            });
+        }
+    }
+}
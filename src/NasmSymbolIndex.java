@@ -0,0 +1,571 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.*;
+
+// Symbols of one NASM document: label definitions (with or without ':'), local
+// ".labels" qualified by the preceding non-local label, equ constants, %define/%macro
+// names, global/extern declarations and the targets of jump and call instructions.
+//
+// Only lines that carry symbols get an entry; entries sit in a line-indexed array that
+// shifts with the document like LineStateCache, and every symbol name maps to the sets
+// of entries defining and referencing it. An edit re-scans just the lines it touched
+// (plus, when the local-label scope changed, the entries up to the next label), and
+// undefined jump targets are pushed to the error highlighter line by line.
+public class NasmSymbolIndex {
+    public static final byte LABEL = 0;
+    public static final byte LOCAL_LABEL = 1;
+    public static final byte CONSTANT = 2;
+    public static final byte MACRO = 3;
+    public static final byte EXTERN = 4;
+    public static final byte GLOBAL = 5;
+    public static final byte JUMP = 6;
+
+    private static final int MAX_INCLUDED_FILES = 256;
+
+    private static final Set<String> JUMPS = new HashSet<>(Arrays.asList(
+            "jmp", "call", "loop", "loope", "loopne", "loopz", "loopnz", "jcxz", "jecxz", "jrcxz"));
+    private static final Set<String> JUMP_QUALIFIERS = new HashSet<>(Arrays.asList(
+            "short", "near", "far", "strict", "word", "dword", "qword"));
+    private static final Set<String> PREFIXES = new HashSet<>(Arrays.asList(
+            "lock", "rep", "repe", "repz", "repne", "repnz", "bnd", "notrack", "o16", "o32", "o64", "a16", "a32", "a64"));
+    private static final Set<String> DATA = new HashSet<>(Arrays.asList(
+            "db", "dw", "dd", "dq", "dt", "do", "dy", "dz", "resb", "resw", "resd", "resq", "rest", "reso",
+            "resy", "resz", "equ", "times", "incbin"));
+    private static final Set<String> MACRO_DIRECTIVES = new HashSet<>(Arrays.asList(
+            "%define", "%xdefine", "%idefine", "%ixdefine", "%assign", "%iassign", "%macro", "%imacro"));
+    private static final Set<String> REGISTERS = new HashSet<>(Arrays.asList(
+            "al", "ah", "ax", "eax", "rax", "bl", "bh", "bx", "ebx", "rbx", "cl", "ch", "cx", "ecx", "rcx",
+            "dl", "dh", "dx", "edx", "rdx", "sil", "si", "esi", "rsi", "dil", "di", "edi", "rdi",
+            "spl", "sp", "esp", "rsp", "bpl", "bp", "ebp", "rbp", "ip", "eip", "rip"));
+
+    static {
+        for (String cc : new String[] {"a", "ae", "b", "be", "c", "e", "g", "ge", "l", "le", "na", "nae", "nb",
+                "nbe", "nc", "ne", "ng", "nge", "nl", "nle", "no", "np", "ns", "nz", "o", "p", "pe", "po", "s", "z"}) {
+            JUMPS.add("j" + cc);
+        }
+        for (int r = 8; r < 16; r++) {
+            for (String suffix : new String[] {"", "b", "w", "d"}) REGISTERS.add("r" + r + suffix);
+        }
+    }
+
+    // Symbols of one line; keys are the names as stored in the maps (locals qualified)
+    static final class Entry {
+        Position start;
+        String[] names;
+        byte[] kinds;
+        String[] keys;
+        String include;
+        String scope;
+
+        // The label that local labels on the following lines belong to
+        String endScope() {
+            String end = scope;
+            for (int i = 0; i < names.length; i++) {
+                if (kinds[i] == LABEL && !names[i].startsWith("..")) end = names[i];
+            }
+            return end;
+        }
+
+        String target() {
+            for (int i = 0; i < kinds.length; i++) {
+                if (kinds[i] == JUMP) return keys[i];
+            }
+            return null;
+        }
+    }
+
+    private static final class Symbol {
+        final Set<Entry> definitions = new HashSet<>();
+        final Set<Entry> references = new HashSet<>();
+        // Definedness last pushed to the error highlighter
+        boolean published;
+    }
+
+    private Document document;
+    private ErrorLineHighlighter errors;
+    private final Map<String, Symbol> symbols = new HashMap<>();
+    private final Map<String, Integer> includes = new LinkedHashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+    private Set<String> included = Collections.emptySet();
+    private Entry[] lines;
+    private int lineCount;
+    private int includeVersion = 1;
+
+    // Full scan of a text snapshot; may run off the EDT, nothing else is usable before attach()
+    public NasmSymbolIndex(CharSequence text) {
+        Entry[] scanned = scanLines(text);
+        lineCount = scanned.length;
+        lines = Arrays.copyOf(scanned, Math.max(64, lineCount));
+        for (Entry entry : scanned) {
+            if (entry != null) register(entry);
+        }
+        dirty.clear();
+    }
+
+    // Binds the index to the document the text came from, still at the same edit generation;
+    // an extra line for the snapshot's implicit final newline is dropped
+    public void attach(Document document, ErrorLineHighlighter errors) {
+        this.document = document;
+        this.errors = errors;
+        Element root = document.getDefaultRootElement();
+        int count = root.getElementCount();
+        ensureCapacity(count);
+        for (int line = count; line < lineCount; line++) {
+            if (lines[line] != null) unregister(lines[line]);
+            lines[line] = null;
+        }
+        lineCount = count;
+        IntList undefined = new IntList();
+        try {
+            for (int line = 0; line < lineCount; line++) {
+                Entry entry = lines[line];
+                if (entry == null) continue;
+                entry.start = document.createPosition(root.getElement(line).getStartOffset());
+                if (isUndefined(entry)) undefined.add(line);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        for (Map.Entry<String, Symbol> symbol : symbols.entrySet()) {
+            symbol.getValue().published = isDefined(symbol.getKey(), symbol.getValue());
+        }
+        dirty.clear();
+        errors.setErrorLines(undefined.toArray());
+    }
+
+    // Entries of every '\n'-separated line with local labels already scoped
+    private static Entry[] scanLines(CharSequence text) {
+        List<Entry> result = new ArrayList<>();
+        String scope = null;
+        int start = 0;
+        while (true) {
+            int end = start;
+            while (end < text.length() && text.charAt(end) != '\n') end++;
+            Entry entry = scan(text, start, end, scope);
+            if (entry != null) scope = entry.endScope();
+            result.add(entry);
+            if (end >= text.length()) break;
+            start = end + 1;
+        }
+        return result.toArray(new Entry[0]);
+    }
+
+    // Call after errors.documentChanged(e) so marker lines already follow the edit
+    public void documentChanged(DocumentEvent e) {
+        if (e.getDocument() != document) return;
+        Element root = document.getDefaultRootElement();
+        int newCount = root.getElementCount();
+        int delta = newCount - lineCount;
+        int firstLine = root.getElementIndex(e.getOffset());
+        int oldLast = Math.min(lineCount - 1, firstLine + Math.max(0, -delta));
+
+        String scope = scopeBefore(firstLine);
+        String oldEnd = scope;
+        for (int line = firstLine; line <= oldLast; line++) {
+            Entry entry = lines[line];
+            if (entry == null) continue;
+            unregister(entry);
+            oldEnd = entry.endScope();
+            lines[line] = null;
+        }
+
+        if (delta > 0) {
+            ensureCapacity(newCount);
+            System.arraycopy(lines, firstLine + 1, lines, firstLine + 1 + delta, lineCount - firstLine - 1);
+            Arrays.fill(lines, firstLine + 1, firstLine + 1 + delta, null);
+        } else if (delta < 0) {
+            System.arraycopy(lines, firstLine + 1 - delta, lines, firstLine + 1, newCount - firstLine - 1);
+            Arrays.fill(lines, newCount, lineCount, null);
+        }
+        lineCount = newCount;
+
+        int newLast = Math.min(newCount - 1, firstLine + Math.max(0, delta));
+        try {
+            int from = root.getElement(firstLine).getStartOffset();
+            int to = root.getElement(newLast).getEndOffset();
+            String text = document.getText(from, Math.min(to, document.getLength()) - from);
+            for (int line = firstLine; line <= newLast; line++) {
+                Element element = root.getElement(line);
+                int end = Math.min(element.getEndOffset() - from, text.length());
+                Entry entry = scan(text, element.getStartOffset() - from, end, scope);
+                if (entry != null) {
+                    entry.start = document.createPosition(element.getStartOffset());
+                    lines[line] = entry;
+                    register(entry);
+                    scope = entry.endScope();
+                }
+            }
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+
+        // A renamed, added or removed label moves the locals below it into another scope
+        if (!Objects.equals(oldEnd, scope)) {
+            for (int line = newLast + 1; line < lineCount; line++) {
+                Entry entry = lines[line];
+                if (entry == null) continue;
+                if (Objects.equals(entry.scope, scope)) break;
+                unregister(entry);
+                entry.scope = scope;
+                register(entry);
+                errors.setErrorLine(line, isUndefined(entry));
+                scope = entry.endScope();
+            }
+        }
+
+        for (int line = firstLine; line <= newLast; line++) {
+            errors.setErrorLine(line, lines[line] != null && isUndefined(lines[line]));
+        }
+        publish();
+    }
+
+    // Definitions of names pulled in through %include; replaces the previous set
+    public void setIncludedSymbols(Set<String> names) {
+        Set<String> previous = included;
+        included = names;
+        for (String name : previous) {
+            if (symbols.containsKey(name)) dirty.add(name);
+        }
+        for (String name : names) {
+            if (symbols.containsKey(name)) dirty.add(name);
+        }
+        publish();
+    }
+
+    // Changes whenever a %include line is added or removed
+    public int getIncludeVersion() {
+        return includeVersion;
+    }
+
+    public List<String> getIncludes() {
+        return new ArrayList<>(includes.keySet());
+    }
+
+    // Sorted 0-based lines defining the name as seen from the given line; locals resolve in its scope
+    public int[] findDefinitions(String name, int line) {
+        Symbol symbol = symbols.get(key(name, scopeAt(line)));
+        return symbol != null ? linesOf(symbol.definitions) : new int[0];
+    }
+
+    // Jump/call targets and global declarations of the name
+    public int[] findReferences(String name, int line) {
+        Symbol symbol = symbols.get(key(name, scopeAt(line)));
+        return symbol != null ? linesOf(symbol.references) : new int[0];
+    }
+
+    public int getSymbolCount() {
+        return symbols.size();
+    }
+
+    public static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$' || c == '#' || c == '@'
+                || c == '~' || c == '?';
+    }
+
+    // Names defined by the included files and, transitively, their own includes. Blocking.
+    public static Set<String> includedDefinitions(Path dir, Collection<String> includeNames) {
+        Set<String> names = new HashSet<>();
+        Set<Path> visited = new HashSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        for (String include : includeNames) {
+            Path file = resolve(dir, include);
+            if (file != null) pending.add(file);
+        }
+        while (!pending.isEmpty() && visited.size() < MAX_INCLUDED_FILES) {
+            Path file = pending.poll();
+            if (!visited.add(file) || !Files.isRegularFile(file)) continue;
+            String text;
+            try {
+                text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                continue;
+            }
+            for (Entry entry : scanLines(text)) {
+                if (entry == null) continue;
+                for (int i = 0; i < entry.kinds.length; i++) {
+                    if (entry.kinds[i] < GLOBAL) names.add(key(entry.names[i], entry.scope));
+                }
+                Path nested = entry.include != null ? resolve(file.getParent(), entry.include) : null;
+                if (nested != null) pending.add(nested);
+            }
+        }
+        return names;
+    }
+
+    private static Path resolve(Path dir, String include) {
+        try {
+            return dir.resolve(include).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private void register(Entry entry) {
+        entry.keys = new String[entry.names.length];
+        for (int i = 0; i < entry.names.length; i++) {
+            String key = key(entry.names[i], entry.scope);
+            entry.keys[i] = key;
+            Symbol symbol = symbols.get(key);
+            if (symbol == null) {
+                symbol = new Symbol();
+                symbol.published = included.contains(key);
+                symbols.put(key, symbol);
+            }
+            if (entry.kinds[i] < GLOBAL) {
+                if (symbol.definitions.add(entry)) dirty.add(key);
+            } else {
+                symbol.references.add(entry);
+            }
+        }
+        if (entry.include != null && includes.merge(entry.include, 1, Integer::sum) == 1) includeVersion++;
+    }
+
+    private void unregister(Entry entry) {
+        for (int i = 0; i < entry.keys.length; i++) {
+            String key = entry.keys[i];
+            Symbol symbol = symbols.get(key);
+            if (symbol == null) continue;
+            if (entry.kinds[i] < GLOBAL) {
+                if (symbol.definitions.remove(entry)) dirty.add(key);
+            } else {
+                symbol.references.remove(entry);
+            }
+            if (symbol.definitions.isEmpty() && symbol.references.isEmpty()) {
+                symbols.remove(key);
+                dirty.remove(key);
+            }
+        }
+        if (entry.include != null && includes.merge(entry.include, -1, Integer::sum) == 0) {
+            includes.remove(entry.include);
+            includeVersion++;
+        }
+    }
+
+    // Re-marks the jump lines of every name whose definedness flipped since the last publish
+    private void publish() {
+        Element root = document.getDefaultRootElement();
+        for (String key : dirty) {
+            Symbol symbol = symbols.get(key);
+            if (symbol == null) continue;
+            boolean defined = isDefined(key, symbol);
+            if (defined == symbol.published) continue;
+            symbol.published = defined;
+            for (Entry entry : symbol.references) {
+                if (key.equals(entry.target())) {
+                    errors.setErrorLine(root.getElementIndex(entry.start.getOffset()), !defined);
+                }
+            }
+        }
+        dirty.clear();
+    }
+
+    private boolean isUndefined(Entry entry) {
+        String target = entry.target();
+        return target != null && !isDefined(target, symbols.get(target));
+    }
+
+    private boolean isDefined(String key, Symbol symbol) {
+        return (symbol != null && !symbol.definitions.isEmpty()) || included.contains(key);
+    }
+
+    private String scopeBefore(int line) {
+        for (int i = Math.min(line, lineCount) - 1; i >= 0; i--) {
+            if (lines[i] != null) return lines[i].endScope();
+        }
+        return null;
+    }
+
+    // Scope in effect on a line, counting a label defined on that line itself
+    private String scopeAt(int line) {
+        if (line >= 0 && line < lineCount && lines[line] != null) return lines[line].endScope();
+        return scopeBefore(line);
+    }
+
+    private int[] linesOf(Set<Entry> entries) {
+        Element root = document.getDefaultRootElement();
+        int[] result = new int[entries.size()];
+        int count = 0;
+        for (Entry entry : entries) {
+            result[count++] = root.getElementIndex(entry.start.getOffset());
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count > lines.length) {
+            lines = Arrays.copyOf(lines, Math.max(count, lines.length * 2));
+        }
+    }
+
+    private static String key(String name, String scope) {
+        boolean local = name.startsWith(".") && !name.startsWith("..");
+        return local && scope != null ? scope + name : name;
+    }
+
+    // Parses text[start, end) as one source line; null when it has no symbols
+    static Entry scan(CharSequence text, int start, int end, String scope) {
+        List<String> names = new ArrayList<>(2);
+        List<Byte> kinds = new ArrayList<>(2);
+        String include = null;
+        int pos = skipSpace(text, start, end);
+        if (pos < end && text.charAt(pos) == '[') pos = skipSpace(text, pos + 1, end);
+
+        if (pos < end && text.charAt(pos) == '%') {
+            int wordEnd = nameEnd(text, pos + 1, end);
+            String directive = text.subSequence(pos, wordEnd).toString().toLowerCase(Locale.ROOT);
+            pos = skipSpace(text, wordEnd, end);
+            if (MACRO_DIRECTIVES.contains(directive)) {
+                String name = name(text, pos, end);
+                if (name != null) {
+                    names.add(name);
+                    kinds.add(MACRO);
+                }
+            } else if (directive.equals("%include")) {
+                include = includePath(text, pos, end);
+            }
+            return entry(names, kinds, include, scope);
+        }
+
+        int firstPos = pos;
+        String first = name(text, pos, end);
+        if (first == null) return null;
+        pos = skipSpace(text, pos + first.length(), end);
+        String word;
+        if (pos < end && text.charAt(pos) == ':') {
+            names.add(first);
+            kinds.add(labelKind(first));
+            pos = skipSpace(text, pos + 1, end);
+            word = name(text, pos, end);
+            if (word != null && word.equalsIgnoreCase("equ")) kinds.set(0, CONSTANT);
+        } else {
+            String second = name(text, pos, end);
+            String lower = first.toLowerCase(Locale.ROOT);
+            if (second != null && DATA.contains(second.toLowerCase(Locale.ROOT)) && !DATA.contains(lower)
+                    && !JUMPS.contains(lower) && !PREFIXES.contains(lower)) {
+                names.add(first);
+                kinds.add(second.equalsIgnoreCase("equ") ? CONSTANT : labelKind(first));
+                word = second;
+            } else {
+                word = first;
+                pos = firstPos;
+            }
+        }
+        if (word == null) return entry(names, kinds, include, scope);
+
+        String lower = word.toLowerCase(Locale.ROOT);
+        pos = skipSpace(text, pos + word.length(), end);
+        while (PREFIXES.contains(lower)) {
+            word = name(text, pos, end);
+            if (word == null) return entry(names, kinds, include, scope);
+            lower = word.toLowerCase(Locale.ROOT);
+            pos = skipSpace(text, pos + word.length(), end);
+        }
+
+        if (JUMPS.contains(lower)) {
+            String target = name(text, pos, end);
+            while (target != null && JUMP_QUALIFIERS.contains(target.toLowerCase(Locale.ROOT))) {
+                pos = skipSpace(text, pos + target.length(), end);
+                target = name(text, pos, end);
+            }
+            if (target != null && !REGISTERS.contains(target.toLowerCase(Locale.ROOT))
+                    && !target.equals("$") && !target.equals("$$")) {
+                names.add(target);
+                kinds.add(JUMP);
+            }
+        } else if (lower.equals("global") || lower.equals("extern") || lower.equals("common")) {
+            byte kind = lower.equals("global") ? GLOBAL : EXTERN;
+            while (pos < end) {
+                String name = name(text, pos, end);
+                if (name == null) break;
+                names.add(name);
+                kinds.add(kind);
+                pos = nameEnd(text, pos, end);
+                // Skip a ":function"-style type suffix or a common size up to the next comma
+                while (pos < end && text.charAt(pos) != ',' && text.charAt(pos) != ';') pos++;
+                if (pos >= end || text.charAt(pos) != ',') break;
+                pos = skipSpace(text, pos + 1, end);
+            }
+        } else if (lower.equals("struc")) {
+            String name = name(text, pos, end);
+            if (name != null) {
+                names.add(name);
+                kinds.add(LABEL);
+            }
+        }
+        return entry(names, kinds, include, scope);
+    }
+
+    private static Entry entry(List<String> names, List<Byte> kinds, String include, String scope) {
+        if (names.isEmpty() && include == null) return null;
+        Entry entry = new Entry();
+        entry.names = names.toArray(new String[0]);
+        entry.kinds = new byte[kinds.size()];
+        for (int i = 0; i < entry.kinds.length; i++) {
+            entry.kinds[i] = kinds.get(i);
+        }
+        entry.keys = new String[0];
+        entry.include = include;
+        entry.scope = scope;
+        return entry;
+    }
+
+    private static byte labelKind(String name) {
+        return name.startsWith(".") && !name.startsWith("..") ? LOCAL_LABEL : LABEL;
+    }
+
+    // A symbol name at pos, or null for numbers, punctuation and the end of the line
+    private static String name(CharSequence text, int pos, int end) {
+        if (pos >= end) return null;
+        char c = text.charAt(pos);
+        if (!isNameChar(c) || Character.isDigit(c)) return null;
+        return text.subSequence(pos, nameEnd(text, pos, end)).toString();
+    }
+
+    private static int nameEnd(CharSequence text, int pos, int end) {
+        while (pos < end && isNameChar(text.charAt(pos))) pos++;
+        return pos;
+    }
+
+    private static int skipSpace(CharSequence text, int pos, int end) {
+        while (pos < end && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t')) pos++;
+        return pos;
+    }
+
+    private static String includePath(CharSequence text, int pos, int end) {
+        if (pos >= end) return null;
+        char quote = text.charAt(pos);
+        if (quote == '"' || quote == '\'' || quote == '<') {
+            char close = quote == '<' ? '>' : quote;
+            for (int i = pos + 1; i < end; i++) {
+                if (text.charAt(i) == close) return i > pos + 1 ? text.subSequence(pos + 1, i).toString() : null;
+            }
+            return null;
+        }
+        int stop = pos;
+        while (stop < end && text.charAt(stop) > ' ' && text.charAt(stop) != ';') stop++;
+        return stop > pos ? text.subSequence(pos, stop).toString() : null;
+    }
+
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
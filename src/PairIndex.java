@@ -0,0 +1,440 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Document;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Brainfuck brackets and BASIC FOR/NEXT, WHILE/WEND, DO/LOOP of a whole document in one
+// implicit treap ordered by position. A node stores its line as the gap to the previous
+// token plus its column, so inserting or removing lines only adjusts the gap of the first
+// token below the edit. Subtree aggregates (sum of +1 opens / -1 closes, minimum prefix,
+// maximum suffix) find a partner, the enclosing block or the unmatched count in O(log n).
+//
+// Tokens come from the highlight pass: the worker extracts them from the style runs of
+// each lexed line and prepares them as a subtree, and replaceLines() swaps that in on the
+// EDT together with the styles. Lines touched by an edit lose their tokens until that
+// pass re-lexes them, so columns are never stale.
+public class PairIndex {
+    public static final int BRACKET_OPEN = 1;
+    public static final int BRACKET_CLOSE = 2;
+    public static final int FOR = 3;
+    public static final int NEXT = 4;
+    public static final int WHILE = 5;
+    public static final int WEND = 6;
+    public static final int DO = 7;
+    public static final int LOOP = 8;
+
+    // Indexed by kind: +type for openers, -type for closers
+    private static final int[] TYPES = { 0, 1, -1, 2, -2, 3, -3, 4, -4 };
+    private static final String[] TEXTS = { "", "[", "]", "FOR", "NEXT", "WHILE", "WEND", "DO", "LOOP" };
+
+    public static class Token {
+        public final int line;
+        public final int column;
+        public final int kind;
+
+        Token(int line, int column, int kind) {
+            this.line = line;
+            this.column = column;
+            this.kind = kind;
+        }
+
+        public int getLength() {
+            return TEXTS[kind].length();
+        }
+
+        public String getText() {
+            return TEXTS[kind];
+        }
+
+        public boolean isOpen() {
+            return TYPES[kind] > 0;
+        }
+    }
+
+    private static final class Node {
+        final int column;
+        final int kind;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int gap;
+        Node left, right;
+        int size, lines, sum, minPrefix, maxSuffix;
+
+        Node(int gap, int column, int kind) {
+            this.gap = gap;
+            this.column = column;
+            this.kind = kind;
+        }
+    }
+
+    private Node root;
+    private int lineCount = 1;
+
+    // Languages whose lexer output carries pairs
+    public static boolean supports(Language language) {
+        String name = language.getName();
+        return name.equals("brainfuck") || name.equals("basic");
+    }
+
+    public static boolean isOpen(int kind) {
+        return TYPES[kind] > 0;
+    }
+
+    public static boolean matches(int open, int close) {
+        return TYPES[open] == -TYPES[close];
+    }
+
+    public void reset(Document document) {
+        root = null;
+        lineCount = document.getDefaultRootElement().getElementCount();
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public int getTokenCount() {
+        return size(root);
+    }
+
+    // Openers without a closer plus closers without an opener, by depth alone
+    public int getUnmatchedCount() {
+        return root == null ? 0 : root.sum - 2 * root.minPrefix;
+    }
+
+    // Same line bookkeeping as LineStateCache.documentChanged; tokens of the lines the
+    // event touched are dropped until the highlight pass delivers them again
+    public void documentChanged(DocumentEvent e) {
+        int newCount = e.getDocument().getDefaultRootElement().getElementCount();
+        int delta = newCount - lineCount;
+        int firstLine = e.getDocument().getDefaultRootElement().getElementIndex(e.getOffset());
+        lineCount = newCount;
+        if (root == null) return;
+        int removed = Math.max(0, -delta);
+        Node[] head = splitByLine(root, firstLine, 0);
+        int base = lines(head[0]);
+        Node[] tail = splitByLine(head[1], firstLine + removed + 1, base);
+        if (tail[1] != null) {
+            int firstBelow = base + lines(tail[0]) + firstGap(tail[1]);
+            setFirstGap(tail[1], firstBelow + delta - base);
+        }
+        root = merge(head[0], tail[1]);
+    }
+
+    // Tokens of a run of lines, built into a detached treap by prepare() so that only
+    // the split and merge are left for replaceLines(); usable once
+    public static final class Lines {
+        final int firstLine;
+        final int lastLine;
+        final Node root;
+        final int firstTokenLine;
+        final int lastTokenLine;
+
+        Lines(int firstLine, int lastLine, Node root, int firstTokenLine, int lastTokenLine) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.root = root;
+            this.firstTokenLine = firstTokenLine;
+            this.lastTokenLine = lastTokenLine;
+        }
+    }
+
+    // lineTokens holds one [column, kind, column, kind, ...] array (or null) per line from
+    // firstLine on, as produced by extract(); safe to call off the EDT
+    public static Lines prepare(int firstLine, int[][] lineTokens) {
+        List<Node> nodes = new ArrayList<>();
+        int first = -1;
+        int previous = 0;
+        for (int i = 0; i < lineTokens.length; i++) {
+            int[] tokens = lineTokens[i];
+            if (tokens == null) continue;
+            for (int t = 0; t < tokens.length; t += 2) {
+                nodes.add(new Node(firstLine + i - previous, tokens[t], tokens[t + 1]));
+                previous = firstLine + i;
+                if (first < 0) first = previous;
+            }
+        }
+        return new Lines(firstLine, firstLine + lineTokens.length - 1, build(nodes), first, previous);
+    }
+
+    public void replaceLines(int firstLine, int[][] lineTokens) {
+        replaceLines(prepare(firstLine, lineTokens));
+    }
+
+    public void replaceLines(Lines lines) {
+        Node[] head = splitByLine(root, lines.firstLine, 0);
+        int base = lines(head[0]);
+        Node[] tail = splitByLine(head[1], lines.lastLine + 1, base);
+        int previous = base;
+        if (lines.root != null) {
+            setFirstGap(lines.root, lines.firstTokenLine - base);
+            previous = lines.lastTokenLine;
+        }
+        if (tail[1] != null) {
+            int firstBelow = base + lines(tail[0]) + firstGap(tail[1]);
+            setFirstGap(tail[1], firstBelow - previous);
+        }
+        root = merge(merge(head[0], lines.root), tail[1]);
+    }
+
+    // Rank of the token covering (line, column), or -1
+    public int tokenAt(int line, int column) {
+        int rank = countBefore(line, column + 1) - 1;
+        if (rank < 0) return -1;
+        Token token = get(rank);
+        return token.line == line && column < token.column + token.getLength() ? rank : -1;
+    }
+
+    // Rank of the partner found by depth, or -1 when the token is unbalanced
+    public int findMatch(int rank) {
+        int[] acc = new int[1];
+        return TYPES[get(rank).kind] > 0 ? forward(root, 0, rank + 1, acc) : backward(root, 0, rank, acc);
+    }
+
+    // Rank of the innermost opener before (line, column) that is not closed before it, or -1
+    public int findEnclosingOpen(int line, int column) {
+        return backward(root, 0, countBefore(line, column), new int[1]);
+    }
+
+    public Token get(int rank) {
+        Node node = root;
+        int base = 0;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                node = node.left;
+            } else {
+                int line = base + lines(node.left) + node.gap;
+                if (rank == leftSize) return new Token(line, node.column, node.kind);
+                rank -= leftSize + 1;
+                base = line;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    // Every unmatched or mismatched token in document order; a closer of the wrong type
+    // still closes the innermost opener, as the BASIC parser's block stack would report it
+    public List<Token> findUnbalanced() {
+        List<Token> result = new ArrayList<>();
+        List<Token> open = new ArrayList<>();
+        collect(root, 0, open, result);
+        result.addAll(open);
+        result.sort((a, b) -> a.line != b.line ? Integer.compare(a.line, b.line) : Integer.compare(a.column, b.column));
+        return result;
+    }
+
+    // Pair tokens of one lexed line: brackets in Brainfuck command runs, block keywords in
+    // BASIC keyword runs (EXIT FOR/WHILE/DO and DO/LOOP WHILE are not block delimiters)
+    static int[] extract(Language language, CharSequence text, int lineStart, StyleRuns runs, int fromRun) {
+        boolean brainfuck = language.getName().equals("brainfuck");
+        int style = brainfuck ? SyntaxHighlighter.STYLE_COMMAND : SyntaxHighlighter.STYLE_KEYWORD;
+        int[] tokens = null;
+        int count = 0;
+        for (int r = fromRun; r < runs.size(); r++) {
+            if (runs.getStyle(r) != style) continue;
+            int end = runs.getStart(r) + runs.getLength(r);
+            for (int i = runs.getStart(r); i < end; i++) {
+                int kind = 0;
+                int length = 1;
+                if (brainfuck) {
+                    char c = text.charAt(i);
+                    kind = c == '[' ? BRACKET_OPEN : c == ']' ? BRACKET_CLOSE : 0;
+                } else {
+                    if (i > lineStart && KeywordMatcher.isWordChar(text.charAt(i - 1))) continue;
+                    while (i + length < end && KeywordMatcher.isWordChar(text.charAt(i + length))) length++;
+                    kind = basicKind(text, lineStart, i, length);
+                }
+                if (kind != 0) {
+                    if (tokens == null) tokens = new int[8];
+                    else if (count == tokens.length) tokens = Arrays.copyOf(tokens, count * 2);
+                    tokens[count++] = i - lineStart;
+                    tokens[count++] = kind;
+                }
+                i += length - 1;
+            }
+        }
+        return tokens == null ? null : Arrays.copyOf(tokens, count);
+    }
+
+    private static int basicKind(CharSequence text, int lineStart, int start, int length) {
+        int kind = 0;
+        for (int k = FOR; k <= LOOP; k++) {
+            if (regionMatches(text, start, length, TEXTS[k])) kind = k;
+        }
+        if (kind == 0 || kind == NEXT || kind == WEND || kind == LOOP) return kind;
+        int end = start;
+        while (end > lineStart && (text.charAt(end - 1) == ' ' || text.charAt(end - 1) == '\t')) end--;
+        int begin = end;
+        while (begin > lineStart && KeywordMatcher.isWordChar(text.charAt(begin - 1))) begin--;
+        if (regionMatches(text, begin, end - begin, "EXIT")) return 0;
+        if (kind == WHILE && (regionMatches(text, begin, end - begin, "DO")
+                || regionMatches(text, begin, end - begin, "LOOP"))) return 0;
+        return kind;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, int length, String word) {
+        if (length != word.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (Character.toUpperCase(text.charAt(start + i)) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void collect(Node node, int base, List<Token> open, List<Token> result) {
+        if (node == null) return;
+        collect(node.left, base, open, result);
+        int line = base + lines(node.left) + node.gap;
+        Token token = new Token(line, node.column, node.kind);
+        if (TYPES[node.kind] > 0) {
+            open.add(token);
+        } else if (open.isEmpty()) {
+            result.add(token);
+        } else {
+            Token opener = open.remove(open.size() - 1);
+            if (!matches(opener.kind, node.kind)) {
+                result.add(opener);
+                result.add(token);
+            }
+        }
+        collect(node.right, line, open, result);
+    }
+
+    // Number of tokens before (line, column)
+    private int countBefore(int line, int column) {
+        Node node = root;
+        int base = 0;
+        int count = 0;
+        while (node != null) {
+            int nodeLine = base + lines(node.left) + node.gap;
+            if (nodeLine < line || (nodeLine == line && node.column < column)) {
+                count += size(node.left) + 1;
+                base = nodeLine;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    // First rank >= from where the running sum from 'from' reaches -1
+    private static int forward(Node node, int base, int from, int[] acc) {
+        if (node == null || base + node.size <= from) return -1;
+        if (base >= from && acc[0] + node.minPrefix > -1) {
+            acc[0] += node.sum;
+            return -1;
+        }
+        int found = forward(node.left, base, from, acc);
+        if (found >= 0) return found;
+        int self = base + size(node.left);
+        if (self >= from) {
+            acc[0] += TYPES[node.kind] > 0 ? 1 : -1;
+            if (acc[0] == -1) return self;
+        }
+        return forward(node.right, self + 1, from, acc);
+    }
+
+    // Last rank < to where the running sum walking left from 'to' reaches +1
+    private static int backward(Node node, int base, int to, int[] acc) {
+        if (node == null || base >= to) return -1;
+        if (base + node.size <= to && acc[0] + node.maxSuffix < 1) {
+            acc[0] += node.sum;
+            return -1;
+        }
+        int self = base + size(node.left);
+        int found = backward(node.right, self + 1, to, acc);
+        if (found >= 0) return found;
+        if (self < to) {
+            acc[0] += TYPES[node.kind] > 0 ? 1 : -1;
+            if (acc[0] == 1) return self;
+        }
+        return backward(node.left, base, to, acc);
+    }
+
+    // [tokens on lines < line, the rest]; base is the line of the token before the subtree
+    private static Node[] splitByLine(Node node, int line, int base) {
+        if (node == null) return new Node[2];
+        int nodeLine = base + lines(node.left) + node.gap;
+        if (nodeLine < line) {
+            Node[] parts = splitByLine(node.right, line, nodeLine);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = splitByLine(node.left, line, base);
+        node.left = parts[1];
+        update(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    // Cartesian tree over nodes already in order, in linear time
+    private static Node build(List<Node> nodes) {
+        Node[] stack = new Node[nodes.size()];
+        int depth = 0;
+        for (Node node : nodes) {
+            Node last = null;
+            while (depth > 0 && stack[depth - 1].priority < node.priority) {
+                last = stack[--depth];
+                update(last);
+            }
+            node.left = last;
+            if (depth > 0) stack[depth - 1].right = node;
+            stack[depth++] = node;
+        }
+        while (depth > 1) update(stack[--depth]);
+        if (depth == 0) return null;
+        update(stack[0]);
+        return stack[0];
+    }
+
+    private static int firstGap(Node node) {
+        while (node.left != null) node = node.left;
+        return node.gap;
+    }
+
+    private static void setFirstGap(Node node, int gap) {
+        if (node.left == null) node.gap = gap;
+        else setFirstGap(node.left, gap);
+        update(node);
+    }
+
+    private static void update(Node node) {
+        Node l = node.left, r = node.right;
+        int value = TYPES[node.kind] > 0 ? 1 : -1;
+        node.size = size(l) + 1 + size(r);
+        node.lines = lines(l) + node.gap + lines(r);
+        int leftSum = l != null ? l.sum : 0;
+        int rightSum = r != null ? r.sum : 0;
+        node.sum = leftSum + value + rightSum;
+        node.minPrefix = Math.min(l != null ? l.minPrefix : 0,
+                leftSum + value + Math.min(0, r != null ? r.minPrefix : 0));
+        node.maxSuffix = Math.max(r != null ? r.maxSuffix : 0,
+                rightSum + value + Math.max(0, l != null ? l.maxSuffix : 0));
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static int lines(Node node) {
+        return node != null ? node.lines : 0;
+    }
+}
@@ -0,0 +1,50 @@
+import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// Runs an interpreter off the EDT and streams its output into a ConsolePanel.
+// Stopping is cooperative: the task polls the supplier and returns its own summary.
+public class ProgramWorker extends SwingWorker<String, String> {
+    public interface Task {
+        String run(Consumer<String> output, BooleanSupplier stopRequested) throws Exception;
+    }
+
+    private final Task task;
+    private final ConsolePanel console;
+    private final AtomicBoolean stopRequested = new AtomicBoolean();
+
+    public ProgramWorker(Task task, ConsolePanel console) {
+        this.task = task;
+        this.console = console;
+    }
+
+    public void requestStop() {
+        stopRequested.set(true);
+    }
+
+    @Override
+    protected String doInBackground() throws Exception {
+        return task.run(this::publish, stopRequested::get);
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        console.append(String.join("", chunks));
+    }
+
+    @Override
+    protected void done() {
+        try {
+            console.finished(get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            console.append("\n" + cause.getMessage() + "\n");
+            console.finished("Ошибка: " + cause.getMessage());
+        } catch (InterruptedException e) {
+            console.finished("Прервано");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+// List of file locations in the output pane (label references, search hits).
+// Double-click or Enter opens the location through the navigate callback. Results can
+// also be streamed in while a background search runs, with a stop button in the title.
+public class ResultsPanel extends JPanel {
+    public static class Entry {
+        public final File file;
+        public final int line;
+        public final String text;
+        private final String location;
+
+        // line is 0-based; the list shows it 1-based like the gutter
+        public Entry(File file, int line, String text) {
+            this(file, line, text, file.getName());
+        }
+
+        // location replaces the file name in the list, e.g. a path relative to the search root
+        public Entry(File file, int line, String text, String location) {
+            this.file = file;
+            this.line = line;
+            this.text = text;
+            this.location = location;
+        }
+
+        @Override
+        public String toString() {
+            return location + ":" + (line + 1) + ":  " + text;
+        }
+    }
+
+    private final DefaultListModel<Entry> model = new DefaultListModel<>();
+    private final JList<Entry> list = new JList<>(model);
+    private final JLabel title = new JLabel(" ");
+    private final JButton stopButton = new JButton("Остановить");
+    private Runnable stopAction;
+
+    public ResultsPanel(Consumer<Entry> navigate) {
+        super(new BorderLayout());
+        setBackground(EditorConstants.COLOR_BACKGROUND);
+
+        title.setFont(new Font("Poppins", Font.PLAIN, 12));
+        title.setForeground(EditorConstants.COLOR_COMMENT);
+        title.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        stopButton.setFont(new Font("Poppins", Font.PLAIN, 12));
+        stopButton.setVisible(false);
+        stopButton.addActionListener(e -> {
+            if (stopAction != null) stopAction.run();
+        });
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        list.setForeground(EditorConstants.COLOR_DEFAULT);
+        list.setBackground(EditorConstants.COLOR_CARD_BG);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && list.getSelectedValue() != null) navigate.accept(list.getSelectedValue());
+            }
+        });
+        list.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER && list.getSelectedValue() != null) {
+                    navigate.accept(list.getSelectedValue());
+                }
+            }
+        });
+
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(title, BorderLayout.CENTER);
+        header.add(stopButton, BorderLayout.EAST);
+
+        add(header, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+    }
+
+    public void setResults(String caption, List<Entry> entries) {
+        title.setText(" " + caption);
+        model.clear();
+        model.addAll(entries);
+        if (!entries.isEmpty()) list.setSelectedIndex(0);
+    }
+
+    public void setCaption(String caption) {
+        title.setText(" " + caption);
+    }
+
+    // Appends without moving the selection, except to select the first entry
+    public void addResults(List<Entry> entries) {
+        if (entries.isEmpty()) return;
+        boolean first = model.isEmpty();
+        model.addAll(entries);
+        if (first) list.setSelectedIndex(0);
+    }
+
+    // Shows the stop button while action is non-null
+    public void setStopAction(Runnable action) {
+        stopAction = action;
+        stopButton.setVisible(action != null);
+    }
+}
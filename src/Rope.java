@@ -0,0 +1,271 @@
+// Immutable, height-balanced rope. Edits return a new rope that shares all
+// untouched subtrees, so an old instance is a free snapshot for other threads.
+public final class Rope {
+    private static final int LEAF_SIZE = 2048;
+
+    public static final Rope EMPTY = new Rope(new Leaf(new char[0]));
+
+    private final Node root;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public static Rope of(CharSequence text) {
+        return new Rope(build(text, 0, text.length()));
+    }
+
+    public int length() {
+        return root.length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= root.length) throw new IndexOutOfBoundsException(String.valueOf(index));
+        Node node = root;
+        while (node instanceof Concat) {
+            Concat concat = (Concat) node;
+            if (index < concat.left.length) {
+                node = concat.left;
+            } else {
+                index -= concat.left.length;
+                node = concat.right;
+            }
+        }
+        return ((Leaf) node).chars[index];
+    }
+
+    public Rope insert(int index, CharSequence text) {
+        if (text.length() == 0) return this;
+        checkRange(index, index);
+        Node[] parts = split(root, index);
+        return new Rope(join(join(parts[0], build(text, 0, text.length())), parts[1]));
+    }
+
+    public Rope delete(int start, int end) {
+        checkRange(start, end);
+        if (start == end) return this;
+        Node[] head = split(root, start);
+        Node[] tail = split(head[1], end - start);
+        return new Rope(join(head[0], tail[1]));
+    }
+
+    public void getChars(int start, int end, char[] dest, int destPos) {
+        checkRange(start, end);
+        copy(root, start, end, dest, destPos);
+    }
+
+    public String substring(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    // Returns the shared leaf array holding index and stores its start offset in leafStart[0].
+    // Leaves are never mutated, so callers may read the array in place.
+    public char[] leaf(int index, int[] leafStart) {
+        Node node = root;
+        int start = 0;
+        while (node instanceof Concat) {
+            Concat concat = (Concat) node;
+            if (index < concat.left.length) {
+                node = concat.left;
+            } else {
+                index -= concat.left.length;
+                start += concat.left.length;
+                node = concat.right;
+            }
+        }
+        leafStart[0] = start;
+        return ((Leaf) node).chars;
+    }
+
+    // A CharSequence over this rope that caches the current leaf, so sequential
+    // scans cost O(1) per char. Each reader thread should take its own view.
+    public CharSequence view() {
+        return new View(0, root.length);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, root.length);
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > root.length || start > end) {
+            throw new IndexOutOfBoundsException(start + ".." + end + " of " + root.length);
+        }
+    }
+
+    private class View implements CharSequence {
+        private final int start;
+        private final int end;
+        private final int[] leafOffset = new int[1];
+        private char[] leaf;
+        private int leafStart;
+        private int leafEnd;
+
+        View(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int absolute = start + index;
+            if (absolute < leafStart || absolute >= leafEnd || leaf == null) {
+                if (index < 0 || absolute >= end) throw new IndexOutOfBoundsException(String.valueOf(index));
+                leaf = leaf(absolute, leafOffset);
+                leafStart = leafOffset[0];
+                leafEnd = leafStart + leaf.length;
+            }
+            return leaf[absolute - leafStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length() || from > to) throw new IndexOutOfBoundsException(from + ".." + to);
+            return new View(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return substring(start, end);
+        }
+    }
+
+    private abstract static class Node {
+        final int length;
+        final int height;
+
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final char[] chars;
+
+        Leaf(char[] chars) {
+            super(chars.length, 0);
+            this.chars = chars;
+        }
+    }
+
+    private static final class Concat extends Node {
+        final Node left;
+        final Node right;
+
+        Concat(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static Node build(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length <= LEAF_SIZE) {
+            char[] chars = new char[length];
+            if (text instanceof String) {
+                ((String) text).getChars(start, end, chars, 0);
+            } else {
+                for (int i = 0; i < length; i++) chars[i] = text.charAt(start + i);
+            }
+            return new Leaf(chars);
+        }
+        int middle = start + length / 2;
+        return new Concat(build(text, start, middle), build(text, middle, end));
+    }
+
+    private static Node[] split(Node node, int index) {
+        if (index <= 0) return new Node[] { EMPTY.root, node };
+        if (index >= node.length) return new Node[] { node, EMPTY.root };
+        if (node instanceof Leaf) {
+            char[] chars = ((Leaf) node).chars;
+            char[] left = new char[index];
+            char[] right = new char[chars.length - index];
+            System.arraycopy(chars, 0, left, 0, index);
+            System.arraycopy(chars, index, right, 0, right.length);
+            return new Node[] { new Leaf(left), new Leaf(right) };
+        }
+        Concat concat = (Concat) node;
+        if (index < concat.left.length) {
+            Node[] parts = split(concat.left, index);
+            return new Node[] { parts[0], join(parts[1], concat.right) };
+        }
+        Node[] parts = split(concat.right, index - concat.left.length);
+        return new Node[] { join(concat.left, parts[0]), parts[1] };
+    }
+
+    // AVL-style join: keeps sibling heights within one of each other
+    private static Node join(Node left, Node right) {
+        if (left.length == 0) return right;
+        if (right.length == 0) return left;
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= LEAF_SIZE) {
+            char[] chars = new char[left.length + right.length];
+            System.arraycopy(((Leaf) left).chars, 0, chars, 0, left.length);
+            System.arraycopy(((Leaf) right).chars, 0, chars, left.length, right.length);
+            return new Leaf(chars);
+        }
+        if (left.height > right.height + 1) return joinRight((Concat) left, right);
+        if (right.height > left.height + 1) return joinLeft(left, (Concat) right);
+        return new Concat(left, right);
+    }
+
+    private static Node joinRight(Concat left, Node right) {
+        Node joined = join(left.right, right);
+        if (joined.height <= left.left.height + 1) return join(left.left, joined);
+        Concat inner = (Concat) joined;
+        if (inner.left.height > inner.right.height) {
+            joined = rotateRight(inner);
+        }
+        return rotateLeft(new Concat(left.left, joined));
+    }
+
+    private static Node joinLeft(Node left, Concat right) {
+        Node joined = join(left, right.left);
+        if (joined.height <= right.right.height + 1) return join(joined, right.right);
+        Concat inner = (Concat) joined;
+        if (inner.right.height > inner.left.height) {
+            joined = rotateLeft(inner);
+        }
+        return rotateRight(new Concat(joined, right.right));
+    }
+
+    private static Node rotateLeft(Node node) {
+        Concat concat = (Concat) node;
+        if (!(concat.right instanceof Concat)) return node;
+        Concat right = (Concat) concat.right;
+        return new Concat(new Concat(concat.left, right.left), right.right);
+    }
+
+    private static Node rotateRight(Node node) {
+        Concat concat = (Concat) node;
+        if (!(concat.left instanceof Concat)) return node;
+        Concat left = (Concat) concat.left;
+        return new Concat(left.left, new Concat(left.right, concat.right));
+    }
+
+    private static void copy(Node node, int start, int end, char[] dest, int destPos) {
+        if (start >= end) return;
+        if (node instanceof Leaf) {
+            System.arraycopy(((Leaf) node).chars, start, dest, destPos, end - start);
+            return;
+        }
+        Concat concat = (Concat) node;
+        int leftLength = concat.left.length;
+        if (start < leftLength) {
+            copy(concat.left, start, Math.min(end, leftLength), dest, destPos);
+        }
+        if (end > leftLength) {
+            int from = Math.max(start, leftLength);
+            copy(concat.right, from - leftLength, end - leftLength, dest, destPos + from - start);
+        }
+    }
+}
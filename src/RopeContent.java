@@ -0,0 +1,201 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+// Document content backed by an immutable Rope. Every edit swaps in a new rope,
+// so snapshot() hands background readers a consistent text in O(1).
+public class RopeContent implements AbstractDocument.Content {
+    private volatile Rope rope = Rope.of("\n");
+
+    // Marks sorted by offset in a gap array, as GapContent keeps them. Marks before the gap
+    // hold their offset; marks after it hold it relative to shift, so an edit moves the gap
+    // to the edit point and then shifts everything past it by changing one int.
+    private final ReferenceQueue<StickyPosition> released = new ReferenceQueue<>();
+    private Mark[] marks = new Mark[64];
+    private int gapStart;
+    private int gapEnd = marks.length;
+    private int shift;
+
+    public Rope snapshot() {
+        return rope;
+    }
+
+    @Override
+    public int length() {
+        return rope.length();
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        return rope.substring(where, where + len);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        Rope current = rope;
+        if (len > 0) {
+            int[] leafStart = new int[1];
+            char[] leaf = current.leaf(where, leafStart);
+            int offset = where - leafStart[0];
+            if (offset + len <= leaf.length) {
+                txt.array = leaf;
+                txt.offset = offset;
+                txt.count = len;
+                return;
+            }
+            if (txt.isPartialReturn()) {
+                txt.array = leaf;
+                txt.offset = offset;
+                txt.count = leaf.length - offset;
+                return;
+            }
+        }
+        char[] chars = new char[len];
+        current.getChars(where, where + len, chars, 0);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    // Undo is tracked per tab by the editor, so no content-level edits are recorded
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= rope.length()) throw new BadLocationException("Invalid insert", where);
+        rope = rope.insert(where, str);
+        updateMarksForInsert(where, str.length());
+        return null;
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where + nitems >= rope.length()) throw new BadLocationException("Invalid remove", where + nitems);
+        checkRange(where, nitems);
+        rope = rope.delete(where, where + nitems);
+        updateMarksForRemove(where, nitems);
+        return null;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > rope.length()) throw new BadLocationException("Invalid position", offset);
+        purgeReleasedMarks();
+        StickyPosition position = new StickyPosition();
+        Mark mark = new Mark(position, offset, released);
+        position.mark = mark;
+        moveGap(findMark(offset));
+        if (gapStart == gapEnd) growMarks();
+        marks[gapStart++] = mark;
+        return position;
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > rope.length()) {
+            throw new BadLocationException("Invalid range", where + len);
+        }
+    }
+
+    // Same semantics as StringContent: offset 0 marks stay put, marks at or after the insert shift
+    private void updateMarksForInsert(int where, int length) {
+        moveGap(findMark(where == 0 ? 1 : where));
+        shift += length;
+    }
+
+    // Marks inside the removed range collapse to its start
+    private void updateMarksForRemove(int where, int length) {
+        moveGap(findMark(where));
+        int end = where + length;
+        shift -= length;
+        for (int i = gapEnd; i < marks.length && marks[i].offset + shift + length < end; i++) {
+            marks[i].offset = where - shift;
+        }
+    }
+
+    // Index among the sorted marks of the first one at or after offset
+    private int findMark(int offset) {
+        int low = 0;
+        int high = gapStart + marks.length - gapEnd;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int markOffset = mid < gapStart ? marks[mid].offset : marks[mid - gapStart + gapEnd].offset + shift;
+            if (markOffset < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private void moveGap(int index) {
+        while (gapStart > index) {
+            Mark mark = marks[--gapStart];
+            marks[gapStart] = null;
+            mark.offset -= shift;
+            mark.afterGap = true;
+            marks[--gapEnd] = mark;
+        }
+        while (gapStart < index) {
+            Mark mark = marks[gapEnd];
+            marks[gapEnd++] = null;
+            mark.offset += shift;
+            mark.afterGap = false;
+            marks[gapStart++] = mark;
+        }
+    }
+
+    private void growMarks() {
+        Mark[] grown = new Mark[marks.length * 2];
+        int tail = marks.length - gapEnd;
+        System.arraycopy(marks, 0, grown, 0, gapStart);
+        System.arraycopy(marks, gapEnd, grown, grown.length - tail, tail);
+        marks = grown;
+        gapEnd = grown.length - tail;
+    }
+
+    private void purgeReleasedMarks() {
+        if (released.poll() == null) return;
+        while (released.poll() != null) {
+            // drain
+        }
+        int kept = 0;
+        for (int i = 0; i < gapStart; i++) {
+            if (marks[i].get() != null) marks[kept++] = marks[i];
+        }
+        Arrays.fill(marks, kept, gapStart, null);
+        gapStart = kept;
+        kept = marks.length;
+        for (int i = marks.length - 1; i >= gapEnd; i--) {
+            if (marks[i].get() != null) marks[--kept] = marks[i];
+        }
+        Arrays.fill(marks, gapEnd, kept, null);
+        gapEnd = kept;
+    }
+
+    private static final class Mark extends WeakReference<StickyPosition> {
+        int offset;
+        boolean afterGap;
+
+        Mark(StickyPosition position, int offset, ReferenceQueue<StickyPosition> queue) {
+            super(position, queue);
+            this.offset = offset;
+        }
+    }
+
+    private final class StickyPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return mark.afterGap ? mark.offset + shift : mark.offset;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+}
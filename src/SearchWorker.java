@@ -0,0 +1,97 @@
+import javax.swing.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs a FileSearch off the EDT and streams its hits into a ResultsPanel. The caption
+// is refreshed from the search counters on a timer, so the readout keeps moving through
+// directories with no hits.
+public class SearchWorker extends SwingWorker<Void, FileSearch.Hit> {
+    private static final int READOUT_INTERVAL_MS = 250;
+
+    private final FileSearch search;
+    private final Path root;
+    private final String query;
+    private final ResultsPanel results;
+    private final AtomicBoolean stopRequested = new AtomicBoolean();
+    private volatile boolean superseded;
+    private final Timer readout;
+    private final long started = System.nanoTime();
+
+    public SearchWorker(FileSearch search, Path root, String query, ResultsPanel results) {
+        this.search = search;
+        this.root = root;
+        this.query = query;
+        this.results = results;
+        readout = new Timer(READOUT_INTERVAL_MS, e -> results.setCaption(caption("Поиск")));
+    }
+
+    // Called on the EDT instead of execute()
+    public void start() {
+        results.setResults(caption("Поиск"), new ArrayList<>());
+        results.setStopAction(this::requestStop);
+        readout.start();
+        execute();
+    }
+
+    public void requestStop() {
+        stopRequested.set(true);
+    }
+
+    // Stops the search and leaves the panel to the search that replaces it
+    public void supersede() {
+        superseded = true;
+        readout.stop();
+        requestStop();
+    }
+
+    @Override
+    protected Void doInBackground() {
+        search.run(hits -> publish(hits.toArray(new FileSearch.Hit[0])), stopRequested::get);
+        return null;
+    }
+
+    @Override
+    protected void process(List<FileSearch.Hit> hits) {
+        if (superseded) return;
+        List<ResultsPanel.Entry> entries = new ArrayList<>(hits.size());
+        for (FileSearch.Hit hit : hits) {
+            String location = root.relativize(hit.file.toPath()).toString();
+            entries.add(new ResultsPanel.Entry(hit.file, hit.line, hit.text, location));
+        }
+        results.addResults(entries);
+    }
+
+    @Override
+    protected void done() {
+        readout.stop();
+        if (superseded) return;
+        results.setStopAction(null);
+        String state = "Найдено";
+        try {
+            get();
+            if (search.isCapped()) state = "Достигнут предел";
+            else if (stopRequested.get()) state = "Остановлено";
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            state = "Ошибка: " + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            state = "Прервано";
+        }
+        results.setCaption(caption(state));
+    }
+
+    private String caption(String state) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        long files = search.getSearchedFiles();
+        String caption = String.format(Locale.ROOT,
+                "%s «%s» в %s: %,d совпадений, %,d файлов за %.1f с (%,.0f файлов/с, %.1f МБ/с)",
+                state, query, root, search.getHitCount(), files, seconds, files / seconds,
+                search.getSearchedBytes() / 1048576.0 / seconds);
+        long failed = search.getFailedFiles();
+        return failed > 0 ? caption + String.format(", не прочитано: %,d", failed) : caption;
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Arrays;
+
+public class StyleRuns {
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private byte[] styles = new byte[64];
+    private int size;
+
+    // Adjacent runs of the same style are merged, so long command sequences stay one run
+    public void add(int start, int length, int style) {
+        if (length <= 0) return;
+        if (size > 0 && styles[size - 1] == style && starts[size - 1] + lengths[size - 1] == start) {
+            lengths[size - 1] += length;
+            return;
+        }
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            styles = Arrays.copyOf(styles, capacity);
+        }
+        starts[size] = start;
+        lengths[size] = length;
+        styles[size] = (byte) style;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getStyle(int index) {
+        return styles[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -1,11 +1,104 @@
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
 import javax.swing.text.*;
-import java.util.regex.*;
-import java.awt.Color;
-import javax.swing.JTextPane; 
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SyntaxHighlighter {
+    private static final String LANGUAGE_KISS = "kiss";
+    private static final String LANGUAGE_BASIC = "basic";
+    private static final String LANGUAGE_NASM = "nasm";
+    private static final String LANGUAGE_BRAINFUCK = "brainfuck";
+
+    static final int STYLE_DEFAULT = 0;
+    static final int STYLE_COMMAND = 1;
+    static final int STYLE_INCLUDE = 2;
+    static final int STYLE_LABEL = 3;
+    static final int STYLE_COMMENT = 4;
+    static final int STYLE_NUMBER = 5;
+    static final int STYLE_CHAR = 6;
+    static final int STYLE_STRING = 7;
+    static final int STYLE_KEYWORD = 8;
+
+    // Upper bound of off-screen text handed to one worker job, so big documents are lexed in slices
+    private static final int MAX_JOB_CHARS = 64 * 1024;
+    private static final int IDLE_SLICE_DELAY_MS = 10;
+    private static final int FALLBACK_VISIBLE_LINES = 100;
+
+    private static final KeywordMatcher BASIC_KEYWORDS = new KeywordMatcher(EditorConstants.BASIC_KEYWORDS);
+
+    // An untitled document is treated as BASIC once its prefix uses this many distinct keywords
+    private static final int BASIC_KEYWORD_THRESHOLD = 3;
+
+    // The first language is the fallback for unknown extensions
+    static List<Language> builtinLanguages() {
+        List<Language> languages = new ArrayList<>();
+        languages.add(new Language(LANGUAGE_KISS, new DfaLexer(kissSpec())));
+        languages.add(new Language(LANGUAGE_BRAINFUCK, new DfaLexer(brainfuckSpec()), ".b", ".bf"));
+        languages.add(new Language(LANGUAGE_BASIC, new DfaLexer(basicSpec()),
+                SyntaxHighlighter::looksLikeBasic, ".bas", ".basic"));
+        languages.add(new Language(LANGUAGE_NASM, new DfaLexer(nasmSpec()), ".asm", ".nasm"));
+        return languages;
+    }
+
+    // Commands, #include and comments only count as the first token of a line;
+    // numbers and 'c' literals are whole whitespace-separated tokens
+    private static LexerSpec kissSpec() {
+        return new LexerSpec(LANGUAGE_KISS)
+                .lineStartRule("#include.*", STYLE_INCLUDE)
+                .lineStartRule("#.*", STYLE_COMMENT)
+                .lineStartRule(":[^ ]*", STYLE_LABEL)
+                .lineStartKeywords(EditorConstants.COMMANDS, STYLE_COMMAND, false)
+                .rule("-?\\d+", STYLE_NUMBER)
+                .rule("'[^']'", STYLE_CHAR)
+                .rule("\\S+", STYLE_DEFAULT);
+    }
+
+    private static LexerSpec brainfuckSpec() {
+        return new LexerSpec(LANGUAGE_BRAINFUCK)
+                .rule("[" + LexerSpec.quote(EditorConstants.BRAINFUCK_COMMANDS) + "]", STYLE_COMMAND);
+    }
+
+    // REM and ' comment out the whole line; an unterminated string runs to the end of the line
+    private static LexerSpec basicSpec() {
+        return new LexerSpec(LANGUAGE_BASIC)
+                .lineStartRule("'.*", STYLE_COMMENT)
+                .lineStartRule("REM.*", STYLE_COMMENT, true)
+                .rule("\"[^\"]*\"?", STYLE_STRING)
+                .rule("\\d+(\\.\\d+)?", STYLE_NUMBER)
+                .keywords(EditorConstants.BASIC_KEYWORDS, STYLE_KEYWORD, true)
+                .rule("\\w+", STYLE_DEFAULT);
+    }
+
+    // An unterminated string is not a token, so the quote is skipped and scanning goes on
+    private static LexerSpec nasmSpec() {
+        return new LexerSpec(LANGUAGE_NASM)
+                .rule(";.*", STYLE_COMMENT)
+                .rule("\"[^\"]*\"", STYLE_STRING)
+                .rule("0[xX][0-9a-fA-F]+|\\d+", STYLE_NUMBER)
+                .keywords(EditorConstants.NASM_KEYWORDS, STYLE_KEYWORD, true)
+                .rule("\\w+", STYLE_DEFAULT);
+    }
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+                Thread thread = new Thread(r, "jscn-highlighter");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+
     private Style defaultStyle, commandStyle, includeStyle, labelStyle, commentStyle,
-            numberStyle, charStyle, stringStyle, basicKeywordStyle, errorStyle;
+            numberStyle, charStyle, stringStyle, basicKeywordStyle;
+    private Style[] styles;
 
     public SyntaxHighlighter() {
         initStyles();
@@ -63,290 +156,275 @@ public class SyntaxHighlighter {
         StyleConstants.setFontFamily(basicKeywordStyle, "Poppins");
         StyleConstants.setFontSize(basicKeywordStyle, 16);
 
-        errorStyle = dummyDoc.addStyle("error", null);
-        StyleConstants.setBackground(errorStyle, EditorConstants.COLOR_ERROR_BG);
-        StyleConstants.setFontFamily(errorStyle, "Poppins");
-        StyleConstants.setFontSize(errorStyle, 16);
+        styles = new Style[] {
+                defaultStyle, commandStyle, includeStyle, labelStyle, commentStyle,
+                numberStyle, charStyle, stringStyle, basicKeywordStyle
+        };
     }
 
-    public Style getErrorStyle() {
-        return errorStyle;
+    public Style getStyle(int style) {
+        return styles[style];
     }
 
-    public void applySyntaxHighlighting(JTextPane textPane, KissEditor.EditorTab tab) {
+    // Snapshots the dirty lines of the tab on the EDT and lexes them on a worker.
+    // The result is applied back on the EDT only if the tab generation is unchanged.
+    public void submitPass(KissEditor.EditorTab tab) {
+        StyledDocument doc = tab.textPane.getStyledDocument();
+        LineStateCache cache = tab.lineStates;
+        Language language = detectLanguage(tab);
+        if (!cache.isValidFor(doc, language)) {
+            cache.reset(doc, language);
+            tab.pairs.reset(doc);
+        }
+
+        HighlightJob job;
         try {
-            if (isBrainfuckFile(tab)) {
-                applyBrainfuckHighlighting(textPane);
-            } else if (isBasicFile(tab)) {
-                applyBasicHighlighting(textPane);
-            } else if (isNasmFile(tab)) {
-                applyNasmHighlighting(textPane);
-            } else {
-                applyKissHighlighting(textPane);
-            }
-        } catch (Exception e) {
+            job = createJob(doc, cache, tab.generation.get(), visibleLineRange(tab.textPane));
+        } catch (BadLocationException e) {
             e.printStackTrace();
+            return;
         }
+        if (tab.highlightFuture != null) {
+            tab.highlightFuture.cancel(false);
+            tab.highlightFuture = null;
+        }
+        if (job.segments.isEmpty()) return;
+
+        tab.highlightFuture = WORKERS.submit(() -> {
+            try {
+                if (!job.lex(tab)) return;
+                SwingUtilities.invokeLater(() -> applyJob(tab, job));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
     }
 
-    private boolean isBrainfuckFile(KissEditor.EditorTab tab) {
-        if (tab == null || tab.file == null) return false;
-        String name = tab.file.getName().toLowerCase();
-        return name.endsWith(".b") || name.endsWith(".bf");
-    }
+    // Visible dirty lines go first; otherwise the dirty slice closest to the viewport
+    private HighlightJob createJob(StyledDocument doc, LineStateCache cache, long generation, int[] visible)
+            throws BadLocationException {
+        HighlightJob job = new HighlightJob(generation, cache.getLanguage(), snapshot(doc));
+        Element root = doc.getDefaultRootElement();
+        LineBitSet dirty = cache.getDirtyLines();
+        int lineCount = Math.min(root.getElementCount(), cache.getLineCount());
+        int firstVisible = Math.min(visible[0], lineCount - 1);
+        int lastVisible = Math.min(visible[1], lineCount - 1);
+
+        int line = dirty.nextSetBit(firstVisible);
+        while (line >= 0 && line <= lastVisible) {
+            int last = Math.min(dirty.nextClearBit(line), lastVisible + 1) - 1;
+            addSegment(job, root, cache, line, last);
+            line = dirty.nextSetBit(last + 1);
+        }
+        if (!job.segments.isEmpty()) {
+            job.visible = true;
+            return job;
+        }
 
-    private boolean isBasicFile(KissEditor.EditorTab tab) {
-        if (tab == null) return false;
-        if(tab.file == null && tab.textPane != null){
-            String text = tab.textPane.getText().toUpperCase();
-            int countKeywords=0;
-            for(String keyword : EditorConstants.BASIC_KEYWORDS){
-                if(text.contains(keyword)) countKeywords++;
+        int after = dirty.nextSetBit(lastVisible + 1);
+        int before = dirty.previousSetBit(firstVisible - 1);
+        if (after >= lineCount) after = -1;
+        if (after < 0 && before < 0) return job;
+
+        int first;
+        if (after >= 0 && (before < 0 || after - lastVisible <= firstVisible - before)) {
+            first = after;
+        } else {
+            first = before;
+            int start = root.getElement(before).getStartOffset();
+            while (first > 0 && dirty.get(first - 1)
+                    && start - root.getElement(first - 1).getStartOffset() < MAX_JOB_CHARS) {
+                first--;
             }
-            return countKeywords >= 3;
         }
-        if (tab.file != null) {
-            String name = tab.file.getName().toLowerCase();
-            return name.endsWith(".bas") || name.endsWith(".basic");
+        int runEnd = Math.min(dirty.nextClearBit(first), lineCount);
+        int start = root.getElement(first).getStartOffset();
+        int last = first;
+        while (last + 1 < runEnd && root.getElement(last).getEndOffset() - start < MAX_JOB_CHARS) {
+            last++;
         }
-        return false;
+        addSegment(job, root, cache, first, last);
+        return job;
     }
 
-    private boolean isNasmFile(KissEditor.EditorTab tab) {
-        if (tab == null || tab.file == null) return false;
-        String name = tab.file.getName().toLowerCase();
-        return name.endsWith(".asm") || name.endsWith(".nasm");
+    private void addSegment(HighlightJob job, Element root, LineStateCache cache, int firstLine, int lastLine) {
+        int start = root.getElement(firstLine).getStartOffset();
+        int end = Math.min(root.getElement(lastLine).getEndOffset(), job.text.length()) - 1;
+        job.segments.add(new LineSegment(firstLine, lastLine, start, end, cache.getEntryState(firstLine),
+                PairIndex.supports(job.language)));
     }
 
-    private void applyBasicHighlighting(JTextPane textPane) {
-        try {
-            StyledDocument doc = textPane.getStyledDocument();
-            String text = textPane.getText();
-            doc.setCharacterAttributes(0, text.length(), defaultStyle, true);
-
-            if (text.isEmpty()) return;
-
-            int offset = 0;
-            String[] lines = text.split("\\n", -1);
-
-            Pattern keywordPattern;
-            for (String line : lines) {
-                int lineLength = line.length();
-                String trimmedLine = line.trim();
-
-                if (trimmedLine.isEmpty()) {
-                    offset += lineLength + 1;
-                    continue;
-                }
+    // Rope-backed documents hand out their immutable text for free; anything else is copied once
+    private static CharSequence snapshot(StyledDocument doc) throws BadLocationException {
+        if (doc instanceof HighlightDocument) {
+            return ((HighlightDocument) doc).snapshot().view();
+        }
+        return doc.getText(0, doc.getLength()) + "\n";
+    }
 
-                // Highlight comments starting with REM or '
-                String upperTrimmed = trimmedLine.toUpperCase();
-                if (upperTrimmed.startsWith("REM") || trimmedLine.startsWith("'")) {
-                    doc.setCharacterAttributes(offset, lineLength, commentStyle, false);
-                    offset += lineLength + 1;
-                    continue;
-                }
+    // Same lookup as LineNumberView.paintComponent: map the visible rectangle back to lines
+    static int[] visibleLineRange(JTextPane textPane) {
+        Element root = textPane.getDocument().getDefaultRootElement();
+        Rectangle visibleRect = textPane.getVisibleRect();
+        if (visibleRect.height <= 0) {
+            return new int[] { 0, Math.min(root.getElementCount(), FALLBACK_VISIBLE_LINES) - 1 };
+        }
+        int startLine = root.getElementIndex(textPane.viewToModel(new Point(0, visibleRect.y)));
+        int endLine = root.getElementIndex(textPane.viewToModel(new Point(0, visibleRect.y + visibleRect.height)));
+        return new int[] { Math.max(0, startLine), Math.max(0, endLine) };
+    }
 
-                // Highlight strings enclosed in double quotes
-                int quoteStart = line.indexOf('"');
-                while (quoteStart >= 0) {
-                    int quoteEnd = line.indexOf('"', quoteStart + 1);
-                    if (quoteEnd < 0) quoteEnd = lineLength - 1;
-                    doc.setCharacterAttributes(offset + quoteStart, quoteEnd - quoteStart + 1, stringStyle, false);
-                    quoteStart = line.indexOf('"', quoteEnd + 1);
-                }
+    private void applyJob(KissEditor.EditorTab tab, HighlightJob job) {
+        StyledDocument doc = tab.textPane.getStyledDocument();
+        LineStateCache cache = tab.lineStates;
+        if (job.generation != tab.generation.get() || !cache.isValidFor(doc, job.language)) return;
 
-                // Highlight numbers using regex
-                Pattern numberPattern = Pattern.compile("\\b\\d+\\.?\\d*\\b");
-                Matcher numberMatcher = numberPattern.matcher(line);
-                while (numberMatcher.find()) {
-                    int start = numberMatcher.start();
-                    int lenNum = numberMatcher.end() - numberMatcher.start();
-                    doc.setCharacterAttributes(offset + start, lenNum, numberStyle, false);
-                }
+        int[] ranges = new int[job.segments.size() * 2];
+        for (int i = 0; i < job.segments.size(); i++) {
+            LineSegment segment = job.segments.get(i);
+            ranges[i * 2] = segment.startOffset;
+            ranges[i * 2 + 1] = segment.endOffset;
+        }
+        if (doc instanceof HighlightDocument) {
+            ((HighlightDocument) doc).applyStyleRuns(ranges, job.runs, styles);
+        }
 
-                // Highlight keywords - case insensitive
-                for (String keyword : EditorConstants.BASIC_KEYWORDS) {
-                    String upKeyword = keyword.toUpperCase();
-                    // Use word boundary and case-insensitive matching
-                    keywordPattern = Pattern.compile("\\b" + Pattern.quote(keyword) + "\\b", Pattern.CASE_INSENSITIVE);
-                    Matcher matcher = keywordPattern.matcher(line);
-                    while (matcher.find()) {
-                        int start = matcher.start();
-                        int lengthKw = matcher.end() - matcher.start();
-                        doc.setCharacterAttributes(offset + start, lengthKw, basicKeywordStyle, false);
-                    }
+        LineBitSet dirty = cache.getDirtyLines();
+        Element root = doc.getDefaultRootElement();
+        for (LineSegment segment : job.segments) {
+            if (segment.pairs != null) tab.pairs.replaceLines(segment.pairs);
+            for (int line = segment.firstLine; line <= segment.lastLine; line++) {
+                boolean changed = cache.setExitState(line, segment.exitStates[line - segment.firstLine]);
+                if (changed && line == segment.lastLine && line + 1 < cache.getLineCount()) {
+                    dirty.set(line + 1);
                 }
+            }
+            // A loader append may have extended the last line after the snapshot was taken
+            if (root.getElement(segment.lastLine).getEndOffset() - 1 != segment.endOffset) {
+                dirty.set(segment.lastLine);
+            }
+        }
 
-                offset += lineLength + 1;
+        tab.highlightFuture = null;
+        if (job.segments.get(0).pairs != null && tab.pairsChanged != null) tab.pairsChanged.run();
+        tab.highlightScheduler.recordPassCost(System.nanoTime() - job.createdNanos);
+        if (job.event.shouldCommit()) {
+            int lines = 0;
+            for (LineSegment segment : job.segments) {
+                lines += segment.lastLine - segment.firstLine + 1;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            job.event.language = job.language.getName();
+            job.event.documentLength = doc.getLength();
+            job.event.linesTouched = lines;
+            job.event.visible = job.visible;
+            job.event.commit();
+        }
+        if (!dirty.isEmpty()) {
+            tab.highlightScheduler.continueLater(job.visible ? 0 : IDLE_SLICE_DELAY_MS);
         }
     }
 
-    private void applyBrainfuckHighlighting(JTextPane textPane) {
-        try {
-            StyledDocument doc = textPane.getStyledDocument();
-            String text = textPane.getText();
-            int len = text.length();
-
-            doc.setCharacterAttributes(0, len, defaultStyle, true);
-
-            for (int i = 0; i < len; i++) {
-                char c = text.charAt(i);
-                if (EditorConstants.BRAINFUCK_COMMANDS.indexOf(c) >= 0) {
-                    doc.setCharacterAttributes(i, 1, commandStyle, false);
-                }
+    // The language is cached on the tab; untitled tabs are re-checked only after an edit touched the sample prefix
+    Language detectLanguage(KissEditor.EditorTab tab) {
+        if (tab.language != null && !tab.languageStale) return tab.language;
+        CharSequence sample = null;
+        if (tab.file == null && tab.textPane != null) {
+            Document doc = tab.textPane.getDocument();
+            try {
+                sample = doc.getText(0, Math.min(doc.getLength(), LanguageRegistry.SAMPLE_CHARS));
+            } catch (BadLocationException e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        tab.language = LanguageRegistry.detect(tab.file, sample);
+        tab.languageStale = false;
+        return tab.language;
     }
 
-    private void applyNasmHighlighting(JTextPane textPane) {
-        try {
-            StyledDocument doc = textPane.getStyledDocument();
-            String text = textPane.getText();
-            int length = text.length();
-
-            doc.setCharacterAttributes(0, length, defaultStyle, true);
-            if (text.isEmpty()) return;
-
-            String[] lines = text.split("\\n", -1);
-            int offset = 0;
-
-            Pattern commentPattern = Pattern.compile(";.*$");
-            Pattern stringPattern = Pattern.compile("\"([^\"]*)\"");
-            Pattern numberPattern = Pattern.compile("\\b(0x[\\da-fA-F]+|\\d+)\\b");
-
-            for (String line : lines) {
-                int lineLength = line.length();
-                if (lineLength == 0) {
-                    offset += 1;
-                    continue;
-                }
-
-                Matcher commentMatcher = commentPattern.matcher(line);
-                if (commentMatcher.find()) {
-                    int start = offset + commentMatcher.start();
-                    int lenComm = commentMatcher.end() - commentMatcher.start();
-                    doc.setCharacterAttributes(start, lenComm, commentStyle, false);
-                }
-
-                Matcher stringMatcher = stringPattern.matcher(line);
-                while (stringMatcher.find()) {
-                    int start = offset + stringMatcher.start();
-                    int end = stringMatcher.end();
-                    doc.setCharacterAttributes(start, end - stringMatcher.start(), stringStyle, false);
-                }
-
-                Matcher numberMatcher = numberPattern.matcher(line);
-                while (numberMatcher.find()) {
-                    int start = offset + numberMatcher.start();
-                    int lenNum = numberMatcher.end() - numberMatcher.start();
-                    doc.setCharacterAttributes(start, lenNum, numberStyle, false);
-                }
-
-                String lowerLine = line.toLowerCase();
-                for (String kw : EditorConstants.NASM_KEYWORDS) {
-                    int idx = lowerLine.indexOf(kw.toLowerCase());
-                    while (idx >= 0) {
-                        boolean leftOk = idx == 0 || !Character.isLetterOrDigit(lowerLine.charAt(idx - 1));
-                        int rightPos = idx + kw.length();
-                        boolean rightOk = rightPos >= lowerLine.length() || !Character.isLetterOrDigit(lowerLine.charAt(rightPos));
-                        if (leftOk && rightOk) {
-                            doc.setCharacterAttributes(offset + idx, kw.length(), basicKeywordStyle, false);
-                        }
-                        idx = lowerLine.indexOf(kw.toLowerCase(), idx + kw.length());
-                    }
-                }
-                offset += lineLength + 1;
+    private static boolean looksLikeBasic(CharSequence sample) {
+        Set<String> found = new HashSet<>();
+        int i = 0;
+        while (i < sample.length()) {
+            if (!KeywordMatcher.isWordChar(sample.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < sample.length() && KeywordMatcher.isWordChar(sample.charAt(i))) i++;
+            if (BASIC_KEYWORDS.matches(sample, start, i)) {
+                found.add(sample.subSequence(start, i).toString().toUpperCase(Locale.ROOT));
+                if (found.size() >= BASIC_KEYWORD_THRESHOLD) return true;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+        return false;
     }
 
-    private void applyKissHighlighting(JTextPane textPane) {
-        try {
-            StyledDocument doc = textPane.getStyledDocument();
-            String text = textPane.getText();
-            doc.setCharacterAttributes(0, text.length(), defaultStyle, true);
-
-            if (text.isEmpty()) return;
-
-            int offset = 0;
-            String[] lines = text.split("\\n", -1);
-
-            for (String line : lines) {
-                String trimmedLine = line.trim();
-                int lineLength = line.length();
-
-                if (trimmedLine.isEmpty()) {
-                    offset += lineLength + 1;
-                    continue;
-                }
-
-                if (trimmedLine.startsWith("#") && !trimmedLine.startsWith("#include")) {
-                    doc.setCharacterAttributes(offset, lineLength, commentStyle, false);
-                    offset += lineLength + 1;
-                    continue;
-                }
-
-                if (trimmedLine.startsWith("#include")) {
-                    int includeIndex = line.indexOf("#include");
-                    if (includeIndex >= 0) {
-                        int incLength = "#include".length();
-                        doc.setCharacterAttributes(offset + includeIndex, incLength, includeStyle, false);
-                        int restLength = lineLength - (includeIndex + incLength);
-                        if (restLength > 0) {
-                            doc.setCharacterAttributes(offset + includeIndex + incLength, restLength, includeStyle, false);
-                        }
-                    }
-                    offset += lineLength + 1;
-                    continue;
-                }
+    private static int indexOf(CharSequence text, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (text.charAt(i) == c) return i;
+        }
+        return -1;
+    }
 
-                if (trimmedLine.startsWith(":")) {
-                    int firstSpace = trimmedLine.indexOf(' ');
-                    int labelLen;
-                    if (firstSpace == -1) labelLen = lineLength;
-                    else labelLen = firstSpace;
-                    doc.setCharacterAttributes(offset, labelLen, labelStyle, false);
-                }
+    private static class LineSegment {
+        final int firstLine;
+        final int lastLine;
+        final int startOffset;
+        final int endOffset;
+        final int entryState;
+        final int[] exitStates;
+        // Pair tokens per line for PairIndex, when the language has any
+        final int[][] pairTokens;
+        PairIndex.Lines pairs;
+
+        LineSegment(int firstLine, int lastLine, int startOffset, int endOffset, int entryState, boolean withPairs) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.entryState = entryState;
+            this.exitStates = new int[lastLine - firstLine + 1];
+            this.pairTokens = withPairs ? new int[lastLine - firstLine + 1][] : null;
+        }
+    }
 
-                for (String cmd : EditorConstants.COMMANDS) {
-                    if (trimmedLine.startsWith(cmd)) {
-                        int cmdIndex = line.indexOf(cmd);
-                        if (cmdIndex >= 0) {
-                            doc.setCharacterAttributes(offset + cmdIndex, cmd.length(), commandStyle, false);
-                        }
-                        break;
-                    }
-                }
+    private static class HighlightJob {
+        final long generation;
+        final Language language;
+        final CharSequence text;
+        final long createdNanos = System.nanoTime();
+        final EditorEvents.HighlightPass event = new EditorEvents.HighlightPass();
+        final List<LineSegment> segments = new ArrayList<>();
+        final StyleRuns runs = new StyleRuns();
+        boolean visible;
+
+        HighlightJob(long generation, Language language, CharSequence text) {
+            this.generation = generation;
+            this.language = language;
+            this.text = text;
+            event.begin();
+        }
 
-                int searchFrom = 0;
-                String[] tokens = line.split("\\s+");
-                for (String token : tokens) {
-                    if (token.isEmpty()) continue;
-                    int pos = line.indexOf(token, searchFrom);
-                    if (pos < 0) continue;
-                    searchFrom = pos + token.length();
-
-                    if (token.matches("-?\\d+")) {
-                        doc.setCharacterAttributes(offset + pos, token.length(), numberStyle, false);
-                    } else if (token.matches("'[^']'")) {
-                        doc.setCharacterAttributes(offset + pos, token.length(), charStyle, false);
+        // Returns false when a newer edit made this job stale
+        boolean lex(KissEditor.EditorTab tab) {
+            for (LineSegment segment : segments) {
+                int state = segment.entryState;
+                int lineStart = segment.startOffset;
+                for (int i = 0; i < segment.exitStates.length; i++) {
+                    if (tab.generation.get() != generation) return false;
+                    int lineEnd = indexOf(text, '\n', lineStart, segment.endOffset);
+                    if (lineEnd < 0) lineEnd = segment.endOffset;
+                    int firstRun = runs.size();
+                    state = language.getLexer().lexLine(text, lineStart, lineEnd, state, runs);
+                    segment.exitStates[i] = state;
+                    if (segment.pairTokens != null) {
+                        segment.pairTokens[i] = PairIndex.extract(language, text, lineStart, runs, firstRun);
                     }
+                    lineStart = lineEnd + 1;
                 }
-
-                offset += lineLength + 1;
+                if (segment.pairTokens != null) segment.pairs = PairIndex.prepare(segment.firstLine, segment.pairTokens);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            return true;
         }
     }
 }
-
-
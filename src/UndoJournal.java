@@ -0,0 +1,534 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Undo/redo history of one tab, kept in primitive arrays. A record is an insert or a
+// remove: its kind, offset and a slice of one shared char buffer. Consecutive records
+// form a group, and a group is one undo step. Typing and deleting extend the last
+// record while they stay inside a word, so a typed word costs one record rather than
+// one per keystroke. Document.replace calls (typing over a selection, each match of a
+// replace-all) are stored as the difference between the removed and inserted text, and
+// a compound edit is one group however many replaces it holds.
+//
+// Undo and redo apply a whole group at once, a replace pair as one Document.replace.
+// When the history outgrows its memory budget the oldest groups are written to a temp
+// file as a stack of blocks and read back when undo reaches them.
+public class UndoJournal implements Closeable {
+    public static final long DEFAULT_MEMORY_LIMIT = 8L << 20;
+
+    private static final byte INSERT = 0;
+    private static final byte REMOVE = 1;
+    // A pause longer than this ends the word being typed
+    private static final long COALESCE_NANOS = 2_000_000_000L;
+    private static final int RECORD_BYTES = 9;
+    private static final int SPILL_CHUNK_CHARS = 8192;
+
+    private final long memoryLimit;
+
+    // Record r is kinds[r] at offsets[r] with text chars[textStarts[r], textStarts[r + 1])
+    private byte[] kinds = new byte[64];
+    private int[] offsets = new int[64];
+    private int[] textStarts = new int[65];
+    private char[] chars = new char[1024];
+    private int recordCount;
+
+    // Group g holds records [groupStarts[g], groupStarts[g + 1]); groups below applied are done
+    private int[] groupStarts = new int[65];
+    private int groupCount;
+    private int applied;
+
+    // Groups are numbered from the start of history, spilled ones included
+    private int spilledGroups;
+    private int savedGroup;
+    private boolean open;
+    private long lastEditNanos;
+    private boolean recording = true;
+    private boolean applying;
+
+    private int compoundDepth;
+    private final List<Object[]> compound = new ArrayList<>();
+    private boolean compoundReplaced;
+
+    private Path spillPath;
+    private FileChannel spill;
+    private long[] blocks = new long[8];
+    private int blockCount;
+
+    public UndoJournal() {
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    public UndoJournal(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    // Edits made while not recording (file loading) are not undoable
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public boolean isRecording() {
+        return recording && !applying;
+    }
+
+    public boolean canUndo() {
+        return applied > 0 || blockCount > 0;
+    }
+
+    public boolean canRedo() {
+        return applied < groupCount;
+    }
+
+    // Bytes held in memory; spilled history is not counted
+    public long getMemoryBytes() {
+        return textStarts[recordCount] * 2L + (long) recordCount * RECORD_BYTES + groupCount * 4L;
+    }
+
+    public int getSpilledGroups() {
+        return spilledGroups;
+    }
+
+    public void markSaved() {
+        savedGroup = spilledGroups + applied;
+        open = false;
+    }
+
+    public boolean isAtSavedState() {
+        return savedGroup == spilledGroups + applied;
+    }
+
+    // Forgets all history; the text no longer matches any saved state
+    public void clear() {
+        recordCount = 0;
+        groupCount = 0;
+        applied = 0;
+        spilledGroups = 0;
+        savedGroup = -1;
+        open = false;
+        blockCount = 0;
+        if (spill != null) {
+            try {
+                spill.truncate(0);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+        if (spill != null) {
+            try {
+                spill.close();
+                Files.deleteIfExists(spillPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            spill = null;
+        }
+    }
+
+    // Everything recorded between begin and end becomes one group
+    public void beginCompound() {
+        compoundDepth++;
+    }
+
+    public void endCompound() {
+        if (--compoundDepth > 0) return;
+        List<Object[]> edits = new ArrayList<>(compound);
+        boolean replaced = compoundReplaced;
+        compound.clear();
+        compoundReplaced = false;
+        if (edits.size() == 1 && !replaced) {
+            // Plain typing arrives as a replace of an empty selection
+            Object[] edit = edits.get(0);
+            record((Byte) edit[0], (Integer) edit[1], (String) edit[2]);
+            return;
+        }
+        if (edits.isEmpty()) return;
+        startGroup();
+        for (Object[] edit : edits) {
+            appendRecord((Byte) edit[0], (Integer) edit[1], (String) edit[2]);
+        }
+        open = false;
+        trimMemory();
+    }
+
+    // Called by the document before the text is removed and after it is inserted
+    public void recordInsert(int offset, String text) {
+        add(INSERT, offset, text);
+    }
+
+    public void recordRemove(int offset, String text) {
+        add(REMOVE, offset, text);
+    }
+
+    // Reverts the last group and returns where the caret belongs, or -1 if there is nothing to undo
+    public int undo(Document doc) throws BadLocationException {
+        if (applied == 0 && !loadBlock()) return -1;
+        int group = applied - 1;
+        int caret = -1;
+        applying = true;
+        try {
+            for (int r = groupStarts[group + 1] - 1; r >= groupStarts[group]; r--) {
+                if (isReplace(group, r - 1)) {
+                    ((AbstractDocument) doc).replace(offsets[r], length(r), text(r - 1), null);
+                    caret = offsets[r] + length(r - 1);
+                    r--;
+                } else if (kinds[r] == INSERT) {
+                    doc.remove(offsets[r], length(r));
+                    caret = offsets[r];
+                } else {
+                    doc.insertString(offsets[r], text(r), null);
+                    caret = offsets[r] + length(r);
+                }
+            }
+        } finally {
+            applying = false;
+        }
+        applied--;
+        open = false;
+        return caret;
+    }
+
+    public int redo(Document doc) throws BadLocationException {
+        if (applied == groupCount) return -1;
+        int group = applied;
+        int caret = -1;
+        applying = true;
+        try {
+            for (int r = groupStarts[group]; r < groupStarts[group + 1]; r++) {
+                if (isReplace(group, r)) {
+                    ((AbstractDocument) doc).replace(offsets[r], length(r), text(r + 1), null);
+                    caret = offsets[r] + length(r + 1);
+                    r++;
+                } else if (kinds[r] == INSERT) {
+                    doc.insertString(offsets[r], text(r), null);
+                    caret = offsets[r] + length(r);
+                } else {
+                    doc.remove(offsets[r], length(r));
+                    caret = offsets[r];
+                }
+            }
+        } finally {
+            applying = false;
+        }
+        applied++;
+        open = false;
+        return caret;
+    }
+
+    // Records r and r + 1 of the group are a remove and an insert at one offset
+    private boolean isReplace(int group, int r) {
+        return r >= groupStarts[group] && r + 1 < groupStarts[group + 1]
+                && kinds[r] == REMOVE && kinds[r + 1] == INSERT && offsets[r] == offsets[r + 1];
+    }
+
+    private void add(byte kind, int offset, String text) {
+        if (!isRecording() || text.isEmpty()) return;
+        if (compoundDepth > 0) {
+            int last = compound.size() - 1;
+            if (kind == INSERT && last >= 0 && (Byte) compound.get(last)[0] == REMOVE
+                    && compound.get(last)[1].equals(offset)) {
+                // The insert half of a replace: keep only what the two texts do not share
+                Object[] removed = compound.remove(last);
+                compound.addAll(trimReplace(offset, (String) removed[2], text));
+                compoundReplaced = true;
+            } else {
+                compound.add(new Object[] { kind, offset, text });
+            }
+            return;
+        }
+        record(kind, offset, text);
+    }
+
+    private void record(byte kind, int offset, String text) {
+        long now = System.nanoTime();
+        truncateRedo();
+        if (!merge(kind, offset, text, now)) {
+            startGroup();
+            appendRecord(kind, offset, text);
+            open = text.length() == 1;
+        }
+        trimMemory();
+        lastEditNanos = now;
+    }
+
+    // Extends the last record by one typed or deleted char while the word continues
+    private boolean merge(byte kind, int offset, String text, long now) {
+        if (!open || text.length() != 1 || groupCount == 0 || now - lastEditNanos > COALESCE_NANOS) return false;
+        if (savedGroup == spilledGroups + groupCount) return false;
+        int last = recordCount - 1;
+        if (kinds[last] != kind) return false;
+        char c = text.charAt(0);
+        int start = offsets[last];
+        int end = textStarts[last + 1];
+        if (kind == INSERT) {
+            if (offset != start + length(last)) return false;
+            if (c == '\n' || Character.isWhitespace(c) && !Character.isWhitespace(chars[end - 1])) return false;
+            appendChar(c);
+            return true;
+        }
+        if (offset + 1 == start) {
+            // Backspace: the char goes in front of the record's text
+            if (!Character.isWhitespace(c) && Character.isWhitespace(chars[textStarts[last]])) return false;
+            appendChar(c);
+            System.arraycopy(chars, textStarts[last], chars, textStarts[last] + 1, end - textStarts[last]);
+            chars[textStarts[last]] = c;
+            offsets[last] = offset;
+            return true;
+        }
+        if (offset == start) {
+            // Delete: the char follows the record's text
+            if (!Character.isWhitespace(c) && Character.isWhitespace(chars[end - 1])) return false;
+            appendChar(c);
+            return true;
+        }
+        return false;
+    }
+
+    // A replace is stored without the text the removed and inserted strings share at either end
+    private static List<Object[]> trimReplace(int offset, String removed, String inserted) {
+        int prefix = 0;
+        int limit = Math.min(removed.length(), inserted.length());
+        while (prefix < limit && removed.charAt(prefix) == inserted.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && removed.charAt(removed.length() - 1 - suffix) == inserted.charAt(inserted.length() - 1 - suffix)) {
+            suffix++;
+        }
+        List<Object[]> edits = new ArrayList<>(2);
+        if (removed.length() - prefix - suffix > 0) {
+            edits.add(new Object[] { REMOVE, offset + prefix, removed.substring(prefix, removed.length() - suffix) });
+        }
+        if (inserted.length() - prefix - suffix > 0) {
+            edits.add(new Object[] { INSERT, offset + prefix, inserted.substring(prefix, inserted.length() - suffix) });
+        }
+        return edits;
+    }
+
+    private void truncateRedo() {
+        if (applied == groupCount) return;
+        if (savedGroup > spilledGroups + applied) savedGroup = -1;
+        groupCount = applied;
+        recordCount = groupStarts[groupCount];
+    }
+
+    private void startGroup() {
+        truncateRedo();
+        if (groupCount + 2 > groupStarts.length) groupStarts = Arrays.copyOf(groupStarts, groupStarts.length * 2);
+        groupCount++;
+        groupStarts[groupCount] = recordCount;
+        applied = groupCount;
+    }
+
+    private void appendRecord(byte kind, int offset, String text) {
+        if (recordCount + 1 == kinds.length) {
+            int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            textStarts = Arrays.copyOf(textStarts, capacity + 1);
+        }
+        int start = textStarts[recordCount];
+        ensureChars(start + text.length());
+        text.getChars(0, text.length(), chars, start);
+        kinds[recordCount] = kind;
+        offsets[recordCount] = offset;
+        textStarts[recordCount + 1] = start + text.length();
+        recordCount++;
+        groupStarts[groupCount] = recordCount;
+    }
+
+    private void appendChar(char c) {
+        int end = textStarts[recordCount];
+        ensureChars(end + 1);
+        chars[end] = c;
+        textStarts[recordCount] = end + 1;
+    }
+
+    private void ensureChars(int capacity) {
+        if (capacity > chars.length) chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+    }
+
+    private int length(int record) {
+        return textStarts[record + 1] - textStarts[record];
+    }
+
+    private String text(int record) {
+        return new String(chars, textStarts[record], length(record));
+    }
+
+    // Spills the oldest done groups until half the budget is free. The newest group stays
+    // in memory for typing to extend, unless it alone is still over the budget.
+    private void trimMemory() {
+        long memory = getMemoryBytes();
+        if (memory <= memoryLimit || applied == 0) return;
+        int count = 0;
+        long freed = 0;
+        while (count < applied && memory - freed > memoryLimit / 2) {
+            if (count == applied - 1 && memory - freed <= memoryLimit) break;
+            int first = groupStarts[count];
+            int end = groupStarts[count + 1];
+            freed += (textStarts[end] - textStarts[first]) * 2L + (long) (end - first) * RECORD_BYTES + 4;
+            count++;
+        }
+        try {
+            writeBlock(count);
+        } catch (IOException e) {
+            // Without the temp file everything older than memory is dropped instead
+            e.printStackTrace();
+            blockCount = 0;
+        }
+        if (count == applied) open = false;
+        dropOldest(count);
+        shrink();
+    }
+
+    private void writeBlock(int count) throws IOException {
+        if (spill == null) {
+            spillPath = Files.createTempFile("jscn-undo", ".tmp");
+            spillPath.toFile().deleteOnExit();
+            spill = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        long position = spill.size();
+        int records = groupStarts[count];
+        ByteBuffer header = ByteBuffer.allocate(8 + count * 4 + records * RECORD_BYTES);
+        header.putInt(count).putInt(records);
+        for (int g = 0; g < count; g++) {
+            header.putInt(groupStarts[g + 1]);
+        }
+        for (int r = 0; r < records; r++) {
+            header.put(kinds[r]).putInt(offsets[r]).putInt(length(r));
+        }
+        header.flip();
+        long written = position;
+        while (header.hasRemaining()) written += spill.write(header, written);
+        ByteBuffer chunk = ByteBuffer.allocate(SPILL_CHUNK_CHARS * 2);
+        for (int from = 0, end = textStarts[records]; from < end; from += SPILL_CHUNK_CHARS) {
+            chunk.clear();
+            chunk.asCharBuffer().put(chars, from, Math.min(SPILL_CHUNK_CHARS, end - from));
+            chunk.limit(Math.min(SPILL_CHUNK_CHARS, end - from) * 2);
+            while (chunk.hasRemaining()) written += spill.write(chunk, written);
+        }
+        if (blockCount == blocks.length) blocks = Arrays.copyOf(blocks, blockCount * 2);
+        blocks[blockCount++] = position;
+    }
+
+    // Reads the newest spilled block back in front of the in-memory groups
+    private boolean loadBlock() {
+        if (blockCount == 0) return false;
+        long position = blocks[blockCount - 1];
+        try {
+            ByteBuffer block = ByteBuffer.allocate((int) (spill.size() - position));
+            while (block.hasRemaining() && spill.read(block, position + block.position()) >= 0) { }
+            block.flip();
+            int count = block.getInt();
+            int records = block.getInt();
+            int[] loadedGroups = new int[count + 1];
+            for (int g = 1; g <= count; g++) {
+                loadedGroups[g] = block.getInt();
+            }
+            byte[] loadedKinds = new byte[records];
+            int[] loadedOffsets = new int[records];
+            int[] loadedStarts = new int[records + 1];
+            for (int r = 0; r < records; r++) {
+                loadedKinds[r] = block.get();
+                loadedOffsets[r] = block.getInt();
+                loadedStarts[r + 1] = loadedStarts[r] + block.getInt();
+            }
+            char[] loadedChars = new char[loadedStarts[records]];
+            block.asCharBuffer().get(loadedChars);
+
+            prepend(count, records, loadedGroups, loadedKinds, loadedOffsets, loadedStarts, loadedChars);
+            spill.truncate(position);
+            blockCount--;
+            spilledGroups -= count;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            blockCount = 0;
+            return false;
+        }
+    }
+
+    private void prepend(int count, int records, int[] loadedGroups, byte[] loadedKinds, int[] loadedOffsets,
+                         int[] loadedStarts, char[] loadedChars) {
+        int textLength = textStarts[recordCount];
+        int charCount = loadedChars.length;
+
+        byte[] newKinds = new byte[Math.max(64, records + recordCount + 1)];
+        int[] newOffsets = new int[newKinds.length];
+        int[] newStarts = new int[newKinds.length + 1];
+        System.arraycopy(loadedKinds, 0, newKinds, 0, records);
+        System.arraycopy(kinds, 0, newKinds, records, recordCount);
+        System.arraycopy(loadedOffsets, 0, newOffsets, 0, records);
+        System.arraycopy(offsets, 0, newOffsets, records, recordCount);
+        System.arraycopy(loadedStarts, 0, newStarts, 0, records);
+        for (int r = 0; r <= recordCount; r++) {
+            newStarts[records + r] = textStarts[r] + charCount;
+        }
+
+        char[] newChars = new char[Math.max(1024, charCount + textLength)];
+        System.arraycopy(loadedChars, 0, newChars, 0, charCount);
+        System.arraycopy(chars, 0, newChars, charCount, textLength);
+
+        int[] newGroups = new int[Math.max(65, count + groupCount + 2)];
+        System.arraycopy(loadedGroups, 0, newGroups, 0, count);
+        for (int g = 0; g <= groupCount; g++) {
+            newGroups[count + g] = groupStarts[g] + records;
+        }
+
+        kinds = newKinds;
+        offsets = newOffsets;
+        textStarts = newStarts;
+        chars = newChars;
+        groupStarts = newGroups;
+        recordCount += records;
+        groupCount += count;
+        applied += count;
+    }
+
+    private void dropOldest(int count) {
+        int records = groupStarts[count];
+        int charCount = textStarts[records];
+        int textLength = textStarts[recordCount];
+        System.arraycopy(kinds, records, kinds, 0, recordCount - records);
+        System.arraycopy(offsets, records, offsets, 0, recordCount - records);
+        for (int r = records; r <= recordCount; r++) {
+            textStarts[r - records] = textStarts[r] - charCount;
+        }
+        System.arraycopy(chars, charCount, chars, 0, textLength - charCount);
+        for (int g = count; g <= groupCount; g++) {
+            groupStarts[g - count] = groupStarts[g] - records;
+        }
+        recordCount -= records;
+        groupCount -= count;
+        applied -= count;
+        spilledGroups += count;
+    }
+
+    // Gives back buffers that a large paste or a loaded block left mostly empty
+    private void shrink() {
+        int textLength = textStarts[recordCount];
+        if (chars.length > 4096 && chars.length > textLength * 4L) {
+            chars = Arrays.copyOf(chars, Math.max(1024, textLength * 2));
+        }
+        if (kinds.length > 256 && kinds.length > recordCount * 4L) {
+            int capacity = Math.max(64, recordCount * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            textStarts = Arrays.copyOf(textStarts, capacity + 1);
+        }
+    }
+}